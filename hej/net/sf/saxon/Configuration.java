@@ -11,6 +11,7 @@ import net.sf.saxon.expr.parser.PathMap;
 import net.sf.saxon.functions.FunctionLibraryList;
 import net.sf.saxon.functions.IntegratedFunctionLibrary;
 import net.sf.saxon.functions.VendorFunctionLibrary;
+import net.sf.saxon.functions.regex.RegexCache;
 import net.sf.saxon.lib.*;
 import net.sf.saxon.om.*;
 import net.sf.saxon.pull.PullSource;
@@ -22,6 +23,7 @@ import net.sf.saxon.sxpath.IndependentContext;
 import net.sf.saxon.trace.TraceCodeInjector;
 import net.sf.saxon.trace.XSLTTraceCodeInjector;
 import net.sf.saxon.trans.*;
+import net.sf.saxon.tree.tiny.TinyBuilder;
 import net.sf.saxon.tree.util.DocumentNumberAllocator;
 import net.sf.saxon.type.*;
 import net.sf.saxon.value.*;
@@ -129,11 +131,17 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
     private boolean allowExternalFunctions = true;
     private boolean traceExternalFunctions = false;
     private boolean useTypedValueCache = true;
+    private boolean useByteSerializer = false;
     private boolean lazyConstructionMode = false;
-    private boolean allowMultiThreading = false;
+    private boolean allowMultiThreading = true;
     private boolean preEvaluateDocFunction = false;
+    private boolean retainKeyIndexes = false;
+    private int regexCacheSize = 1000;
+    private int collectionThreads = 1;
+    private transient volatile RegexCache regexCache;
     private boolean useDisableOutputEscaping = false;
     private boolean generateByteCode = false;
+    private boolean inlineFunctions = true;
     private NamePool namePool = new NamePool();
     private DocumentNumberAllocator documentNumberAllocator = new DocumentNumberAllocator();
     private DocumentPool globalDocumentPool = new DocumentPool();
@@ -885,8 +893,7 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
      * if explicitly requested using the <code>saxon:threads</code> attribute of <code>xsl:for-each</code>.
      * However, it can be disabled by setting this option to false.
      *
-     * @param multithreading true if multithreading optimizations are allowed. Default is true for Saxon-EE,
-     *                       false for Saxon-HE and Saxon-PE
+     * @param multithreading true if multithreading optimizations are allowed. Default is true
      */
 
     public void setMultiThreading(boolean multithreading) {
@@ -1088,6 +1095,32 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         defaultParseOptions.setLineNumbering(lineNumbering);
     }
 
+    /**
+     * Determine whether source documents built as a TinyTree will hold a summary of the names
+     * of the elements contained by each element, which is used to skip subtrees when searching
+     * the child and descendant axes for elements with a given name.
+     *
+     * @return true if the name summary is built for source documents
+     * @since 9.4
+     */
+
+    public boolean isTinyTreeNameSummary() {
+        return defaultParseOptions.isTinyTreeNameSummary();
+    }
+
+    /**
+     * Say whether source documents built as a TinyTree are to hold a summary of the names
+     * of the elements contained by each element. The summary costs eight bytes per node, and
+     * speeds up searches for named elements on the child and descendant axes. The default is false.
+     *
+     * @param summary true if the name summary is to be built for source documents
+     * @since 9.4
+     */
+
+    public void setTinyTreeNameSummary(boolean summary) {
+        defaultParseOptions.setTinyTreeNameSummary(summary);
+    }
+
     /**
      * Set whether or not source documents (including stylesheets and schemas) are have
      * XInclude processing applied to them, or not. Default is false.
@@ -1465,6 +1498,37 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         return collectionResolver;
     }
 
+    /**
+     * Set the number of threads used by the standard collection URI resolver to parse the documents
+     * in a collection that maps to a directory. If the value is greater than one, the documents are parsed
+     * by a pool of worker threads ahead of the point where they are consumed; they are still delivered in
+     * the same order as when parsing serially. The default is 1, which means that each document is parsed
+     * when it is first needed. The value can be overridden for an individual collection using the query
+     * parameter <code>threads=N</code> in the collection URI.
+     *
+     * @param threads the number of threads to be used for parsing the documents in a collection
+     * @since 9.4
+     */
+
+    public void setCollectionThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("COLLECTION_THREADS must be at least 1");
+        }
+        collectionThreads = threads;
+    }
+
+    /**
+     * Get the number of threads used by the standard collection URI resolver to parse the documents
+     * in a collection that maps to a directory
+     *
+     * @return the number of threads to be used for parsing the documents in a collection
+     * @since 9.4
+     */
+
+    public int getCollectionThreads() {
+        return collectionThreads;
+    }
+
     /**
      * Set the localizer factory to be used
      *
@@ -1830,6 +1894,34 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         return serializerFactory;
     }
 
+    /**
+     * Say whether the XML output method should use a serializer that escapes special characters and
+     * encodes the output into bytes in a single pass, rather than writing characters to a
+     * <code>java.io.Writer</code>. This applies only when the output is written to an OutputStream
+     * or file (rather than to a Writer supplied by the application), and when the output encoding is
+     * UTF-8 or US-ASCII; in other cases the standard serializer is used. The output is the same
+     * in either case. The default is false.
+     *
+     * @param use true if the byte-oriented serializer is to be used where possible
+     * @since 9.4
+     */
+
+    public void setUseByteSerializer(boolean use) {
+        useByteSerializer = use;
+    }
+
+    /**
+     * Ask whether the XML output method should use a serializer that escapes special characters and
+     * encodes the output into bytes in a single pass, where the destination and encoding permit.
+     *
+     * @return true if the byte-oriented serializer is to be used where possible
+     * @since 9.4
+     */
+
+    public boolean isUseByteSerializer() {
+        return useByteSerializer;
+    }
+
     /**
      * Get the CharacterSetFactory. Note: at present this cannot be changed.
      *
@@ -2038,17 +2130,18 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
     }
 
     /**
-     * Create a document projector for a given path map. Document projection is available only
-     * in Saxon-EE, so the Saxon-B version of this method throws an exception
+     * Create a document projector for a given path map. The projector is a push filter that
+     * discards nodes of the source document that the path map shows can never be reached.
+     * The caller is responsible for checking that projection is possible, that is, that the
+     * path map root has no unknown dependencies.
      *
-     * @param map the path map used to control document projection
+     * @param map the path map used to control document projection. This must contain downwards
+     * axes only (see {@link PathMap#reduceToDownwardsAxes})
      * @return a push filter that implements document projection
-     * @throws UnsupportedOperationException if this is not a schema-aware configuration, or
-     *                                       if no Saxon-EE license is available
      */
 
     public FilterFactory makeDocumentProjector(PathMap.PathMapRoot map) {
-        throw new UnsupportedOperationException("Document projection requires Saxon-EE");
+        return PathMapFilter.makeFactory(map);
     }
 
     /**
@@ -2269,6 +2362,93 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         return globalDocumentPool;
     }
 
+    /**
+     * Ask whether indexes built to support the key() function (and other indexes managed by the
+     * {@link net.sf.saxon.trans.KeyManager}) should be retained for as long as the indexed document
+     * remains in memory, so that they can be reused by subsequent transformations or queries using
+     * the same compiled stylesheet or query.
+     *
+     * @return true if key indexes are retained beyond the end of the transformation that built them
+     * @since 9.4
+     */
+
+    public boolean isRetainKeyIndexes() {
+        return retainKeyIndexes;
+    }
+
+    /**
+     * Say whether indexes built to support the key() function should be retained for as long as the
+     * indexed document remains in memory. By default, an index on a document that was loaded by a
+     * transformation is discarded when the transformation ends (more precisely, when its Controller is
+     * garbage collected or its document pool is cleared). Setting this option is useful when the same
+     * large lookup documents (for example documents held in the {@link #getGlobalDocumentPool global
+     * document pool}, or source documents cached by the application) are used by many transformations
+     * using the same compiled stylesheet. The cost is that the memory used by the indexes is not released
+     * until the document itself is released.
+     *
+     * @param retain true if key indexes are to be retained beyond the end of the transformation that built them
+     * @since 9.4
+     */
+
+    public void setRetainKeyIndexes(boolean retain) {
+        retainKeyIndexes = retain;
+    }
+
+    /**
+     * Get the cache of compiled regular expressions. This is used by the functions matches(), replace()
+     * and tokenize(), and by the xsl:analyze-string instruction, when the regular expression or flags are
+     * not known until run-time. The cache holds statistics of hits and misses, which can be used to
+     * establish whether the cache is large enough.
+     *
+     * @return the regular expression cache for this configuration
+     * @since 9.4
+     */
+
+    public RegexCache getRegexCache() {
+        RegexCache cache = regexCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = regexCache;
+                if (cache == null) {
+                    // the field is transient, so it is null after deserialization
+                    regexCache = cache = new RegexCache(regexCacheSize);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Set the maximum number of compiled regular expressions to be held in the cache used for
+     * regular expressions supplied at run-time. The default is 1000. A value of zero disables caching.
+     *
+     * @param size the maximum number of compiled regular expressions held in the cache
+     * @since 9.4
+     */
+
+    public void setRegexCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("REGEX_CACHE_SIZE must not be negative");
+        }
+        regexCacheSize = size;
+        RegexCache cache = regexCache;
+        if (cache != null) {
+            cache.setCapacity(size);
+        }
+    }
+
+    /**
+     * Get the maximum number of compiled regular expressions to be held in the cache used for
+     * regular expressions supplied at run-time
+     *
+     * @return the maximum number of compiled regular expressions held in the cache
+     * @since 9.4
+     */
+
+    public int getRegexCacheSize() {
+        return regexCacheSize;
+    }
+
     /**
      * Determine whether whitespace-only text nodes are to be stripped unconditionally
      * from source documents.
@@ -3512,6 +3692,9 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         Builder builder = treeModel.makeBuilder(pipe);
         builder.setTiming(isTiming());
         builder.setLineNumbering(lineNumbering);
+        if (builder instanceof TinyBuilder && options.isTinyTreeNameSummarySet()) {
+            ((TinyBuilder)builder).setNameSummary(options.isTinyTreeNameSummary());
+        }
         builder.setPipelineConfiguration(pipe);
         Sender.send(source, builder, options);
 
@@ -3642,6 +3825,13 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
             setCollationURIResolver(
                     (CollationURIResolver) instantiateClassName(name, value, CollationURIResolver.class));
 
+        } else if (name.equals(FeatureKeys.COLLECTION_THREADS)) {
+            try {
+                setCollectionThreads(value instanceof Integer ? (Integer)value : Integer.parseInt(requireString(name, value)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("COLLECTION_THREADS value must be an Integer, or a number represented as a string");
+            }
+
         } else if (name.equals(FeatureKeys.COLLECTION_URI_RESOLVER)) {
             if (!(value instanceof CollectionURIResolver)) {
                 throw new IllegalArgumentException(
@@ -3656,6 +3846,9 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         } else if (name.equals(FeatureKeys.GENERATE_BYTE_CODE)) {
             generateByteCode = requireBoolean("GENERATE_BYTE_CODE", value);
 
+        } else if (name.equals(FeatureKeys.INLINE_FUNCTIONS)) {
+            setInlineFunctions(requireBoolean("INLINE_FUNCTIONS", value));
+
         } else if (name.equals(FeatureKeys.COMPILE_WITH_TRACING)) {
             boolean b = requireBoolean("COMPILE_WITH_TRACING", value);
             setCompileWithTracing(b);
@@ -3773,6 +3966,16 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         } else if (name.equals(FeatureKeys.PREFER_JAXP_PARSER)) {
             preferJaxpParser = requireBoolean("PREFER_JAXP_PARSER", value);
 
+        } else if (name.equals(FeatureKeys.REGEX_CACHE_SIZE)) {
+            try {
+                setRegexCacheSize(value instanceof Integer ? (Integer)value : Integer.parseInt(requireString(name, value)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("REGEX_CACHE_SIZE value must be an Integer, or a number represented as a string");
+            }
+
+        } else if (name.equals(FeatureKeys.RETAIN_KEY_INDEXES)) {
+            retainKeyIndexes = requireBoolean("RETAIN_KEY_INDEXES", value);
+
         } else if (name.equals(FeatureKeys.RECOGNIZE_URI_QUERY_PARAMETERS)) {
             boolean b = requireBoolean(name, value);
             getSystemURIResolver().setRecognizeQueryParameters(b);
@@ -3873,6 +4076,9 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         } else if (name.equals(FeatureKeys.TIMING)) {
             setTiming(requireBoolean(name, value));
 
+        } else if (name.equals(FeatureKeys.TINY_TREE_NAME_SUMMARY)) {
+            setTinyTreeNameSummary(requireBoolean(name, value));
+
         } else if (name.equals(FeatureKeys.TRACE_EXTERNAL_FUNCTIONS)) {
             setTraceExternalFunctions(requireBoolean(name, value));
 
@@ -3915,6 +4121,9 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
             setURIResolver(
                     (URIResolver) instantiateClassName(name, value, URIResolver.class));
 
+        } else if (name.equals(FeatureKeys.USE_BYTE_SERIALIZER)) {
+            setUseByteSerializer(requireBoolean(name, value));
+
         } else if (name.equals(FeatureKeys.USE_PI_DISABLE_OUTPUT_ESCAPING)) {
             useDisableOutputEscaping = requireBoolean(name, value);
 
@@ -4123,6 +4332,9 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         } else if (name.equals(FeatureKeys.COLLATION_URI_RESOLVER_CLASS)) {
             return getCollationURIResolver().getClass().getName();
 
+        } else if (name.equals(FeatureKeys.COLLECTION_THREADS)) {
+            return collectionThreads;
+
         } else if (name.equals(FeatureKeys.COLLECTION_URI_RESOLVER)) {
             return getCollectionURIResolver();
 
@@ -4132,6 +4344,9 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         } else if (name.equals(FeatureKeys.GENERATE_BYTE_CODE)) {
             return generateByteCode;
 
+        } else if (name.equals(FeatureKeys.INLINE_FUNCTIONS)) {
+            return isInlineFunctions();
+
         } else if (name.equals(FeatureKeys.COMPILE_WITH_TRACING)) {
             return isCompileWithTracing();
 
@@ -4200,6 +4415,12 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         } else if (name.equals(FeatureKeys.PREFER_JAXP_PARSER)) {
             return preferJaxpParser;
 
+        } else if (name.equals(FeatureKeys.REGEX_CACHE_SIZE)) {
+            return regexCacheSize;
+
+        } else if (name.equals(FeatureKeys.RETAIN_KEY_INDEXES)) {
+            return retainKeyIndexes;
+
         } else if (name.equals(FeatureKeys.RECOGNIZE_URI_QUERY_PARAMETERS)) {
             return getSystemURIResolver().queryParametersAreRecognized();
 
@@ -4255,6 +4476,9 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         } else if (name.equals(FeatureKeys.TIMING)) {
             return isTiming();
 
+        } else if (name.equals(FeatureKeys.TINY_TREE_NAME_SUMMARY)) {
+            return isTinyTreeNameSummary();
+
         } else if (name.equals(FeatureKeys.TRACE_LISTENER)) {
             return traceListener;
 
@@ -4284,6 +4508,9 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
         } else if (name.equals(FeatureKeys.URI_RESOLVER_CLASS)) {
             return getURIResolver().getClass().getName();
 
+        } else if (name.equals(FeatureKeys.USE_BYTE_SERIALIZER)) {
+            return useByteSerializer;
+
         } else if (name.equals(FeatureKeys.USE_PI_DISABLE_OUTPUT_ESCAPING)) {
             return useDisableOutputEscaping;
 
@@ -4421,11 +4648,11 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
     }
 
     /**
-     * Say whether bytecode should be generated. The default setting
-     * is true in Saxon Enterprise Edition and false in all other cases. Setting the option to
-     * true has no effect if Saxon-EE is not available. Setting the option to false in Saxon-EE
-     * is permitted if for some reason bytecode generation is to be suppressed (one possible reason
-     * is to improve compilation performance at the expense of evaluation performance).
+     * Say whether bytecode should be generated. The default setting is false. In Saxon-HE, no Java
+     * bytecode is generated: instead, arithmetic, comparison and boolean expressions are compiled
+     * into specialized evaluators (see {@link net.sf.saxon.expr.compiler.ExpressionCompiler}).
+     * Setting the option to false suppresses this, for example to improve compilation performance
+     * at the expense of evaluation performance, or to simplify diagnosis of problems.
      *
      * @param compileToBytecode true to switch the option on
      */
@@ -4435,21 +4662,37 @@ public class Configuration implements Serializable, SourceResolver, NotationSet
     }
 
     /**
-     * Ask whether bytecode should be generated. The default setting
-     * is true in Saxon Enterprise Edition and false in all other cases. Setting the option to
-     * true has no effect if Saxon-EE is not available (but if it is set to true, this method will
-     * return true). Setting the option to false in Saxon-EE
-     * is permitted if for some reason bytecode generation is to be suppressed (one possible reason
-     * is to improve compilation performance at the expense of evaluation performance).
+     * Ask whether bytecode should be generated. The default setting is false. In Saxon-HE, no Java
+     * bytecode is generated: instead, arithmetic, comparison and boolean expressions are compiled
+     * into specialized evaluators (see {@link net.sf.saxon.expr.compiler.ExpressionCompiler}).
+     * The option is always off if the optimization level is below the maximum.
      * @param hostLanguage one of XSLT or XQUERY
      * @return true if the option is switched on
      */
 
     public boolean isGenerateByteCode(int hostLanguage) {
-        return generateByteCode &&
-                isLicensedFeature(hostLanguage == XSLT ?
-                        LicenseFeature.ENTERPRISE_XSLT :
-                        LicenseFeature.ENTERPRISE_XQUERY);
+        return generateByteCode && optimizationLevel >= Optimizer.FULL_OPTIMIZATION;
+    }
+
+    /**
+     * Say whether calls on small non-recursive user-defined functions should be inlined by the optimizer.
+     * The default is true.
+     *
+     * @param inline true if function calls may be inlined; false to suppress this optimization
+     */
+
+    public void setInlineFunctions(boolean inline) {
+        this.inlineFunctions = inline;
+    }
+
+    /**
+     * Ask whether calls on small non-recursive user-defined functions should be inlined by the optimizer.
+     *
+     * @return true if function calls may be inlined (the default)
+     */
+
+    public boolean isInlineFunctions() {
+        return inlineFunctions;
     }
 
     /**
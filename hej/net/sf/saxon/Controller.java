@@ -12,6 +12,7 @@ import net.sf.saxon.om.*;
 import net.sf.saxon.serialize.Emitter;
 import net.sf.saxon.serialize.ImplicitResultChecker;
 import net.sf.saxon.trace.Location;
+import net.sf.saxon.trace.SamplingProfiler;
 import net.sf.saxon.trace.TraceEventMulticaster;
 import net.sf.saxon.trans.*;
 import net.sf.saxon.tree.iter.SingletonIterator;
@@ -28,6 +29,7 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The Controller is Saxon's implementation of the JAXP Transformer class, and represents
@@ -76,6 +78,8 @@ public class Controller extends Transformer {
     private PreparedStylesheet preparedStylesheet;
     /*@Nullable*/ private TraceListener traceListener;
     private boolean tracingPaused;
+    /*@Nullable*/ private SamplingProfiler samplingProfiler;
+    /*@Nullable*/ private ExecutorService multithreadingExecutor;
     private PrintStream traceFunctionDestination;
     private URIResolver standardURIResolver;
     private URIResolver userURIResolver;
@@ -506,7 +510,7 @@ public class Controller extends Transformer {
      * This method is intended for internal use only.
      */
 
-    public boolean checkUniqueOutputDestination(/*@Nullable*/ DocumentURI uri) {
+    public synchronized boolean checkUniqueOutputDestination(/*@Nullable*/ DocumentURI uri) {
         if (uri == null) {
             return true;    // happens when writing say to an anonymous StringWriter
         }
@@ -523,7 +527,7 @@ public class Controller extends Transformer {
      * @param uri A URI that is not available as an output destination
      */
 
-    public void addUnavailableOutputDestination(DocumentURI uri) {
+    public synchronized void addUnavailableOutputDestination(DocumentURI uri) {
         if (allOutputDestinations == null) {
             allOutputDestinations = new HashSet<DocumentURI>(20);
         }
@@ -536,7 +540,7 @@ public class Controller extends Transformer {
      * @param uri A URI that is being made available as an output destination
      */
 
-    public void removeUnavailableOutputDestination(DocumentURI uri) {
+    public synchronized void removeUnavailableOutputDestination(DocumentURI uri) {
         if (allOutputDestinations != null) {
             allOutputDestinations.remove(uri);
         }
@@ -553,7 +557,7 @@ public class Controller extends Transformer {
      * it may return different results for the same URI at different points in the transformation.
      */
 
-    public boolean isUnusedOutputDestination(DocumentURI uri) {
+    public synchronized boolean isUnusedOutputDestination(DocumentURI uri) {
         return allOutputDestinations == null || !allOutputDestinations.contains(uri);
     }
 
@@ -926,10 +930,14 @@ public class Controller extends Transformer {
      * This is sometimes useful when re-using the same Transformer
      * for a sequence of transformations, but it isn't done automatically, because when
      * the transformations use common look-up documents, the caching is beneficial.
+     * Any indexes built for the documents in the pool are discarded, unless the configuration
+     * option {@link net.sf.saxon.lib.FeatureKeys#RETAIN_KEY_INDEXES} is set.
      */
 
     public void clearDocumentPool() {
-        sourceDocumentPool.discardIndexes(getKeyManager());
+        if (!config.isRetainKeyIndexes()) {
+            sourceDocumentPool.discardIndexes(getKeyManager());
+        }
         sourceDocumentPool = new DocumentPool();
     }
 
@@ -1517,6 +1525,55 @@ public class Controller extends Transformer {
         traceListener = TraceEventMulticaster.remove(traceListener, trace);
     }
 
+    /**
+     * Set a sampling profiler. If a sampling profiler is registered, templates, functions and global
+     * variables notify it on entry and exit, so that it can determine the current context stack at any
+     * time. Unlike a {@link TraceListener}, this requires no instrumentation of the compiled stylesheet or
+     * query. The profiler must be started and stopped by the caller, using
+     * {@link SamplingProfiler#start()} and {@link SamplingProfiler#stop()}.
+     * @param profiler the sampling profiler, or null to remove any existing profiler
+     * @since 9.4
+     */
+
+    public void setSamplingProfiler(/*@Nullable*/ SamplingProfiler profiler) {
+        this.samplingProfiler = profiler;
+    }
+
+    /**
+     * Get the sampling profiler, if any
+     * @return the sampling profiler registered using {@link #setSamplingProfiler}, or null if there is none
+     * @since 9.4
+     */
+
+    /*@Nullable*/ public SamplingProfiler getSamplingProfiler() {
+        return samplingProfiler;
+    }
+
+    /**
+     * Get the pool of worker threads used for multi-threaded execution of xsl:for-each instructions
+     * having a <code>saxon:threads</code> attribute. The pool is created when first needed and is shared
+     * by all such instructions executed under this Controller; each instruction limits the number of
+     * items it has in progress at any one time. Threads are created as required, and terminate when they
+     * have been idle for a few seconds.
+     * @return the thread pool
+     * @since 9.4
+     */
+
+    public synchronized ExecutorService getMultithreadingExecutor() {
+        if (multithreadingExecutor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 5, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "saxon:threads");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            multithreadingExecutor = pool;
+        }
+        return multithreadingExecutor;
+    }
+
     /**
      * Set the destination for output from the fn:trace() function.
      * By default, the destination is System.err. If a TraceListener is in use,
@@ -1786,6 +1843,10 @@ public class Controller extends Transformer {
                     if (executable.stripsInputTypeAnnotations()) {
                         r = config.getAnnotationStripper(r);
                     }
+                    FilterFactory projector = getDocumentProjector();
+                    if (projector != null) {
+                        r = projector.makeFilter(r);
+                    }
                     r.setPipelineConfiguration(sourceBuilder.getPipelineConfiguration());
                     Sender.send(source, r, null);
                     if (close) {
@@ -2233,7 +2294,10 @@ public class Controller extends Transformer {
             Iterator<GlobalVariable> iter = vars.values().iterator();
             while (iter.hasNext()) {
                 GlobalVariable var = iter.next();
-                var.evaluateVariable(context);
+                if (!NamespaceConstant.SAXON_GENERATED_GLOBAL.equals(var.getVariableQName().getURI())) {
+                    // variables created by the optimizer are evaluated only when (and if) they are needed
+                    var.evaluateVariable(context);
+                }
             }
         }
     }
@@ -2457,7 +2521,9 @@ public class Controller extends Transformer {
 
     /**
      * Indicate whether document projection should be used, and supply the PathMap used to control it.
-     * Note: this is available only under Saxon-EE.
+     * If a path map is supplied, source documents built by the Controller (the principal source document,
+     * and documents loaded using doc() or document() with a literal URI) are projected: nodes that the
+     * path map shows to be unreachable are discarded while the tree is being built.
      * @param pathMap a path map to be used for projecting source documents
      */
 
@@ -2474,6 +2540,30 @@ public class Controller extends Transformer {
         return pathMap;
     }
 
+    /**
+     * Get a filter to perform document projection on the principal source document, if document projection
+     * has been requested using {@link #setUseDocumentProjection}. No projection takes place if the path map
+     * shows that the whole document might be needed, for example because nodes are passed to functions whose
+     * navigation cannot be analyzed.
+     * @return a factory for the projection filter, or null if no projection is to take place
+     */
+
+    /*@Nullable*/ public FilterFactory getDocumentProjector() {
+        if (pathMap == null) {
+            return null;
+        }
+        PathMap.PathMapRoot contextRoot;
+        try {
+            contextRoot = pathMap.getContextDocumentRoot();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+        if (contextRoot == null || contextRoot.isReturnable() || contextRoot.hasUnknownDependencies()) {
+            return null;
+        }
+        return config.makeDocumentProjector(contextRoot);
+    }
+
     /**
      * Set a ClassLoader to be used when loading external classes. Examples of classes that are
      * loaded include SAX parsers, localization modules for formatting numbers and dates,
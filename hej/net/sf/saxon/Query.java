@@ -12,6 +12,7 @@ import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.query.*;
 import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trace.SamplingProfiler;
 import net.sf.saxon.trace.TimingCodeInjector;
 import net.sf.saxon.trace.TimingTraceListener;
 import net.sf.saxon.trace.XQueryTraceListener;
@@ -65,6 +66,8 @@ public class Query {
     protected boolean writeback = false;
     protected boolean backup = true;
     /*@Nullable*/ protected String explainOutputFileName = null;
+    /*@Nullable*/ protected SamplingProfiler samplingProfiler = null;
+    /*@Nullable*/ protected String profileFileName = null;
     //private PrintStream traceDestination = System.err;
     private boolean closeTraceDestination = false;
 
@@ -121,6 +124,8 @@ public class Query {
                 "Display compiled expression tree and optimization decisions");
         options.addRecognizedOption("ext", CommandLineOptions.TYPE_BOOLEAN,
                 "Allow calls to Java extension functions and xsl:result-document");
+        options.addRecognizedOption("generateByteCode", CommandLineOptions.TYPE_BOOLEAN,
+                "Compile expressions for faster evaluation (default off)");
         options.addRecognizedOption("init", CommandLineOptions.TYPE_CLASSNAME,
                 "User-supplied net.sf.saxon.lib.Initializer class to initialize the Saxon Configuration");
         options.addRecognizedOption("l", CommandLineOptions.TYPE_BOOLEAN,
@@ -172,6 +177,8 @@ public class Query {
                 "Use specified tree model for source documents");
         options.addRecognizedOption("TP", CommandLineOptions.TYPE_FILENAME,
         "Use profiling trace listener, with specified output file");
+        options.addRecognizedOption("TS", CommandLineOptions.TYPE_FILENAME,
+                "Use sampling profiler, writing folded stacks to specified output file");
         options.addRecognizedOption("traceout", CommandLineOptions.TYPE_FILENAME | CommandLineOptions.VALUE_REQUIRED,
                 "File for output of trace() and -T output");
         options.setPermittedValues("tree", new String[]{"linked","tiny","tinyc"}, null);
@@ -373,6 +380,9 @@ public class Query {
                         destination = System.out;
                     }
 
+                    if (samplingProfiler != null) {
+                        samplingProfiler.start();
+                    }
                     runQuery(exp, dynamicEnv, destination, outputProperties);
                 } catch (TerminationException err) {
                     throw err;
@@ -383,6 +393,10 @@ public class Query {
                     } else {
                         throw err;
                     }
+                } finally {
+                    if (samplingProfiler != null) {
+                        samplingProfiler.stop();
+                    }
                 }
 
                 if (showTime) {
@@ -406,6 +420,10 @@ public class Query {
                         CommandLineOptions.showExecutionTimeNano((totalTime / (r - 3))));
             }
 
+            if (samplingProfiler != null) {
+                writeSamplingProfile();
+            }
+
         } catch (TerminationException err) {
             quit(err.getMessage(), 1);
         } catch (XPathException err) {
@@ -542,6 +560,12 @@ public class Query {
             }
         }
 
+        profileFileName = options.getOptionValue("TS");
+        if (profileFileName != null) {
+            samplingProfiler = new SamplingProfiler();
+            dynamicEnv.setSamplingProfiler(samplingProfiler);
+        }
+
         value = options.getOptionValue("u");
         if (value != null) {
             useURLs = "on".equals(value);
@@ -864,6 +888,21 @@ public class Query {
         }                     
     }
 
+    /**
+     * Write the results of the sampling profiler: a summary report to the standard error output,
+     * and the folded stacks to the file named in the -TS option, if any
+     * @throws IOException if the file cannot be written
+     */
+
+    protected void writeSamplingProfile() throws IOException {
+        samplingProfiler.writeReport(config.getStandardErrorOutput());
+        if (profileFileName != null && profileFileName.length() > 0) {
+            PrintStream out = new PrintStream(new FileOutputStream(new File(profileFileName)), false, "UTF-8");
+            samplingProfiler.writeFoldedStacks(out);
+            out.close();
+        }
+    }
+
     /**
      * Exit with a message
      *
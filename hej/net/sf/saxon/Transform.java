@@ -6,6 +6,7 @@ import net.sf.saxon.lib.FeatureKeys;
 import net.sf.saxon.lib.TraceListener;
 import net.sf.saxon.trace.AbstractTraceListener;
 import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trace.SamplingProfiler;
 import net.sf.saxon.trace.TimingCodeInjector;
 import net.sf.saxon.trace.TimingTraceListener;
 import net.sf.saxon.trans.CommandLineOptions;
@@ -51,6 +52,7 @@ public class Transform {
     protected boolean useURLs = false;
     protected boolean showTime = false;
     protected int repeat = 1;
+    /*@Nullable*/ protected SamplingProfiler samplingProfiler = null;
     /*@Nullable*/ String sourceParserName = null;
     boolean schemaAware = false;
 
@@ -97,6 +99,8 @@ public class Transform {
                 "Display compiled expression tree and optimization decisions");
         options.addRecognizedOption("ext", CommandLineOptions.TYPE_BOOLEAN,
                 "Allow calls to Java extension functions and xsl:result-document");
+        options.addRecognizedOption("generateByteCode", CommandLineOptions.TYPE_BOOLEAN,
+                "Compile expressions for faster evaluation (default off)");
         options.addRecognizedOption("im", CommandLineOptions.TYPE_QNAME | CommandLineOptions.VALUE_REQUIRED,
                 "Name of initial mode");
         options.addRecognizedOption("init", CommandLineOptions.TYPE_CLASSNAME,
@@ -140,6 +144,8 @@ public class Transform {
         options.setPermittedValues("TJ", new String[]{"on","off"}, "on");
         options.addRecognizedOption("TP", CommandLineOptions.TYPE_FILENAME,
                 "Use profiling trace listener, with specified output file");
+        options.addRecognizedOption("TS", CommandLineOptions.TYPE_FILENAME,
+                "Use sampling profiler, writing folded stacks to specified output file");
           options.addRecognizedOption("threads", CommandLineOptions.TYPE_INTEGER | CommandLineOptions.VALUE_REQUIRED,
                 "Run stylesheet on directory of files divided in N threads");
         options.addRecognizedOption("tree", CommandLineOptions.TYPE_ENUMERATION | CommandLineOptions.VALUE_REQUIRED,
@@ -372,6 +378,11 @@ public class Transform {
                 }
             }
 
+            String profileFileName = options.getOptionValue("TS");
+            if (profileFileName != null) {
+                samplingProfiler = new SamplingProfiler();
+            }
+
             value = options.getOptionValue("traceout");
             if (value == null) {
                 traceDestination = config.getStandardErrorOutput();
@@ -618,6 +629,9 @@ public class Transform {
                     Source source = (sources == null ? null : (Source)sources.get(0));
                     processFile(source, sheet, outputFile, options, traceDestination);
                 }
+                if (samplingProfiler != null) {
+                    writeSamplingProfile(profileFileName);
+                }
                 if (closeTraceDestination) {
                     traceDestination.close();
                 }
@@ -827,6 +841,9 @@ public class Transform {
                 (outFile == null ? new StreamResult(System.out) : new StreamResult(outFile.toURI().toString()));
 
         try {
+            if (samplingProfiler != null) {
+                samplingProfiler.start();
+            }
             controller.transform(sourceInput, result);
         } catch (TerminationException err) {
             throw err;
@@ -836,6 +853,10 @@ public class Transform {
                 err.printStackTrace();
             }
             throw new XPathException("Run-time errors were reported");
+        } finally {
+            if (samplingProfiler != null) {
+                samplingProfiler.stop();
+            }
         }
 
         if (showTime) {
@@ -859,6 +880,7 @@ public class Transform {
         Controller controller = (Controller)sheet.newTransformer();
         options.setParams(config, controller, null, null);
         controller.setTraceFunctionDestination(traceDestination);
+        controller.setSamplingProfiler(samplingProfiler);
         String initialMode = options.getOptionValue("im");
         if (initialMode != null) {
             controller.setInitialMode(initialMode);
@@ -875,6 +897,23 @@ public class Transform {
         return controller;
     }
 
+    /**
+     * Write the results of the sampling profiler: a summary report to the standard error output,
+     * and the folded stacks to the specified file, if any
+     * @param fileName the file to which the folded stacks are to be written, or a zero-length string
+     * if they are not required
+     * @throws java.io.IOException if the file cannot be written
+     */
+
+    protected void writeSamplingProfile(String fileName) throws java.io.IOException {
+        samplingProfiler.writeReport(config.getStandardErrorOutput());
+        if (fileName.length() > 0) {
+            PrintStream out = new PrintStream(new FileOutputStream(new File(fileName)), false, "UTF-8");
+            samplingProfiler.writeFoldedStacks(out);
+            out.close();
+        }
+    }
+
     /**
      * Get current time in milliseconds
      * @return the current time in milliseconds since 1970
@@ -982,6 +1021,9 @@ public class Transform {
                     new StreamResult(outputFile.toURI().toString()));
 
             try {
+                if (samplingProfiler != null) {
+                    samplingProfiler.start();
+                }
                 controller.transform(source, result);
             } catch (TerminationException err) {
                 throw err;
@@ -991,6 +1033,10 @@ public class Transform {
                     err.printStackTrace();
                 }
                 throw new XPathException("Run-time errors were reported");
+            } finally {
+                if (samplingProfiler != null) {
+                    samplingProfiler.stop();
+                }
             }
 
             long endTime = now();
@@ -528,6 +528,32 @@ public final class ComplexContentOutputter extends SequenceReceiver {
     }
 
 
+    /**
+     * Get the receiver to which a copy of a subtree that uses no namespaces can be written directly, bypassing
+     * the namespace fixup performed by this ComplexContentOutputter and by the NamespaceReducer that follows it.
+     * This allows a tree builder to copy the subtree as a block rather than as a sequence of events. Any pending
+     * start tag is written out first.
+     * @return the receiver that follows the NamespaceReducer, or null if the subtree must be written as
+     * a sequence of events to this ComplexContentOutputter
+     * @throws XPathException if a dynamic error occurs writing a pending start tag
+     */
+
+    /*@Nullable*/ public Receiver getReceiverForNoNamespaceSubtree() throws XPathException {
+        if (level < 0 || !(nextReceiver instanceof NamespaceReducer)) {
+            return null;
+        }
+        if (pendingStartTagDepth >= 0) {
+            startContent();
+        }
+        NamespaceReducer reducer = (NamespaceReducer)nextReceiver;
+        if (!reducer.isBypassableForNoNamespaceContent()) {
+            return null;
+        }
+        started = true;
+        previousAtomic = false;
+        return reducer.getUnderlyingReceiver();
+    }
+
     /**
     * Close the output
     */
@@ -192,6 +192,18 @@ public class NamespaceReducer extends ProxyReceiver implements NamespaceResolver
         nextReceiver.startContent();
     }
 
+    /**
+     * Ask whether content that uses no namespaces can be written at the current position directly to the
+     * next receiver in the pipeline, bypassing this NamespaceReducer. This is the case if no default namespace
+     * is in scope, so no xmlns="" undeclaration would be needed, and the current element does not require
+     * the namespaces it has inherited to be undeclared on its children.
+     * @return true if content in no namespace can bypass this NamespaceReducer
+     */
+
+    public boolean isBypassableForNoNamespaceContent() {
+        return !(depth > 0 && disinheritStack[depth-1]) && getURIForPrefix("", true).length() == 0;
+    }
+
     /**
     * endElement: Discard the namespaces declared on this element.
     */
@@ -0,0 +1,424 @@
+package net.sf.saxon.event;
+
+import net.sf.saxon.expr.parser.PathMap;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.NamespaceBinding;
+import net.sf.saxon.om.NoNamespaceName;
+import net.sf.saxon.om.NodeName;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.SchemaType;
+import net.sf.saxon.type.SimpleType;
+import net.sf.saxon.type.Type;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A PathMapFilter is a ProxyReceiver that performs document projection: it removes from a source
+ * document, as it is being built, all the nodes that a query is statically known never to reach.
+ * The nodes that are retained are determined by the {@link PathMap} for the query, which must
+ * have been reduced to use downwards axes only (see {@link PathMap#reduceToDownwardsAxes}).
+ *
+ * <p>The rules are as follows:</p>
+ * <ul>
+ * <li>An element is retained if it is reached by some path in the path map. If the path map node
+ * reached is returnable or atomized (or has unknown dependencies) then the whole subtree rooted at
+ * the element is retained.</li>
+ * <li>An element that is not reached by any path, but that may have descendants that are reached by a
+ * path using the descendant axis, is retained with no attributes, so that the structure of the
+ * tree is preserved.</li>
+ * <li>Any other element is discarded, together with all its descendants.</li>
+ * <li>Attributes, text nodes, comments, and processing instructions are retained only if they are
+ * reached by some path. Namespaces of retained elements are always retained.</li>
+ * </ul>
+ *
+ * <p>The filter must not be used if the path map root for the document is returnable or has unknown
+ * dependencies; callers are expected to check this before creating the filter. (If they do not, the
+ * filter retains the whole document.)</p>
+ */
+
+public class PathMapFilter extends ProxyReceiver {
+
+    private ProjectionNode root;
+    private List<State> stack = new ArrayList<State>(40);
+    private State current;
+    private int discardDepth = 0;
+
+    /**
+     * Create a PathMapFilter
+     * @param next the next receiver in the pipeline
+     * @param root the compiled form of the path map, obtained by calling {@link #compile}
+     */
+
+    public PathMapFilter(Receiver next, ProjectionNode root) {
+        super(next);
+        this.root = root;
+    }
+
+    /**
+     * Make a factory that creates PathMapFilters for a given path map root
+     * @param pathRoot the path map root for the document to be projected. This must contain downwards
+     * axes only.
+     * @return a factory that creates filters performing projection based on this path map root
+     */
+
+    public static FilterFactory makeFactory(PathMap.PathMapRoot pathRoot) {
+        final ProjectionNode root = compile(pathRoot);
+        return new FilterFactory() {
+            public ProxyReceiver makeFilter(Receiver next) {
+                return new PathMapFilter(next, root);
+            }
+        };
+    }
+
+    /**
+     * Compile a path map into a form that can be used efficiently for filtering
+     * @param pathRoot the root of the path map
+     * @return the compiled representation
+     */
+
+    public static ProjectionNode compile(PathMap.PathMapNode pathRoot) {
+        return compile(pathRoot, new IdentityHashMap<PathMap.PathMapNode, ProjectionNode>());
+    }
+
+    private static ProjectionNode compile(PathMap.PathMapNode node,
+                                          IdentityHashMap<PathMap.PathMapNode, ProjectionNode> done) {
+        ProjectionNode pn = done.get(node);
+        if (pn != null) {
+            return pn;
+        }
+        pn = new ProjectionNode();
+        done.put(node, pn);
+        pn.keepAll = node.isReturnable() || node.isAtomized() || node.hasUnknownDependencies();
+        List<Arc> children = new ArrayList<Arc>();
+        List<Arc> descendants = new ArrayList<Arc>();
+        List<Arc> attributes = new ArrayList<Arc>();
+        for (PathMap.PathMapArc arc : node.getArcs()) {
+            switch (arc.getAxis()) {
+                case Axis.CHILD:
+                    children.add(new Arc(arc.getNodeTest(), compile(arc.getTarget(), done)));
+                    break;
+                case Axis.DESCENDANT:
+                    descendants.add(new Arc(arc.getNodeTest(), compile(arc.getTarget(), done)));
+                    break;
+                case Axis.DESCENDANT_OR_SELF:
+                    Arc dos = new Arc(arc.getNodeTest(), compile(arc.getTarget(), done));
+                    dos.orSelf = true;
+                    descendants.add(dos);
+                    break;
+                case Axis.ATTRIBUTE:
+                    attributes.add(new Arc(arc.getNodeTest(), compile(arc.getTarget(), done)));
+                    break;
+                case Axis.NAMESPACE:
+                    // namespaces are always retained
+                    break;
+                default:
+                    // not expected after reduction to downwards axes: be safe
+                    pn.keepAll = true;
+            }
+        }
+        pn.childArcs = children.toArray(new Arc[children.size()]);
+        pn.descendantArcs = descendants.toArray(new Arc[descendants.size()]);
+        pn.attributeArcs = attributes.toArray(new Arc[attributes.size()]);
+        return pn;
+    }
+
+    public void startDocument(int properties) throws XPathException {
+        pushRootState();
+        nextReceiver.startDocument(properties);
+    }
+
+    public void endDocument() throws XPathException {
+        pop();
+        nextReceiver.endDocument();
+    }
+
+    public void startElement(NodeName elemName, SchemaType typeCode, int locationId, int properties) throws XPathException {
+        if (discardDepth > 0) {
+            discardDepth++;
+            return;
+        }
+        if (current == null) {
+            // no enclosing document node: treat the element as the root of the projection
+            pushRootState();
+        }
+        State s = current.keepAll ? current : makeChildState(elemName, typeCode.getFingerprint());
+        if (s == null) {
+            discardDepth = 1;
+            return;
+        }
+        push(s);
+        nextReceiver.startElement(elemName, typeCode, locationId, properties);
+    }
+
+    public void namespace(NamespaceBinding namespaceBinding, int properties) throws XPathException {
+        if (discardDepth == 0) {
+            nextReceiver.namespace(namespaceBinding, properties);
+        }
+    }
+
+    public void attribute(NodeName attName, SimpleType typeCode, CharSequence value, int locationId, int properties) throws XPathException {
+        if (discardDepth == 0 && (current.keepAll || isAttributeRequired(attName, typeCode.getFingerprint()))) {
+            nextReceiver.attribute(attName, typeCode, value, locationId, properties);
+        }
+    }
+
+    public void startContent() throws XPathException {
+        if (discardDepth == 0) {
+            nextReceiver.startContent();
+        }
+    }
+
+    public void endElement() throws XPathException {
+        if (discardDepth > 0) {
+            discardDepth--;
+            return;
+        }
+        pop();
+        nextReceiver.endElement();
+    }
+
+    public void characters(CharSequence chars, int locationId, int properties) throws XPathException {
+        if (discardDepth == 0 && (current == null || isChildRequired(Type.TEXT, null))) {
+            nextReceiver.characters(chars, locationId, properties);
+        }
+    }
+
+    public void comment(CharSequence chars, int locationId, int properties) throws XPathException {
+        if (discardDepth == 0 && (current == null || isChildRequired(Type.COMMENT, null))) {
+            nextReceiver.comment(chars, locationId, properties);
+        }
+    }
+
+    public void processingInstruction(String target, CharSequence data, int locationId, int properties) throws XPathException {
+        if (discardDepth == 0 && (current == null ||
+                isChildRequired(Type.PROCESSING_INSTRUCTION, new NoNamespaceName(target)))) {
+            nextReceiver.processingInstruction(target, data, locationId, properties);
+        }
+    }
+
+    /**
+     * Push the state for the document node. This is matched by the root of the path map, and also by the
+     * target of any descendant-or-self arc (from a node already matched) whose node test accepts a document
+     * node: for example the path <code>//a</code> is <code>/descendant-or-self::node()/child::a</code>, so
+     * a child element named <code>a</code> of the document node is reached by the path.
+     */
+
+    private void pushRootState() {
+        List<ProjectionNode> matched = addNode(null, root);
+        List<Arc> descendantArcs = new ArrayList<Arc>();
+        boolean keepAll = false;
+        for (int i=0; i<matched.size(); i++) {
+            ProjectionNode node = matched.get(i);
+            keepAll |= node.keepAll;
+            for (Arc arc : node.descendantArcs) {
+                if (arc.orSelf && arc.test.matches(Type.DOCUMENT, null, StandardNames.XS_UNTYPED)) {
+                    matched = addNode(matched, arc.target);
+                }
+                if (!descendantArcs.contains(arc)) {
+                    descendantArcs.add(arc);
+                }
+            }
+        }
+        State s = new State();
+        s.matched = matched.toArray(new ProjectionNode[matched.size()]);
+        s.descendantArcs = descendantArcs.toArray(new Arc[descendantArcs.size()]);
+        s.keepAll = keepAll;
+        push(s);
+    }
+
+    private void push(State s) {
+        stack.add(s);
+        current = s;
+    }
+
+    private void pop() {
+        int size = stack.size();
+        if (size > 0) {
+            stack.remove(size - 1);
+        }
+        current = (size > 1 ? stack.get(size - 2) : null);
+    }
+
+    /**
+     * Compute the state for a child element of the current node
+     * @param name the name of the element
+     * @param annotation the type annotation of the element
+     * @return the state for the child element, or null if the element and its subtree can be discarded
+     */
+
+    /*@Nullable*/ private State makeChildState(NodeName name, int annotation) {
+        State parent = current;
+        List<ProjectionNode> matched = null;
+        for (ProjectionNode node : parent.matched) {
+            for (Arc arc : node.childArcs) {
+                if (arc.test.matches(Type.ELEMENT, name, annotation)) {
+                    matched = addNode(matched, arc.target);
+                }
+            }
+        }
+        for (Arc arc : parent.descendantArcs) {
+            if (arc.test.matches(Type.ELEMENT, name, annotation)) {
+                matched = addNode(matched, arc.target);
+            }
+        }
+        if (matched == null) {
+            if (parent.descendantArcs.length == 0) {
+                return null;
+            }
+            // The element itself is not needed, but its descendants might be. The state is the same
+            // for all such children of the parent, so it is created once only.
+            if (parent.skeletonChild == null) {
+                State s = new State();
+                s.matched = NO_NODES;
+                s.descendantArcs = parent.descendantArcs;
+                parent.skeletonChild = s;
+            }
+            return parent.skeletonChild;
+        }
+        // A node reached by a descendant-or-self arc may itself have descendant-or-self arcs that match
+        // this same element: add the targets of these arcs until nothing changes
+        boolean keepAll = false;
+        List<Arc> descendantArcs = null;
+        for (int i=0; i<matched.size(); i++) {
+            ProjectionNode node = matched.get(i);
+            keepAll |= node.keepAll;
+            for (Arc arc : node.descendantArcs) {
+                if (arc.test.matches(Type.ELEMENT, name, annotation)) {
+                    matched = addNode(matched, arc.target);
+                }
+                if (descendantArcs == null) {
+                    descendantArcs = new ArrayList<Arc>();
+                    for (Arc a : parent.descendantArcs) {
+                        descendantArcs.add(a);
+                    }
+                }
+                if (!descendantArcs.contains(arc)) {
+                    descendantArcs.add(arc);
+                }
+            }
+        }
+        State s = new State();
+        s.matched = matched.toArray(new ProjectionNode[matched.size()]);
+        s.descendantArcs = (descendantArcs == null ? parent.descendantArcs :
+                descendantArcs.toArray(new Arc[descendantArcs.size()]));
+        s.keepAll = keepAll;
+        return s;
+    }
+
+    private static List<ProjectionNode> addNode(/*@Nullable*/ List<ProjectionNode> list, ProjectionNode node) {
+        if (list == null) {
+            list = new ArrayList<ProjectionNode>(4);
+        } else if (list.contains(node)) {
+            return list;
+        }
+        list.add(node);
+        return list;
+    }
+
+    /**
+     * Ask whether an attribute of the current element is required
+     * @param name the name of the attribute
+     * @param annotation the type annotation of the attribute
+     * @return true if the attribute is reached by some path
+     */
+
+    private boolean isAttributeRequired(NodeName name, int annotation) {
+        for (ProjectionNode node : current.matched) {
+            for (Arc arc : node.attributeArcs) {
+                if (arc.test.matches(Type.ATTRIBUTE, name, annotation)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ask whether a child text, comment, or processing instruction node of the current node is required
+     * @param kind the kind of node
+     * @param name the name of the node (for a processing instruction), or null
+     * @return true if the node is reached by some path
+     */
+
+    private boolean isChildRequired(int kind, /*@Nullable*/ NodeName name) {
+        if (current.keepAll) {
+            return true;
+        }
+        int annotation = (kind == Type.TEXT ? StandardNames.XS_UNTYPED_ATOMIC : StandardNames.XS_STRING);
+        for (ProjectionNode node : current.matched) {
+            for (Arc arc : node.childArcs) {
+                if (arc.test.matches(kind, name, annotation)) {
+                    return true;
+                }
+            }
+        }
+        for (Arc arc : current.descendantArcs) {
+            if (arc.test.matches(kind, name, annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final ProjectionNode[] NO_NODES = new ProjectionNode[0];
+
+    /**
+     * A node in the compiled form of a path map
+     */
+
+    public static class ProjectionNode {
+        boolean keepAll;
+        Arc[] childArcs;
+        Arc[] descendantArcs;
+        Arc[] attributeArcs;
+    }
+
+    /**
+     * An arc in the compiled form of a path map
+     */
+
+    private static class Arc {
+        NodeTest test;
+        ProjectionNode target;
+        boolean orSelf;
+
+        public Arc(NodeTest test, ProjectionNode target) {
+            this.test = test;
+            this.target = target;
+        }
+    }
+
+    /**
+     * The projection state of an element that has been retained: the path map nodes that it matches, and
+     * the descendant arcs from its ancestors (and itself) that might match its descendants
+     */
+
+    private static class State {
+        ProjectionNode[] matched;
+        Arc[] descendantArcs;
+        boolean keepAll;
+        /*@Nullable*/ State skeletonChild;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
\ No newline at end of file
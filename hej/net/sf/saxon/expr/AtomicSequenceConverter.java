@@ -74,6 +74,8 @@ public final class AtomicSequenceConverter extends UnaryExpression {
 
 
     public static class UntypedConverter extends Converter {
+        private static final long serialVersionUID = 1L;
+
         Converter untypedConverter = null;
 
         public UntypedConverter(ConversionRules rules, Converter converter) {
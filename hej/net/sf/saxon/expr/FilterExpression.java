@@ -23,7 +23,7 @@ import java.util.Iterator;
  * integer expression (positional filter), or a boolean expression (qualifier)
  */
 
-public final class FilterExpression extends Expression implements ContextSwitchingExpression {
+public class FilterExpression extends Expression implements ContextSwitchingExpression {
 
     /*@NotNull*/
     private Expression start;
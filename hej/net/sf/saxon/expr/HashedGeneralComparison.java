@@ -0,0 +1,221 @@
+package net.sf.saxon.expr;
+
+import net.sf.saxon.expr.parser.ExpressionTool;
+import net.sf.saxon.expr.parser.Token;
+import net.sf.saxon.expr.sort.AtomicComparer;
+import net.sf.saxon.expr.sort.AtomicSortComparer;
+import net.sf.saxon.expr.sort.CodepointCollator;
+import net.sf.saxon.expr.sort.ComparisonKey;
+import net.sf.saxon.lib.StringCollator;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.AtomicValue;
+
+import java.util.HashSet;
+
+/**
+ * A HashedGeneralComparison is a many-to-many general comparison using the "=" or "!=" operator,
+ * in the case where the static types of the two operands are such that two values compare equal
+ * if and only if they have the same {@link ComparisonKey}. Instead of comparing every item in one
+ * sequence with every item in the other, the comparison keys of one sequence are placed in a hash set,
+ * which is then probed with the items of the other sequence, so the cost is linear rather than
+ * quadratic in the length of the sequences.
+ *
+ * <p>The optimizer creates a HashedGeneralComparison only where the comparison cannot fail with a
+ * dynamic error: that is, where both operands are strings (or untypedAtomic or anyURI values) compared
+ * using a collation that delivers collation keys, or are both numeric values other than xs:float, or
+ * have the same primitive type, for example xs:date.</p>
+ */
+
+public class HashedGeneralComparison extends GeneralComparison20 {
+
+    private int keyType;
+
+    /**
+     * Create a hashed general comparison
+     * @param p0 the first operand
+     * @param op the operator, either {@link Token#EQUALS} or {@link Token#NE}
+     * @param p1 the second operand
+     * @param keyType the fingerprint of the primitive type used to select an {@link AtomicSortComparer} to
+     * compute comparison keys, for example {@link net.sf.saxon.om.StandardNames#XS_STRING} or
+     * {@link net.sf.saxon.om.StandardNames#XS_NUMERIC}
+     */
+
+    public HashedGeneralComparison(Expression p0, int op, Expression p1, int keyType) {
+        super(p0, op, p1);
+        this.keyType = keyType;
+    }
+
+    /**
+     * Create a hashed general comparison equivalent to a supplied general comparison
+     * @param gc the general comparison, which must be a many-to-many comparison
+     * @param keyType the fingerprint of the primitive type used to compute comparison keys
+     * @return the equivalent hashed comparison
+     */
+
+    public static HashedGeneralComparison makeHashedComparison(GeneralComparison gc, int keyType) {
+        Expression[] operands = gc.getOperands();
+        HashedGeneralComparison hgc = new HashedGeneralComparison(operands[0], gc.getOperator(), operands[1], keyType);
+        hgc.comparer = gc.comparer;
+        hgc.needsRuntimeCheck = gc.needsRuntimeCheck;
+        hgc.comparisonCardinality = MANY_TO_MANY;
+        ExpressionTool.copyLocationInfo(gc, hgc);
+        return hgc;
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy.
+     * @return the copy of the original expression
+     */
+
+    /*@NotNull*/
+    public Expression copy() {
+        HashedGeneralComparison gc = new HashedGeneralComparison(operand0.copy(), operator, operand1.copy(), keyType);
+        gc.comparer = comparer;
+        gc.singletonOperator = singletonOperator;
+        gc.needsRuntimeCheck = needsRuntimeCheck;
+        gc.comparisonCardinality = comparisonCardinality;
+        return gc;
+    }
+
+    /**
+     * Evaluate a many-to-many comparison
+     * @param iter0  iterator over the first value
+     * @param iter1  iterator the second value
+     * @param context  dynamic evaluation context
+     * @return  the comparison result
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public boolean evaluateManyToMany(SequenceIterator iter0, SequenceIterator iter1, XPathContext context) throws XPathException {
+        StringCollator collator = comparer.getCollator();
+        if (collator == null) {
+            collator = CodepointCollator.getInstance();
+        }
+        AtomicComparer keyComparer = AtomicSortComparer.makeSortComparer(collator, keyType, context);
+        try {
+            if (operator == Token.EQUALS) {
+                // build the hash set over the shorter sequence, if we can tell which it is
+                if ((iter0.getProperties() & SequenceIterator.LAST_POSITION_FINDER) != 0 &&
+                        (iter1.getProperties() & SequenceIterator.LAST_POSITION_FINDER) != 0 &&
+                        ((LastPositionFinder)iter0).getLength() < ((LastPositionFinder)iter1).getLength()) {
+                    return hashedEquals(iter1, iter0, keyComparer);
+                } else {
+                    return hashedEquals(iter0, iter1, keyComparer);
+                }
+            } else {
+                return hashedNotEquals(iter0, iter1, keyComparer);
+            }
+        } catch (XPathException e) {
+            // re-throw the exception with location information added
+            e.maybeSetLocation(this);
+            e.maybeSetContext(context);
+            throw e;
+        }
+    }
+
+    /**
+     * Evaluate A = B by building a hash set of the comparison keys of B and probing it with each item of A
+     * @param probe iterator over the sequence used to probe the hash set
+     * @param build iterator over the sequence used to build the hash set
+     * @param keyComparer the comparer used to compute comparison keys
+     * @return true if some item in one sequence is equal to some item in the other
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private static boolean hashedEquals(SequenceIterator probe, SequenceIterator build, AtomicComparer keyComparer)
+            throws XPathException {
+        HashSet<ComparisonKey> keys = new HashSet<ComparisonKey>(64);
+        while (true) {
+            AtomicValue item = (AtomicValue)build.next();
+            if (item == null) {
+                break;
+            }
+            if (!item.isNaN()) {
+                keys.add(keyComparer.getComparisonKey(item));
+            }
+        }
+        if (keys.isEmpty()) {
+            return false;
+        }
+        while (true) {
+            AtomicValue item = (AtomicValue)probe.next();
+            if (item == null) {
+                return false;
+            }
+            if (!item.isNaN() && keys.contains(keyComparer.getComparisonKey(item))) {
+                probe.close();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Evaluate A != B. This is true unless one of the sequences is empty, or all the items in both
+     * sequences are equal to each other (and none is NaN).
+     * @param iter0 iterator over the first sequence
+     * @param iter1 iterator over the second sequence
+     * @param keyComparer the comparer used to compute comparison keys
+     * @return true if some item in one sequence is not equal to some item in the other
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private static boolean hashedNotEquals(SequenceIterator iter0, SequenceIterator iter1, AtomicComparer keyComparer)
+            throws XPathException {
+        ComparisonKey first = null;
+        boolean mixed = false;
+        while (true) {
+            AtomicValue item = (AtomicValue)iter1.next();
+            if (item == null) {
+                break;
+            }
+            if (item.isNaN()) {
+                mixed = true;
+            } else if (!mixed) {
+                ComparisonKey key = keyComparer.getComparisonKey(item);
+                if (first == null) {
+                    first = key;
+                } else if (!first.equals(key)) {
+                    mixed = true;
+                }
+            }
+        }
+        if (first == null && !mixed) {
+            return false;
+        }
+        while (true) {
+            AtomicValue item = (AtomicValue)iter0.next();
+            if (item == null) {
+                return false;
+            }
+            if (mixed || item.isNaN() || !first.equals(keyComparer.getComparisonKey(item))) {
+                iter0.close();
+                return true;
+            }
+        }
+    }
+
+    protected void explainExtraAttributes(ExpressionPresenter out) {
+        super.explainExtraAttributes(out);
+        out.emitAttribute("algorithm", "hash");
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -0,0 +1,246 @@
+package net.sf.saxon.expr;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.expr.parser.ExpressionVisitor;
+import net.sf.saxon.expr.sort.EqualityIndex;
+import net.sf.saxon.om.*;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.ArrayIterator;
+import net.sf.saxon.tree.iter.EmptyIterator;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.IndexedValue;
+import net.sf.saxon.value.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An IndexedFilterExpression is a filter expression of the form <code>SEQ[USE = VALUE]</code> where
+ * USE depends on the focus but VALUE does not, and where the filter expression is evaluated repeatedly
+ * with the same value of SEQ. The first time the expression is evaluated for a given value of SEQ,
+ * a hash index is built mapping the atomized values of USE onto items in SEQ; subsequent evaluations
+ * use the index to find the matching items directly.
+ *
+ * <p>SEQ must be either a variable reference, or an expression that depends on nothing other than
+ * (at most) the document containing the context node, for example <code>/descendant::customer</code>
+ * or <code>doc('codes.xml')//entry</code>. In the first case the index is attached to the value of the
+ * variable (see {@link IndexedValue}); in the second case a separate index is held for each document,
+ * for the duration of the transformation.</p>
+ *
+ * <p>The comparison follows the rules of the general comparison operator, including the conversion
+ * of untypedAtomic values and numeric promotion. Where the index cannot deliver an exact answer (for
+ * example because the comparison would raise a type error), the expression is evaluated by a serial
+ * search, exactly as if it were an ordinary filter expression.</p>
+ */
+
+public class IndexedFilterExpression extends FilterExpression {
+
+    private boolean indexFirstOperand;
+
+    /**
+     * Create an indexed filter expression
+     * @param start the sequence being filtered
+     * @param filter the filter predicate, which must be a {@link GeneralComparison} using the "=" operator
+     * @param indexFirstOperand true if the first operand of the comparison is the one that depends on
+     * the focus (the value to be indexed); false if it is the second operand
+     */
+
+    public IndexedFilterExpression(Expression start, GeneralComparison filter, boolean indexFirstOperand) {
+        super(start, filter);
+        this.indexFirstOperand = indexFirstOperand;
+    }
+
+    /**
+     * Get a name identifying the kind of expression, in terms meaningful to a user.
+     * @return a name identifying the kind of expression
+     */
+
+    public String getExpressionName() {
+        return "indexedFilter";
+    }
+
+    /*@NotNull*/
+    public Expression simplify(ExpressionVisitor visitor) throws XPathException {
+        return this;
+    }
+
+    /*@NotNull*/
+    public Expression typeCheck(ExpressionVisitor visitor, ExpressionVisitor.ContextItemType contextItemType) throws XPathException {
+        return this;
+    }
+
+    /*@NotNull*/
+    public Expression optimize(ExpressionVisitor visitor, ExpressionVisitor.ContextItemType contextItemType) throws XPathException {
+        return this;
+    }
+
+    /**
+     * Iterate over the results, returning them in the correct order
+     * @param context the dynamic context for the evaluation
+     * @return an iterator over the expression results
+     * @throws XPathException if any dynamic error occurs
+     */
+
+    /*@NotNull*/
+    public SequenceIterator iterate(XPathContext context) throws XPathException {
+        Expression filter = getFilter();
+        if (filter instanceof GeneralComparison) {
+            Expression[] operands = ((GeneralComparison)filter).getOperands();
+            Expression use = operands[indexFirstOperand ? 0 : 1];
+            Expression value = operands[indexFirstOperand ? 1 : 0];
+            IndexedValue base = getIndexedValue(context);
+            if (base != null) {
+                List<AtomicValue> sought = new ArrayList<AtomicValue>(4);
+                SequenceIterator iter = value.iterate(context);
+                while (true) {
+                    AtomicValue v = (AtomicValue)iter.next();
+                    if (v == null) {
+                        break;
+                    }
+                    sought.add(v);
+                }
+                if (sought.isEmpty()) {
+                    return EmptyIterator.getInstance();
+                }
+                EqualityIndex index = base.getIndex(use, context);
+                int[] positions = index.find(sought.toArray(new AtomicValue[sought.size()]),
+                        ((GeneralComparison)filter).getAtomicComparer(), context);
+                if (positions != null) {
+                    Item[] items = new Item[positions.length];
+                    for (int i=0; i<positions.length; i++) {
+                        items[i] = base.itemAt(positions[i]);
+                    }
+                    return new ArrayIterator<Item>(items);
+                }
+            }
+        }
+        return super.iterate(context);
+    }
+
+    /**
+     * Get the value of the sequence being filtered, in indexed form
+     * @param context the dynamic context
+     * @return the indexed value, or null if no index can be used on this occasion
+     * @throws XPathException if evaluation of the base sequence fails
+     */
+
+    /*@Nullable*/ private IndexedValue getIndexedValue(XPathContext context) throws XPathException {
+        Expression start = getControllingExpression();
+        Controller controller = context.getController();
+        if (start instanceof VariableReference) {
+            ValueRepresentation val = ((VariableReference)start).evaluateVariable(context);
+            if (val instanceof IndexedValue) {
+                return (IndexedValue)val;
+            }
+            if (controller == null) {
+                return null;
+            }
+            // The variable was not evaluated in indexed form (for example, it is a lazily-evaluated
+            // local variable). Index its value, and keep the index for as long as the variable keeps
+            // the same value.
+            IndexCache cache = getIndexCache(controller);
+            synchronized (cache) {
+                if (cache.lastValue != val) {
+                    cache.lastIndexedValue = IndexedValue.makeIndexedValue(Value.asIterator(val));
+                    cache.lastValue = val;
+                }
+                return cache.lastIndexedValue;
+            }
+        } else if (controller != null) {
+            Object key;
+            if ((start.getDependencies() & StaticProperty.DEPENDS_ON_CONTEXT_DOCUMENT) != 0) {
+                Item contextItem = context.getContextItem();
+                if (!(contextItem instanceof NodeInfo)) {
+                    // leave it to the normal evaluation to report the error
+                    return null;
+                }
+                key = ((NodeInfo)contextItem).getRoot();
+            } else {
+                key = this;
+            }
+            IndexCache cache = getIndexCache(controller);
+            synchronized (cache) {
+                if (cache.documentIndexes == null) {
+                    cache.documentIndexes = new HashMap<Object, IndexedValue>(4);
+                }
+                IndexedValue indexed = cache.documentIndexes.get(key);
+                if (indexed == null) {
+                    indexed = IndexedValue.makeIndexedValue(start.iterate(context));
+                    cache.documentIndexes.put(key, indexed);
+                }
+                return indexed;
+            }
+        }
+        return null;
+    }
+
+    private IndexCache getIndexCache(Controller controller) {
+        synchronized (controller) {
+            Object c = controller.getUserData(this, "saxon:indexed-filter");
+            if (!(c instanceof IndexCache) || ((IndexCache)c).owner != this) {
+                c = new IndexCache(this);
+                controller.setUserData(this, "saxon:indexed-filter", c);
+            }
+            return (IndexCache)c;
+        }
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy.
+     * @return the copy of the original expression
+     */
+
+    /*@NotNull*/
+    public Expression copy() {
+        return new IndexedFilterExpression(getControllingExpression().copy(),
+                (GeneralComparison)getFilter().copy(), indexFirstOperand);
+    }
+
+    /**
+     * Diagnostic print of expression structure. The abstract expression tree
+     * is written to the supplied output destination.
+     * @param out the ExpressionPresenter to be used
+     */
+
+    public void explain(ExpressionPresenter out) {
+        out.startElement("indexedFilterExpression");
+        getControllingExpression().explain(out);
+        getFilter().explain(out);
+        out.endElement();
+    }
+
+    /**
+     * The indexes held by a particular IndexedFilterExpression for the duration of one transformation
+     */
+
+    private static class IndexCache {
+        IndexedFilterExpression owner;
+        /*@Nullable*/ Object lastValue;
+        /*@Nullable*/ IndexedValue lastIndexedValue;
+        /*@Nullable*/ HashMap<Object, IndexedValue> documentIndexes;
+
+        IndexCache(IndexedFilterExpression owner) {
+            this.owner = owner;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
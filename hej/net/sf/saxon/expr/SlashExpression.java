@@ -10,6 +10,8 @@ import net.sf.saxon.pattern.NodeKindTest;
 import net.sf.saxon.pattern.NodeTest;
 import net.sf.saxon.trace.ExpressionPresenter;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.iter.AxisMappingIterator;
 import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.Type;
 import net.sf.saxon.type.TypeHierarchy;
@@ -296,6 +298,13 @@ public class SlashExpression extends Expression
             return new Literal(EmptySequence.getInstance());
         }
 
+        // Replace //a[@b = $x] by a call on key() where possible
+
+        Expression k = opt.convertPathExpressionToKey(this, visitor);
+        if (k != null) {
+            return k.typeCheck(visitor, contextItemType).optimize(visitor, contextItemType);
+        }
+
         // Rewrite a/b[filter] as (a/b)[filter] to improve the chance of indexing
 
         Expression lastStep = getLastStep();
@@ -306,11 +315,6 @@ public class SlashExpression extends Expression
             return f2.optimize(visitor, contextItemType);
         }
 
-        Expression k = opt.convertPathExpressionToKey(this, visitor);
-        if (k != null) {
-            return k.typeCheck(visitor, contextItemType).optimize(visitor, contextItemType);
-        }
-
         // Replace $x/child::abcd by a SimpleStepExpression, to avoid the need for creating
         // a new dynamic context at run-time.
 
@@ -698,6 +702,14 @@ public class SlashExpression extends Expression
         // this is achieved by wrapping the path expression in a DocumentSorter
 
         SequenceIterator result = start.iterate(context);
+        if (step instanceof AxisExpression && result instanceof AxisIterator &&
+                ((AxisExpression)step).getAxis() != Axis.NAMESPACE) {
+            // Navigate from each start node without making it the context item. This allows the
+            // tree implementation to avoid instantiating the intermediate nodes
+            NodeTest test = ((AxisExpression)step).getNodeTest();
+            return new AxisMappingIterator((AxisIterator)result, ((AxisExpression)step).getAxis(),
+                    (test == null ? AnyNodeTest.getInstance() : test));
+        }
         XPathContext context2 = context.newMinorContext();
         context2.setCurrentIterator(result);
         return new ContextMappingIterator<Item>(this, context2);
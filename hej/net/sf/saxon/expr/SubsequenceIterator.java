@@ -5,6 +5,7 @@ import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.tree.iter.ArrayIterator;
+import net.sf.saxon.tree.iter.AxisIterator;
 import net.sf.saxon.tree.iter.GroundedIterator;
 import net.sf.saxon.tree.iter.LookaheadIterator;
 import net.sf.saxon.value.Value;
@@ -40,10 +41,22 @@ public class SubsequenceIterator implements SequenceIterator, LastPositionFinder
             return;
         }
         int i=1;
-        while ( i++ <= min ) {
-            nextItem = base.next();
-            if (nextItem == null) {
-                break;
+        if (base instanceof AxisIterator) {
+            // Skip the unwanted nodes without instantiating them
+            AxisIterator axisBase = (AxisIterator)base;
+            while ( i++ < min ) {
+                if (!axisBase.moveNext()) {
+                    nextItem = null;
+                    return;
+                }
+            }
+            nextItem = axisBase.next();
+        } else {
+            while ( i++ <= min ) {
+                nextItem = base.next();
+                if (nextItem == null) {
+                    break;
+                }
             }
         }
         current = nextItem;
@@ -6,17 +6,22 @@ import net.sf.saxon.expr.sort.DocumentOrderIterator;
 import net.sf.saxon.expr.sort.GlobalOrderComparer;
 import net.sf.saxon.functions.SystemFunction;
 import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.pattern.CombinedNodeTest;
 import net.sf.saxon.pattern.PatternSponsor;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.ListIterator;
+import net.sf.saxon.tree.tiny.TinyNodeSet;
 import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.Type;
 import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.Cardinality;
 import net.sf.saxon.value.SequenceType;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 
@@ -421,6 +426,13 @@ public class VennExpression extends BinaryExpression {
         return operand0.hashCode() ^ operand1.hashCode();
     }
 
+    /**
+     * The number of nodes that an operand must contain before the operation is evaluated using bit sets
+     * over the nodes of a TinyTree, rather than by merging the two sequences of nodes
+     */
+
+    private static final int NODE_SET_THRESHOLD = 1000;
+
     /**
     * Iterate over the value of the expression. The result will always be sorted in document order,
     * with duplicates eliminated
@@ -431,12 +443,47 @@ public class VennExpression extends BinaryExpression {
     /*@NotNull*/
     public SequenceIterator iterate(final XPathContext c) throws XPathException {
         SequenceIterator i1 = operand0.iterate(c);
+        SequenceIterator i2 = operand1.iterate(c);
+
+        // If the operands are large and all the nodes are in the same TinyTree, compute the result using
+        // bit sets. This reads the whole of the second operand (for union, both operands) before delivering
+        // anything, so it is done only when the number of nodes makes it worthwhile.
+
+        List<Item> nodes2 = new ArrayList<Item>();
+        boolean large2 = readAhead(i2, nodes2, NODE_SET_THRESHOLD);
+        if (operator == Token.UNION) {
+            List<Item> nodes1 = new ArrayList<Item>();
+            boolean large1 = readAhead(i1, nodes1, NODE_SET_THRESHOLD);
+            if (large1 || large2) {
+                TinyNodeSet set = TinyNodeSet.makeNodeSet((large1 ? nodes1 : nodes2).get(0));
+                if (set != null && set.addAll(nodes1) && set.addAll(i1) && set.addAll(nodes2) && set.addAll(i2)) {
+                    return set.iterate();
+                }
+                // the nodes are not all in one TinyTree: start again using the general method
+                i1 = i1.getAnother();
+                i2 = i2.getAnother();
+            } else {
+                i1 = new ListIterator<Item>(nodes1);
+                i2 = new ListIterator<Item>(nodes2);
+            }
+        } else if (large2) {
+            TinyNodeSet set = TinyNodeSet.makeNodeSet(nodes2.get(0));
+            if (set != null && set.addAll(nodes2) && set.addAll(i2)) {
+                if ((operand0.getSpecialProperties() & StaticProperty.ORDERED_NODESET) == 0) {
+                    i1 = new DocumentOrderIterator(i1, GlobalOrderComparer.getInstance());
+                }
+                return set.select(i1, operator == Token.INTERSECT);
+            }
+            i2 = i2.getAnother();
+        } else {
+            i2 = new ListIterator<Item>(nodes2);
+        }
+
         //return Type.isNodeType(getItemType()) && isSingleton();
         // this is a sufficient condition, but other expressions override this method
         if ((operand0.getSpecialProperties() & StaticProperty.ORDERED_NODESET) == 0) {
             i1 = new DocumentOrderIterator(i1, GlobalOrderComparer.getInstance());
         }
-        SequenceIterator i2 = operand1.iterate(c);
         //return Type.isNodeType(getItemType()) && isSingleton();
         // this is a sufficient condition, but other expressions override this method
         if ((operand1.getSpecialProperties() & StaticProperty.ORDERED_NODESET) == 0) {
@@ -456,6 +503,28 @@ public class VennExpression extends BinaryExpression {
         throw new UnsupportedOperationException("Unknown operator in Venn Expression");
     }
 
+    /**
+     * Read items from an iterator into a list, until the list reaches a given size or the iterator
+     * is exhausted
+     * @param iter the iterator to be read
+     * @param list the list to which the items are added
+     * @param limit the size of list at which reading stops
+     * @return true if the list has reached the given size, in which case the iterator may have
+     * further items; false if the iterator has been exhausted
+     * @throws XPathException if a dynamic error occurs evaluating the sequence
+     */
+
+    private static boolean readAhead(SequenceIterator iter, List<Item> list, int limit) throws XPathException {
+        while (list.size() < limit) {
+            Item item = iter.next();
+            if (item == null) {
+                return false;
+            }
+            list.add(item);
+        }
+        return true;
+    }
+
     /**
     * Get the effective boolean value. In the case of a union expression, this
     * is reduced to an OR expression, for efficiency
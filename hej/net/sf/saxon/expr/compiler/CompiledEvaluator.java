@@ -0,0 +1,139 @@
+package net.sf.saxon.expr.compiler;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.Int64Value;
+import net.sf.saxon.value.NumericValue;
+
+import java.io.Serializable;
+
+/**
+ * A CompiledEvaluator is the compiled form of an expression subtree, produced by the
+ * {@link ExpressionCompiler}. Unlike the interpreted expression tree, a compiled evaluator
+ * has evaluation methods that deliver unboxed results (<code>long</code>, <code>double</code>,
+ * <code>boolean</code>), so that a tree of arithmetic, comparison and boolean operators can be
+ * evaluated without allocating an intermediate value for each operator, and without the
+ * run-time type tests performed by the general-purpose implementations of these operators.
+ *
+ * <p>A compiled evaluator only ever handles the common case. Whenever it encounters a case that it
+ * is not designed to handle (for example integer overflow, division by zero, or a value that cannot
+ * be converted to a number) it throws {@link #FALLBACK}; the {@link CompiledExpression} that owns the
+ * evaluator then evaluates the original expression using the interpreter, which produces the correct
+ * result or the correct error.</p>
+ */
+
+public abstract class CompiledEvaluator implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The exception thrown when the compiled code cannot handle a particular case. This is a
+     * preallocated instance with no stack trace, so throwing it is cheap.
+     */
+
+    public static final Fallback FALLBACK = new Fallback();
+
+    /**
+     * Evaluate as a single item
+     * @param context the dynamic context
+     * @return the result of the evaluation
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public abstract Item evaluateItem(XPathContext context) throws XPathException;
+
+    /**
+     * Evaluate the effective boolean value
+     * @param context the dynamic context
+     * @return the effective boolean value of the result
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        Item item = evaluateItem(context);
+        if (!(item instanceof AtomicValue)) {
+            throw FALLBACK;
+        }
+        return ((AtomicValue)item).effectiveBooleanValue();
+    }
+
+    /**
+     * Evaluate as a double. This method is used only where the static type of the result is numeric.
+     * @param context the dynamic context
+     * @return the result, converted to a double
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public double evaluateDouble(XPathContext context) throws XPathException {
+        Item item = evaluateItem(context);
+        if (!(item instanceof NumericValue)) {
+            throw FALLBACK;
+        }
+        return ((NumericValue)item).getDoubleValue();
+    }
+
+    /**
+     * Evaluate as a long. This method is used only where the static type of the result is xs:integer.
+     * @param context the dynamic context
+     * @return the result as a long
+     * @throws XPathException if a dynamic error occurs
+     * @throws Fallback if the value is not representable as a long
+     */
+
+    public long evaluateLong(XPathContext context) throws XPathException {
+        Item item = evaluateItem(context);
+        if (!(item instanceof Int64Value)) {
+            throw FALLBACK;
+        }
+        return ((Int64Value)item).longValue();
+    }
+
+    /**
+     * Evaluate as a string
+     * @param context the dynamic context
+     * @return the string value of the result
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public CharSequence evaluateString(XPathContext context) throws XPathException {
+        Item item = evaluateItem(context);
+        if (item == null) {
+            throw FALLBACK;
+        }
+        return item.getStringValueCS();
+    }
+
+    /**
+     * Exception used to abandon compiled evaluation and revert to the interpreter
+     */
+
+    public static final class Fallback extends RuntimeException {
+
+        private Fallback() {
+            super("Compiled code cannot handle this case");
+        }
+
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
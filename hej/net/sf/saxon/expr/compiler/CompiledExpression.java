@@ -0,0 +1,164 @@
+package net.sf.saxon.expr.compiler;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.UnaryExpression;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.parser.ExpressionVisitor;
+import net.sf.saxon.expr.parser.PromotionOffer;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * A CompiledExpression is an expression whose evaluation is performed by a {@link CompiledEvaluator}
+ * generated by the {@link ExpressionCompiler}. The original (interpreted) expression is retained as the
+ * operand of the CompiledExpression: it is used to compute static properties, for diagnostics, and to
+ * evaluate the expression in cases that the compiled code does not handle.
+ *
+ * <p>Compilation is the last step in processing an expression. If any attempt is made to rewrite the
+ * expression after it has been compiled, the compiled code is discarded and the original expression
+ * is used instead.</p>
+ */
+
+public class CompiledExpression extends UnaryExpression {
+
+    /*@Nullable*/ private CompiledEvaluator evaluator;
+
+    /**
+     * Create a compiled expression
+     * @param original the original expression
+     * @param evaluator the compiled code for evaluating the original expression
+     */
+
+    public CompiledExpression(Expression original, CompiledEvaluator evaluator) {
+        super(original);
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Get the original expression
+     * @return the expression that was compiled
+     */
+
+    public Expression getOriginalExpression() {
+        return operand;
+    }
+
+    /**
+     * Get a name identifying the kind of expression, in terms meaningful to a user.
+     * @return a name identifying the kind of expression
+     */
+
+    public String getExpressionName() {
+        return "compiledExpression";
+    }
+
+    /*@NotNull*/
+    public Expression simplify(ExpressionVisitor visitor) throws XPathException {
+        return visitor.simplify(operand);
+    }
+
+    /*@NotNull*/
+    public Expression typeCheck(ExpressionVisitor visitor, ExpressionVisitor.ContextItemType contextItemType) throws XPathException {
+        return visitor.typeCheck(operand, contextItemType);
+    }
+
+    /*@NotNull*/
+    public Expression optimize(ExpressionVisitor visitor, ExpressionVisitor.ContextItemType contextItemType) throws XPathException {
+        return visitor.optimize(operand, contextItemType);
+    }
+
+    /*@Nullable*/
+    public Expression promote(PromotionOffer offer, Expression parent) throws XPathException {
+        evaluator = null;
+        return super.promote(offer, parent);
+    }
+
+    public boolean replaceSubExpression(Expression original, Expression replacement) {
+        boolean found = super.replaceSubExpression(original, replacement);
+        if (found) {
+            evaluator = null;
+        }
+        return found;
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy. The copy is not compiled.
+     * @return a copy of the original expression
+     */
+
+    /*@NotNull*/
+    public Expression copy() {
+        return operand.copy();
+    }
+
+    /**
+     * Evaluate the expression
+     * @param context the dynamic context
+     * @return the result of the expression
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public Item evaluateItem(XPathContext context) throws XPathException {
+        CompiledEvaluator ev = evaluator;
+        if (ev != null) {
+            try {
+                return ev.evaluateItem(context);
+            } catch (CompiledEvaluator.Fallback f) {
+                // fall through to the interpreter
+            }
+        }
+        return operand.evaluateItem(context);
+    }
+
+    /**
+     * Get the effective boolean value of the expression
+     * @param context the dynamic context
+     * @return the effective boolean value
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        CompiledEvaluator ev = evaluator;
+        if (ev != null) {
+            try {
+                return ev.effectiveBooleanValue(context);
+            } catch (CompiledEvaluator.Fallback f) {
+                // fall through to the interpreter
+            }
+        }
+        return operand.effectiveBooleanValue(context);
+    }
+
+    /**
+     * Diagnostic print of expression structure. The abstract expression tree
+     * is written to the supplied output destination.
+     * @param out the expression presenter used to display the structure
+     */
+
+    public void explain(ExpressionPresenter out) {
+        out.startElement("compiledExpression");
+        if (evaluator == null) {
+            out.emitAttribute("discarded", "true");
+        }
+        operand.explain(out);
+        out.endElement();
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -0,0 +1,848 @@
+package net.sf.saxon.expr.compiler;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.expr.instruct.SwitchExpression;
+import net.sf.saxon.expr.parser.Token;
+import net.sf.saxon.expr.parser.ExpressionTool;
+import net.sf.saxon.expr.sort.*;
+import net.sf.saxon.functions.BooleanFn;
+import net.sf.saxon.functions.NotFn;
+import net.sf.saxon.lib.StringCollator;
+import net.sf.saxon.om.*;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.type.*;
+import net.sf.saxon.value.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The ExpressionCompiler translates subtrees of an expression tree into {@link CompiledEvaluator}s.
+ * It handles arithmetic on xs:integer and xs:double values, value and general comparisons of numbers
+ * (and equality comparisons of strings), the boolean operators and the functions not() and boolean(),
+ * references to local variables, simple axis steps used in a boolean context, and the casting of
+ * untyped nodes to xs:double. Any other expression appearing as an operand of one of these is evaluated
+ * by calling the interpreter; the compiler is applied recursively to the subexpressions of such an
+ * operand.
+ *
+ * <p>Each maximal compiled subtree is replaced in the expression tree by a {@link CompiledExpression}.</p>
+ */
+
+public class ExpressionCompiler {
+
+    private static final int ITEM = 0;
+    private static final int INTEGER = 1;
+    private static final int DOUBLE = 2;
+    private static final int BOOLEAN = 3;
+    private static final int STRING = 4;
+
+    private TypeHierarchy th;
+    private StringConverter doubleConverter;
+    private int count = 0;
+
+    /**
+     * Create an expression compiler
+     * @param config the Saxon configuration
+     */
+
+    public ExpressionCompiler(Configuration config) {
+        th = config.getTypeHierarchy();
+        doubleConverter = config.getConversionRules().getStringConverter(BuiltInAtomicType.DOUBLE);
+    }
+
+    /**
+     * Compile an expression, replacing each compilable subtree by a {@link CompiledExpression}
+     * @param exp the expression to be compiled
+     * @return the compiled expression: either a CompiledExpression wrapping the supplied expression,
+     * or the supplied expression itself (possibly with compiled subexpressions)
+     */
+
+    public Expression compile(Expression exp) {
+        CompiledEvaluator ev = makeEvaluator(exp);
+        if (ev != null) {
+            count++;
+            CompiledExpression ce = new CompiledExpression(exp, ev);
+            ExpressionTool.copyLocationInfo(exp, ce);
+            return ce;
+        } else {
+            compileSubExpressions(exp);
+            return exp;
+        }
+    }
+
+    /**
+     * Get the number of expressions that have been compiled
+     * @return the number of CompiledExpressions created by this compiler
+     */
+
+    public int getNumberOfCompiledExpressions() {
+        return count;
+    }
+
+    private void compileSubExpressions(Expression parent) {
+        List<Expression> children = new ArrayList<Expression>();
+        for (Iterator<Expression> iter = parent.iterateSubExpressions(); iter.hasNext();) {
+            children.add(iter.next());
+        }
+        // These expressions examine the form of their operands at run-time, so the operands themselves
+        // must not be replaced, though their subexpressions can be
+        boolean keepOperands = parent instanceof SwitchExpression || parent instanceof IndexedFilterExpression ||
+                parent instanceof HashedGeneralComparison;
+        for (Expression child : children) {
+            if (keepOperands) {
+                compileSubExpressions(child);
+            } else {
+                Expression c2 = compile(child);
+                if (c2 != child && !parent.replaceSubExpression(child, c2)) {
+                    count--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine how the value of an expression can be delivered by compiled code
+     * @param exp the expression
+     * @return one of INTEGER, DOUBLE, BOOLEAN, STRING if the expression is known to deliver exactly one
+     * value of that type; otherwise ITEM
+     */
+
+    private int getKind(Expression exp) {
+        if (exp.getCardinality() != StaticProperty.EXACTLY_ONE) {
+            return ITEM;
+        }
+        ItemType type = exp.getItemType(th);
+        if (!(type instanceof AtomicType)) {
+            return ITEM;
+        } else if (th.isSubType(type, BuiltInAtomicType.INTEGER)) {
+            return INTEGER;
+        } else if (th.isSubType(type, BuiltInAtomicType.DOUBLE)) {
+            return DOUBLE;
+        } else if (th.isSubType(type, BuiltInAtomicType.BOOLEAN)) {
+            return BOOLEAN;
+        } else if (th.isSubType(type, BuiltInAtomicType.STRING)) {
+            return STRING;
+        } else {
+            return ITEM;
+        }
+    }
+
+    /**
+     * Make a compiled evaluator for an expression
+     * @param exp the expression
+     * @return the evaluator, or null if the expression is not one that the compiler handles directly
+     */
+
+    /*@Nullable*/ private CompiledEvaluator makeEvaluator(Expression exp) {
+        if (exp instanceof ArithmeticExpression) {
+            return makeArithmetic((ArithmeticExpression)exp);
+        } else if (exp instanceof NegateExpression) {
+            Expression base = ((NegateExpression)exp).getBaseExpression();
+            int kind = getKind(base);
+            if (kind == INTEGER) {
+                return new IntegerNegate(operand(base));
+            } else if (kind == DOUBLE) {
+                return new DoubleNegate(operand(base));
+            }
+        } else if (exp instanceof CompareToIntegerConstant) {
+            CompareToIntegerConstant c = (CompareToIntegerConstant)exp;
+            int kind = getKind(c.getOperand());
+            long comparand = c.getComparand();
+            if (kind == INTEGER) {
+                return new LongComparison(operand(c.getOperand()), c.getComparisonOperator(),
+                        new Constant(Int64Value.makeIntegerValue(comparand)));
+            } else if (kind == DOUBLE) {
+                return new DoubleComparison(operand(c.getOperand()), c.getComparisonOperator(),
+                        new Constant(new DoubleValue((double)comparand)));
+            }
+        } else if (exp instanceof ValueComparison ||
+                (exp instanceof GeneralComparison &&
+                        ((GeneralComparison)exp).getComparisonCardinality() == GeneralComparison.ONE_TO_ONE)) {
+            return makeComparison((ComparisonExpression)exp);
+        } else if (exp instanceof AndExpression) {
+            Expression[] operands = ((AndExpression)exp).getOperands();
+            return new And(booleanOperand(operands[0]), booleanOperand(operands[1]));
+        } else if (exp instanceof OrExpression) {
+            Expression[] operands = ((OrExpression)exp).getOperands();
+            return new Or(booleanOperand(operands[0]), booleanOperand(operands[1]));
+        } else if (exp instanceof NotFn) {
+            return new Not(booleanOperand(((NotFn)exp).getArguments()[0]));
+        } else if (exp instanceof BooleanFn) {
+            return new Not(new Not(booleanOperand(((BooleanFn)exp).getArguments()[0])));
+        } else if (exp instanceof CastExpression) {
+            CastExpression cast = (CastExpression)exp;
+            Expression base = cast.getBaseExpression();
+            if (cast.getTargetType() == BuiltInAtomicType.DOUBLE && base.getCardinality() == StaticProperty.EXACTLY_ONE) {
+                if (base instanceof Atomizer && isSimpleNodeSource(((Atomizer)base).getBaseExpression())) {
+                    return new StringToDouble(new UntypedNodeString(((Atomizer)base).getBaseExpression()), doubleConverter);
+                } else if (getKind(base) == STRING || th.isSubType(base.getItemType(th), BuiltInAtomicType.UNTYPED_ATOMIC)) {
+                    return new StringToDouble(operand(base), doubleConverter);
+                }
+            }
+        }
+        return null;
+    }
+
+    private CompiledEvaluator makeArithmetic(ArithmeticExpression exp) {
+        Expression[] operands = exp.getOperands();
+        int op = exp.getOperator();
+        int k0 = getKind(operands[0]);
+        int k1 = getKind(operands[1]);
+        if (k0 == INTEGER && k1 == INTEGER) {
+            if (op == Token.PLUS || op == Token.MINUS || op == Token.MULT || op == Token.IDIV || op == Token.MOD) {
+                return new IntegerArithmetic(operand(operands[0]), op, operand(operands[1]));
+            }
+        } else if ((k0 == INTEGER || k0 == DOUBLE) && (k1 == INTEGER || k1 == DOUBLE)) {
+            if (op == Token.PLUS || op == Token.MINUS || op == Token.MULT || op == Token.DIV || op == Token.MOD) {
+                return new DoubleArithmetic(operand(operands[0]), op, operand(operands[1]));
+            }
+        }
+        return null;
+    }
+
+    private CompiledEvaluator makeComparison(ComparisonExpression exp) {
+        Expression[] operands = exp.getOperands();
+        int op = exp.getSingletonOperator();
+        AtomicComparer comparer = exp.getAtomicComparer();
+        int k0 = getKind(operands[0]);
+        int k1 = getKind(operands[1]);
+        boolean exact = comparer instanceof GenericAtomicComparer || comparer instanceof ComparableAtomicValueComparer;
+        if ((k0 == INTEGER || k0 == DOUBLE) && (k1 == INTEGER || k1 == DOUBLE)) {
+            if (comparer instanceof NumericComparer || (exact && (k0 == DOUBLE || k1 == DOUBLE))) {
+                return new DoubleComparison(operand(operands[0]), op, operand(operands[1]));
+            } else if (exact) {
+                return new LongComparison(operand(operands[0]), op, operand(operands[1]));
+            }
+        } else if (k0 == STRING && k1 == STRING && (op == Token.FEQ || op == Token.FNE)) {
+            StringCollator collator = (comparer == null ? null : comparer.getCollator());
+            if (comparer instanceof CodepointCollatingComparer ||
+                    (exact && collator instanceof CodepointCollator)) {
+                return new StringEquality(operand(operands[0]), op == Token.FNE, operand(operands[1]));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ask whether an expression selects a node in a simple way: either the context item, or
+     * an axis step
+     * @param exp the expression
+     * @return true if the expression is a ContextItemExpression or an AxisExpression
+     */
+
+    private static boolean isSimpleNodeSource(Expression exp) {
+        return exp instanceof ContextItemExpression || exp instanceof AxisExpression;
+    }
+
+    /**
+     * Get an evaluator for an operand. If the operand cannot itself be compiled, the interpreter is
+     * used to evaluate it, after compiling its own subexpressions. A variable reference is compiled
+     * only if the variable is known to hold exactly one item; otherwise it is left to the interpreter,
+     * which (in a boolean context) computes the effective boolean value of the whole sequence.
+     * @param exp the operand expression
+     * @return the evaluator
+     */
+
+    private CompiledEvaluator operand(Expression exp) {
+        CompiledEvaluator ev = makeEvaluator(exp);
+        if (ev != null) {
+            return ev;
+        } else if (exp instanceof Literal && ((Literal)exp).getValue() instanceof AtomicValue) {
+            return new Constant((AtomicValue)((Literal)exp).getValue());
+        } else if (exp instanceof LocalVariableReference && exp.getCardinality() == StaticProperty.EXACTLY_ONE) {
+            return new LocalVariable((LocalVariableReference)exp);
+        } else {
+            compileSubExpressions(exp);
+            return new Interpreted(exp);
+        }
+    }
+
+    /**
+     * Get an evaluator for an operand whose effective boolean value is required
+     * @param exp the operand expression
+     * @return the evaluator
+     */
+
+    private CompiledEvaluator booleanOperand(Expression exp) {
+        if (exp instanceof AxisExpression) {
+            return new AxisExists((AxisExpression)exp);
+        }
+        return operand(exp);
+    }
+
+    /**
+     * Evaluator for an expression that is evaluated by the interpreter
+     */
+
+    private static class Interpreted extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private Expression exp;
+
+        public Interpreted(Expression exp) {
+            this.exp = exp;
+        }
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            return exp.evaluateItem(context);
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            return exp.effectiveBooleanValue(context);
+        }
+    }
+
+    /**
+     * Evaluator for a literal atomic value
+     */
+
+    private static class Constant extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private AtomicValue value;
+        private boolean isLong;
+        private long longValue;
+        private double doubleValue;
+
+        public Constant(AtomicValue value) {
+            this.value = value;
+            if (value instanceof NumericValue) {
+                doubleValue = ((NumericValue)value).getDoubleValue();
+                if (value instanceof Int64Value) {
+                    isLong = true;
+                    longValue = ((Int64Value)value).longValue();
+                }
+            }
+        }
+
+        public Item evaluateItem(XPathContext context) {
+            return value;
+        }
+
+        public double evaluateDouble(XPathContext context) {
+            if (!(value instanceof NumericValue)) {
+                throw FALLBACK;
+            }
+            return doubleValue;
+        }
+
+        public long evaluateLong(XPathContext context) {
+            if (!isLong) {
+                throw FALLBACK;
+            }
+            return longValue;
+        }
+    }
+
+    /**
+     * Evaluator for a reference to a local variable whose static cardinality is exactly one
+     */
+
+    private static class LocalVariable extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private LocalVariableReference ref;
+
+        public LocalVariable(LocalVariableReference ref) {
+            this.ref = ref;
+        }
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            ValueRepresentation val = ref.evaluateVariable(context);
+            if (val instanceof Item) {
+                return (Item)val;
+            }
+            return Value.asItem(val);
+        }
+    }
+
+    /**
+     * Evaluator for integer arithmetic, for the operators +, -, *, idiv, and mod
+     */
+
+    private static class IntegerArithmetic extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator op0;
+        private int operator;
+        private CompiledEvaluator op1;
+
+        public IntegerArithmetic(CompiledEvaluator op0, int operator, CompiledEvaluator op1) {
+            this.op0 = op0;
+            this.operator = operator;
+            this.op1 = op1;
+        }
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            return Int64Value.makeIntegerValue(evaluateLong(context));
+        }
+
+        public double evaluateDouble(XPathContext context) throws XPathException {
+            return (double)evaluateLong(context);
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            return evaluateLong(context) != 0;
+        }
+
+        public long evaluateLong(XPathContext context) throws XPathException {
+            long a = op0.evaluateLong(context);
+            long b = op1.evaluateLong(context);
+            long r;
+            switch (operator) {
+                case Token.PLUS:
+                    r = a + b;
+                    if (((a ^ r) & (b ^ r)) < 0) {
+                        throw FALLBACK;     // overflow
+                    }
+                    return r;
+                case Token.MINUS:
+                    r = a - b;
+                    if (((a ^ b) & (a ^ r)) < 0) {
+                        throw FALLBACK;     // overflow
+                    }
+                    return r;
+                case Token.MULT:
+                    r = a * b;
+                    if (((Math.abs(a) | Math.abs(b)) >>> 31) != 0) {
+                        if ((b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1)) {
+                            throw FALLBACK;     // overflow
+                        }
+                    }
+                    return r;
+                case Token.IDIV:
+                    if (b == 0 || (a == Long.MIN_VALUE && b == -1)) {
+                        throw FALLBACK;     // let the interpreter report the error, or handle the overflow
+                    }
+                    return a / b;
+                case Token.MOD:
+                    if (b == 0) {
+                        throw FALLBACK;     // let the interpreter report the error
+                    }
+                    return a % b;
+                default:
+                    throw FALLBACK;
+            }
+        }
+    }
+
+    /**
+     * Evaluator for double arithmetic, for the operators +, -, *, div, and mod, where at least
+     * one operand is an xs:double and the other is an xs:double or xs:integer
+     */
+
+    private static class DoubleArithmetic extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator op0;
+        private int operator;
+        private CompiledEvaluator op1;
+
+        public DoubleArithmetic(CompiledEvaluator op0, int operator, CompiledEvaluator op1) {
+            this.op0 = op0;
+            this.operator = operator;
+            this.op1 = op1;
+        }
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            return new DoubleValue(evaluateDouble(context));
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            double d = evaluateDouble(context);
+            return d != 0 && !Double.isNaN(d);
+        }
+
+        public long evaluateLong(XPathContext context) throws XPathException {
+            throw FALLBACK;
+        }
+
+        public double evaluateDouble(XPathContext context) throws XPathException {
+            double a = op0.evaluateDouble(context);
+            double b = op1.evaluateDouble(context);
+            switch (operator) {
+                case Token.PLUS:
+                    return a + b;
+                case Token.MINUS:
+                    return a - b;
+                case Token.MULT:
+                    return a * b;
+                case Token.DIV:
+                    return a / b;
+                case Token.MOD:
+                    return a % b;
+                default:
+                    throw FALLBACK;
+            }
+        }
+    }
+
+    /**
+     * Evaluator for unary minus applied to an integer
+     */
+
+    private static class IntegerNegate extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator base;
+
+        public IntegerNegate(CompiledEvaluator base) {
+            this.base = base;
+        }
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            return Int64Value.makeIntegerValue(evaluateLong(context));
+        }
+
+        public double evaluateDouble(XPathContext context) throws XPathException {
+            return (double)evaluateLong(context);
+        }
+
+        public long evaluateLong(XPathContext context) throws XPathException {
+            long a = base.evaluateLong(context);
+            if (a == Long.MIN_VALUE) {
+                throw FALLBACK;
+            }
+            return -a;
+        }
+    }
+
+    /**
+     * Evaluator for unary minus applied to a double
+     */
+
+    private static class DoubleNegate extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator base;
+
+        public DoubleNegate(CompiledEvaluator base) {
+            this.base = base;
+        }
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            return new DoubleValue(evaluateDouble(context));
+        }
+
+        public long evaluateLong(XPathContext context) throws XPathException {
+            throw FALLBACK;
+        }
+
+        public double evaluateDouble(XPathContext context) throws XPathException {
+            return -base.evaluateDouble(context);
+        }
+    }
+
+    /**
+     * Base class for evaluators that deliver a boolean result
+     */
+
+    private static abstract class BooleanEvaluator extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            return BooleanValue.get(effectiveBooleanValue(context));
+        }
+
+        public double evaluateDouble(XPathContext context) throws XPathException {
+            throw FALLBACK;
+        }
+
+        public long evaluateLong(XPathContext context) throws XPathException {
+            throw FALLBACK;
+        }
+
+        public abstract boolean effectiveBooleanValue(XPathContext context) throws XPathException;
+    }
+
+    /**
+     * Evaluator for a comparison of two integers, compared exactly
+     */
+
+    private static class LongComparison extends BooleanEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator op0;
+        private int operator;
+        private CompiledEvaluator op1;
+
+        public LongComparison(CompiledEvaluator op0, int operator, CompiledEvaluator op1) {
+            this.op0 = op0;
+            this.operator = operator;
+            this.op1 = op1;
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            long a = op0.evaluateLong(context);
+            long b = op1.evaluateLong(context);
+            switch (operator) {
+                case Token.FEQ:
+                    return a == b;
+                case Token.FNE:
+                    return a != b;
+                case Token.FLT:
+                    return a < b;
+                case Token.FLE:
+                    return a <= b;
+                case Token.FGT:
+                    return a > b;
+                case Token.FGE:
+                    return a >= b;
+                default:
+                    throw FALLBACK;
+            }
+        }
+    }
+
+    /**
+     * Evaluator for a comparison of two numbers, compared as doubles
+     */
+
+    private static class DoubleComparison extends BooleanEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator op0;
+        private int operator;
+        private CompiledEvaluator op1;
+
+        public DoubleComparison(CompiledEvaluator op0, int operator, CompiledEvaluator op1) {
+            this.op0 = op0;
+            this.operator = operator;
+            this.op1 = op1;
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            double a = op0.evaluateDouble(context);
+            double b = op1.evaluateDouble(context);
+            // Note that Java comparisons involving NaN give the results required by XPath
+            switch (operator) {
+                case Token.FEQ:
+                    return a == b;
+                case Token.FNE:
+                    return a != b;
+                case Token.FLT:
+                    return a < b;
+                case Token.FLE:
+                    return a <= b;
+                case Token.FGT:
+                    return a > b;
+                case Token.FGE:
+                    return a >= b;
+                default:
+                    throw FALLBACK;
+            }
+        }
+    }
+
+    /**
+     * Evaluator for an equality or inequality comparison of two strings using the codepoint collation
+     */
+
+    private static class StringEquality extends BooleanEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator op0;
+        private boolean negate;
+        private CompiledEvaluator op1;
+
+        public StringEquality(CompiledEvaluator op0, boolean negate, CompiledEvaluator op1) {
+            this.op0 = op0;
+            this.negate = negate;
+            this.op1 = op1;
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            Item a = op0.evaluateItem(context);
+            Item b = op1.evaluateItem(context);
+            if (!(a instanceof StringValue && b instanceof StringValue)) {
+                throw FALLBACK;
+            }
+            return ((StringValue)a).codepointEquals((StringValue)b) != negate;
+        }
+    }
+
+    /**
+     * Evaluator for the "and" operator
+     */
+
+    private static class And extends BooleanEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator op0;
+        private CompiledEvaluator op1;
+
+        public And(CompiledEvaluator op0, CompiledEvaluator op1) {
+            this.op0 = op0;
+            this.op1 = op1;
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            return op0.effectiveBooleanValue(context) && op1.effectiveBooleanValue(context);
+        }
+    }
+
+    /**
+     * Evaluator for the "or" operator
+     */
+
+    private static class Or extends BooleanEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator op0;
+        private CompiledEvaluator op1;
+
+        public Or(CompiledEvaluator op0, CompiledEvaluator op1) {
+            this.op0 = op0;
+            this.op1 = op1;
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            return op0.effectiveBooleanValue(context) || op1.effectiveBooleanValue(context);
+        }
+    }
+
+    /**
+     * Evaluator for the not() function
+     */
+
+    private static class Not extends BooleanEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator base;
+
+        public Not(CompiledEvaluator base) {
+            this.base = base;
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            return !base.effectiveBooleanValue(context);
+        }
+    }
+
+    /**
+     * Evaluator for the effective boolean value of an axis step, that is, a test whether the
+     * context node has any nodes on the given axis that satisfy the node test
+     */
+
+    private static class AxisExists extends BooleanEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private byte axis;
+        private NodeTest test;
+
+        public AxisExists(AxisExpression step) {
+            this.axis = step.getAxis();
+            this.test = step.getNodeTest();
+        }
+
+        public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+            Item item = context.getContextItem();
+            if (!(item instanceof NodeInfo)) {
+                throw FALLBACK;     // let the interpreter report the error
+            }
+            AxisIterator iter = (test == null ?
+                    ((NodeInfo)item).iterateAxis(axis) :
+                    ((NodeInfo)item).iterateAxis(axis, test));
+            return iter.next() != null;
+        }
+    }
+
+    /**
+     * Evaluator for the string value of an untyped element or attribute node, being either the context
+     * item or the only node selected by an axis step
+     */
+
+    private static class UntypedNodeString extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private byte axis = -1;
+        private NodeTest test;
+
+        public UntypedNodeString(Expression source) {
+            if (source instanceof AxisExpression) {
+                axis = ((AxisExpression)source).getAxis();
+                test = ((AxisExpression)source).getNodeTest();
+            }
+        }
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            return new UntypedAtomicValue(evaluateString(context));
+        }
+
+        public CharSequence evaluateString(XPathContext context) throws XPathException {
+            Item item = context.getContextItem();
+            if (!(item instanceof NodeInfo)) {
+                throw FALLBACK;
+            }
+            NodeInfo node = (NodeInfo)item;
+            if (axis >= 0) {
+                AxisIterator iter = (test == null ? node.iterateAxis(axis) : node.iterateAxis(axis, test));
+                node = (NodeInfo)iter.next();
+                if (node == null || iter.next() != null) {
+                    throw FALLBACK;     // not a singleton
+                }
+            }
+            int kind = node.getNodeKind();
+            int annotation = node.getTypeAnnotation();
+            if (!((kind == Type.ELEMENT && annotation == StandardNames.XS_UNTYPED) ||
+                    (kind == Type.ATTRIBUTE && annotation == StandardNames.XS_UNTYPED_ATOMIC))) {
+                throw FALLBACK;
+            }
+            return node.getStringValueCS();
+        }
+    }
+
+    /**
+     * Evaluator for a cast from a string or untypedAtomic value to xs:double
+     */
+
+    private static class StringToDouble extends CompiledEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        private CompiledEvaluator base;
+        private StringConverter converter;
+
+        public StringToDouble(CompiledEvaluator base, StringConverter converter) {
+            this.base = base;
+            this.converter = converter;
+        }
+
+        public Item evaluateItem(XPathContext context) throws XPathException {
+            return new DoubleValue(evaluateDouble(context));
+        }
+
+        public long evaluateLong(XPathContext context) throws XPathException {
+            throw FALLBACK;
+        }
+
+        public double evaluateDouble(XPathContext context) throws XPathException {
+            ConversionResult result = converter.convertString(base.evaluateString(context));
+            if (result instanceof ValidationFailure) {
+                throw FALLBACK;     // let the interpreter report the error
+            }
+            return ((DoubleValue)result).getDoubleValue();
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
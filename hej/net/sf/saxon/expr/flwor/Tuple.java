@@ -7,6 +7,7 @@ import net.sf.saxon.value.ObjectValue;
  * A tuple, as it appears in an XQuery tuple stream handled by extended FLWOR expressions.
  */
 public class Tuple extends ObjectValue {
+    private static final long serialVersionUID = 1L;
 
     public Tuple(ValueRepresentation[] members) {
         super(members);
@@ -508,18 +508,18 @@ public class AnalyzeString extends Instruction {
         RegularExpression re = pattern;
         if (re == null) {
             CharSequence flagstr = flags.evaluateAsString(context);
-            int flagBits = JRegularExpression.setFlags(flagstr);
+            Configuration config = context.getConfiguration();
             int options = RegularExpression.XPATH20;
-            if (context.getConfiguration().getXMLVersion() == Configuration.XML11) {
+            if (config.getXMLVersion() == Configuration.XML11) {
                 options |= RegularExpression.XML11;
             }
-            if (context.getConfiguration().getXsdVersion() == Configuration.XSD11) {
+            if (config.getXsdVersion() == Configuration.XSD11) {
                 options |= RegularExpression.XSD11;
             }
             if (allow30features) {
                 options |= RegularExpression.XPATH30;
             }
-            re = new JRegularExpression(regex.evaluateAsString(context), options, flagBits, null);
+            re = config.getRegexCache().getRegularExpression(regex.evaluateAsString(context), options, flagstr);
             if (re.matches("")) {
                 dynamicError("The regular expression must not be one that matches a zero-length string",
                         "XTDE1150", context);
@@ -770,6 +770,42 @@ public class Choose extends Instruction {
         out.endElement();
     }
 
+    /**
+     * Decide which branch of the conditional is to be taken, by evaluating the conditions in turn
+     * @param context the dynamic context
+     * @return the index of the first condition that is true, or -1 if none is true
+     * @throws XPathException if evaluating a condition fails
+     */
+
+    protected int choose(XPathContext context) throws XPathException {
+        return choose(context, 0);
+    }
+
+    /**
+     * Decide which branch of the conditional is to be taken, starting at a given condition. The caller
+     * must already know that all the conditions before this one are false.
+     * @param context the dynamic context
+     * @param start the index of the first condition to be tested
+     * @return the index of the first condition (at or after start) that is true, or -1 if none is true
+     * @throws XPathException if evaluating a condition fails
+     */
+
+    protected final int choose(XPathContext context, int start) throws XPathException {
+        for (int i=start; i<conditions.length; i++) {
+            final boolean b;
+            try {
+                b = conditions[i].effectiveBooleanValue(context);
+            } catch (XPathException e) {
+                e.maybeSetLocation(conditions[i]);
+                throw e;
+            }
+            if (b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
     * Process this instruction, that is, choose an xsl:when or xsl:otherwise child
     * and process it.
@@ -781,21 +817,12 @@ public class Choose extends Instruction {
     */
 
     public TailCall processLeavingTail(XPathContext context) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                if (actions[i] instanceof TailCallReturner) {
-                    return ((TailCallReturner)actions[i]).processLeavingTail(context);
-                } else {
-                    actions[i].process(context);
-                    return null;
-                }
+        int i = choose(context);
+        if (i >= 0) {
+            if (actions[i] instanceof TailCallReturner) {
+                return ((TailCallReturner)actions[i]).processLeavingTail(context);
+            } else {
+                actions[i].process(context);
             }
         }
         return null;
@@ -817,19 +844,8 @@ public class Choose extends Instruction {
      */
 
     public Item evaluateItem(XPathContext context) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                return actions[i].evaluateItem(context);
-            }
-        }
-        return null;
+        int i = choose(context);
+        return (i < 0 ? null : actions[i].evaluateItem(context));
     }
 
     /**
@@ -851,19 +867,8 @@ public class Choose extends Instruction {
 
     /*@NotNull*/
     public SequenceIterator<? extends Item> iterate(XPathContext context) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                return (actions[i]).iterate(context);
-            }
-        }
-        return EmptyIterator.emptyIterator();
+        int i = choose(context);
+        return (i < 0 ? EmptyIterator.emptyIterator() : actions[i].iterate(context));
     }
 
 
@@ -891,19 +896,8 @@ public class Choose extends Instruction {
      */
 
     public EventIterator iterateEvents(XPathContext context) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                return (actions[i]).iterateEvents(context);
-            }
-        }
-        return EmptyEventIterator.getInstance();
+        int i = choose(context);
+        return (i < 0 ? EmptyEventIterator.getInstance() : actions[i].iterateEvents(context));
     }
 
 
@@ -917,18 +911,9 @@ public class Choose extends Instruction {
      */
 
     public void evaluatePendingUpdates(XPathContext context, PendingUpdateList pul) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                actions[i].evaluatePendingUpdates(context, pul);
-                return;
-            }
+        int i = choose(context);
+        if (i >= 0) {
+            actions[i].evaluatePendingUpdates(context, pul);
         }
     }
 }
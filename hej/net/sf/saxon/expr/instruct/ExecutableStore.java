@@ -0,0 +1,459 @@
+package net.sf.saxon.expr.instruct;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Version;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NamespaceBinding;
+import net.sf.saxon.pattern.AnyNodeTest;
+import net.sf.saxon.pattern.EmptySequenceTest;
+import net.sf.saxon.pattern.NodeKindTest;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.*;
+import net.sf.saxon.value.*;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class saves a compiled stylesheet or query to a binary stream, and loads it again, so that the cost
+ * of compilation need not be incurred every time an application starts.
+ *
+ * <p>The saved form starts with a header identifying the Saxon edition and version that wrote it; it can only
+ * be loaded by exactly the same edition and version. The header is followed, in compressed form, by a
+ * description of the NamePool, and by the compiled code itself, which is written using Java serialization.
+ * The Configuration is not saved: references to it (and to its NamePool) within the compiled code are
+ * replaced on loading by references to the Configuration into which the code is loaded.</p>
+ *
+ * <p>The compiled code contains name codes allocated from the NamePool of the configuration that compiled it.
+ * The description of the NamePool gives the prefix, URI, and local name of each name code. On loading, the
+ * objects that hold name codes (those that implement {@link NameCodeHolder}) are collected while the compiled
+ * code is read; when it has been read completely, the names are allocated in the NamePool of the target
+ * configuration and the codes held by these objects are translated. The target NamePool therefore need have
+ * nothing in common with the one used for compilation, any number of stylesheets and queries can be loaded
+ * into the same configuration, and the NamePool is not changed if loading fails.</p>
+ *
+ * <p>Some objects, such as the built-in types and the values <code>true()</code> and <code>()</code>, are
+ * singletons that the run-time code compares by identity. These are written as references to the
+ * corresponding static constant, and are resolved on loading to the existing instance.</p>
+ *
+ * <p>Because the compiled code is written using Java serialization, the saved form depends on the fields
+ * of the classes making up the expression tree. This is why code can only be loaded by the Saxon version
+ * that saved it. The classes that are saved declare a <code>serialVersionUID</code>, so that the saved form
+ * does not depend on the compiler used to build Saxon, and so that the identifier of each class need not be
+ * computed when code is saved or loaded. Saving compiled code does not modify it.</p>
+ *
+ * <p>Loading compiled code instantiates the classes named in the input, and the loaded code is then executed,
+ * so <b>the input must come from a trusted source</b>. As a precaution, only classes in the Saxon packages and
+ * a small number of standard Java packages can be loaded.</p>
+ */
+
+public final class ExecutableStore {
+
+    /**
+     * Code identifying a compiled stylesheet (an instance of {@link net.sf.saxon.PreparedStylesheet})
+     */
+    public static final int STYLESHEET = 1;
+
+    /**
+     * Code identifying a compiled query (an instance of {@link net.sf.saxon.query.XQueryExpression})
+     */
+    public static final int QUERY = 2;
+
+    private static final int MAGIC = 0x53584358;    // "SXCX"
+    private static final int FORMAT_VERSION = 3;
+
+    /**
+     * Classes whose public static constants, and whose static <code>getInstance()</code> method,
+     * deliver singleton instances
+     */
+
+    private static final Class[] CONSTANT_CLASSES = {
+            AnyItemType.class, AnyFunctionType.class, AnyNodeTest.class, NodeKindTest.class,
+            EmptySequenceTest.class, ErrorType.class, SequenceType.class, BooleanValue.class,
+            EmptySequence.class, DecimalValue.class, NamespaceBinding.class
+    };
+
+    /**
+     * Prefixes of the names of the classes that may be instantiated when compiled code is loaded
+     */
+
+    private static final String[] PERMITTED_CLASSES = {
+            "net.sf.saxon.", "com.saxonica.", "java.lang.", "java.util.", "java.math.", "java.net.URI"
+    };
+
+    /**
+     * Prefixes of the names of classes within those packages that may not be instantiated
+     */
+
+    private static final String[] EXCLUDED_CLASSES = {
+            "java.lang.reflect.", "java.lang.invoke.", "java.lang.Process", "java.lang.Runtime",
+            "java.lang.Thread", "java.lang.Class"
+    };
+
+    private static IdentityHashMap<Object, ConstantReference> constants;
+
+    private ExecutableStore() {}
+
+    /**
+     * Save compiled code
+     * @param compiled the compiled stylesheet or query
+     * @param kind {@link #STYLESHEET} or {@link #QUERY}
+     * @param config the configuration used to compile the code
+     * @param out the destination. This is flushed, but not closed.
+     * @throws XPathException if the compiled code cannot be saved, or if an I/O error occurs
+     */
+
+    public static void save(Serializable compiled, int kind, Configuration config, OutputStream out)
+            throws XPathException {
+        try {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT_VERSION);
+            header.writeUTF(config.getEditionCode());
+            int[] version = Version.getStructuredVersionNumber();
+            header.writeShort(version.length);
+            for (int v : version) {
+                header.writeInt(v);
+            }
+            header.writeByte(kind);
+            header.flush();
+
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DeflaterOutputStream body = new DeflaterOutputStream(out, deflater, 65536);
+                ObjectOutputStream oos = new CodeOutputStream(new BufferedOutputStream(body, 65536), config);
+                config.getNamePool().writeNames(oos);
+                oos.writeObject(compiled);
+                oos.flush();
+                body.finish();
+            } finally {
+                deflater.end();
+            }
+            out.flush();
+        } catch (NotSerializableException e) {
+            throw new XPathException("Cannot save compiled code: it contains an object of class " +
+                    e.getMessage() + " which cannot be saved");
+        } catch (IOException e) {
+            throw new XPathException("Failed to save compiled code: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Load compiled code previously saved using {@link #save}
+     * @param config the configuration into which the code is to be loaded
+     * @param kind {@link #STYLESHEET} or {@link #QUERY}
+     * @param in the source of the saved code. This is not closed.
+     * @return the compiled stylesheet or query
+     * @throws XPathException if the saved code cannot be loaded, for example because it was saved by
+     * a different Saxon edition or version, or because it refers to a class that may not be loaded.
+     * The NamePool of the target configuration is not changed.
+     */
+
+    public static Object load(Configuration config, int kind, InputStream in) throws XPathException {
+        try {
+            DataInputStream header = new DataInputStream(in);
+            if (header.readInt() != MAGIC) {
+                throw new XPathException("The input does not contain saved compiled code");
+            }
+            int format = header.readInt();
+            String edition = header.readUTF();
+            int[] version = new int[header.readShort()];
+            for (int i=0; i<version.length; i++) {
+                version[i] = header.readInt();
+            }
+            if (format != FORMAT_VERSION || !edition.equals(config.getEditionCode()) ||
+                    !Arrays.equals(version, Version.getStructuredVersionNumber())) {
+                throw new XPathException("The compiled code was saved by Saxon-" + edition + " " +
+                        showVersion(version) + ", and cannot be loaded by Saxon-" + config.getEditionCode() + " " +
+                        showVersion(Version.getStructuredVersionNumber()));
+            }
+            int savedKind = header.readByte();
+            if (savedKind != kind) {
+                throw new XPathException("The saved code is a compiled " +
+                        (savedKind == STYLESHEET ? "stylesheet" : "query") + ", not a compiled " +
+                        (kind == STYLESHEET ? "stylesheet" : "query"));
+            }
+
+            Inflater inflater = new Inflater();
+            try {
+                CodeInputStream ois = new CodeInputStream(
+                        new BufferedInputStream(new InflaterInputStream(in, inflater, 65536), 65536), config);
+                NameCodeMap names = config.getNamePool().readNames(ois);
+                Object compiled = ois.readObject();
+                // Nothing has been allocated in the NamePool so far: now translate the name codes
+                for (NameCodeHolder holder : ois.getNameCodeHolders()) {
+                    holder.remapNameCodes(names);
+                }
+                return compiled;
+            } finally {
+                inflater.end();
+            }
+        } catch (IllegalArgumentException e) {
+            throw new XPathException("The saved compiled code is corrupt: " + e.getMessage());
+        } catch (EOFException e) {
+            throw new XPathException("The saved compiled code is truncated");
+        } catch (ClassNotFoundException e) {
+            throw new XPathException("Failed to load compiled code: class " + e.getMessage() + " is not available");
+        } catch (IOException e) {
+            throw new XPathException("Failed to load compiled code: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the table of singleton objects, building it on first use
+     * @return a table mapping each singleton to a reference that identifies it by name
+     */
+
+    private static synchronized IdentityHashMap<Object, ConstantReference> getConstants() {
+        if (constants == null) {
+            IdentityHashMap<Object, ConstantReference> map = new IdentityHashMap<Object, ConstantReference>(256);
+            try {
+                for (Class c : CONSTANT_CLASSES) {
+                    for (Field f : c.getFields()) {
+                        if (Modifier.isStatic(f.getModifiers()) && !f.getType().isPrimitive() &&
+                                f.getDeclaringClass() == c) {
+                            Object value = f.get(null);
+                            if (value != null && !map.containsKey(value)) {
+                                map.put(value, new ConstantReference(c.getName(), f.getName()));
+                            }
+                        }
+                    }
+                    try {
+                        Object value = c.getMethod("getInstance").invoke(null);
+                        if (!map.containsKey(value)) {
+                            map.put(value, new ConstantReference(c.getName(), null));
+                        }
+                    } catch (NoSuchMethodException e) {
+                        // no action
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            constants = map;
+        }
+        return constants;
+    }
+
+    private static String showVersion(int[] version) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<version.length; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            sb.append(version[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A placeholder written in place of an object that belongs to the configuration, and is replaced on
+     * loading by the corresponding object of the target configuration
+     */
+
+    private static class ConfigurationReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static final ConfigurationReference CONFIGURATION = new ConfigurationReference(0);
+        static final ConfigurationReference NAME_POOL = new ConfigurationReference(1);
+        static final ConfigurationReference CONVERSION_RULES = new ConfigurationReference(2);
+
+        int which;
+
+        public ConfigurationReference(int which) {
+            this.which = which;
+        }
+    }
+
+    /**
+     * A placeholder written in place of a static constant (or of the instance returned by a static
+     * <code>getInstance()</code> method), and replaced on loading by the existing instance
+     */
+
+    private static class ConstantReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        String className;
+        String fieldName;   // null for the getInstance() method
+
+        public ConstantReference(String className, String fieldName) {
+            this.className = className;
+            this.fieldName = fieldName;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                Class c = Class.forName(className);
+                if (fieldName == null) {
+                    Method m = c.getMethod("getInstance");
+                    return m.invoke(null);
+                } else {
+                    return c.getField(fieldName).get(null);
+                }
+            } catch (Exception e) {
+                throw new InvalidObjectException("Cannot resolve constant " + className + "." +
+                        (fieldName == null ? "getInstance()" : fieldName));
+            }
+        }
+    }
+
+    /**
+     * A placeholder written in place of a built-in schema type, and replaced on loading by the
+     * existing instance
+     */
+
+    private static class BuiltInTypeReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int fingerprint;
+
+        public BuiltInTypeReference(int fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            SchemaType type = BuiltInType.getSchemaType(fingerprint);
+            if (type == null) {
+                throw new InvalidObjectException("Unknown built-in type " + fingerprint);
+            }
+            return type;
+        }
+    }
+
+    private static class CodeOutputStream extends ObjectOutputStream {
+
+        private Configuration config;
+        private IdentityHashMap<Object, ConstantReference> constants;
+
+        public CodeOutputStream(OutputStream out, Configuration config) throws IOException {
+            super(out);
+            this.config = config;
+            this.constants = getConstants();
+            enableReplaceObject(true);
+        }
+
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Configuration) {
+                if (obj != config) {
+                    throw new IOException("The compiled code refers to more than one Configuration");
+                }
+                return ConfigurationReference.CONFIGURATION;
+            } else if (obj instanceof NamePool) {
+                if (obj != config.getNamePool()) {
+                    throw new IOException("The compiled code refers to more than one NamePool");
+                }
+                return ConfigurationReference.NAME_POOL;
+            } else if (obj == config.getConversionRules()) {
+                return ConfigurationReference.CONVERSION_RULES;
+            } else if (obj instanceof SchemaType) {
+                int fp = ((SchemaType)obj).getFingerprint();
+                if (fp != -1 && BuiltInType.getSchemaType(fp) == obj) {
+                    return new BuiltInTypeReference(fp);
+                }
+            }
+            ConstantReference ref = constants.get(obj);
+            return ref == null ? obj : ref;
+        }
+    }
+
+    private static class CodeInputStream extends ObjectInputStream {
+
+        private Configuration config;
+        private List<NameCodeHolder> holders = new ArrayList<NameCodeHolder>();
+
+        public CodeInputStream(InputStream in, Configuration config) throws IOException {
+            super(in);
+            this.config = config;
+            enableResolveObject(true);
+        }
+
+        /**
+         * Get the objects read so far that hold name codes
+         * @return the objects that hold name codes, which remain to be translated
+         */
+
+        public List<NameCodeHolder> getNameCodeHolders() {
+            return holders;
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            int dimensions = 0;
+            while (name.charAt(dimensions) == '[') {
+                dimensions++;
+            }
+            if (dimensions > 0) {
+                // an array: check the class of its elements, unless they are primitive values
+                name = (name.charAt(dimensions) == 'L' ? name.substring(dimensions + 1, name.length() - 1) : null);
+            }
+            if (name != null && !isPermitted(name)) {
+                throw new InvalidClassException(desc.getName(), "this class may not be loaded as compiled code");
+            }
+            return super.resolveClass(desc);
+        }
+
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes may not be loaded as compiled code");
+        }
+
+        private static boolean isPermitted(String className) {
+            for (String excluded : EXCLUDED_CLASSES) {
+                if (className.startsWith(excluded)) {
+                    return false;
+                }
+            }
+            for (String permitted : PERMITTED_CLASSES) {
+                if (className.startsWith(permitted)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof NameCodeHolder) {
+                holders.add((NameCodeHolder)obj);
+            }
+            if (obj instanceof ConfigurationReference) {
+                switch (((ConfigurationReference)obj).which) {
+                    case 0:
+                        return config;
+                    case 1:
+                        return config.getNamePool();
+                    default:
+                        return config.getConversionRules();
+                }
+            }
+            return obj;
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -52,7 +52,7 @@ public class ForEach extends Instruction implements ContextMappingFunction<Item>
      * @param select the select expression
      * @param action the body of the xsl:for-each loop
      * @param containsTailCall true if the body of the loop contains a tail call on the containing function
-     * @param threads if >1 causes multithreaded execution (Saxon-EE only)
+     * @param threads if >1 causes multithreaded execution (see {@link MultithreadedForEach})
      */
 
     public ForEach(Expression select, Expression action, boolean containsTailCall, Expression threads) {
@@ -15,6 +15,7 @@ import net.sf.saxon.value.IntegerValue;
 import net.sf.saxon.value.SequenceType;
 
 import javax.xml.transform.SourceLocator;
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -24,7 +25,8 @@ import java.util.List;
 * also saxon:assign
 */
 
-public abstract class GeneralVariable implements Binding, SourceLocator {
+public abstract class GeneralVariable implements Binding, SourceLocator, Serializable {
+    private static final long serialVersionUID = 1L;
 
     private static final int ASSIGNABLE = 1;
     private static final int REQUIRED = 4;
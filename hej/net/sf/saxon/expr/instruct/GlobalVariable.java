@@ -11,6 +11,7 @@ import net.sf.saxon.om.ValueRepresentation;
 import net.sf.saxon.query.XQueryFunction;
 import net.sf.saxon.query.XQueryFunctionLibrary;
 import net.sf.saxon.trace.InstructionInfo;
+import net.sf.saxon.trace.SamplingProfiler;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.tree.iter.SingletonIterator;
 import net.sf.saxon.tree.iter.UnfailingIterator;
@@ -299,7 +300,17 @@ public class GlobalVariable extends GeneralVariable implements Container, Instru
                 if (stackFrameMap != null) {
                     c2.openStackFrame(stackFrameMap);
                 }
-                return ExpressionTool.evaluate(select, evaluationMode, c2, referenceCount);
+                SamplingProfiler profiler = controller.getSamplingProfiler();
+                if (profiler == null) {
+                    return ExpressionTool.evaluate(select, evaluationMode, c2, referenceCount);
+                }
+                // Any part of the value that is evaluated lazily is attributed to the caller that reads it
+                XPathContext saved = profiler.enter(c2);
+                try {
+                    return ExpressionTool.evaluate(select, evaluationMode, c2, referenceCount);
+                } finally {
+                    profiler.leave(saved);
+                }
             } catch (XPathException e) {
                 if (!getVariableQName().getURI().equals(NamespaceConstant.SAXON_GENERATED_GLOBAL)) {
                     e.setIsGlobalError(true);
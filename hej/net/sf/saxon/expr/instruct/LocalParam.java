@@ -29,6 +29,7 @@ import java.util.List;
  */
 
 public final class LocalParam extends GeneralVariable {
+    private static final long serialVersionUID = 1L;
 
     private int parameterId;
     /*@Nullable*/ private Expression conversion = null;
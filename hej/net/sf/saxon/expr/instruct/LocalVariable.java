@@ -10,6 +10,7 @@ import net.sf.saxon.trans.XPathException;
 */
 
 public class LocalVariable extends GeneralVariable {
+    private static final long serialVersionUID = 1L;
 
    /**
     * Evaluate the variable
@@ -0,0 +1,457 @@
+package net.sf.saxon.expr.instruct;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.SequenceOutputter;
+import net.sf.saxon.event.SequenceReceiver;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.SingletonIterator;
+import net.sf.saxon.value.SequenceExtent;
+import net.sf.saxon.value.Whitespace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * A multi-threaded version of xsl:for-each, generated by the optimizer when the instruction carries
+ * the attribute <code>saxon:threads="N"</code> and multi-threading is enabled in the configuration
+ * (see {@link net.sf.saxon.lib.FeatureKeys#ALLOW_MULTITHREADING}).
+ *
+ * <p>The items selected by the select expression are processed concurrently, with at most N items in
+ * progress at any one time, using the thread pool owned by the {@link Controller}. Each
+ * item is processed in its own {@link XPathContextMajor}, created using
+ * {@link XPathContextMajor#newThreadContext}, so that local variables are not shared between threads.
+ * The output produced for each item is buffered, and the buffers are then written to the real destination
+ * in the order of the input sequence, so the result is the same as if the items were processed serially.
+ * Secondary result documents produced by xsl:result-document within the loop are written directly by the
+ * thread that creates them.</p>
+ *
+ * <p>If several items fail with a dynamic error, the error reported is the one for the first such item in
+ * sequence order.</p>
+ */
+
+public class MultithreadedForEach extends ForEach {
+
+    /**
+     * Create a multi-threaded xsl:for-each instruction equivalent to a supplied xsl:for-each instruction
+     * @param original the original instruction, which must have a saxon:threads attribute
+     * and must not contain a tail call
+     */
+
+    public MultithreadedForEach(ForEach original) {
+        super(original.select, original.action, false, original.threads);
+    }
+
+    private MultithreadedForEach(Expression select, Expression action, Expression threads) {
+        super(select, action, false, threads);
+    }
+
+    /**
+     * Ask whether a ForEach instruction is eligible for multi-threaded execution
+     * @param forEach the instruction
+     * @return true if the instruction has a saxon:threads attribute that might request more than one
+     * thread, and the body does not contain a tail call
+     */
+
+    public static boolean isEligible(ForEach forEach) {
+        Expression threads = forEach.threads;
+        if (threads == null || forEach.containsTailCall || forEach instanceof MultithreadedForEach) {
+            return false;
+        }
+        if (threads instanceof Literal) {
+            try {
+                int n = Integer.parseInt(Whitespace.trim(((Literal)threads).getValue().getStringValue()));
+                return n > 1;
+            } catch (Exception e) {
+                // leave it to run time to report the error
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy.
+     * @return the copy of the original expression
+     */
+
+    /*@NotNull*/
+    public Expression copy() {
+        return new MultithreadedForEach(select.copy(), action.copy(), threads.copy());
+    }
+
+    public TailCall processLeavingTail(XPathContext context) throws XPathException {
+        int n = getNumberOfThreads(context);
+        if (n <= 1 || context.getController().isTracing() || !(context instanceof XPathContextMinor)) {
+            return super.processLeavingTail(context);
+        }
+        SequenceReceiver out = context.getReceiver();
+        Window window = new Window(context, n, true);
+        try {
+            while (true) {
+                List<Item> items = window.nextResult();
+                if (items == null) {
+                    break;
+                }
+                for (Item item : items) {
+                    out.append(item, locationId, NodeInfo.ALL_NAMESPACES);
+                }
+            }
+        } finally {
+            window.close();
+        }
+        return null;
+    }
+
+    /*@NotNull*/
+    public SequenceIterator<? extends Item> iterate(XPathContext context) throws XPathException {
+        int n = getNumberOfThreads(context);
+        if (n <= 1 || context.getController().isTracing() || !(context instanceof XPathContextMinor)) {
+            return super.iterate(context);
+        }
+        return new ResultIterator(new Window(context, n, false));
+    }
+
+    /**
+     * Evaluate the saxon:threads attribute
+     * @param context the dynamic context
+     * @return the number of threads requested
+     * @throws XPathException if the value is not a valid integer
+     */
+
+    private int getNumberOfThreads(XPathContext context) throws XPathException {
+        String s = Whitespace.trim(threads.evaluateAsString(context));
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            XPathException err = new XPathException("The value of saxon:threads must be an integer: found '" + s + "'");
+            err.setErrorCode("XTDE0030");
+            err.setLocator(this);
+            err.setXPathContext(context);
+            throw err;
+        }
+    }
+
+    /**
+     * Determine whether the body of the loop might need the context size. This is the case if it calls
+     * last(), or if it contains xsl:apply-imports or xsl:next-match, which pass the focus unchanged to
+     * the invoked template
+     * @param exp the body of the loop, or a subexpression having the same focus
+     * @return true if the context size might be used
+     */
+
+    private static boolean usesContextSize(Expression exp) {
+        if ((exp.getDependencies() & StaticProperty.DEPENDS_ON_LAST) != 0 || exp instanceof ApplyImports) {
+            return true;
+        }
+        for (Iterator<Expression> iter = exp.iterateSameFocusSubExpressions(); iter.hasNext();) {
+            if (usesContextSize(iter.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Process one item of the input sequence. This method is called in a worker thread
+     * @param c2 the dynamic context, whose focus is the item to be processed
+     * @param controller the controller
+     * @param push true to evaluate the body of the loop in push mode, false for pull mode
+     * @return the items produced by evaluating the body of the loop for this item
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private List<Item> processItem(XPathContextMajor c2, Controller controller, boolean push) throws XPathException {
+        if (push) {
+            SequenceOutputter seq = new SequenceOutputter(controller.makePipelineConfiguration());
+            seq.getPipelineConfiguration().setHostLanguage(getHostLanguage());
+            c2.setReceiver(seq);
+            action.process(c2);
+            seq.close();
+            return seq.getList();
+        } else {
+            List<Item> list = new ArrayList<Item>();
+            SequenceIterator iter = action.iterate(c2);
+            while (true) {
+                Item item = iter.next();
+                if (item == null) {
+                    break;
+                }
+                list.add(item);
+            }
+            return list;
+        }
+    }
+
+    /**
+     * The items of the input sequence that are being processed, or have been processed but whose results
+     * have not yet been delivered. Items are read from the select expression only as results are consumed,
+     * and at most N items (where N is the number of threads requested) are in progress at any one time, so
+     * the memory used does not depend on the length of the input. The tasks run on the thread pool
+     * owned by the Controller. The whole input sequence is read in advance only if the body of the loop
+     * might use the context size, since the size of the sequence is then needed to process the first item.
+     */
+
+    private class Window {
+
+        private Controller controller;
+        private XPathContextMajor baseContext;
+        private int limit;
+        private boolean push;
+        private SequenceIterator input;
+        private int length = -1;
+        private int position = 0;
+        private ArrayDeque<Future<List<Item>>> pending;
+
+        /**
+         * Start processing the items in the selected sequence
+         * @param context the dynamic context
+         * @param n the number of threads to be used
+         * @param push true if the body of the loop is to be evaluated in push mode (as an instruction
+         * writing to a receiver); false if it is to be evaluated in pull mode (as an expression)
+         * @throws XPathException if evaluating the select expression fails
+         */
+
+        public Window(XPathContext context, int n, boolean push) throws XPathException {
+            controller = context.getController();
+            // Take a snapshot of the caller's context, so that the tasks see the same variables
+            // even if the results are consumed after the caller's context has changed
+            baseContext = XPathContextMajor.newThreadContext((XPathContextMinor)context);
+            limit = n;
+            this.push = push;
+            input = select.iterate(baseContext);
+            if (usesContextSize(action)) {
+                SequenceExtent all = new SequenceExtent(input);
+                length = all.getLength();
+                input = all.iterate();
+            }
+            pending = new ArrayDeque<Future<List<Item>>>(n);
+        }
+
+        /**
+         * Get the results of processing the next item of the input sequence
+         * @return the items produced for the next item in the input sequence, or null if there are no more
+         * @throws XPathException if processing of the item failed, in which case the processing of any
+         * later items is abandoned
+         */
+
+        /*@Nullable*/ public List<Item> nextResult() throws XPathException {
+            try {
+                fill();
+                Future<List<Item>> future = pending.poll();
+                return (future == null ? null : waitFor(future, baseContext));
+            } catch (XPathException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Submit items for processing until the limit is reached or the input is exhausted
+         * @throws XPathException if evaluating the select expression fails
+         */
+
+        private void fill() throws XPathException {
+            ExecutorService executor = null;
+            while (pending.size() < limit) {
+                Item item = input.next();
+                if (item == null) {
+                    break;
+                }
+                if (executor == null) {
+                    executor = controller.getMultithreadingExecutor();
+                }
+                // The contexts are created here rather than in the worker threads, because creating them
+                // reads the state of the base context
+                final XPathContextMajor c2 = XPathContextMajor.newThreadContext(baseContext);
+                c2.setOrigin(MultithreadedForEach.this);
+                c2.setCurrentIterator(new FocusIterator(item, ++position, length));
+                c2.setCurrentTemplateRule(null);
+                pending.add(executor.submit(new Callable<List<Item>>() {
+                    public List<Item> call() throws Exception {
+                        return processItem(c2, controller, push);
+                    }
+                }));
+            }
+        }
+
+        /**
+         * Abandon the processing of any items that have not yet been processed
+         */
+
+        public void close() {
+            for (Future<List<Item>> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+            input.close();
+        }
+    }
+
+    /**
+     * Iterator over the results of a multi-threaded xsl:for-each evaluated in pull mode
+     */
+
+    private class ResultIterator implements SequenceIterator<Item> {
+
+        private Window window;
+        /*@Nullable*/ private List<Item> results = null;
+        private int index = 0;
+        /*@Nullable*/ private Item current = null;
+        private int position = 0;
+
+        public ResultIterator(Window window) {
+            this.window = window;
+        }
+
+        /*@Nullable*/ public Item next() throws XPathException {
+            while (results == null || index >= results.size()) {
+                results = window.nextResult();
+                index = 0;
+                if (results == null) {
+                    current = null;
+                    position = -1;
+                    return null;
+                }
+            }
+            current = results.get(index++);
+            position++;
+            return current;
+        }
+
+        /*@Nullable*/ public Item current() {
+            return current;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public void close() {
+            window.close();
+        }
+
+        /*@NotNull*/
+        public SequenceIterator<Item> getAnother() throws XPathException {
+            return new ResultIterator(new Window(window.baseContext, window.limit, false));
+        }
+
+        public int getProperties() {
+            return 0;
+        }
+    }
+
+    /**
+     * Wait for the processing of one item to finish
+     * @param future the future representing the processing of the item
+     * @param context the dynamic context of the caller
+     * @return the items produced for this item
+     * @throws XPathException if processing of the item failed
+     */
+
+    private List<Item> waitFor(Future<List<Item>> future, XPathContext context) throws XPathException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XPathException("Interrupted while waiting for multi-threaded xsl:for-each", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof XPathException) {
+                throw (XPathException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                XPathException err = new XPathException(cause);
+                err.setLocator(this);
+                err.setXPathContext(context);
+                throw err;
+            }
+        }
+    }
+
+    protected void explainThreads(ExpressionPresenter out) {
+        if (threads instanceof StringLiteral) {
+            out.emitAttribute("threads", ((StringLiteral)threads).getStringValue());
+        } else {
+            out.emitAttribute("threads", threads.toString());
+        }
+    }
+
+    /**
+     * An iterator used only to establish the focus for processing one item of the input sequence: the
+     * current item, the context position, and the context size. The context size is known only if
+     * the whole input sequence has been read in advance, which is done if the body of the loop uses last().
+     */
+
+    private static class FocusIterator implements SequenceIterator<Item>, LastPositionFinder<Item> {
+
+        private Item item;
+        private int position;
+        private int length;
+
+        public FocusIterator(Item item, int position, int length) {
+            this.item = item;
+            this.position = position;
+            this.length = length;
+        }
+
+        /*@Nullable*/ public Item next() {
+            return null;
+        }
+
+        public Item current() {
+            return item;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public int getLength() {
+            if (length < 0) {
+                throw new UnsupportedOperationException("Context size is not available");
+            }
+            return length;
+        }
+
+        public void close() {
+        }
+
+        /*@NotNull*/
+        public SequenceIterator<Item> getAnother() {
+            return SingletonIterator.makeIterator(item);
+        }
+
+        public int getProperties() {
+            return (length < 0 ? 0 : LAST_POSITION_FINDER);
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
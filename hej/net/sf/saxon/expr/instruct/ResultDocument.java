@@ -51,7 +51,8 @@ import java.util.Stack;
  * These are attribute value templates, so they may need to be computed at run-time.
  */
 
-public class ResultDocument extends Instruction implements DivisibleInstruction, ValidatingInstruction {
+public class ResultDocument extends Instruction
+        implements DivisibleInstruction, ValidatingInstruction, NameCodeHolder {
 
     /*@Nullable*/ private Expression href;
     private Expression formatExpression;    // null if format was known at compile time
@@ -144,6 +145,17 @@ public class ResultDocument extends Instruction implements DivisibleInstruction,
         resolveAgainstStaticBase = staticBase;
     }
 
+    /**
+     * Replace the fingerprints of the names of the serialization attributes by the fingerprints of the
+     * same names in another NamePool
+     * @param map the mapping from codes in the NamePool used when this instruction was compiled to codes in
+     * the NamePool that is now to be used
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        serializationAttributes = map.mapFingerprintKeys(serializationAttributes);
+    }
+
     /**
      * Simplify an expression. This performs any static optimization (by rewriting the expression
      * as a different expression). The default implementation does nothing.
@@ -619,15 +631,18 @@ public class ResultDocument extends Instruction implements DivisibleInstruction,
             }
 
             DocumentURI documentKey = new DocumentURI(uri);
-            if (!controller.checkUniqueOutputDestination(documentKey)) {
-                XPathException err = new XPathException("Cannot write more than one result document to the same URI: " +
-                        result.getSystemId());
-                err.setXPathContext(context);
-                err.setLocator(this);
-                err.setErrorCode("XTDE1490");
-                throw err;
-            } else {
-                controller.addUnavailableOutputDestination(documentKey);
+            synchronized (controller) {
+                // the check and the update must be atomic when running under saxon:threads
+                if (!controller.checkUniqueOutputDestination(documentKey)) {
+                    XPathException err = new XPathException("Cannot write more than one result document to the same URI: " +
+                            result.getSystemId());
+                    err.setXPathContext(context);
+                    err.setLocator(this);
+                    err.setErrorCode("XTDE1490");
+                    throw err;
+                } else {
+                    controller.addUnavailableOutputDestination(documentKey);
+                }
             }
         }
         controller.setThereHasBeenAnExplicitResultDocument();
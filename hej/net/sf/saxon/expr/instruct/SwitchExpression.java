@@ -0,0 +1,341 @@
+package net.sf.saxon.expr.instruct;
+
+import net.sf.saxon.expr.*;
+import net.sf.saxon.expr.parser.ExpressionTool;
+import net.sf.saxon.expr.parser.ExpressionVisitor;
+import net.sf.saxon.expr.parser.PromotionOffer;
+import net.sf.saxon.expr.parser.Token;
+import net.sf.saxon.expr.sort.AtomicComparer;
+import net.sf.saxon.expr.sort.CodepointCollator;
+import net.sf.saxon.lib.StringCollator;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.*;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * A SwitchExpression is a conditional (xsl:choose, or a chain of if-then-else expressions) in which
+ * the leading conditions all compare the same expression (the subject) with literal values, for example
+ * <code>xsl:when test="$code = 'X'"</code>. Instead of testing the conditions one by one, the subject is
+ * evaluated once and its value is looked up in a hash table that maps each literal value to the first
+ * branch that tests for it. If the value is not found, the remaining conditions (those that are not
+ * simple comparisons with literals, including any xsl:otherwise) are tested in the usual way.
+ *
+ * <p>This is done only when the comparison is known to amount to an equality test between strings
+ * using the Unicode codepoint collation, or between integers.</p>
+ */
+
+public class SwitchExpression extends Choose {
+
+    private static final int MIN_BRANCHES = 3;
+
+    private static final int STRING_KEYS = 0;
+    private static final int INTEGER_KEYS = 1;
+
+    private int keyKind;
+    private int indexed;
+    /*@Nullable*/ private DispatchTable table;
+
+    private SwitchExpression(Expression[] conditions, Expression[] actions, int keyKind, DispatchTable table) {
+        super(conditions, actions);
+        this.keyKind = keyKind;
+        this.table = table;
+        this.indexed = table.count;
+    }
+
+    /**
+     * Attempt to convert a Choose expression to a SwitchExpression
+     * @param choose the Choose expression
+     * @param th the type hierarchy cache
+     * @return the equivalent SwitchExpression, or null if the conversion is not possible or not worthwhile
+     */
+
+    /*@Nullable*/ public static SwitchExpression makeSwitch(Choose choose, TypeHierarchy th) {
+        Expression[] conditions = choose.getConditions();
+        if (conditions.length < MIN_BRANCHES) {
+            return null;
+        }
+        Expression[] operands = getComparisonOperands(conditions[0]);
+        if (operands == null) {
+            return null;
+        }
+        Expression subject;
+        if (operands[1] instanceof Literal && !(operands[0] instanceof Literal)) {
+            subject = operands[0];
+        } else if (operands[0] instanceof Literal && !(operands[1] instanceof Literal)) {
+            subject = operands[1];
+        } else {
+            return null;
+        }
+        if (Cardinality.allowsMany(subject.getCardinality())) {
+            return null;
+        }
+        ItemType type = subject.getItemType(th).getPrimitiveItemType();
+        int kind;
+        if (type == BuiltInAtomicType.STRING || type == BuiltInAtomicType.UNTYPED_ATOMIC ||
+                type == BuiltInAtomicType.ANY_URI) {
+            kind = STRING_KEYS;
+        } else if (th.isSubType(subject.getItemType(th), BuiltInAtomicType.INTEGER)) {
+            kind = INTEGER_KEYS;
+        } else {
+            return null;
+        }
+        DispatchTable table = makeDispatchTable(conditions, kind, conditions.length);
+        if (table == null || table.count < MIN_BRANCHES) {
+            return null;
+        }
+        SwitchExpression sw = new SwitchExpression(conditions, choose.getActions(), kind, table);
+        ExpressionTool.copyLocationInfo(choose, sw);
+        return sw;
+    }
+
+    /**
+     * Get the operands of a condition, if it is an equality comparison that can be used for dispatching
+     * @param condition the condition
+     * @return the two operands, or null if the condition is not a suitable comparison
+     */
+
+    /*@Nullable*/ private static Expression[] getComparisonOperands(Expression condition) {
+        AtomicComparer comparer;
+        if (condition instanceof GeneralComparison && ((GeneralComparison)condition).getOperator() == Token.EQUALS) {
+            comparer = ((GeneralComparison)condition).getAtomicComparer();
+        } else if (condition instanceof ValueComparison && ((ValueComparison)condition).getOperator() == Token.FEQ) {
+            comparer = ((ValueComparison)condition).getAtomicComparer();
+        } else {
+            return null;
+        }
+        if (comparer != null) {
+            StringCollator collator = comparer.getCollator();
+            if (collator != null && !(collator instanceof CodepointCollator)) {
+                return null;
+            }
+        }
+        return ((BinaryExpression)condition).getOperands();
+    }
+
+    /**
+     * Build the dispatch table for a sequence of conditions
+     * @param conditions the conditions
+     * @param kind the kind of key: strings or integers
+     * @param max the maximum number of conditions to be examined
+     * @return the dispatch table covering the leading conditions that are comparisons of the same subject
+     * with literals of the appropriate type; or null if not even the first condition qualifies
+     */
+
+    /*@Nullable*/ private static DispatchTable makeDispatchTable(Expression[] conditions, int kind, int max) {
+        DispatchTable table = new DispatchTable();
+        Expression subject = null;
+        for (int i=0; i<max; i++) {
+            Expression[] operands = getComparisonOperands(conditions[i]);
+            if (operands == null) {
+                break;
+            }
+            int s = (operands[1] instanceof Literal ? 0 : 1);
+            if (!(operands[1-s] instanceof Literal) || operands[s] instanceof Literal) {
+                break;
+            }
+            if (subject == null) {
+                subject = operands[s];
+                table.subjectOperand = s;
+            } else if (!subject.equals(operands[s])) {
+                break;
+            }
+            HashMap<Object, Integer> keys = new HashMap<Object, Integer>();
+            try {
+                SequenceIterator iter = ((Literal)operands[1-s]).getValue().iterate();
+                while (true) {
+                    Object v = iter.next();
+                    if (v == null) {
+                        break;
+                    }
+                    Object key = getKey(v, kind);
+                    if (key == null) {
+                        keys = null;
+                        break;
+                    }
+                    keys.put(key, i);
+                }
+            } catch (XPathException e) {
+                keys = null;
+            }
+            if (keys == null) {
+                break;
+            }
+            for (java.util.Map.Entry<Object, Integer> e : keys.entrySet()) {
+                // an earlier branch testing the same value takes precedence
+                if (!table.map.containsKey(e.getKey())) {
+                    table.map.put(e.getKey(), e.getValue());
+                }
+            }
+            table.count = i + 1;
+        }
+        return (table.count == 0 ? null : table);
+    }
+
+    /**
+     * Get the hash key for a value
+     * @param value the value (either a literal value or the value of the subject expression)
+     * @param kind the kind of keys used
+     * @return the key, or null if the value is not of the expected kind
+     */
+
+    /*@Nullable*/ private static Object getKey(Object value, int kind) {
+        if (kind == STRING_KEYS) {
+            return (value instanceof StringValue ? ((StringValue)value).getStringValue() : null);
+        } else {
+            return (value instanceof IntegerValue ? ((IntegerValue)value).asBigInteger() : null);
+        }
+    }
+
+    /**
+     * Decide which branch of the conditional is to be taken
+     * @param context the dynamic context
+     * @return the index of the first condition that is true, or -1 if none is true
+     * @throws XPathException if evaluating a condition fails
+     */
+
+    protected int choose(XPathContext context) throws XPathException {
+        if (table == null) {
+            return super.choose(context);
+        }
+        Expression subject = ((BinaryExpression)getConditions()[0]).getOperands()[table.subjectOperand];
+        Object value;
+        try {
+            value = subject.evaluateItem(context);
+        } catch (XPathException e) {
+            e.maybeSetLocation(getConditions()[0]);
+            throw e;
+        }
+        if (value != null) {
+            Object key = getKey(value, keyKind);
+            if (key != null) {
+                Integer branch = table.map.get(key);
+                if (branch != null) {
+                    return branch;
+                }
+            }
+        }
+        return choose(context, indexed);
+    }
+
+    /**
+     * Rebuild the dispatch table after the conditions have been rewritten. If the conditions no longer
+     * have the required form, the expression reverts to testing the conditions one by one.
+     */
+
+    private void rebuildDispatchTable() {
+        DispatchTable t = makeDispatchTable(getConditions(), keyKind, indexed);
+        table = (t != null && t.count == indexed ? t : null);
+    }
+
+    /*@NotNull*/
+    public Expression simplify(ExpressionVisitor visitor) throws XPathException {
+        Expression e = super.simplify(visitor);
+        if (e == this) {
+            rebuildDispatchTable();
+        }
+        return e;
+    }
+
+    /*@NotNull*/
+    public Expression typeCheck(ExpressionVisitor visitor, ExpressionVisitor.ContextItemType contextItemType) throws XPathException {
+        Expression e = super.typeCheck(visitor, contextItemType);
+        if (e == this) {
+            rebuildDispatchTable();
+        }
+        return e;
+    }
+
+    public boolean replaceSubExpression(Expression original, Expression replacement) {
+        boolean found = super.replaceSubExpression(original, replacement);
+        if (found) {
+            rebuildDispatchTable();
+        }
+        return found;
+    }
+
+    protected void promoteInst(PromotionOffer offer) throws XPathException {
+        super.promoteInst(offer);
+        rebuildDispatchTable();
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy.
+     * @return the copy of the original expression
+     */
+
+    /*@NotNull*/
+    public Expression copy() {
+        Expression[] conditions = getConditions();
+        Expression[] actions = getActions();
+        Expression[] c2 = new Expression[conditions.length];
+        Expression[] a2 = new Expression[conditions.length];
+        for (int c=0; c<conditions.length; c++) {
+            c2[c] = conditions[c].copy();
+            a2[c] = actions[c].copy();
+        }
+        SwitchExpression sw = new SwitchExpression(c2, a2, keyKind, table == null ? new DispatchTable() : table);
+        sw.indexed = indexed;
+        if (table == null) {
+            sw.table = null;
+        }
+        return sw;
+    }
+
+    /**
+     * Diagnostic print of expression structure. The abstract expression tree
+     * is written to the supplied output destination.
+     */
+
+    public void explain(ExpressionPresenter out) {
+        out.startElement("switch");
+        out.emitAttribute("indexed", "" + (table == null ? 0 : indexed));
+        Expression[] conditions = getConditions();
+        Expression[] actions = getActions();
+        for (int i=0; i<conditions.length; i++) {
+            out.startSubsidiaryElement("when");
+            conditions[i].explain(out);
+            out.endSubsidiaryElement();
+            out.startSubsidiaryElement("then");
+            actions[i].explain(out);
+            out.endSubsidiaryElement();
+        }
+        out.endElement();
+    }
+
+    /**
+     * The hash table used to select a branch
+     */
+
+    private static class DispatchTable implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        HashMap<Object, Integer> map = new HashMap<Object, Integer>(32);
+        int subjectOperand;
+        int count;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -8,6 +8,7 @@ import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.pattern.Pattern;
 import net.sf.saxon.trace.ExpressionPresenter;
 import net.sf.saxon.trace.Location;
+import net.sf.saxon.trace.SamplingProfiler;
 import net.sf.saxon.trans.RuleTarget;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.SequenceType;
@@ -208,12 +209,21 @@ public class Template extends Procedure implements RuleTarget {
     */
 
     public TailCall applyLeavingTail(XPathContextMajor context) throws XPathException {
-    	if (bodyIsTailCallReturner) {
-            return ((TailCallReturner)body).processLeavingTail(context);
-        } else {
-            body.process(context);
-            return null;
+        SamplingProfiler profiler = context.getController().getSamplingProfiler();
+        XPathContext saved = (profiler == null ? null : profiler.enter(context));
+        TailCall tc = null;
+        try {
+            if (bodyIsTailCallReturner) {
+                tc = ((TailCallReturner)body).processLeavingTail(context);
+            } else {
+                body.process(context);
+            }
+        } finally {
+            if (profiler != null) {
+                profiler.leave(saved);
+            }
         }
+        return (profiler == null ? tc : profiler.profileTailCall(tc, context));
     }
 
     /**
@@ -227,12 +237,21 @@ public class Template extends Procedure implements RuleTarget {
     */
 
     public TailCall expand(XPathContext context) throws XPathException {
-        if (bodyIsTailCallReturner) {
-            return ((TailCallReturner)body).processLeavingTail(context);
-        } else if (body != null) {
-            body.process(context);
+        SamplingProfiler profiler = context.getController().getSamplingProfiler();
+        XPathContext saved = (profiler == null ? null : profiler.enter(context));
+        TailCall tc = null;
+        try {
+            if (bodyIsTailCallReturner) {
+                tc = ((TailCallReturner)body).processLeavingTail(context);
+            } else if (body != null) {
+                body.process(context);
+            }
+        } finally {
+            if (profiler != null) {
+                profiler.leave(saved);
+            }
         }
-        return null;
+        return (profiler == null ? tc : profiler.profileTailCall(tc, context));
     }
 
 
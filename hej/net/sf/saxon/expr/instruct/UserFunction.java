@@ -8,6 +8,7 @@ import net.sf.saxon.expr.sort.SortExpression;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.om.ValueRepresentation;
 import net.sf.saxon.trace.Location;
+import net.sf.saxon.trace.SamplingProfiler;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.SequenceType;
@@ -339,12 +340,18 @@ public class UserFunction extends Procedure {
         // Otherwise evaluate the function
 
         context.setStackFrame(getStackFrameMap(), actualArgs);
+        SamplingProfiler profiler = context.getController().getSamplingProfiler();
+        XPathContext saved = (profiler == null ? null : profiler.enter(context));
         ValueRepresentation result;
         try {
             result = ExpressionTool.evaluate(getBody(), evaluationMode, context, 1);
         } catch (XPathException err) {
             err.maybeSetLocation(this);
             throw err;
+        } finally {
+            if (profiler != null) {
+                profiler.leave(saved);
+            }
         }
 
         return result;
@@ -366,7 +373,15 @@ public class UserFunction extends Procedure {
      public void process(ValueRepresentation[] actualArgs, XPathContextMajor context)
              throws XPathException {
          context.setStackFrame(getStackFrameMap(), actualArgs);
-         getBody().process(context);
+         SamplingProfiler profiler = context.getController().getSamplingProfiler();
+         XPathContext saved = (profiler == null ? null : profiler.enter(context));
+         try {
+             getBody().process(context);
+         } finally {
+             if (profiler != null) {
+                 profiler.leave(saved);
+             }
+         }
      }
 
     /**
@@ -17,6 +17,7 @@ import java.util.List;
  */
 
 public class WithParam extends GeneralVariable {
+    private static final long serialVersionUID = 1L;
 
     public static WithParam[] EMPTY_ARRAY = new WithParam[0];
 
@@ -27,6 +27,7 @@ import javax.xml.transform.SourceLocator;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -726,6 +727,48 @@ public class ExpressionTool {
         }
     }
 
+    /**
+     * Determine whether all the local variables referenced within an expression are declared within
+     * that same expression, so that the expression can be evaluated independently of any variables
+     * declared outside it (other than global variables)
+     *
+     * @param exp the expression being tested
+     * @return true if every variable referenced in the expression is either a global variable, or a local
+     *         variable bound within the expression itself
+     */
+
+    public static boolean dependsOnlyOnInternalVariables(Expression exp) {
+        List<Binding> bindings = new ArrayList<Binding>();
+        gatherReferencedVariables(exp, bindings);
+        for (Binding b : bindings) {
+            if (b == null || (!b.isGlobal() && !declaresVariable(exp, b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean declaresVariable(Expression exp, Binding binding) {
+        if (exp == binding) {
+            return true;
+        }
+        if (exp instanceof FLWORExpression) {
+            for (Clause c : ((FLWORExpression)exp).getClauseList()) {
+                for (LocalVariableBinding b : c.getRangeVariables()) {
+                    if (b == binding) {
+                        return true;
+                    }
+                }
+            }
+        }
+        for (Iterator children = exp.iterateSubExpressions(); children.hasNext();) {
+            if (declaresVariable((Expression) children.next(), binding)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Determine whether the expression contains any variable references or calls to user-written functions
      *
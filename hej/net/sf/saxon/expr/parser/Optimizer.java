@@ -2,22 +2,45 @@ package net.sf.saxon.expr.parser;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.expr.*;
-import net.sf.saxon.expr.instruct.ApplyTemplates;
-import net.sf.saxon.expr.instruct.Choose;
-import net.sf.saxon.expr.instruct.Template;
+import net.sf.saxon.expr.compiler.ExpressionCompiler;
+import net.sf.saxon.expr.flwor.FLWORExpression;
+import net.sf.saxon.expr.flwor.LocalVariableBinding;
+import net.sf.saxon.expr.instruct.*;
+import net.sf.saxon.expr.sort.AtomicComparer;
+import net.sf.saxon.expr.sort.CodepointCollator;
 import net.sf.saxon.expr.sort.DocumentSorter;
+import net.sf.saxon.expr.sort.OrderCheckingSorter;
+import net.sf.saxon.expr.sort.SortExpression;
+import net.sf.saxon.functions.KeyFn;
+import net.sf.saxon.lib.FeatureKeys;
+import net.sf.saxon.lib.NamespaceConstant;
+import net.sf.saxon.lib.StringCollator;
+import net.sf.saxon.om.Axis;
 import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.om.ValueRepresentation;
+import net.sf.saxon.pattern.ItemTypePattern;
 import net.sf.saxon.pattern.NodeTest;
 import net.sf.saxon.pattern.Pattern;
+import net.sf.saxon.trans.KeyDefinitionSet;
 import net.sf.saxon.trans.RuleTarget;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.SchemaType;
+import net.sf.saxon.type.Type;
 import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.IndexedValue;
+import net.sf.saxon.value.SequenceType;
 
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This class performs optimizations that vary between different versions of the Saxon product.
@@ -30,6 +53,13 @@ public class Optimizer implements Serializable {
     public static final int NO_OPTIMIZATION = 0;
     public static final int FULL_OPTIMIZATION = 10;
 
+    /**
+     * The maximum size of a function body (measured as the number of nodes in the expression tree)
+     * for calls to the function to be inlined
+     */
+
+    public static final int MAX_INLINED_FUNCTION_SIZE = 30;
+
     /*@NotNull*/ protected Configuration config;
     private int optimizationLevel = FULL_OPTIMIZATION;
 
@@ -76,14 +106,55 @@ public class Optimizer implements Serializable {
     }
 
     /**
-     * Simplify a GeneralComparison expression
+     * Simplify a GeneralComparison expression. A many-to-many comparison using "=" or "!=" is replaced
+     * by a {@link HashedGeneralComparison} if the static types of the operands guarantee that values
+     * compare equal exactly when their comparison keys are equal.
      * @param gc the GeneralComparison to be simplified
      * @param backwardsCompatible true if in 1.0 compatibility mode
      * @return the simplified expression
      */
 
     public BinaryExpression optimizeGeneralComparison(GeneralComparison gc, boolean backwardsCompatible) {
-        return gc;
+        if (backwardsCompatible || gc instanceof HashedGeneralComparison ||
+                gc.getComparisonCardinality() != GeneralComparison.MANY_TO_MANY ||
+                !(gc.getOperator() == Token.EQUALS || gc.getOperator() == Token.NE) ||
+                gc.getAtomicComparer() == null) {
+            return gc;
+        }
+        final TypeHierarchy th = config.getTypeHierarchy();
+        Expression[] operands = gc.getOperands();
+        ItemType t0 = operands[0].getItemType(th);
+        ItemType t1 = operands[1].getItemType(th);
+        int keyType;
+        if (isStringLike(t0) && isStringLike(t1)) {
+            StringCollator collator = gc.getAtomicComparer().getCollator();
+            if (collator != null && !Configuration.getPlatform().canReturnCollationKeys(collator)) {
+                return gc;
+            }
+            keyType = StandardNames.XS_STRING;
+        } else if (isDecimalOrDouble(t0, th) && isDecimalOrDouble(t1, th)) {
+            keyType = StandardNames.XS_NUMERIC;
+        } else if (t0.isAtomicType() && t0.getPrimitiveItemType().equals(t1.getPrimitiveItemType())) {
+            keyType = t0.getPrimitiveType();
+            switch (keyType) {
+                case StandardNames.XS_BOOLEAN:
+                case StandardNames.XS_DATE:
+                case StandardNames.XS_DATE_TIME:
+                case StandardNames.XS_TIME:
+                    break;
+                default:
+                    return gc;
+            }
+        } else {
+            return gc;
+        }
+        HashedGeneralComparison hgc = HashedGeneralComparison.makeHashedComparison(gc, keyType);
+        trace("Using hash join for many-to-many comparison", hgc);
+        return hgc;
+    }
+
+    private static boolean isDecimalOrDouble(ItemType type, TypeHierarchy th) {
+        return th.isSubType(type, BuiltInAtomicType.DECIMAL) || th.isSubType(type, BuiltInAtomicType.DOUBLE);
     }
 
     /**
@@ -106,6 +177,14 @@ public class Optimizer implements Serializable {
     /**
      * Examine a path expression to see whether it can be replaced by a call on the key() function;
      * if so, generate an appropriate key definition and return the call on key(). If not, return null.
+     *
+     * <p>The path expressions handled are those of the form <code>D/descendant::N[U = V]</code>, for
+     * example <code>//customer[@ref = current()/@cust]</code>, where D selects a single document node,
+     * N is an element test, U depends on the focus and V does not, and both U and V are strings or
+     * untypedAtomic values (in which case the "=" operator amounts to codepoint equality of strings). The
+     * result is a call on <code>key(K, V, D)</code> where K is an implicit key definition with
+     * <code>match="N" use="string(U)"</code>, whose index is built lazily for each document and
+     * shared by all path expressions of the same shape.</p>
      * @param pathExp The path expression to be converted.
      * @param visitor The expression visitor
      * @return the optimized expression, or null if no optimization is possible
@@ -113,12 +192,77 @@ public class Optimizer implements Serializable {
 
     public Expression convertPathExpressionToKey(SlashExpression pathExp, ExpressionVisitor visitor)
     throws XPathException {
-        return null;
+        final TypeHierarchy th = config.getTypeHierarchy();
+        Executable exec = visitor.getExecutable();
+        if (exec == null) {
+            return null;
+        }
+        Expression lastStep = pathExp.getLastStep();
+        if (!(lastStep instanceof FilterExpression) || ((FilterExpression)lastStep).isPositional(th)) {
+            return null;
+        }
+        Expression base = ((FilterExpression)lastStep).getControllingExpression();
+        Expression filter = ((FilterExpression)lastStep).getFilter();
+        if (!(base instanceof AxisExpression) || ((AxisExpression)base).getAxis() != Axis.DESCENDANT) {
+            return null;
+        }
+        NodeTest test = ((AxisExpression)base).getNodeTest();
+        if (test == null || test.getPrimitiveType() != Type.ELEMENT) {
+            return null;
+        }
+        Expression doc = pathExp.getLeadingSteps();
+        if (doc.getItemType(th).getPrimitiveType() != Type.DOCUMENT ||
+                doc.getCardinality() != StaticProperty.EXACTLY_ONE) {
+            return null;
+        }
+        int indexable = isIndexableFilter(filter);
+        if (indexable == 0) {
+            return null;
+        }
+        Expression[] operands = ((GeneralComparison)filter).getOperands();
+        Expression use = operands[indexable > 0 ? 0 : 1];
+        Expression value = operands[indexable > 0 ? 1 : 0];
+        if (!isStringLike(use.getItemType(th)) || !isStringLike(value.getItemType(th))) {
+            return null;
+        }
+        Container container = pathExp.getContainer();
+        if (!(visitor.isLoopingSubexpression(null) ||
+                container instanceof Template || container instanceof UserFunction)) {
+            return null;
+        }
+        KeyDefinitionSet keySet = exec.getKeyManager().obtainImplicitKeyDefinitionSet(
+                new ItemTypePattern(test), toStrings(use.copy()), config);
+        KeyFn k = KeyFn.internalKeyCall(keySet, keySet.getKeyName().getDisplayName(), toStrings(value), doc);
+        ExpressionTool.copyLocationInfo(pathExp, k);
+        trace("Converted path expression to call on implicit key", k);
+        return k;
+    }
+
+    private static boolean isStringLike(ItemType type) {
+        ItemType prim = type.getPrimitiveItemType();
+        return prim == BuiltInAtomicType.STRING ||
+                prim == BuiltInAtomicType.UNTYPED_ATOMIC ||
+                prim == BuiltInAtomicType.ANY_URI;
+    }
+
+    private Expression toStrings(Expression exp) {
+        if (exp.getItemType(config.getTypeHierarchy()) == BuiltInAtomicType.STRING) {
+            return exp;
+        }
+        AtomicSequenceConverter conv = new AtomicSequenceConverter(exp, BuiltInAtomicType.STRING, true);
+        conv.allocateConverter(config);
+        ExpressionTool.copyLocationInfo(exp, conv);
+        return conv;
     }
 
     /**
-     * Try converting a filter expression to a call on the key function. Return the supplied
-     * expression unchanged if not possible
+     * Try converting a filter expression to an indexed filter expression. Return the supplied
+     * expression unchanged if not possible.
+     *
+     * <p>This is done when the base sequence is a variable reference, or an expression whose value depends
+     * on nothing other than the document containing the context node (for example <code>//item</code>),
+     * and when the filter expression is likely to be evaluated repeatedly for the same base sequence.
+     * The index is built on first use; see {@link IndexedFilterExpression}.</p>
      * @param f the filter expression to be converted
      * @param visitor the expression visitor, which must be currently visiting the filter expression f
      * @param indexFirstOperand true if the first operand of the filter comparison is to be indexed;
@@ -127,7 +271,41 @@ public class Optimizer implements Serializable {
      */
 
     public Expression tryIndexedFilter(FilterExpression f, ExpressionVisitor visitor, boolean indexFirstOperand) {
-        return f;
+        if (f instanceof IndexedFilterExpression || !(f.getFilter() instanceof GeneralComparison)) {
+            return f;
+        }
+        Expression start = f.getControllingExpression();
+        if (start instanceof VariableReference) {
+            VariableReference ref = (VariableReference)start;
+            Binding binding = ref.getBinding();
+            if (binding instanceof GlobalVariable) {
+                ((GlobalVariable)binding).setIndexedVariable();
+            } else if (!visitor.isLoopingReference(binding, ref)) {
+                // the filter is evaluated only once for each value of the variable: a serial search is cheaper
+                return f;
+            } else if (binding instanceof UserFunctionParameter) {
+                ((UserFunctionParameter)binding).setIndexedVariable(true);
+            } else if (binding instanceof Assignation) {
+                ((Assignation)binding).setIndexedVariable();
+            } else if (!(binding instanceof LocalVariableBinding)) {
+                return f;
+            }
+        } else {
+            if ((start.getDependencies() & ~StaticProperty.DEPENDS_ON_CONTEXT_DOCUMENT) != 0 ||
+                    (start.getSpecialProperties() & StaticProperty.NON_CREATIVE) == 0) {
+                return f;
+            }
+            Container container = f.getContainer();
+            if (!(visitor.isLoopingSubexpression(null) ||
+                    container instanceof Template || container instanceof UserFunction)) {
+                return f;
+            }
+        }
+        IndexedFilterExpression ife = new IndexedFilterExpression(
+                start, (GeneralComparison)f.getFilter(), indexFirstOperand);
+        ExpressionTool.copyLocationInfo(f, ife);
+        trace("Created indexed filter expression", ife);
+        return ife;
     }
 
     /**
@@ -153,18 +331,41 @@ public class Optimizer implements Serializable {
      */
 
     public int isIndexableFilter(Expression filter) {
-        return 0;
+        if (!(filter instanceof GeneralComparison) ||
+                ((GeneralComparison)filter).getOperator() != Token.EQUALS) {
+            return 0;
+        }
+        AtomicComparer comparer = ((GeneralComparison)filter).getAtomicComparer();
+        if (comparer == null ||
+                !(comparer.getCollator() == null || comparer.getCollator() instanceof CodepointCollator)) {
+            return 0;
+        }
+        Expression[] operands = ((GeneralComparison)filter).getOperands();
+        final int allowed = StaticProperty.DEPENDS_ON_CONTEXT_ITEM |
+                StaticProperty.DEPENDS_ON_CONTEXT_DOCUMENT |
+                StaticProperty.DEPENDS_ON_USER_FUNCTIONS;
+        int d0 = operands[0].getDependencies();
+        int d1 = operands[1].getDependencies();
+        if ((d0 & StaticProperty.DEPENDS_ON_FOCUS) != 0 && (d0 & ~allowed) == 0 &&
+                (d1 & StaticProperty.DEPENDS_ON_FOCUS) == 0) {
+            return +1;
+        } else if ((d1 & StaticProperty.DEPENDS_ON_FOCUS) != 0 && (d1 & ~allowed) == 0 &&
+                (d0 & StaticProperty.DEPENDS_ON_FOCUS) == 0) {
+            return -1;
+        } else {
+            return 0;
+        }
     }
 
     /**
      * Create an indexed value
      * @param iter the iterator that delivers the sequence of values to be indexed
      * @return the indexed value
-     * @throws UnsupportedOperationException: this method should not be called in Saxon-B
+     * @throws XPathException if evaluation of the sequence fails
      */
 
     public ValueRepresentation makeIndexedValue(SequenceIterator iter) throws XPathException {
-        throw new UnsupportedOperationException("Indexing requires Saxon-EE");
+        return IndexedValue.makeIndexedValue(iter);
     }
 
     /**
@@ -202,36 +403,143 @@ public class Optimizer implements Serializable {
 
     /**
      * Make a conditional document sorter. This optimization is attempted
-     * when a DocumentSorter is wrapped around a path expression
+     * when a DocumentSorter is wrapped around a path expression. The result is an
+     * {@link OrderCheckingSorter}, which tests at run-time whether the nodes selected by the path
+     * are already in document order, and sorts them only if they are not.
      * @param sorter the document sorter
      * @param path the path expression
-     * @return the original sorter unchanged when no optimization is possible, which is always the
-     * case in Saxon-B
+     * @return the order-checking sorter, or the original sorter unchanged when no optimization is possible
      */
 
     public Expression makeConditionalDocumentSorter(DocumentSorter sorter, SlashExpression path) {
-        return sorter;
+        if (sorter instanceof OrderCheckingSorter || getOptimizationLevel() < FULL_OPTIMIZATION) {
+            return sorter;
+        }
+        OrderCheckingSorter checker = new OrderCheckingSorter(path);
+        ExpressionTool.copyLocationInfo(sorter, checker);
+        trace("Generated run-time check of document order", checker);
+        return checker;
     }
 
     /**
-     * Replace a function call by the body of the function, assuming all conditions for inlining
-     * the function are satisfied
+     * Replace a function call by the body of the function, if the function is small enough and if
+     * all conditions for inlining the function are satisfied. The arguments of the call are bound to
+     * local variables (let expressions) whose scope is a copy of the function body, in which references
+     * to the function parameters are replaced by references to these variables. This avoids the cost
+     * of creating a new stack frame and context for each call.
+     * <p>Inlining is not attempted if it has been disabled using {@link FeatureKeys#INLINE_FUNCTIONS},
+     * if the function is recursive (directly or indirectly), if it is a memo function or an updating
+     * function, or if its body contains instructions whose behaviour depends on the dynamic context
+     * established by the function call, such as xsl:apply-templates or xsl:result-document.</p>
      * @param functionCall the functionCall expression
      * @param visitor the expression visitor
      * @param contextItemType the context item type
      * @return either the original expression unchanged, or an expression that consists of the inlined
-     * function body, with all function parameters bound as required. In Saxon-B, function inlining is
-     * not supported, so the original functionCall is always returned unchanged
+     * function body, with all function parameters bound as required.
      */
 
     public Expression tryInlineFunctionCall(
             UserFunctionCall functionCall, ExpressionVisitor visitor, ExpressionVisitor.ContextItemType contextItemType) {
-        return functionCall;
+        UserFunction function = functionCall.getFunction();
+        if (optimizationLevel == NO_OPTIMIZATION || !config.isInlineFunctions() || config.isCompileWithTracing() ||
+                function == null || Boolean.FALSE.equals(function.isInlineable())) {
+            return functionCall;
+        }
+        Expression body = function.getBody();
+        if (body == null || function.isMemoFunction() || function.isUpdating() || function.containsTailCalls() ||
+                ExpressionTool.expressionSize(body) > MAX_INLINED_FUNCTION_SIZE) {
+            return functionCall;
+        }
+        if (!isInlineableBody(body) || isRecursive(function)) {
+            function.setInlineable(false);
+            return functionCall;
+        }
+        Expression result;
+        try {
+            result = body.copy();
+        } catch (UnsupportedOperationException e) {
+            // some subexpression cannot be copied
+            return functionCall;
+        }
+        UserFunctionParameter[] params = function.getParameterDefinitions();
+        Expression[] args = functionCall.getArguments();
+        for (int i=params.length-1; i>=0; i--) {
+            LetExpression let = new LetExpression();
+            let.setVariableQName(params[i].getVariableQName());
+            let.setRequiredType(params[i].getRequiredType());
+            let.setSequence(args[i]);
+            ExpressionTool.rebindVariableReferences(result, params[i], let);
+            let.setAction(result);
+            if (params[i].isIndexedVariable()) {
+                let.setIndexedVariable();
+            }
+            ExpressionTool.copyLocationInfo(functionCall, let);
+            result = let;
+        }
+        ExpressionTool.copyLocationInfo(functionCall, result);
+        result.setContainer(functionCall.getContainer());
+        try {
+            result = visitor.typeCheck(result, contextItemType);
+        } catch (XPathException e) {
+            // leave the call as it was; any error will be reported when the function is called
+            return functionCall;
+        }
+        trace("Inlined call to function " + function.getFunctionName().getDisplayName(), result);
+        return result;
+    }
+
+    /**
+     * Ask whether the body of a function is suitable for inlining, in that it does not depend on any
+     * aspect of the dynamic context that a function call resets
+     * @param exp the function body, or a subexpression of the function body
+     * @return true if the expression can be evaluated in the dynamic context of the caller
+     */
+
+    private static boolean isInlineableBody(Expression exp) {
+        if ((exp.getDependencies() & (StaticProperty.DEPENDS_ON_FOCUS | StaticProperty.DEPENDS_ON_CURRENT_ITEM |
+                StaticProperty.DEPENDS_ON_CURRENT_GROUP | StaticProperty.DEPENDS_ON_REGEX_GROUP)) != 0) {
+            return false;
+        }
+        if (exp instanceof ApplyTemplates || exp instanceof CallTemplate || exp instanceof ApplyImports ||
+                exp instanceof NextMatch || exp instanceof ResultDocument || exp instanceof TailCallLoop) {
+            return false;
+        }
+        for (Iterator<Expression> kids = exp.iterateSubExpressions(); kids.hasNext();) {
+            if (!isInlineableBody(kids.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Ask whether a function calls itself, directly or indirectly
+     * @param function the function in question
+     * @return true if the function is reachable from its own body via calls on user-defined functions
+     */
+
+    private static boolean isRecursive(UserFunction function) {
+        List<UserFunction> toDo = new ArrayList<UserFunction>();
+        Set<UserFunction> done = new HashSet<UserFunction>();
+        ExpressionTool.gatherCalledFunctions(function.getBody(), toDo);
+        while (!toDo.isEmpty()) {
+            UserFunction f = toDo.remove(toDo.size() - 1);
+            if (f == function) {
+                return true;
+            }
+            if (f != null && done.add(f) && f.getBody() != null) {
+                ExpressionTool.gatherCalledFunctions(f.getBody(), toDo);
+            }
+        }
+        return false;
     }
 
     /**
      * Identify expressions within a function or template body that can be promoted to be
-     * evaluated as global variables.
+     * evaluated as global variables. These are subexpressions that depend on nothing other than global
+     * variables and parameters (for example <code>doc('codes.xml')//entry[@lang=$lang]</code>); each one
+     * is replaced by a reference to a new global variable, so that it is evaluated (lazily) at most
+     * once per transformation or query.
      * @param body the body of the template or function
      * @param visitor the expression visitor
      * @return the expression after subexpressions have been promoted to global variables; or null if
@@ -240,31 +548,109 @@ public class Optimizer implements Serializable {
     
     public Expression promoteExpressionsToGlobal(Expression body, ExpressionVisitor visitor)
     throws XPathException {
-        return null;
+        if (optimizationLevel == NO_OPTIMIZATION || config.isCompileWithTracing() ||
+                visitor.getExecutable() == null) {
+            return null;
+        }
+        PromotionOffer offer = new PromotionOffer(this);
+        offer.action = PromotionOffer.EXTRACT_GLOBAL_VARIABLES;
+        offer.visitor = visitor;
+        offer.containingExpression = body;
+        Expression body2 = body.promote(offer, null);
+        return (offer.accepted ? body2 : null);
     }
 
     /**
-     * Try to convert a Choose expression into a switch
+     * Try to convert a Choose expression into a switch. This is possible when three or more of the
+     * leading conditions compare the same expression with string or integer literals; the result is
+     * a {@link SwitchExpression} that selects the branch using a hash table.
      * @param choose the Choose expression
      * @param env the static context
      * @return the result of optimizing this (the original expression if no optimization was possible)
      */
 
     public Expression trySwitch(Choose choose, StaticContext env) {
+        SwitchExpression sw = SwitchExpression.makeSwitch(choose, config.getTypeHierarchy());
+        if (sw != null) {
+            if (!(choose instanceof SwitchExpression)) {
+                trace("Converted choose to switch", sw);
+            }
+            return sw;
+        } else if (choose instanceof SwitchExpression) {
+            // the conditions have been rewritten and no longer permit a switch
+            Choose c = new Choose(choose.getConditions(), choose.getActions());
+            ExpressionTool.copyLocationInfo(choose, c);
+            return c;
+        }
         return choose;
     }
 
     /**
      * Extract subexpressions from the body of a function that can be evaluated
-     * as global variables
-     * @param body the body of the function
+     * as global variables. This is called, via the {@link PromotionOffer}, for each subexpression
+     * that has no dependencies on the context or on local variables, and that is not creative.
+     * @param body the subexpression to be extracted
+     * @param visitor the expression visitor
      * @param offer The PromotionOffer. Will be marked to indicate whether any action was taken
      * @return a reference to the new global variable if a variable has been created, or null if not
      */
 
     public Expression extractGlobalVariables(Expression body, ExpressionVisitor visitor, PromotionOffer offer)
     throws XPathException {
-        return null;
+        Executable exec = visitor.getExecutable();
+        if (exec == null || body instanceof VariableReference || body instanceof ErrorExpression ||
+                !isWorthExtracting(body) || body.isUpdatingExpression()) {
+            return null;
+        }
+        final TypeHierarchy th = config.getTypeHierarchy();
+        SlotManager map = exec.getGlobalVariableMap();
+        StructuredQName name = new StructuredQName("saxon", NamespaceConstant.SAXON_GENERATED_GLOBAL,
+                "gv" + map.getNumberOfVariables());
+        GlobalVariable var = new GlobalVariable();
+        var.setExecutable(exec);
+        var.setVariableQName(name);
+        var.setSlotNumber(map.allocateSlotNumber(name));
+        SequenceType type = SequenceType.makeSequenceType(body.getItemType(th), body.getCardinality());
+        var.setRequiredType(type);
+        var.setSelectExpression(body);
+        var.setLocationId(body.getLocationId());
+        var.setContainer(var);
+        body.setContainer(var);
+        // the expression may declare local variables, which need a stack frame of their own
+        SlotManager locals = config.makeSlotManager();
+        if (ExpressionTool.allocateSlots(body, 0, locals) > 0) {
+            var.setContainsLocals(locals);
+        }
+        var.setReferenceCount(10);
+        var.computeEvaluationMode();
+        exec.registerGlobalVariable(var);
+
+        VariableReference ref = new VariableReference(var);
+        ref.setStaticType(type, null, body.getSpecialProperties());
+        ExpressionTool.copyLocationInfo(body, ref);
+        offer.accepted = true;
+        trace("Extracted global variable " + name.getDisplayName(), body);
+        return ref;
+    }
+
+    /**
+     * Decide whether it is worth extracting an expression into a global variable: that is, whether
+     * it does more work than is needed to fetch the value of a variable
+     * @param exp the candidate expression
+     * @return true if the expression navigates, filters, sorts, iterates, or calls a function
+     */
+
+    private static boolean isWorthExtracting(Expression exp) {
+        if (exp instanceof AxisExpression || exp instanceof FunctionCall || exp instanceof FilterExpression ||
+                exp instanceof ForExpression || exp instanceof FLWORExpression || exp instanceof SortExpression) {
+            return true;
+        }
+        for (Iterator<Expression> kids = exp.iterateSubExpressions(); kids.hasNext();) {
+            if (isWorthExtracting(kids.next())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -359,18 +745,30 @@ public class Optimizer implements Serializable {
     }
 
     /**
-     * Generate a multi-threaded version of an instruction.
-     * Supported in Saxon-EE only; ignored with no action in Saxon-HE and Saxon-PE
+     * Generate a multi-threaded version of an instruction. Currently the only instruction handled is
+     * an xsl:for-each instruction with a <code>saxon:threads</code> attribute, and only if multi-threading
+     * is enabled in the configuration; in all other cases the instruction is returned unchanged.
      * @param instruction the instruction to be multi-threaded
      * @return the multi-threaded version of the instruction
      */
 
     public Expression generateMultithreadedInstruction(Expression instruction) {
+        if (instruction instanceof ForEach && config.isMultiThreading() &&
+                MultithreadedForEach.isEligible((ForEach)instruction)) {
+            MultithreadedForEach mt = new MultithreadedForEach((ForEach)instruction);
+            ExpressionTool.copyLocationInfo(instruction, mt);
+            trace("Generated multi-threaded xsl:for-each", mt);
+            return mt;
+        }
         return instruction;
     }
 
     /**
-     * Generate Java byte code for an expression
+     * Generate compiled code for an expression. In Saxon-HE this does not generate Java byte code:
+     * instead, subtrees of the expression consisting of arithmetic, comparisons, and boolean operators
+     * are replaced by {@link net.sf.saxon.expr.compiler.CompiledExpression}s, which evaluate them
+     * using specialized evaluators that avoid allocating intermediate values, falling back to the
+     * interpreter for anything they cannot handle.
      * @param expr the expression to be compiled
      * @param objectName the name of the object (e.g. function) being compiled
      * @param evaluationMethods The evaluation modes for which code is generated. Currently a subset of
@@ -380,7 +778,21 @@ public class Optimizer implements Serializable {
      */
 
     public Expression compileToByteCode(Expression expr, String objectName, int evaluationMethods) {
-        return null;
+        if (config.isCompileWithTracing()) {
+            return null;
+        }
+        ExpressionCompiler compiler = new ExpressionCompiler(config);
+        Expression result = compiler.compile(expr);
+        int n = compiler.getNumberOfCompiledExpressions();
+        if (n == 0) {
+            return null;
+        }
+        String message = "Compiled " + n + " expression" + (n == 1 ? "" : "s") + " in " + objectName;
+        trace(message, result);
+        if (config.isTiming()) {
+            config.getStandardErrorOutput().println(message);
+        }
+        return result;
     }
 
     /**
@@ -251,7 +251,7 @@ public class PromotionOffer  {
                 if (!(child instanceof Literal || child instanceof LocalParamSetter ||
                         (child == containingExpression) ||
                         ExpressionTool.containsLocalParam(child)) &&
-                        (child.getDependencies()&~StaticProperty.DEPENDS_ON_RUNTIME_ENVIRONMENT) == 0 &&
+                        isSelfContained(child) &&
                         (child.getSpecialProperties() & StaticProperty.NON_CREATIVE) != 0) {
                     return optimizer.extractGlobalVariables(child, visitor, this);
                 }
@@ -263,6 +263,20 @@ public class PromotionOffer  {
         return null;
     }
 
+    /**
+     * Test whether an expression depends on nothing other than global variables and parameters (or
+     * local variables that it declares itself), for the purposes of EXTRACT_GLOBAL_VARIABLES
+     * @param child the expression to be tested
+     * @return true if the expression could be evaluated as the initializer of a global variable
+     */
+
+    private static boolean isSelfContained(Expression child) {
+        int dependencies = child.getDependencies() & ~StaticProperty.DEPENDS_ON_RUNTIME_ENVIRONMENT;
+        return dependencies == 0 ||
+                (dependencies == StaticProperty.DEPENDS_ON_LOCAL_VARIABLES &&
+                        ExpressionTool.dependsOnlyOnInternalVariables(child));
+    }
+
     /**
      * Method to promote a subexpression. A LetExpression is created which binds the child expression
      * to a system-created variable, and then returns the original expression, with the child expression
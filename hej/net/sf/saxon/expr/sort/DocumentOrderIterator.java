@@ -4,6 +4,7 @@ import net.sf.saxon.om.Item;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.TinyNodeSet;
 import net.sf.saxon.value.SequenceExtent;
 
 /**
@@ -14,6 +15,9 @@ import net.sf.saxon.value.SequenceExtent;
 
 public final class DocumentOrderIterator implements SequenceIterator, Sortable {
 
+    // Sequences at least this long are sorted using a radix sort if the nodes all belong to one TinyTree
+    private static final int RADIX_SORT_THRESHOLD = 100;
+
     private SequenceIterator iterator;
     private SequenceExtent sequence;
     private ItemOrderComparer comparer;
@@ -30,14 +34,34 @@ public final class DocumentOrderIterator implements SequenceIterator, Sortable {
 
         sequence = new SequenceExtent(base);
         //System.err.println("sort into document order: sequence length = " + sequence.getLength());
-        if (sequence.getLength()>1) {
+        int n = sequence.getLength();
+        if (n>1 && !(n >= RADIX_SORT_THRESHOLD && radixSort(n))) {
             //QuickSort.sort(this, 0, sequence.getLength()-1);
-            GenericSorter.quickSort(0, sequence.getLength(), this);
+            GenericSorter.quickSort(0, n, this);
             //GenericSorter.mergeSort(0, sequence.getLength(), this);
         }
         iterator = sequence.iterate();
     }
 
+    /**
+     * Sort the sequence using a radix sort on the node sequence numbers, which is possible
+     * if all the nodes belong to the same TinyTree
+     * @param n the length of the sequence
+     * @return true if the sequence has been sorted, false if the nodes are not all in the same TinyTree
+     */
+
+    private boolean radixSort(int n) {
+        Item[] items = new Item[n];
+        for (int i=0; i<n; i++) {
+            items[i] = sequence.itemAt(i);
+        }
+        if (TinyNodeSet.sortInDocumentOrder(items, n)) {
+            sequence = new SequenceExtent(items);
+            return true;
+        }
+        return false;
+    }
+
     /**
     * Private constructor used only by getAnother()
     */
@@ -0,0 +1,359 @@
+package net.sf.saxon.expr.sort;
+
+import net.sf.saxon.expr.GeneralComparison;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.parser.Token;
+import net.sf.saxon.lib.ConversionRules;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.ConversionResult;
+import net.sf.saxon.type.StringConverter;
+import net.sf.saxon.type.ValidationFailure;
+import net.sf.saxon.value.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hash index over a collection of atomic values, each of which is associated with an integer
+ * position (typically the position of an item in a sequence whose "use" value is the atomic value).
+ * The index is used to answer the question "which positions hold a value that is equal to V under
+ * the rules of the general comparison operator (=)?" without comparing V with every value.
+ *
+ * <p>The index only handles the cases where the answer can be computed exactly from hash lookups:
+ * strings, anyURI and untypedAtomic values compared using the Unicode codepoint collation, and numeric
+ * values other than xs:float. In every other case (for example where comparing the sought value with
+ * one of the indexed values would raise a type error, or where an untypedAtomic value cannot be
+ * converted to a number) the lookup methods return null, and the caller must fall back to a serial
+ * search, which will produce the correct result or the correct error.</p>
+ *
+ * <p>Numeric values are bucketed by their xs:double value, which is the same for any two numeric
+ * values that compare equal; candidate matches are then checked using a real comparison, so that
+ * (for example) two decimals that differ only beyond the precision of a double do not match.</p>
+ *
+ * <p>The index is built single-threaded, but once built it may be searched concurrently.</p>
+ */
+
+public final class EqualityIndex {
+
+    private Map<String, Postings> stringIndex = new HashMap<String, Postings>(64);
+    private Map<Double, Postings> numericIndex = new HashMap<Double, Postings>(64);
+    private Postings untypedValues = null;
+    private volatile Map<Double, Postings> untypedNumericIndex = null;
+    private boolean untypedAllNumeric = true;
+
+    private boolean hasStrings = false;
+    private boolean hasUntyped = false;
+    private boolean hasNumerics = false;
+    private boolean hasOther = false;
+
+    /**
+     * Create an empty index
+     */
+
+    public EqualityIndex() {
+    }
+
+    /**
+     * Add a value to the index
+     * @param value the atomic value to be indexed
+     * @param position the position (for example, of an item in a sequence) associated with this value.
+     * Positions must be supplied in non-decreasing order.
+     */
+
+    public void add(AtomicValue value, int position) {
+        if (value instanceof StringValue) {
+            if (value instanceof UntypedAtomicValue) {
+                hasUntyped = true;
+                if (untypedValues == null) {
+                    untypedValues = new Postings();
+                }
+                untypedValues.add(position, value);
+            } else {
+                hasStrings = true;
+            }
+            String key = value.getStringValue();
+            Postings p = stringIndex.get(key);
+            if (p == null) {
+                p = new Postings();
+                stringIndex.put(key, p);
+            }
+            p.add(position, null);
+        } else if (value instanceof NumericValue && !(value instanceof FloatValue)) {
+            hasNumerics = true;
+            Double key = numericKey((NumericValue)value);
+            if (key != null) {
+                Postings p = numericIndex.get(key);
+                if (p == null) {
+                    p = new Postings();
+                    numericIndex.put(key, p);
+                }
+                p.add(position, value);
+            }
+        } else {
+            hasOther = true;
+        }
+    }
+
+    /**
+     * Ask whether the index is empty
+     * @return true if no values have been added to the index
+     */
+
+    public boolean isEmpty() {
+        return !(hasStrings || hasUntyped || hasNumerics || hasOther);
+    }
+
+    /**
+     * Find the positions of all values in the index that are equal to a given value,
+     * using the rules of the "=" operator
+     * @param sought the value being sought
+     * @param comparer the comparer used by the general comparison; its collation must be the
+     * Unicode codepoint collation
+     * @param context the dynamic evaluation context
+     * @return the matching positions in ascending order with no duplicates; or null if the index
+     * cannot answer the question exactly, in which case the caller must perform a serial search
+     * @throws XPathException if a dynamic error occurs while checking a candidate match
+     */
+
+    /*@Nullable*/ public int[] find(AtomicValue sought, AtomicComparer comparer, XPathContext context)
+            throws XPathException {
+        if (hasOther) {
+            return null;
+        }
+        if (sought instanceof UntypedAtomicValue) {
+            int[] result = positions(stringIndex.get(sought.getStringValue()));
+            if (hasNumerics) {
+                ConversionResult cr = getRules(context).getStringConverter(BuiltInAtomicType.DOUBLE).convert(sought);
+                if (cr instanceof ValidationFailure) {
+                    return null;
+                }
+                DoubleValue d = (DoubleValue)cr;
+                result = merge(result, verify(numericIndex, d, comparer, context));
+            }
+            return result;
+        } else if (sought instanceof StringValue) {
+            if (hasNumerics) {
+                return null;
+            }
+            return positions(stringIndex.get(sought.getStringValue()));
+        } else if (sought instanceof NumericValue && !(sought instanceof FloatValue)) {
+            if (hasStrings) {
+                return null;
+            }
+            int[] result = verify(numericIndex, (NumericValue)sought, comparer, context);
+            if (hasUntyped) {
+                Map<Double, Postings> untypedNumbers = getUntypedNumericIndex(context);
+                if (untypedNumbers == null) {
+                    return null;
+                }
+                result = merge(result, verify(untypedNumbers, (NumericValue)sought, comparer, context));
+            }
+            return result;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Find the positions of all values in the index that are equal to any one of a set of
+     * sought values, using the rules of the "=" operator
+     * @param sought the values being sought
+     * @param comparer the comparer used by the general comparison
+     * @param context the dynamic evaluation context
+     * @return the matching positions in ascending order with no duplicates; or null if the index
+     * cannot answer the question exactly for one or more of the sought values
+     * @throws XPathException if a dynamic error occurs while checking a candidate match
+     */
+
+    /*@Nullable*/ public int[] find(AtomicValue[] sought, AtomicComparer comparer, XPathContext context)
+            throws XPathException {
+        int[] result = Postings.EMPTY;
+        for (AtomicValue s : sought) {
+            int[] r = find(s, comparer, context);
+            if (r == null) {
+                return null;
+            }
+            result = merge(result, r);
+        }
+        return result;
+    }
+
+    private static ConversionRules getRules(XPathContext context) {
+        return context.getConfiguration().getConversionRules();
+    }
+
+    /**
+     * Get the index of untypedAtomic values converted to xs:double, building it on first use
+     * @param context the dynamic context
+     * @return the index, or null if any of the untypedAtomic values is not convertible to a number
+     */
+
+    private Map<Double, Postings> getUntypedNumericIndex(XPathContext context) {
+        Map<Double, Postings> index = untypedNumericIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = untypedNumericIndex;
+                if (index == null) {
+                    index = new HashMap<Double, Postings>(untypedValues.size);
+                    StringConverter converter = getRules(context).getStringConverter(BuiltInAtomicType.DOUBLE);
+                    for (int i=0; i<untypedValues.size; i++) {
+                        ConversionResult cr = converter.convert(untypedValues.values[i]);
+                        if (cr instanceof ValidationFailure) {
+                            untypedAllNumeric = false;
+                            break;
+                        }
+                        Double key = numericKey((DoubleValue)cr);
+                        if (key != null) {
+                            Postings p = index.get(key);
+                            if (p == null) {
+                                p = new Postings();
+                                index.put(key, p);
+                            }
+                            p.add(untypedValues.positions[i], (DoubleValue)cr);
+                        }
+                    }
+                    untypedNumericIndex = index;
+                }
+            }
+        }
+        return untypedAllNumeric ? index : null;
+    }
+
+    /**
+     * Get the hash key for a numeric value
+     * @param value the numeric value
+     * @return the key, or null if the value is NaN (which is not equal to anything)
+     */
+
+    /*@Nullable*/ private static Double numericKey(NumericValue value) {
+        double d = value.getDoubleValue();
+        if (Double.isNaN(d)) {
+            return null;
+        } else if (d == 0) {
+            return 0.0d;   // treat +0 and -0 as equal
+        } else {
+            return d;
+        }
+    }
+
+    /**
+     * Get the positions of the entries in a numeric index that really are equal to a sought value
+     * @param index the numeric index
+     * @param sought the sought value
+     * @param comparer the comparer to use
+     * @param context the dynamic context
+     * @return the positions of the values that compare equal
+     * @throws XPathException if the comparison fails
+     */
+
+    private static int[] verify(Map<Double, Postings> index, NumericValue sought,
+                                AtomicComparer comparer, XPathContext context) throws XPathException {
+        Double key = numericKey(sought);
+        if (key == null) {
+            return Postings.EMPTY;
+        }
+        Postings p = index.get(key);
+        if (p == null) {
+            return Postings.EMPTY;
+        }
+        int[] result = new int[p.size];
+        int n = 0;
+        for (int i=0; i<p.size; i++) {
+            if ((n == 0 || result[n-1] != p.positions[i]) &&
+                    GeneralComparison.compare(sought, Token.FEQ, p.values[i], comparer, false, context)) {
+                result[n++] = p.positions[i];
+            }
+        }
+        return (n == result.length ? result : Arrays.copyOf(result, n));
+    }
+
+    private static int[] positions(/*@Nullable*/ Postings p) {
+        if (p == null) {
+            return Postings.EMPTY;
+        }
+        return (p.size == p.positions.length ? p.positions : Arrays.copyOf(p.positions, p.size));
+    }
+
+    /**
+     * Merge two ascending arrays of positions, eliminating duplicates
+     * @param a the first array
+     * @param b the second array
+     * @return the merged array
+     */
+
+    private static int[] merge(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        } else if (b.length == 0) {
+            return a;
+        }
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (n == 0 || result[n-1] != next) {
+                result[n++] = next;
+            }
+        }
+        return (n == result.length ? result : Arrays.copyOf(result, n));
+    }
+
+    /**
+     * A list of positions sharing the same hash key, together (optionally) with the values
+     * held at those positions
+     */
+
+    private static class Postings {
+
+        static final int[] EMPTY = new int[0];
+
+        int[] positions = new int[2];
+        /*@Nullable*/ AtomicValue[] values = null;
+        int size = 0;
+
+        void add(int position, /*@Nullable*/ AtomicValue value) {
+            if (value == null && size > 0 && positions[size-1] == position) {
+                // same item has two equal keys
+                return;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size*2);
+                if (values != null) {
+                    values = Arrays.copyOf(values, size*2);
+                }
+            }
+            if (value != null) {
+                if (values == null) {
+                    values = new AtomicValue[positions.length];
+                }
+                values[size] = value;
+            }
+            positions[size++] = position;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -0,0 +1,154 @@
+package net.sf.saxon.expr.sort;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.ArrayIterator;
+import net.sf.saxon.tree.tiny.TinyNodeImpl;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.SequenceExtent;
+
+/**
+ * An OrderCheckingSorter is a {@link DocumentSorter} that checks at run-time whether the sequence
+ * to be sorted is already in document order, and only sorts it if it is not. It is generated by the
+ * optimizer for path expressions whose result is frequently in document order even though this cannot
+ * be established statically, for example <code>$nodes/child::x</code> where <code>$nodes</code> happens
+ * to be a singleton, or a set of siblings.
+ *
+ * <p>The check is a single pass over the sequence, comparing each node with its predecessor. For nodes in a
+ * TinyTree, this compares the document number and the node number directly, without calling
+ * {@link NodeInfo#compareOrder}. The check stops at the first node that is out of order, and the
+ * sequence is then sorted in the usual way.</p>
+ */
+
+public class OrderCheckingSorter extends DocumentSorter {
+
+    private static final int ORDERED = 0;
+    private static final int ORDERED_WITH_DUPLICATES = 1;
+    private static final int UNORDERED = 2;
+
+    /**
+     * Create an order-checking sorter
+     * @param base the expression that delivers the nodes to be sorted
+     */
+
+    public OrderCheckingSorter(Expression base) {
+        super(base);
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy.
+     * @return the copy of the original expression
+     */
+
+    /*@NotNull*/
+    public Expression copy() {
+        return new OrderCheckingSorter(getBaseExpression().copy());
+    }
+
+    /*@NotNull*/
+    public SequenceIterator iterate(XPathContext context) throws XPathException {
+        SequenceIterator base = operand.iterate(context);
+        SequenceExtent<Item> seq = new SequenceExtent<Item>(base);
+        int n = seq.getLength();
+        if (n < 2) {
+            return seq.iterate();
+        }
+        switch (checkOrder(seq, n)) {
+            case ORDERED:
+                return seq.iterate();
+            case ORDERED_WITH_DUPLICATES:
+                Item[] items = new Item[n];
+                int k = 0;
+                NodeInfo prev = null;
+                for (int i=0; i<n; i++) {
+                    NodeInfo node = (NodeInfo)seq.itemAt(i);
+                    if (prev == null || !node.isSameNodeInfo(prev)) {
+                        items[k++] = node;
+                    }
+                    prev = node;
+                }
+                return new ArrayIterator<Item>(items, 0, k);
+            default:
+                return new DocumentOrderIterator(seq.iterate(), getComparer());
+        }
+    }
+
+    /**
+     * Check whether a sequence of nodes is in document order
+     * @param seq the sequence of nodes
+     * @param n the length of the sequence
+     * @return ORDERED if the nodes are in document order with no duplicates; ORDERED_WITH_DUPLICATES
+     * if they are in document order, but some nodes appear more than once (necessarily in adjacent
+     * positions); UNORDERED otherwise
+     */
+
+    private int checkOrder(SequenceExtent<Item> seq, int n) {
+        ItemOrderComparer comparer = getComparer();
+        boolean duplicates = false;
+        NodeInfo prev = (NodeInfo)seq.itemAt(0);
+        for (int i=1; i<n; i++) {
+            NodeInfo node = (NodeInfo)seq.itemAt(i);
+            int c;
+            if (prev instanceof TinyNodeImpl && node instanceof TinyNodeImpl &&
+                    prev.getNodeKind() != Type.ATTRIBUTE && node.getNodeKind() != Type.ATTRIBUTE) {
+                // Fast path: compare (documentNumber, nodeNr) pairs directly
+                TinyNodeImpl t0 = (TinyNodeImpl)prev;
+                TinyNodeImpl t1 = (TinyNodeImpl)node;
+                if (t0.getTree() == t1.getTree()) {
+                    c = compareInts(t0.getNodeNumber(), t1.getNodeNumber());
+                } else {
+                    c = comparer.compare(prev, node);
+                }
+            } else {
+                c = comparer.compare(prev, node);
+            }
+            if (c > 0) {
+                return UNORDERED;
+            } else if (c == 0) {
+                duplicates = true;
+            }
+            prev = node;
+        }
+        return duplicates ? ORDERED_WITH_DUPLICATES : ORDERED;
+    }
+
+    private static int compareInts(int a, int b) {
+        return (a < b ? -1 : (a == b ? 0 : +1));
+    }
+
+    /**
+     * Diagnostic print of expression structure. The abstract expression tree
+     * is written to the supplied output destination.
+     */
+
+    public void explain(ExpressionPresenter out) {
+        out.startElement("sortAndDeduplicate");
+        out.emitAttribute("intraDocument", getComparer() instanceof LocalOrderComparer ? "true" : "false");
+        out.emitAttribute("checkOrder", "true");
+        operand.explain(out);
+        out.endElement();
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
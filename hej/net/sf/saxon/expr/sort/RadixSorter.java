@@ -0,0 +1,96 @@
+package net.sf.saxon.expr.sort;
+
+/**
+ * A least-significant-digit radix sort for an array of non-negative long keys, each of which carries an
+ * int value (typically the original position of the item from which the key was derived). The sort is
+ * stable, and its cost is proportional to the number of keys multiplied by the number of digits
+ * needed to distinguish them: bit positions in which all the keys agree are not examined. It is used to sort
+ * nodes into document order when their sequence numbers can be obtained directly, avoiding
+ * the object comparisons made by {@link GenericSorter}.
+ */
+
+public final class RadixSorter {
+
+    private static final int DIGIT_BITS = 11;
+    private static final int RADIX = 1<<DIGIT_BITS;
+    private static final int MASK = RADIX - 1;
+
+    private RadixSorter() {}
+
+    /**
+     * Sort an array of keys into ascending order, permuting an array of values in the same way
+     * @param keys the keys to be sorted. All keys must be non-negative.
+     * @param values the values associated with the keys: on exit, values[i] is the value that was
+     * originally associated with keys[i]
+     * @param length the number of entries to be sorted, starting at position zero in each array
+     */
+
+    public static void sort(long[] keys, int[] values, int length) {
+        if (length < 2) {
+            return;
+        }
+        // Find which bits differ between the keys: only the digits containing such bits need a pass
+        long first = keys[0];
+        long varying = 0;
+        for (int i=1; i<length; i++) {
+            varying |= (keys[i] ^ first);
+        }
+        if (varying == 0) {
+            return;
+        }
+        long[] keys2 = new long[length];
+        int[] values2 = new int[length];
+        long[] fromKeys = keys;
+        int[] fromValues = values;
+        long[] toKeys = keys2;
+        int[] toValues = values2;
+        int[] counts = new int[RADIX];
+        int bits = 64 - Long.numberOfLeadingZeros(varying);
+        for (int shift=Long.numberOfTrailingZeros(varying); shift<bits; shift+=DIGIT_BITS) {
+            if (((varying >>> shift) & MASK) == 0) {
+                continue;
+            }
+            for (int b=0; b<RADIX; b++) {
+                counts[b] = 0;
+            }
+            for (int i=0; i<length; i++) {
+                counts[(int)(fromKeys[i] >>> shift) & MASK]++;
+            }
+            int total = 0;
+            for (int b=0; b<RADIX; b++) {
+                int c = counts[b];
+                counts[b] = total;
+                total += c;
+            }
+            for (int i=0; i<length; i++) {
+                long k = fromKeys[i];
+                int p = counts[(int)(k >>> shift) & MASK]++;
+                toKeys[p] = k;
+                toValues[p] = fromValues[i];
+            }
+            long[] tk = fromKeys; fromKeys = toKeys; toKeys = tk;
+            int[] tv = fromValues; fromValues = toValues; toValues = tv;
+        }
+        if (fromKeys != keys) {
+            System.arraycopy(fromKeys, 0, keys, 0, length);
+            System.arraycopy(fromValues, 0, values, 0, length);
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
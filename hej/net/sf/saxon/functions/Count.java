@@ -5,6 +5,7 @@ import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
 import net.sf.saxon.value.Int64Value;
 import net.sf.saxon.value.IntegerValue;
 
@@ -57,6 +58,14 @@ public class Count extends Aggregate {
     public static int count(/*@NotNull*/ SequenceIterator iter) throws XPathException {
         if ((iter.getProperties() & SequenceIterator.LAST_POSITION_FINDER) != 0) {
             return ((LastPositionFinder)iter).getLength();
+        } else if (iter instanceof AxisIterator) {
+            // Avoid instantiating the nodes
+            AxisIterator axisIter = (AxisIterator)iter;
+            int n = 0;
+            while (axisIter.moveNext()) {
+                n++;
+            }
+            return n;
         } else {
             int n = 0;
             while (iter.next() != null) {
@@ -6,6 +6,7 @@ import net.sf.saxon.expr.parser.Token;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
 import net.sf.saxon.tree.iter.LookaheadIterator;
 import net.sf.saxon.value.BooleanValue;
 
@@ -98,6 +99,8 @@ public class Empty extends Aggregate {
         boolean result;
         if ((iter.getProperties() & SequenceIterator.LOOKAHEAD) != 0) {
             result = !((LookaheadIterator)iter).hasNext();
+        } else if (iter instanceof AxisIterator) {
+            result = !((AxisIterator)iter).moveNext();
         } else {
             result = iter.next() == null;
         }
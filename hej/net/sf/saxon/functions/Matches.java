@@ -152,18 +152,18 @@ public class Matches extends SystemFunction {
         }
 
         try {
-            int flagBits = JRegularExpression.setFlags(flags);
+            Configuration config = context.getConfiguration();
             int options = RegularExpression.XPATH20;
-            if (context.getConfiguration().getXMLVersion() == Configuration.XML11) {
+            if (config.getXMLVersion() == Configuration.XML11) {
                 options |= RegularExpression.XML11;
             }
-            if (context.getConfiguration().getXsdVersion() == Configuration.XSD11) {
+            if (config.getXsdVersion() == Configuration.XSD11) {
                 options |= RegularExpression.XSD11;
             }
             if (allow30features) {
                 options |= RegularExpression.XPATH30;
             }
-            re = new JRegularExpression(regex.getStringValueCS(), options, flagBits, null);
+            re = config.getRegexCache().getRegularExpression(regex.getStringValueCS(), options, flags);
 
         } catch (XPathException err) {
             XPathException de = new XPathException(err);
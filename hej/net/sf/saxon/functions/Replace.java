@@ -3,7 +3,6 @@ package net.sf.saxon.functions;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.expr.*;
 import net.sf.saxon.expr.parser.ExpressionVisitor;
-import net.sf.saxon.functions.regex.JRegularExpression;
 import net.sf.saxon.functions.regex.RegularExpression;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
@@ -176,18 +175,18 @@ public class Replace extends SystemFunction implements CallableExpression {
             }
 
             try {
-                int flagBits = JRegularExpression.setFlags(flags);
+                Configuration config = context.getConfiguration();
                 int options = RegularExpression.XPATH20;
-                if (context.getConfiguration().getXMLVersion() == Configuration.XML11) {
+                if (config.getXMLVersion() == Configuration.XML11) {
                     options |= RegularExpression.XML11;
                 }
-                if (context.getConfiguration().getXsdVersion() == Configuration.XSD11) {
+                if (config.getXsdVersion() == Configuration.XSD11) {
                     options |= RegularExpression.XSD11;
                 }
                 if (allow30features) {
                     options |= RegularExpression.XPATH30;
                 }
-                re = new JRegularExpression(regexArg.getStringValueCS(), options, flagBits, null);
+                re = config.getRegexCache().getRegularExpression(regexArg.getStringValueCS(), options, flags);
 
             } catch (XPathException err) {
                 XPathException de = new XPathException(err);
@@ -5,7 +5,6 @@ import net.sf.saxon.expr.CallableExpression;
 import net.sf.saxon.expr.Expression;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.expr.parser.ExpressionVisitor;
-import net.sf.saxon.functions.regex.JRegularExpression;
 import net.sf.saxon.functions.regex.RegularExpression;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trans.XPathException;
@@ -136,18 +135,18 @@ public class Tokenize extends SystemFunction implements CallableExpression {
     private RegularExpression buildRegex(XPathContext c, CharSequence pattern, CharSequence flags) throws XPathException {
         RegularExpression re;
         try {
-            int flagBits = JRegularExpression.setFlags(flags);
+            Configuration config = c.getConfiguration();
             int options = RegularExpression.XPATH20;
-            if (c.getConfiguration().getXMLVersion() == Configuration.XML11) {
+            if (config.getXMLVersion() == Configuration.XML11) {
                 options |= RegularExpression.XML11;
             }
-            if (c.getConfiguration().getXsdVersion() == Configuration.XSD11) {
+            if (config.getXsdVersion() == Configuration.XSD11) {
                 options |= RegularExpression.XSD11;
             }
             if (allow30features) {
                 options |= RegularExpression.XPATH30;
             }
-            re = new JRegularExpression(pattern, options, flagBits, null);
+            re = config.getRegexCache().getRegularExpression(pattern, options, flags);
 
         } catch (XPathException err) {
             XPathException de = new XPathException(err);
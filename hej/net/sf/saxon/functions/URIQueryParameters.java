@@ -27,6 +27,7 @@ public class URIQueryParameters {
     XMLReader parser = null;
     Boolean xinclude = null;
     boolean unparsed;
+    Integer threads = null;
 
     public static final int ON_ERROR_FAIL = 1;
     public static final int ON_ERROR_WARNING = 2;
@@ -102,6 +103,15 @@ public class URIQueryParameters {
                         } else if (value.equals("fail")) {
                             onError = Integer.valueOf(ON_ERROR_FAIL);
                         }
+                    } else if (keyword.equals("threads")) {
+                        try {
+                            int n = Integer.parseInt(value);
+                            if (n > 0) {
+                                threads = Integer.valueOf(n);
+                            }
+                        } catch (NumberFormatException err) {
+                            // ignore an invalid value, as with other parameters
+                        }
                     } else if (keyword.equals("parser")) {
                         try {
                             if (config == null) {
@@ -188,6 +198,14 @@ public class URIQueryParameters {
         return parser;
     }
 
+    /**
+     * Get the value of threads=N, or null if unspecified
+     */
+
+    public Integer getThreads() {
+        return threads;
+    }
+
     public static class RegexFilter implements FilenameFilter {
 
         private Pattern pattern;
@@ -12,6 +12,8 @@ import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.serialize.charcode.UTF16CharacterSet;
 import net.sf.saxon.trans.Err;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.tiny.CharSlice;
+import net.sf.saxon.tree.tiny.LargeStringBuffer;
 import net.sf.saxon.tree.util.FastStringBuffer;
 import net.sf.saxon.value.StringValue;
 import net.sf.saxon.value.Value;
@@ -192,6 +194,13 @@ public class UnparsedText extends SystemFunction implements CallableExpression {
         return e;
     }
 
+    /**
+     * The number of characters read from the Reader in one go. This is the same as the segment size of a
+     * {@link LargeStringBuffer}, so that a file that fits in one read is never copied into a segmented store.
+     */
+
+    private static final int CHUNK_SIZE = 65536;
+
     /**
      * Read the contents of an unparsed text file
      * @param checker NameChecker for checking whether characters are valid XML characters
@@ -202,53 +211,160 @@ public class UnparsedText extends SystemFunction implements CallableExpression {
      */
 
     public static CharSequence readFile(NameChecker checker, Reader reader) throws IOException, XPathException {
-        FastStringBuffer sb = new FastStringBuffer(FastStringBuffer.LARGE);
-        char[] buffer = new char[2048];
-        boolean first = true;
-        int actual;
-        int line = 1;
-        int column = 1;
-        while (true) {
-            actual = reader.read(buffer, 0, 2048);
+        // Files that fit in a single chunk are returned as a String; larger files are accumulated in
+        // a LargeStringBuffer, which grows by adding segments rather than by reallocating and copying
+        try {
+            char[] buffer = new char[CHUNK_SIZE];
+            LargeStringBuffer store = null;
+            boolean first = true;
+            int bomLength = 0;
+            int carry = 0;
+            while (true) {
+                int actual = fill(reader, buffer, carry);
+                boolean eof = actual < buffer.length;
+                int start = 0;
+                if (first) {
+                    first = false;
+                    if (actual > 0 && buffer[0] == '\ufeff') {
+                        // don't include the BOM in the result
+                        start = bomLength = 1;
+                    }
+                }
+                int end = actual;
+                carry = 0;
+                if (!eof && UTF16CharacterSet.isHighSurrogate(buffer[end - 1])) {
+                    // keep the high surrogate back so that it is checked with its partner
+                    end--;
+                    carry = 1;
+                }
+                int bad = findInvalidChar(checker, buffer, start, end);
+                if (bad >= 0) {
+                    throw invalidCharacter(store, bomLength, buffer, start, bad);
+                }
+                if (eof && store == null) {
+                    return new String(buffer, start, end - start);
+                }
+                if (store == null) {
+                    store = new LargeStringBuffer();
+                }
+                store.append(new CharSlice(buffer, start, end - start));
+                if (eof) {
+                    return store;
+                }
+                if (carry == 1) {
+                    buffer[0] = buffer[end];
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Fill a buffer from a Reader, stopping only when the buffer is full or the input is exhausted
+     * @param reader the Reader
+     * @param buffer the buffer to be filled
+     * @param offset the position in the buffer at which to start writing
+     * @return the number of characters in the buffer, including the first <code>offset</code> characters.
+     * This is less than the size of the buffer only if the end of the input has been reached.
+     * @throws IOException if a failure occurs reading the file
+     */
+
+    private static int fill(Reader reader, char[] buffer, int offset) throws IOException {
+        int total = offset;
+        while (total < buffer.length) {
+            int actual = reader.read(buffer, total, buffer.length - total);
             if (actual < 0) {
                 break;
             }
-            for (int c=0; c<actual;) {
-                int ch32 = buffer[c++];
-                if (ch32 == '\n') {
-                    line++;
-                    column = 0;
-                }
-                column++;
-                if (UTF16CharacterSet.isHighSurrogate(ch32)) {
-                    if (c==actual) {
-                        actual = reader.read(buffer, 0, 2048);
-                        c = 0;
-                    }
-                    char low = buffer[c++];
-                    ch32 = UTF16CharacterSet.combinePair((char)ch32, low);
-                }
-                if (!checker.isValidChar(ch32)) {
-                    XPathException err = new XPathException("The unparsed-text file contains a character that is illegal in XML (line=" +
-                            line + " column=" + column + " value=hex " + Integer.toHexString(ch32) + ')');
-                    err.setErrorCode("XTDE1190");
-                    throw err;
+            total += actual;
+        }
+        return total;
+    }
+
+    /**
+     * Search a range of characters for one that is not a valid XML character. Characters in the range
+     * x20 to xD7FF, together with tab, newline, and carriage return, are valid in both XML 1.0 and XML 1.1,
+     * and are accepted without consulting the NameChecker; this covers nearly all text in practice.
+     * A surrogate pair is checked as a single character; an unpaired surrogate is invalid.
+     * @param checker NameChecker for checking whether characters are valid XML characters
+     * @param buffer the characters to be checked
+     * @param start the position of the first character to be checked
+     * @param end the position after the last character to be checked
+     * @return the position of the first invalid character (or of the first half of an invalid surrogate
+     * pair), or -1 if all the characters are valid
+     */
+
+    public static int findInvalidChar(NameChecker checker, char[] buffer, int start, int end) {
+        for (int i=start; i<end; i++) {
+            char c = buffer[i];
+            if ((c >= 0x20 && c < 0xD800) || c == '\n' || c == '\r' || c == '\t') {
+                continue;
+            }
+            if (UTF16CharacterSet.isHighSurrogate(c) && i+1 < end && UTF16CharacterSet.isLowSurrogate(buffer[i+1])) {
+                if (!checker.isValidChar(UTF16CharacterSet.combinePair(c, buffer[i+1]))) {
+                    return i;
                 }
+                i++;
+            } else if (!checker.isValidChar(c)) {
+                return i;
             }
-            if (first) {
-                first = false;
-                if (buffer[0]=='\ufeff') {
-                    // don't include the BOM in the result
-                    sb.append(buffer, 1, actual-1);
-                } else {
-                    sb.append(buffer, 0, actual);
+        }
+        return -1;
+    }
+
+    /**
+     * Get the Unicode codepoint of the character at a given position
+     * @param buffer the characters
+     * @param pos the position of the character, or of the first half of a surrogate pair
+     * @param end the position after the last character in the buffer
+     * @return the codepoint
+     */
+
+    public static int codepointAt(char[] buffer, int pos, int end) {
+        char c = buffer[pos];
+        if (UTF16CharacterSet.isHighSurrogate(c) && pos+1 < end && UTF16CharacterSet.isLowSurrogate(buffer[pos+1])) {
+            return UTF16CharacterSet.combinePair(c, buffer[pos+1]);
+        }
+        return c;
+    }
+
+    /**
+     * Construct the error to be reported when a file contains a character that is not valid in XML.
+     * The line and column are computed only when this happens, so that the normal path through the
+     * file does not need to track them.
+     */
+
+    private static XPathException invalidCharacter(/*@Nullable*/ LargeStringBuffer store, int bomLength,
+                                                   char[] buffer, int start, int bad) {
+        int line = 1;
+        int column = 1 + bomLength;
+        if (store != null) {
+            int len = store.length();
+            for (int i=0; i<len; i++) {
+                char c = store.charAt(i);
+                if (c == '\n') {
+                    line++;
+                    column = 1;
+                } else if (!UTF16CharacterSet.isLowSurrogate(c)) {
+                    column++;
                 }
-            } else {
-                sb.append(buffer, 0, actual);
             }
         }
-        reader.close();
-        return sb.condense();
+        for (int i=start; i<bad; i++) {
+            char c = buffer[i];
+            if (c == '\n') {
+                line++;
+                column = 1;
+            } else if (!UTF16CharacterSet.isLowSurrogate(c)) {
+                column++;
+            }
+        }
+        column++;
+        XPathException err = new XPathException("The unparsed-text file contains a character that is illegal in XML (line=" +
+                line + " column=" + column + " value=hex " + Integer.toHexString(codepointAt(buffer, bad, buffer.length)) + ')');
+        err.setErrorCode("XTDE1190");
+        return err;
     }
 
     // diagnostic method to output the octets of a file
@@ -0,0 +1,204 @@
+package net.sf.saxon.functions.regex;
+
+import net.sf.saxon.trans.XPathException;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of compiled regular expressions, held at the level of the {@link net.sf.saxon.Configuration}.
+ * The cache is used when the regular expression or flags supplied to the functions matches(), replace()
+ * and tokenize(), or to the xsl:analyze-string instruction, are not known until run-time. Compiling an
+ * XPath regular expression involves translating it to Java syntax and then compiling the Java regular
+ * expression, both of which are expensive relative to a single match.
+ *
+ * <p>The cache is keyed on the regular expression, the flags, and the options (which capture the XPath,
+ * XML, and XSD versions in use). It is safe for use by multiple threads without locking. The number
+ * of entries is bounded; when the cache is full, arbitrary entries are discarded to make room. A
+ * compiled {@link JRegularExpression} is immutable, so the same instance can be used by several
+ * threads concurrently.</p>
+ *
+ * <p>Regular expressions that fail to compile are not cached: the error is reported on each call.</p>
+ */
+
+public class RegexCache {
+
+    private final ConcurrentHashMap<Key, RegularExpression> cache;
+    private volatile int capacity;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a regex cache
+     * @param capacity the maximum number of compiled regular expressions to be held in the cache.
+     * A value of zero means that regular expressions are never cached.
+     */
+
+    public RegexCache(int capacity) {
+        this.capacity = capacity;
+        cache = new ConcurrentHashMap<Key, RegularExpression>(Math.min(capacity, 64));
+    }
+
+    /**
+     * Get a compiled regular expression, compiling it if it is not already present in the cache
+     * @param regex the source text of the regular expression, in XML Schema or XPath syntax
+     * @param options flags indicating the regex dialect accepted, as defined in {@link RegularExpression}
+     * @param flags the flags argument as supplied by the user
+     * @return the compiled regular expression
+     * @throws XPathException if the syntax of the regular expression or flags is incorrect
+     */
+
+    public RegularExpression getRegularExpression(CharSequence regex, int options, CharSequence flags) throws XPathException {
+        if (capacity == 0) {
+            misses.incrementAndGet();
+            return new JRegularExpression(regex, options, JRegularExpression.setFlags(flags), null);
+        }
+        Key key = new Key(regex.toString(), flags.toString(), options);
+        RegularExpression re = cache.get(key);
+        if (re != null) {
+            hits.incrementAndGet();
+            return re;
+        }
+        misses.incrementAndGet();
+        re = new JRegularExpression(regex, options, JRegularExpression.setFlags(flags), null);
+        if (cache.size() >= capacity) {
+            makeRoom();
+        }
+        // If another thread has compiled the same regex in the meantime, either result will do
+        cache.put(key, re);
+        return re;
+    }
+
+    /**
+     * Discard entries from the cache so that there is room for at least one more
+     */
+
+    private void makeRoom() {
+        int target = capacity - 1 - (capacity / 8);
+        Iterator<Key> iter = cache.keySet().iterator();
+        while (iter.hasNext() && cache.size() > target) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Set the maximum number of compiled regular expressions to be held in the cache
+     * @param capacity the maximum number of entries. Zero means that regular expressions are never cached.
+     */
+
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Regex cache size must not be negative");
+        }
+        this.capacity = capacity;
+        if (capacity == 0) {
+            cache.clear();
+        } else if (cache.size() > capacity) {
+            makeRoom();
+        }
+    }
+
+    /**
+     * Get the maximum number of compiled regular expressions to be held in the cache
+     * @return the maximum number of entries
+     */
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of compiled regular expressions currently held in the cache
+     * @return the number of entries
+     */
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the cache
+     * @return the number of cache hits since the cache was created or the statistics were last reset
+     */
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of requests that required a regular expression to be compiled
+     * @return the number of cache misses since the cache was created or the statistics were last reset
+     */
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Reset the hit and miss counts to zero
+     */
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Remove all entries from the cache
+     */
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Key for an entry in the cache
+     */
+
+    private static final class Key {
+
+        private final String regex;
+        private final String flags;
+        private final int options;
+        private final int hash;
+
+        public Key(String regex, String flags, int options) {
+            this.regex = regex;
+            this.flags = flags;
+            this.options = options;
+            this.hash = regex.hashCode() ^ (flags.hashCode() * 31) ^ options;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hash == other.hash && options == other.options &&
+                    regex.equals(other.regex) && flags.equals(other.flags);
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -58,12 +58,12 @@ public abstract class FeatureKeys {
      *
      * <p>ALLOW_MULTITHREADING determines whether multi-threading is allowed.</p>
      * <p>If true (the default), the presence of the attribute <code>saxon:threads="N"</code>
-     *                 on an <code>xsl:for-each</code> instruction, when running under Saxon-EE, causes
+     *                 on an <code>xsl:for-each</code> instruction causes
      *                 multi-threaded execution. If set to false, the value of the
      *                     <code>saxon:threads</code> argument is ignored.</p>
-     * <p>The default value is true if Saxon-EE is in use, false otherwise.</p>     *
+     * <p>The default value is true.</p>     *
      * <p><i>Corresponding attribute in configuration file: global/@allowMultithreading</i></p>
-     * <p><i>Applies to Saxon editions: EE</i></p>
+     * <p><i>Applies to Saxon editions: HE, PE, EE</i></p>
      * @see net.sf.saxon.Configuration#isMultiThreading
      * @see net.sf.saxon.Configuration#setMultiThreading
      **/
@@ -166,6 +166,30 @@ public abstract class FeatureKeys {
 // AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
 
 
+    /**
+     *
+     * <p>Type of value: Integer</p>
+     *
+     * <p>The number of threads used by the standard <code>CollectionURIResolver</code> to parse
+     *                 the documents in a collection that maps to a directory. If the value is greater than
+     *                 one, documents are parsed by a pool of worker threads ahead of the point where they
+     *                 are consumed, but are still delivered in the same order as when parsing serially,
+     *                 and the <code>on-error</code> query parameter has the same effect. The value can be
+     *                 overridden for an individual collection using the query parameter
+     *                 <code>threads=N</code>. The default is 1.</p>     *
+     * <p><i>Corresponding attribute in configuration file: global/@collectionThreads</i></p>
+     * <p><i>Applies to Saxon editions: HE PE EE</i></p>
+     * @see net.sf.saxon.Configuration#setCollectionThreads
+     * @see net.sf.saxon.Configuration#getCollectionThreads
+     **/
+
+
+    public final static String COLLECTION_THREADS = 
+        "http://saxon.sf.net/feature/collectionThreads";
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
     /**
      *
      * <p>Type of value: Instance of net.sf.saxon.lib.CollectionURIResolver</p>
@@ -536,11 +560,12 @@ public abstract class FeatureKeys {
      * <p>Type of value: boolean</p>
      *
      * <p>By default, Saxon-EE attempts to generate Java bytecode for evaluation of
-     *                 parts of a query or stylesheet that are amenable to such treatment. Setting this option
-     *                 to false disables this.</p>     *
+     *                 parts of a query or stylesheet that are amenable to such treatment. Saxon-HE
+     *                 instead compiles arithmetic, comparison and boolean expressions into specialized
+     *                 evaluators; in Saxon-HE this is off unless the option is set to true.</p>     *
      * <p><i>Corresponding attribute in configuration file: global/@generateByteCode</i></p>
-     * <p><i>Corresponding option on command line: can be switched off using -generateByteCode:no</i></p>
-     * <p><i>Applies to Saxon editions: EE</i></p>
+     * <p><i>Corresponding option on command line: -generateByteCode:on|off</i></p>
+     * <p><i>Applies to Saxon editions: HE, PE, EE</i></p>
      * @see net.sf.saxon.Configuration#isGenerateByteCode
      * @see net.sf.saxon.Configuration#setGenerateByteCode
      **/
@@ -552,6 +577,27 @@ public abstract class FeatureKeys {
 // AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
 
 
+    /**
+     *
+     * <p>Type of value: boolean</p>
+     *
+     * <p>By default, the optimizer replaces calls on small non-recursive user-defined functions
+     *                 by the body of the function, with the arguments bound to local variables. This avoids
+     *                 the cost of creating a new stack frame for each call. Setting this option to false
+     *                 disables function inlining, which may be useful when debugging.</p>     *
+     * <p><i>Corresponding attribute in configuration file: global/@inlineFunctions</i></p>
+     * <p><i>Applies to Saxon editions: HE PE EE</i></p>
+     * @see net.sf.saxon.Configuration#isInlineFunctions
+     * @see net.sf.saxon.Configuration#setInlineFunctions
+     **/
+
+
+    public final static String INLINE_FUNCTIONS = 
+        "http://saxon.sf.net/feature/inlineFunctions";
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
     /**
      *
      * <p>Type of value: boolean</p>
@@ -962,6 +1008,52 @@ public abstract class FeatureKeys {
 // AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
 
 
+    /**
+     *
+     * <p>Type of value: Integer</p>
+     *
+     * <p>The maximum number of compiled regular expressions held in the cache used when the regular
+     *                 expression or flags supplied to <code>matches()</code>, <code>replace()</code>,
+     *                 <code>tokenize()</code> or <code>xsl:analyze-string</code> are not known until
+     *                 run-time. The cache is shared by all queries and transformations running under the
+     *                 <code>Configuration</code>. The default is 1000; the value zero disables caching.</p>     *
+     * <p><i>Corresponding attribute in configuration file: global/@regexCacheSize</i></p>
+     * <p><i>Applies to Saxon editions: HE PE EE</i></p>
+     * @see net.sf.saxon.Configuration#setRegexCacheSize
+     * @see net.sf.saxon.Configuration#getRegexCache
+     **/
+
+
+    public final static String REGEX_CACHE_SIZE = 
+        "http://saxon.sf.net/feature/regexCacheSize";
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
+    /**
+     *
+     * <p>Type of value: Boolean</p>
+     *
+     * <p>If true, indexes built to support the <code>key()</code> function are retained for as long as
+     *                 the indexed document remains in memory, and are reused by subsequent transformations
+     *                 and queries using the same compiled stylesheet or query. This is useful when large
+     *                 lookup documents, for example those held in the global document pool of the
+     *                 <code>Configuration</code>, are used by many transformations. The default is false,
+     *                 which means that an index on a document loaded by a transformation is discarded when
+     *                 the transformation finishes.</p>     *
+     * <p><i>Corresponding attribute in configuration file: global/@retainKeyIndexes</i></p>
+     * <p><i>Applies to Saxon editions: HE PE EE</i></p>
+     * @see net.sf.saxon.Configuration#isRetainKeyIndexes
+     * @see net.sf.saxon.Configuration#setRetainKeyIndexes
+     **/
+
+
+    public final static String RETAIN_KEY_INDEXES = 
+        "http://saxon.sf.net/feature/retainKeyIndexes";
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
     /**
      *
      * <p>Type of value: An instance of the class net.sf.saxon.lib.SchemaURIResolver</p>
@@ -1223,6 +1315,28 @@ public abstract class FeatureKeys {
 // AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
 
 
+    /**
+     *
+     * <p>Type of value: boolean</p>
+     *
+     * <p>If true, a TinyTree records for each element a summary of the names of the elements
+     *                 it contains, computed when the tree is closed. The summary is used when evaluating
+     *                 the child and descendant axes with a name test, to skip subtrees that cannot contain
+     *                 an element with the required name. It costs eight bytes per node; the figure is
+     *                 included in the tree statistics output when timing is enabled. The default is false.</p>     *
+     * <p><i>Corresponding attribute in configuration file: global/@tinyTreeNameSummary</i></p>
+     * <p><i>Applies to Saxon editions: HE PE EE</i></p>
+     * @see net.sf.saxon.Configuration#setTinyTreeNameSummary
+     * @see net.sf.saxon.Configuration#isTinyTreeNameSummary
+     **/
+
+
+    public final static String TINY_TREE_NAME_SUMMARY = 
+        "http://saxon.sf.net/feature/tinyTreeNameSummary";
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
     /**
      *
      * <p>Type of value: boolean</p>
@@ -1387,6 +1501,29 @@ public abstract class FeatureKeys {
 // AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
 
 
+    /**
+     *
+     * <p>Type of value: boolean</p>
+     *
+     * <p>If true, the XML output method uses a serializer that escapes special characters and
+     *                 encodes the output into bytes in a single pass, rather than writing characters to a
+     *                 <code>java.io.Writer</code>. This applies only when the output is written to an
+     *                 <code>OutputStream</code> or file, and when the encoding is UTF-8 or US-ASCII; in
+     *                 other cases the standard serializer is used. The output is the same in either case.
+     *                 The default is false.</p>     *
+     * <p><i>Corresponding attribute in configuration file: global/@useByteSerializer</i></p>
+     * <p><i>Applies to Saxon editions: HE PE EE</i></p>
+     * @see net.sf.saxon.Configuration#setUseByteSerializer
+     * @see net.sf.saxon.Configuration#isUseByteSerializer
+     **/
+
+
+    public final static String USE_BYTE_SERIALIZER = 
+        "http://saxon.sf.net/feature/useByteSerializer";
+
+// AUTO-GENERATED FROM FeatureKeys.xml - DO NOT EDIT THIS FILE
+
+
     /**
      *
      * <p>Type of value: boolean</p>
@@ -37,6 +37,7 @@ public class ParseOptions implements Serializable {
     /*@Nullable*/ private TreeModel treeModel = null;
     private int stripSpace = Whitespace.UNSPECIFIED;
     /*@Nullable*/ private Boolean lineNumbering = null;
+    /*@Nullable*/ private Boolean tinyTreeNameSummary = null;
     /*@Nullable*/ private Boolean xIncludeAware = null;
     private boolean pleaseClose = false;
     /*@Nullable*/ private transient ErrorListener errorListener = null;
@@ -74,6 +75,7 @@ public class ParseOptions implements Serializable {
         treeModel = p.treeModel;
         stripSpace = p.stripSpace;
         lineNumbering = p.lineNumbering;
+        tinyTreeNameSummary = p.tinyTreeNameSummary;
         xIncludeAware = p.xIncludeAware;
         pleaseClose = p.pleaseClose;
         errorListener = p.errorListener;
@@ -122,6 +124,9 @@ public class ParseOptions implements Serializable {
         if (options.lineNumbering != null) {
             lineNumbering = options.lineNumbering;
         }
+        if (options.tinyTreeNameSummary != null) {
+            tinyTreeNameSummary = options.tinyTreeNameSummary;
+        }
         if (options.xIncludeAware != null) {
             xIncludeAware = options.xIncludeAware;
         }
@@ -179,6 +184,9 @@ public class ParseOptions implements Serializable {
         if (lineNumbering == null) {
             lineNumbering = config.isLineNumbering();
         }
+        if (tinyTreeNameSummary == null) {
+            tinyTreeNameSummary = config.isTinyTreeNameSummary();
+        }
         if (xIncludeAware == null) {
             xIncludeAware = config.isXIncludeAware();
         }
@@ -463,6 +471,35 @@ public class ParseOptions implements Serializable {
         return lineNumbering != null;
     }
 
+    /**
+     * Set whether a TinyTree constructed from this source is to hold a summary of the names of the
+     * elements contained by each element, used to speed up searches on the child and descendant axes
+     * @param summary true if the name summary is to be built
+     */
+
+    public void setTinyTreeNameSummary(boolean summary) {
+        tinyTreeNameSummary = summary;
+    }
+
+    /**
+     * Get whether a TinyTree constructed from this source is to hold a summary of the names of the
+     * elements contained by each element
+     * @return true if the name summary is to be built
+     */
+
+    public boolean isTinyTreeNameSummary() {
+        return tinyTreeNameSummary != null && tinyTreeNameSummary;
+    }
+
+    /**
+     * Determine whether setTinyTreeNameSummary() has been called
+     * @return true if setTinyTreeNameSummary() has been called
+     */
+
+    public boolean isTinyTreeNameSummarySet() {
+        return tinyTreeNameSummary != null;
+    }
+
     /**
      * Set the SAX parser (XMLReader) to be used
      * @param parser the SAX parser
@@ -463,6 +463,9 @@ public class SerializerFactory implements Serializable {
      */
 
     protected Emitter newXMLEmitter(Properties properties) {
+        if (config.isUseByteSerializer()) {
+            return new XMLUTF8Emitter();
+        }
         return new XMLEmitter();
     }
 
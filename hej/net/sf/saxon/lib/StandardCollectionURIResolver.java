@@ -28,6 +28,10 @@ import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * This class implements the default collection URI Resolver.
@@ -42,6 +46,10 @@ import java.net.URISyntaxException;
  * <li><p>select=pattern determines which files in the directory are selected.</p></li>
  * <li><p>on-error=fail|warn|ignore determines the action taken if processing of a file fails</p></li>
  * <li><p>parser=qualified.class.name selects the parser (XMLReader) to be used to read the files</p></li>
+ * <li><p>threads=N causes the files to be parsed by a pool of N threads, ahead of the point where they
+ * are consumed. The documents are delivered in the same order, and the on-error parameter has the same
+ * effect, as when they are parsed serially. The default is taken from the configuration option
+ * {@link FeatureKeys#COLLECTION_THREADS}. The option is ignored if the parser parameter is present.</p></li>
  * </ul>
  * <p>
  * Otherwise, the resolver attempts to dereference the URI to obtain a catalog file. This is an XML file
@@ -210,6 +218,18 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
             });
         }
         FileExpander expander = new FileExpander(params, newPipe);
+
+        int threads = context.getConfiguration().getCollectionThreads();
+        if (params != null && params.getThreads() != null) {
+            threads = params.getThreads();
+        }
+        if (threads > 1 && expander.parser == null) {
+            // A user-supplied XMLReader cannot be shared between threads, so in that case we parse serially
+            List<File> members = new ArrayList<File>(files.length);
+            expander.listMembers(files, members);
+            return new ParallelFileLoader(members, expander, threads);
+        }
+
         SequenceIterator<ObjectValue> base = new ArrayIterator<ObjectValue>(fileValues);
         return new MappingIterator<ObjectValue, DocumentInfo>(base, expander);
     }
@@ -393,7 +413,44 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
                 } else {
                     return null;
                 }
-            } else if (unparsed) {
+            } else {
+                try {
+                    return SingletonIterator.makeIterator(loadFile(file));
+                } catch (XPathException err) {
+                    reportError(err);
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Add the files that are members of the collection to a list, in the order in which
+         * they would be delivered by the {@link #map} method
+         * @param files the files and directories in a directory
+         * @param members a list to which the files that are members of the collection are to be added
+         */
+
+        void listMembers(File[] files, List<File> members) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    if (recurse) {
+                        listMembers(filter == null ? file.listFiles() : file.listFiles(filter), members);
+                    }
+                } else {
+                    members.add(file);
+                }
+            }
+        }
+
+        /**
+         * Load one file, as a document node or (for unparsed=yes) a text node
+         * @param file the file to be loaded
+         * @return the document node
+         * @throws XPathException if the file cannot be read or parsed
+         */
+
+        DocumentInfo loadFile(File file) throws XPathException {
+            if (unparsed) {
                 try {
                     Reader reader = new FileReader(file);
                     NameChecker checker = pipe.getConfiguration().getNameChecker();
@@ -402,70 +459,187 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
                     TextFragmentValue doc = new TextFragmentValue(content, uri);
                     doc.setSystemId(file.toURI().toString());
                     doc.setConfiguration(pipe.getConfiguration());
-                    return SingletonIterator.makeIterator((DocumentInfo)doc);
+                    return doc;
                 } catch (IOException err) {
-                    if (onError == URIQueryParameters.ON_ERROR_IGNORE) {
-                        return null;
-                    } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
-                        try {
-                            XPathException warn = new XPathException("Failed to read " + file.getPath(), err);
-                            pipe.getErrorListener().warning(warn);
-                            XPathException supp = new XPathException("The document will be excluded from the collection");
-                            pipe.getErrorListener().warning(supp);
-                        } catch (TransformerException err2) {
-                            //
-                        }
-                        return null;
-                    } else {
-                        throw new XPathException("Failed to read " + file.getPath(), err);
-                    }
+                    throw new XPathException("Failed to read " + file.getPath(), err);
                 }
             } else {
+                Source source = new StreamSource(file.toURI().toString());
+                ParseOptions options = new ParseOptions();
+                if (validation != Validation.STRIP && validation != Validation.PRESERVE) {
+                    options.setSchemaValidationMode(validation);
+                }
+                if (xinclude != null) {
+                    options.setXIncludeAware(xinclude);
+                }
+                if (parser != null) {
+                    options.setXMLReader(parser);
+                }
+
+                if (params != null) {
+                    int stripSpace = params.getStripSpace();
+                    options.setStripSpace(stripSpace);
+                }
+                return pipe.getConfiguration().buildDocument(source, options);
+            }
+        }
+
+        /**
+         * Take the action defined by the on-error parameter when a file cannot be loaded
+         * @param err the error that occurred
+         * @throws XPathException if on-error=fail (the default)
+         */
+
+        void reportError(XPathException err) throws XPathException {
+            if (onError == URIQueryParameters.ON_ERROR_IGNORE) {
+                // no action
+            } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
                 try {
-                    Source source = new StreamSource(file.toURI().toString());
-                    ParseOptions options = new ParseOptions();
-                    if (validation != Validation.STRIP && validation != Validation.PRESERVE) {
-                        options.setSchemaValidationMode(validation);
-                    }
-                    if (xinclude != null) {
-                        options.setXIncludeAware(xinclude);
-                    }
-                    if (parser != null) {
-                        options.setXMLReader(parser);
+                    if (!err.hasBeenReported()) {
+                        pipe.getErrorListener().warning(err);
+                        XPathException supp = new XPathException("The document will be excluded from the collection");
+                        supp.setLocator(err.getLocator());
+                        pipe.getErrorListener().warning(supp);
                     }
+                } catch (TransformerException err2) {
+                    //
+                }
+            } else {
+                throw err;
+            }
+        }
+    }
 
-                    if (params != null) {
-                        int stripSpace = params.getStripSpace();
-                        options.setStripSpace(stripSpace);
-                    }
-                    DocumentInfo doc = pipe.getConfiguration().buildDocument(source, options);
-                    return SingletonIterator.makeIterator(doc);
-                } catch (XPathException err) {
-                    if (onError == URIQueryParameters.ON_ERROR_IGNORE) {
-                        return null;
-                    } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
+    /**
+     * Iterator over the documents in a directory collection, in which the documents are parsed by
+     * a pool of worker threads. The iterator keeps a bounded number of documents (twice the number
+     * of threads) parsed or being parsed ahead of the one most recently delivered. Documents are
+     * delivered in the order of the list of files, and errors are reported (or cause failure, depending
+     * on the on-error parameter) when the position of the failing file is reached, so the results
+     * are the same as when the files are parsed serially.
+     */
+
+    private static class ParallelFileLoader implements SequenceIterator<DocumentInfo> {
+
+        private List<File> files;
+        private FileExpander expander;
+        private int threads;
+        /*@Nullable*/ private ExecutorService executor;
+        private ArrayDeque<Future<DocumentInfo>> pending;
+        private int nextFile = 0;
+        /*@Nullable*/ private DocumentInfo current = null;
+        private int position = 0;
+
+        public ParallelFileLoader(List<File> files, FileExpander expander, int threads) {
+            this.files = files;
+            this.expander = expander;
+            this.threads = Math.min(threads, Math.max(files.size(), 1));
+            this.pending = new ArrayDeque<Future<DocumentInfo>>(this.threads * 2);
+        }
+
+        /*@Nullable*/ public DocumentInfo next() throws XPathException {
+            while (true) {
+                fillPipeline();
+                Future<DocumentInfo> future = pending.poll();
+                if (future == null) {
+                    current = null;
+                    position = -1;
+                    close();
+                    return null;
+                }
+                try {
+                    current = future.get();
+                    position++;
+                    return current;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof XPathException) {
                         try {
-                            if (!err.hasBeenReported()) {
-                                pipe.getErrorListener().warning(err);
-                                XPathException supp = new XPathException("The document will be excluded from the collection");
-                                supp.setLocator(err.getLocator());
-                                pipe.getErrorListener().warning(supp);
-                            }
-                        } catch (TransformerException err2) {
-                            //
+                            expander.reportError((XPathException)cause);
+                        } catch (XPathException err) {
+                            close();
+                            throw err;
                         }
-                        return null;
+                        // the document is excluded from the collection: move on to the next
                     } else {
-                        throw err;
+                        close();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException)cause;
+                        } else if (cause instanceof Error) {
+                            throw (Error)cause;
+                        } else {
+                            throw new XPathException(cause);
+                        }
                     }
+                } catch (InterruptedException e) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    throw new XPathException("Interrupted while loading collection", e);
+                }
+            }
+        }
+
+        /**
+         * Submit files for parsing until the required number are parsed or in progress
+         */
+
+        private void fillPipeline() {
+            while (pending.size() < threads * 2 && nextFile < files.size()) {
+                if (executor == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "saxon:collection");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                    // if the iterator is abandoned without being closed, the threads terminate when idle
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
                 }
+                final File file = files.get(nextFile++);
+                pending.add(executor.submit(new Callable<DocumentInfo>() {
+                    public DocumentInfo call() throws XPathException {
+                        return expander.loadFile(file);
+                    }
+                }));
+            }
+        }
+
+        /*@Nullable*/ public DocumentInfo current() {
+            return current;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public void close() {
+            for (Future<DocumentInfo> f : pending) {
+                f.cancel(false);
+            }
+            pending.clear();
+            nextFile = files.size();
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
             }
         }
+
+        /*@NotNull*/ public SequenceIterator<DocumentInfo> getAnother() {
+            return new ParallelFileLoader(files, expander, threads);
+        }
+
+        public int getProperties() {
+            return 0;
+        }
     }
 
 
 
 
+
 }
 
 //
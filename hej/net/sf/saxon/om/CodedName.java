@@ -1,10 +1,13 @@
 package net.sf.saxon.om;
 
+import java.io.Serializable;
+
 /**
  * An implementation of NodeName that encapsulates an integer namecode and a reference to the NamePool from which
  * it was allocated.
  */
-public class CodedName implements NodeName {
+public class CodedName implements NodeName, NameCodeHolder, Serializable {
+    private static final long serialVersionUID = 1L;
 
     private int nameCode;
     private NamePool pool;
@@ -130,6 +133,16 @@ public class CodedName implements NodeName {
         return nameCode;
     }
 
+    /**
+     * Replace the name code by the code of the same name in another NamePool
+     * @param map the mapping from codes in the NamePool used when this object was created to codes in
+     * the NamePool that is now to be used
+     */
+    public void remapNameCodes(NameCodeMap map) {
+        nameCode = map.mapNameCode(nameCode);
+        pool = map.getTargetNamePool();
+    }
+
     /**
      * Returns a hash code value for the object.
      */
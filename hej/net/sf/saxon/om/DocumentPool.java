@@ -36,7 +36,7 @@ public final class DocumentPool implements Serializable {
     * @param uri The document-uri property of the document.
     */
 
-    public void add(DocumentInfo doc, /*@Nullable*/ String uri) {
+    public synchronized void add(DocumentInfo doc, /*@Nullable*/ String uri) {
         if (uri!=null) {
             documentNameMap.put(new DocumentURI(uri), doc);
         }
@@ -48,7 +48,7 @@ public final class DocumentPool implements Serializable {
     * @param uri The document-uri property of the document.
     */
 
-    public void add(DocumentInfo doc, /*@Nullable*/ DocumentURI uri) {
+    public synchronized void add(DocumentInfo doc, /*@Nullable*/ DocumentURI uri) {
         if (uri!=null) {
             documentNameMap.put(uri, doc);
         }
@@ -61,7 +61,7 @@ public final class DocumentPool implements Serializable {
     * or null if it is not found.
     */
 
-    public DocumentInfo find(String uri) {
+    public synchronized DocumentInfo find(String uri) {
         return documentNameMap.get(new DocumentURI(uri));
     }
 
@@ -72,7 +72,7 @@ public final class DocumentPool implements Serializable {
     * or null if it is not found.
     */
 
-    public DocumentInfo find(DocumentURI uri) {
+    public synchronized DocumentInfo find(DocumentURI uri) {
         return documentNameMap.get(uri);
     }
 
@@ -84,7 +84,7 @@ public final class DocumentPool implements Serializable {
      * @return The uri of the document node, if present in the pool, or the systemId of the document node otherwise
      */
 
-    /*@Nullable*/ public String getDocumentURI(NodeInfo doc) {
+    /*@Nullable*/ public synchronized String getDocumentURI(NodeInfo doc) {
         Iterator<DocumentURI> iter = documentNameMap.keySet().iterator();
         while (iter.hasNext()) {
             DocumentURI uri = iter.next();
@@ -101,7 +101,7 @@ public final class DocumentPool implements Serializable {
      * @return true if the document is present, false otherwise
      */
 
-    public boolean contains(DocumentInfo doc) {
+    public synchronized boolean contains(DocumentInfo doc) {
         // relies on "equals" for nodes comparing node identity
         return documentNameMap.values().contains(doc);
     }
@@ -113,7 +113,7 @@ public final class DocumentPool implements Serializable {
      * @return the document supplied in the doc parameter
      */
 
-    public DocumentInfo discard(DocumentInfo doc) {
+    public synchronized DocumentInfo discard(DocumentInfo doc) {
         for (Map.Entry<DocumentURI, DocumentInfo> e : documentNameMap.entrySet()) {
             DocumentURI name = e.getKey();
             DocumentInfo entry = e.getValue();
@@ -130,7 +130,7 @@ public final class DocumentPool implements Serializable {
      * @param keyManager the keymanager from which indexes are to be released
      */
 
-    public void discardIndexes(/*@NotNull*/ KeyManager keyManager) {
+    public synchronized void discardIndexes(/*@NotNull*/ KeyManager keyManager) {
         for (DocumentInfo doc : documentNameMap.values()) {
             keyManager.clearDocumentIndexes(doc);
         }
@@ -142,7 +142,7 @@ public final class DocumentPool implements Serializable {
      * @param uri the URI of the unavailable document
      */
 
-    public void markUnavailable(DocumentURI uri) {
+    public synchronized void markUnavailable(DocumentURI uri) {
         unavailableDocuments.add(uri);
     }
 
@@ -151,7 +151,7 @@ public final class DocumentPool implements Serializable {
      * has been previously called and has returned false
      */
 
-    public boolean isMarkedUnavailable(DocumentURI uri) {
+    public synchronized boolean isMarkedUnavailable(DocumentURI uri) {
         return unavailableDocuments.contains(uri);
     }
 
@@ -6,7 +6,8 @@ package net.sf.saxon.om;
  * only in the context of a known NamePool, and instances must be compared only if they relate to the
  * same NamePool. The fingerprint is optional, and is used only if present.
  */
-public class FingerprintedQName extends StructuredQName implements NodeName {
+public class FingerprintedQName extends StructuredQName implements NodeName, NameCodeHolder {
+    private static final long serialVersionUID = 1L;
 
     private int nameCode = -1;
 
@@ -101,6 +102,16 @@ public class FingerprintedQName extends StructuredQName implements NodeName {
         return nameCode;
     }
 
+    /**
+     * Replace the name code, if there is one, by the code of the same name in another NamePool
+     * @param map the mapping from codes in the NamePool used when this object was created to codes in
+     * the NamePool that is now to be used
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        nameCode = map.mapNameCode(nameCode);
+    }
+
     /*
      * Compare two names for equality
      */
@@ -0,0 +1,38 @@
+package net.sf.saxon.om;
+
+/**
+ * This interface is implemented by objects in compiled code that hold name codes, fingerprints, or
+ * URI codes allocated from a {@link NamePool}. When compiled code is loaded into a configuration other
+ * than the one that compiled it, each such object is asked to replace its codes by the codes that the
+ * same names have in the NamePool of that configuration.
+ * @since 9.4
+ */
+
+public interface NameCodeHolder {
+
+    /**
+     * Replace the codes held by this object by the corresponding codes in another NamePool
+     * @param map the mapping from codes in the NamePool used when this object was created to codes in
+     * the NamePool that is now to be used
+     */
+
+    public void remapNameCodes(NameCodeMap map);
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
\ No newline at end of file
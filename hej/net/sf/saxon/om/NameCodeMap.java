@@ -0,0 +1,162 @@
+package net.sf.saxon.om;
+
+import net.sf.saxon.expr.sort.IntHashMap;
+import net.sf.saxon.expr.sort.IntIterator;
+import net.sf.saxon.expr.sort.IntToIntHashMap;
+
+/**
+ * A NameCodeMap translates the name codes, fingerprints, and URI codes of one NamePool into the codes of
+ * the same names in another NamePool. It is created from the description of a NamePool written using
+ * {@link NamePool#writeNames}, and is used when compiled code is loaded into a configuration other than
+ * the one that compiled it.
+ *
+ * <p>Names are allocated in the target NamePool only when their codes are first translated, so creating
+ * the map does not change the target NamePool. A NameCodeMap is not thread-safe.</p>
+ * @since 9.4
+ */
+
+public final class NameCodeMap {
+
+    private NamePool target;
+    private String[] uris;
+    private String[][] prefixes;
+    private IntToIntHashMap uriCodes;
+    private IntHashMap<String> localNames;
+    private IntToIntHashMap mapped;
+
+    /**
+     * Create a NameCodeMap
+     * @param target the NamePool whose codes are to be used
+     * @param uris the namespace URIs of the source NamePool, indexed by URI code
+     * @param prefixes for each URI code, the prefixes used with that URI, indexed by prefix index minus one
+     * @param uriCodes the URI code of each user-defined name, indexed by its fingerprint
+     * @param localNames the local part of each user-defined name, indexed by its fingerprint
+     */
+
+    NameCodeMap(NamePool target, String[] uris, String[][] prefixes,
+                IntToIntHashMap uriCodes, IntHashMap<String> localNames) {
+        this.target = target;
+        this.uris = uris;
+        this.prefixes = prefixes;
+        this.uriCodes = uriCodes;
+        this.localNames = localNames;
+        this.mapped = new IntToIntHashMap(localNames.size() + 10);
+    }
+
+    /**
+     * Get the NamePool whose codes are delivered by this map
+     * @return the target NamePool
+     */
+
+    public NamePool getTargetNamePool() {
+        return target;
+    }
+
+    /**
+     * Translate a name code, allocating the name in the target NamePool if necessary
+     * @param nameCode a name code in the source NamePool, or -1
+     * @return the name code of the same name (with the same prefix) in the target NamePool, or -1
+     * if the supplied name code is -1
+     * @throws IllegalArgumentException if the name code is not known in the source NamePool
+     */
+
+    public int mapNameCode(int nameCode) {
+        if (nameCode == -1) {
+            return -1;
+        }
+        int fp = nameCode & NamePool.FP_MASK;
+        int prefixIndex = (nameCode >> 20) & 0x3ff;
+        if ((fp & NamePool.USER_DEFINED_MASK) == 0 && prefixIndex == 0) {
+            // the fingerprints of standard names are the same in every NamePool
+            return nameCode;
+        }
+        if (mapped.find(nameCode)) {
+            return mapped.get(nameCode);
+        }
+        int uriCode;
+        String localName;
+        if ((fp & NamePool.USER_DEFINED_MASK) == 0) {
+            uriCode = StandardNames.getURICode(fp);
+            localName = StandardNames.getLocalName(fp);
+        } else {
+            localName = localNames.get(fp);
+            if (localName == null) {
+                throw new IllegalArgumentException("Unknown name code " + nameCode);
+            }
+            uriCode = uriCodes.get(fp);
+        }
+        String prefix = "";
+        if (prefixIndex != 0) {
+            if (uriCode >= prefixes.length || prefixIndex > prefixes[uriCode].length) {
+                throw new IllegalArgumentException("Unknown prefix in name code " + nameCode);
+            }
+            prefix = prefixes[uriCode][prefixIndex - 1];
+        }
+        int newCode = target.allocate(prefix, uris[uriCode], localName);
+        mapped.put(nameCode, newCode);
+        return newCode;
+    }
+
+    /**
+     * Translate a fingerprint, allocating the name in the target NamePool if necessary
+     * @param fingerprint a fingerprint in the source NamePool, or -1
+     * @return the fingerprint of the same name in the target NamePool, or -1 if the supplied
+     * fingerprint is -1
+     * @throws IllegalArgumentException if the fingerprint is not known in the source NamePool
+     */
+
+    public int mapFingerprint(int fingerprint) {
+        if (fingerprint == -1) {
+            return -1;
+        }
+        return mapNameCode(fingerprint & NamePool.FP_MASK) & NamePool.FP_MASK;
+    }
+
+    /**
+     * Translate a URI code, allocating the URI in the target NamePool if necessary
+     * @param uriCode a URI code in the source NamePool
+     * @return the code of the same URI in the target NamePool
+     * @throws IllegalArgumentException if the URI code is not known in the source NamePool
+     */
+
+    public short mapURICode(short uriCode) {
+        if (uriCode < 0 || uriCode >= uris.length) {
+            throw new IllegalArgumentException("Unknown URI code " + uriCode);
+        }
+        return target.allocateCodeForURI(uris[uriCode]);
+    }
+
+    /**
+     * Translate the keys of a map whose keys are fingerprints
+     * @param map a map whose keys are fingerprints in the source NamePool
+     * @return a new map containing the same values, whose keys are the corresponding fingerprints
+     * in the target NamePool
+     */
+
+    public <T> IntHashMap<T> mapFingerprintKeys(IntHashMap<T> map) {
+        IntHashMap<T> result = new IntHashMap<T>(map.size());
+        for (IntIterator it = map.keyIterator(); it.hasNext();) {
+            int fp = it.next();
+            result.put(mapFingerprint(fp), map.get(fp));
+        }
+        return result;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
\ No newline at end of file
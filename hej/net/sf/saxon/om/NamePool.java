@@ -1,12 +1,21 @@
 package net.sf.saxon.om;
 
+import net.sf.saxon.expr.sort.IntHashMap;
+import net.sf.saxon.expr.sort.IntToIntHashMap;
 import net.sf.saxon.lib.NamespaceConstant;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.tree.util.FastStringBuffer;
 import net.sf.saxon.value.Whitespace;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * A NamePool holds a collection of expanded names, each containing a namespace URI,
@@ -40,12 +49,12 @@ import java.util.HashMap;
  * mainly to names in the XSLT and XML Schema namespaces: constants representing these names
  * are found in {@link StandardNames}.
  *
- * <p>Operations that update the NamePool, or that have the potential to update it, are
- * synchronized. Read-only operations are done without synchronization. Although technically
- * unsafe, this has not led to any problems in practice. Performance problems due to excessive
- * contention on the NamePool have occasionally been observed: if this happens, the best strategy
- * is to consider splitting the workload to use multiple Configurations each with a separate
- * NamePool.</p>
+ * <p>The NamePool is thread-safe, and is designed so that many threads (for example, threads
+ * parsing different source documents using the same Configuration) can use it concurrently without
+ * contention. Read-only operations, and allocation of a name that is already present, take no locks.
+ * New names are added to the end of a hash chain using an atomic compare-and-set operation, so threads
+ * adding names to the pool do not block each other. Only the rare operations of registering a new
+ * namespace URI, or a new prefix for an existing URI, acquire a lock.</p>
  *
  * <h3>Internal organization of the NamePool</h3>
  *
@@ -82,6 +91,10 @@ import java.util.HashMap;
  *
  * <p>Modified in 9.4 to remove namespace codes.</p>
  *
+ * <p>The hash chains are append-only: an entry, once added, never moves, which means that the depth of
+ * an entry in its chain (and hence its fingerprint) never changes. The table of URIs and the list of prefixes
+ * for each URI are copy-on-write structures published through volatile fields.</p>
+ *
  * @author Michael H. Kay
  */
 
@@ -117,9 +130,9 @@ public class NamePool implements Serializable {
      */
 
     private static class NameEntry implements Serializable {
-        String localName;
-        short uriCode;
-        /*@Nullable*/ NameEntry nextEntry;	// link to next NameEntry with the same hashcode
+        final String localName;
+        final short uriCode;
+        /*@Nullable*/ volatile NameEntry nextEntry;	// link to next NameEntry with the same hashcode
 
         /**
          * Create a NameEntry for a QName
@@ -134,27 +147,40 @@ public class NamePool implements Serializable {
 
     }
 
-    private NameEntry[] hashslots = new NameEntry[1024];
+    private static final AtomicReferenceFieldUpdater<NameEntry, NameEntry> NEXT_ENTRY =
+            AtomicReferenceFieldUpdater.newUpdater(NameEntry.class, NameEntry.class, "nextEntry");
+
+    private final AtomicReferenceArray<NameEntry> hashslots = new AtomicReferenceArray<NameEntry>(1024);
 
     /**
-     * Table of URIs, indexed by URI code
+     * Internal structure of a URI entry: the namespace URI, together with the prefixes that have been
+     * encountered in conjunction with that URI. The array of prefixes is replaced, never modified.
      */
-    private String[] uris = new String[100];
+
+    private static class URIEntry implements Serializable {
+        final String uri;
+        volatile String[] prefixes;
+
+        public URIEntry(String uri, String[] prefixes) {
+            this.uri = uri;
+            this.prefixes = prefixes;
+        }
+    }
 
     /**
-     * Table of prefixes for each URI: for each URI code there is an array of prefixes holding
-     * the prefixes that have been encountered in conjunction with that URI
+     * Table of URIs, indexed by URI code. The array is replaced when it needs to grow.
      */
-    private String[][] prefixesForUri = new String[100][0];
+    private volatile URIEntry[] uris = new URIEntry[100];
 
     /**
-     * Number of entries used in the uris and prefixesForUri arrays
+     * Number of entries used in the uris array. This is written after the entry itself,
+     * so a reader that sees the new value also sees the new entry.
      */
-    short urisUsed = 0;
+    volatile short urisUsed = 0;
 
     // General purpose cache for data held by clients of the namePool
 
-    private HashMap<Class, Object> clientData;
+    private final ConcurrentHashMap<Class, Object> clientData = new ConcurrentHashMap<Class, Object>(10);
 
     /**
      * Create a NamePool
@@ -162,23 +188,14 @@ public class NamePool implements Serializable {
 
     public NamePool() {
 
-        uris[NamespaceConstant.NULL_CODE] = NamespaceConstant.NULL;
-        prefixesForUri[NamespaceConstant.NULL_CODE] = new String[]{""};
-
-        uris[NamespaceConstant.XML_CODE] = NamespaceConstant.XML;
-        prefixesForUri[NamespaceConstant.XML_CODE] = new String[]{"xml"};
-
-        uris[NamespaceConstant.XSLT_CODE] = NamespaceConstant.XSLT;
-        prefixesForUri[NamespaceConstant.XSLT_CODE] = new String[]{"xsl"};
+        URIEntry[] u = uris;
 
-        uris[NamespaceConstant.SAXON_CODE] = NamespaceConstant.SAXON;
-        prefixesForUri[NamespaceConstant.SAXON_CODE] = new String[]{"saxon"};
-
-        uris[NamespaceConstant.SCHEMA_CODE] = NamespaceConstant.SCHEMA;
-        prefixesForUri[NamespaceConstant.SCHEMA_CODE] = new String[]{"xs"};
-
-        uris[NamespaceConstant.XSI_CODE] = NamespaceConstant.SCHEMA_INSTANCE;
-        prefixesForUri[NamespaceConstant.XSI_CODE] = new String[]{"xsi"};
+        u[NamespaceConstant.NULL_CODE] = new URIEntry(NamespaceConstant.NULL, new String[]{""});
+        u[NamespaceConstant.XML_CODE] = new URIEntry(NamespaceConstant.XML, new String[]{"xml"});
+        u[NamespaceConstant.XSLT_CODE] = new URIEntry(NamespaceConstant.XSLT, new String[]{"xsl"});
+        u[NamespaceConstant.SAXON_CODE] = new URIEntry(NamespaceConstant.SAXON, new String[]{"saxon"});
+        u[NamespaceConstant.SCHEMA_CODE] = new URIEntry(NamespaceConstant.SCHEMA, new String[]{"xs"});
+        u[NamespaceConstant.XSI_CODE] = new URIEntry(NamespaceConstant.SCHEMA_INSTANCE, new String[]{"xsi"});
 
         urisUsed = 6;
 
@@ -193,7 +210,7 @@ public class NamePool implements Serializable {
     private NameEntry getNameEntry(int nameCode) {
         int hash = nameCode & 0x3ff;
         int depth = (nameCode >> 10) & 0x3ff;
-        NameEntry entry = hashslots[hash];
+        NameEntry entry = hashslots.get(hash);
 
         for (int i = 1; i < depth; i++) {
             if (entry == null) {
@@ -295,40 +312,77 @@ public class NamePool implements Serializable {
      * @return an integer code that uniquely identifies this URI within the namepool.
      */
 
-    public synchronized short allocateCodeForURI(String uri) {
-        //System.err.println("allocateCodeForURI");
-        return allocateCodeForURIInternal(uri);
+    public short allocateCodeForURI(String uri) {
+        if (uri == null) {
+            return NamespaceConstant.NULL_CODE;
+        }
+        short code = getCodeForURI(uri);
+        if (code >= 0) {
+            return code;
+        }
+        return addURI(uri);
     }
 
     /**
-     * Allocate the uri code for a given URI; create one if not found. This non-synchronized
-     * version of the external method is provided to avoid the overhead of synchronizing a second time.
-     * @param uri The namespace URI. Supply "" or null for the "null namespace"
-     * @return an integer code that uniquely identifies this URI within the namepool.
+     * Add a URI to the table of URIs, unless another thread has already added it. This is the
+     * only operation on the NamePool that adds to the table of URIs, and it is synchronized.
+     * @param uri the namespace URI
+     * @return the URI code for this URI
      */
 
-    private short allocateCodeForURIInternal(String uri) {
-        if (uri == null) {
-            return NamespaceConstant.NULL_CODE;
-        }
-        for (short j = 0; j < urisUsed; j++) {
-            if (uris[j].equals(uri)) {
+    private synchronized short addURI(String uri) {
+        short used = urisUsed;
+        URIEntry[] u = uris;
+        for (short j = 0; j < used; j++) {
+            if (u[j].uri.equals(uri)) {
                 return j;
             }
         }
-        if (urisUsed >= uris.length) {
-            if (urisUsed > 32000) {
+        if (used >= u.length) {
+            if (used > 32000) {
                 throw new NamePoolLimitException("Too many namespace URIs");
             }
-            String[][] p = new String[urisUsed * 2][0];
-            String[] u = new String[urisUsed * 2];
-            System.arraycopy(prefixesForUri, 0, p, 0, urisUsed);
-            System.arraycopy(uris, 0, u, 0, urisUsed);
-            prefixesForUri = p;
-            uris = u;
+            URIEntry[] u2 = new URIEntry[used * 2];
+            System.arraycopy(u, 0, u2, 0, used);
+            u = u2;
+        }
+        u[used] = new URIEntry(uri, new String[0]);
+        // Publish the (possibly new) array before the new count, so that readers who see the new
+        // count will also see the new entry
+        uris = u;
+        urisUsed = (short)(used + 1);
+        return used;
+    }
+
+    /**
+     * Get the index of a prefix among the prefixes used with a given URI, adding it if it is not
+     * already present
+     * @param uriCode the code of the namespace URI
+     * @param prefix the prefix (not zero-length)
+     * @return the prefix index (one-based, since zero represents the empty prefix)
+     */
+
+    private int allocatePrefixIndex(short uriCode, String prefix) {
+        URIEntry entry = uris[uriCode];
+        int prefixPosition = search(entry.prefixes, prefix);
+        if (prefixPosition < 0) {
+            synchronized (entry) {
+                String[] prefixes = entry.prefixes;
+                prefixPosition = search(prefixes, prefix);
+                if (prefixPosition < 0) {
+                    if (prefixes.length == MAX_PREFIXES_PER_URI) {
+                        throw new NamePoolLimitException("NamePool limit exceeded: max " +
+                                MAX_PREFIXES_PER_URI + " prefixes per URI");
+                    }
+                    String[] p2 = new String[prefixes.length + 1];
+                    System.arraycopy(prefixes, 0, p2, 0, prefixes.length);
+                    p2[prefixes.length] = prefix;
+                    entry.prefixes = p2;
+                    prefixPosition = prefixes.length;
+                }
+            }
         }
-        uris[urisUsed] = uri;
-        return urisUsed++;
+        return prefixPosition + 1;
     }
 
 
@@ -339,8 +393,10 @@ public class NamePool implements Serializable {
      */
 
     public short getCodeForURI(String uri) {
-        for (short j = 0; j < urisUsed; j++) {
-            if (uris[j].equals(uri)) {
+        short used = urisUsed;
+        URIEntry[] u = uris;
+        for (short j = 0; j < used; j++) {
+            if (u[j].uri.equals(uri)) {
                 return j;
             }
         }
@@ -362,8 +418,9 @@ public class NamePool implements Serializable {
         if (uriCode == -1) {
             return null;
         }
-        if (prefixesForUri[uriCode].length >= 1) {
-            return prefixesForUri[uriCode][0];
+        String[] prefixes = uris[uriCode].prefixes;
+        if (prefixes.length >= 1) {
+            return prefixes[0];
         }
         return null;
     }
@@ -379,7 +436,7 @@ public class NamePool implements Serializable {
         if (index == 0) {
             return "";
         }
-        return prefixesForUri[uriCode][index-1];
+        return uris[uriCode].prefixes[index-1];
     }
 
     /**
@@ -392,88 +449,54 @@ public class NamePool implements Serializable {
      *         The Name itself may be retrieved using the getName(int) method
      */
 
-    public synchronized int allocate(String prefix, String uri, String localName) {
+    public int allocate(String prefix, String uri, String localName) {
         //System.err.println("Allocate " + prefix + " : " + uri + " : " + localName);
         if (NamespaceConstant.isReserved(uri) || NamespaceConstant.SAXON.equals(uri)) {
             int fp = StandardNames.getFingerprint(uri, localName);
             if (fp != -1) {
                 short uriCode = StandardNames.getURICode(fp);
-                int pindex;
-                if (prefix.length() == 0) {
-                    pindex = 0;
-                } else {
-                    final String[] prefixes = prefixesForUri[uriCode];
-                    int prefixPosition = search(prefixes, prefix);
-                    if (prefixPosition < 0) {
-                        if (prefixes.length == MAX_PREFIXES_PER_URI) {
-                            throw new NamePoolLimitException("NamePool limit exceeded: max " +
-                                    MAX_PREFIXES_PER_URI + " prefixes per URI");
-                        }
-                        String[] p2 = new String[prefixes.length + 1];
-                        System.arraycopy(prefixes, 0, p2, 0, prefixes.length);
-                        p2[prefixes.length] = prefix;
-                        prefixesForUri[uriCode] = p2;
-                        prefixPosition = prefixes.length;
-                    }
-                    pindex = prefixPosition + 1;
-                }
+                int pindex = (prefix.length() == 0 ? 0 : allocatePrefixIndex(uriCode, prefix));
                 return (pindex << 20) + fp;
             }
         }
         // otherwise register the name in this NamePool
-        short uriCode = allocateCodeForURIInternal(uri);
+        short uriCode = allocateCodeForURI(uri);
 
         int hash = (localName.hashCode() & 0x7fffffff) % 1023;
         int depth = 1;
 
-        final String[] prefixes = prefixesForUri[uriCode];
-        int prefixIndex;
-        if (prefix.length() == 0) {
-            prefixIndex = 0;
-        } else {
-            int prefixPosition = search(prefixes, prefix);
-            if (prefixPosition < 0) {
-                if (prefixes.length == MAX_PREFIXES_PER_URI) {
-                    throw new NamePoolLimitException("NamePool limit exceeded: max " +
-                                    MAX_PREFIXES_PER_URI + " prefixes per URI");
-                }
-                String[] p2 = new String[prefixes.length + 1];
-                System.arraycopy(prefixes, 0, p2, 0, prefixes.length);
-                p2[prefixes.length] = prefix;
-                prefixesForUri[uriCode] = p2;
-                prefixPosition = prefixes.length;
+        int prefixIndex = (prefix.length() == 0 ? 0 : allocatePrefixIndex(uriCode, prefix));
+
+        NameEntry entry = hashslots.get(hash);
+        if (entry == null) {
+            NameEntry newEntry = new NameEntry(uriCode, localName);
+            if (hashslots.compareAndSet(hash, null, newEntry)) {
+                return ((prefixIndex << 20) + (depth << 10) + hash);
             }
-            prefixIndex = prefixPosition + 1;
+            // another thread started the chain first: examine what it added
+            entry = hashslots.get(hash);
         }
-
-        NameEntry entry;
-
-        if (hashslots[hash] == null) {
-            entry = new NameEntry(uriCode, localName);
-            hashslots[hash] = entry;
-        } else {
-            entry = hashslots[hash];
-            while (true) {
-                boolean sameLocalName = (entry.localName.equals(localName));
-                boolean sameURI = (entry.uriCode == uriCode);
-
-                if (sameLocalName && sameURI) {
-                    // may need to add a new prefix to the entry
+        NameEntry newEntry = null;
+        while (true) {
+            if (entry.uriCode == uriCode && entry.localName.equals(localName)) {
+                break;
+            }
+            NameEntry next = entry.nextEntry;
+            depth++;
+            if (depth >= 1024) {
+                throw new NamePoolLimitException("Saxon name pool is full");
+            }
+            if (next == null) {
+                if (newEntry == null) {
+                    newEntry = new NameEntry(uriCode, localName);
+                }
+                if (NEXT_ENTRY.compareAndSet(entry, null, newEntry)) {
                     break;
-                } else {
-                    NameEntry next = entry.nextEntry;
-                    depth++;
-                    if (depth >= 1024) {
-                        throw new NamePoolLimitException("Saxon name pool is full");
-                    }
-                    if (next == null) {
-                        entry.nextEntry = new NameEntry(uriCode, localName);
-                        break;
-                    } else {
-                        entry = next;
-                    }
                 }
+                // another thread appended an entry first: it might be the same name, so check it
+                next = entry.nextEntry;
             }
+            entry = next;
         }
         return ((prefixIndex << 20) + (depth << 10) + hash);
     }
@@ -496,7 +519,7 @@ public class NamePool implements Serializable {
             unknownNameCode(nameCode);
             return "";    // to keep the compiler happy
         }
-        return uris[entry.uriCode];
+        return uris[entry.uriCode].uri;
     }
 
     /**
@@ -548,7 +571,7 @@ public class NamePool implements Serializable {
             return "";
         }
         short uriCode = getURICode(nameCode);
-        return prefixesForUri[uriCode][prefixIndex-1];
+        return uris[uriCode].prefixes[prefixIndex-1];
     }
 
     /**
@@ -717,13 +740,7 @@ public class NamePool implements Serializable {
                 // otherwise, look for the name in this namepool
                 }
             }
-            uriCode = -1;
-            for (short j = 0; j < urisUsed; j++) {
-                if (uris[j].equals(uri)) {
-                    uriCode = j;
-                    break;
-                }
-            }
+            uriCode = getCodeForURI(uri);
             if (uriCode == -1) {
                 return -1;
             }
@@ -734,11 +751,11 @@ public class NamePool implements Serializable {
 
         NameEntry entry;
 
-        if (hashslots[hash] == null) {
+        entry = hashslots.get(hash);
+        if (entry == null) {
             return -1;
         }
 
-        entry = hashslots[hash];
         while (true) {
             if (entry.uriCode == uriCode && entry.localName.equals(localName)) {
                 break;
@@ -762,7 +779,7 @@ public class NamePool implements Serializable {
      */
 
     public String getURIFromURICode(short code) {
-        return uris[code];
+        return uris[code].uri;
     }
 
     /**
@@ -800,10 +817,11 @@ public class NamePool implements Serializable {
      */
 
     public void setClientData(Class key, Object value) {
-        if (clientData == null) {
-            clientData = new HashMap<Class, Object>(10);
+        if (value == null) {
+            clientData.remove(key);
+        } else {
+            clientData.put(key, value);
         }
-        clientData.put(key, value);
     }
 
     /**
@@ -813,20 +831,111 @@ public class NamePool implements Serializable {
      */
 
     public Object getClientData(Class key) {
-        if (clientData == null) {
-            return null;
-        }
         return clientData.get(key);
     }
 
+    /**
+     * Write a description of the contents of this NamePool: the namespace URIs with the prefixes used
+     * with each of them, and for each name, its fingerprint, the code of its namespace URI, and its local
+     * part. Together these give the prefix, URI, and local name corresponding to any name code allocated
+     * from this NamePool. This is used when compiled code containing name codes is saved, so that the names
+     * can be allocated in another NamePool, and the codes translated, when the code is loaded.
+     * @param out the destination for the description
+     * @throws IOException if an error occurs writing the description
+     * @see #readNames
+     * @since 9.4
+     */
+
+    public void writeNames(DataOutput out) throws IOException {
+        short used = urisUsed;
+        URIEntry[] u = uris;
+        out.writeShort(used);
+        for (int j = 0; j < used; j++) {
+            out.writeUTF(u[j].uri);
+            String[] prefixes = u[j].prefixes;
+            out.writeShort(prefixes.length);
+            for (String prefix : prefixes) {
+                out.writeUTF(prefix);
+            }
+        }
+        List<NameEntry> names = new ArrayList<NameEntry>();
+        List<Integer> fingerprints = new ArrayList<Integer>();
+        for (int i = 0; i < 1024; i++) {
+            int depth = 1;
+            for (NameEntry entry = hashslots.get(i); entry != null; entry = entry.nextEntry) {
+                if (entry.uriCode < used) {
+                    // otherwise the URI was allocated by another thread after the URIs were written
+                    names.add(entry);
+                    fingerprints.add((depth << 10) + i);
+                }
+                depth++;
+            }
+        }
+        out.writeInt(names.size());
+        for (int n = 0; n < names.size(); n++) {
+            out.writeInt(fingerprints.get(n));
+            out.writeShort(names.get(n).uriCode);
+            out.writeUTF(names.get(n).localName);
+        }
+    }
+
+    /**
+     * Read a description of a NamePool written by {@link #writeNames}, and create a map from the codes
+     * allocated by that NamePool to the codes of the same names in this NamePool. Reading the description
+     * does not change this NamePool: names are allocated only when their codes are translated using
+     * the map. The two NamePools need have nothing in common.
+     * @param in the description written by {@link #writeNames}
+     * @return a map that translates name codes, fingerprints, and URI codes from the NamePool that was
+     * written into codes in this NamePool
+     * @throws IOException if an error occurs reading the description, or if it is invalid
+     * @since 9.4
+     */
+
+    public NameCodeMap readNames(DataInput in) throws IOException {
+        int used = in.readShort();
+        if (used < 0) {
+            throw new IOException("Invalid NamePool description");
+        }
+        String[] uriList = new String[used];
+        String[][] prefixList = new String[used][];
+        for (int j = 0; j < used; j++) {
+            uriList[j] = in.readUTF();
+            int count = in.readShort();
+            if (count < 0) {
+                throw new IOException("Invalid NamePool description");
+            }
+            prefixList[j] = new String[count];
+            for (int p = 0; p < count; p++) {
+                prefixList[j][p] = in.readUTF();
+            }
+        }
+        int names = in.readInt();
+        if (names < 0) {
+            throw new IOException("Invalid NamePool description");
+        }
+        IntToIntHashMap uriCodes = new IntToIntHashMap(names + 10);
+        IntHashMap<String> localNames = new IntHashMap<String>(names + 10);
+        for (int n = 0; n < names; n++) {
+            int fp = in.readInt();
+            short uriCode = in.readShort();
+            String localName = in.readUTF();
+            if (uriCode < 0 || uriCode >= used) {
+                throw new IOException("Invalid NamePool description");
+            }
+            uriCodes.put(fp, uriCode);
+            localNames.put(fp, localName);
+        }
+        return new NameCodeMap(this, uriList, prefixList, uriCodes, localNames);
+    }
+
     /**
      * Diagnostic print of the namepool contents.
      */
 
-    public synchronized void diagnosticDump() {
+    public void diagnosticDump() {
         System.err.println("Contents of NamePool " + this);
         for (int i = 0; i < 1024; i++) {
-            NameEntry entry = hashslots[i];
+            NameEntry entry = hashslots.get(i);
             int depth = 0;
             while (entry != null) {
                 System.err.println("Fingerprint " + depth + '/' + i);
@@ -837,11 +946,14 @@ public class NamePool implements Serializable {
             }
         }
 
-        for (int u = 0; u < urisUsed; u++) {
-            System.err.println("URI " + u + " = " + uris[u]);
+        short used = urisUsed;
+        URIEntry[] uriEntries = uris;
+        for (int u = 0; u < used; u++) {
+            System.err.println("URI " + u + " = " + uriEntries[u].uri);
             FastStringBuffer fsb = new FastStringBuffer(FastStringBuffer.SMALL);
-            for (int p=0; p< prefixesForUri[u].length; p++) {
-                fsb.append(prefixesForUri[u][p] + ", ");
+            String[] prefixes = uriEntries[u].prefixes;
+            for (int p=0; p< prefixes.length; p++) {
+                fsb.append(prefixes[p] + ", ");
             }
             System.err.println("Prefix codes for URI " + u + " = " + fsb.toString());
         }
@@ -852,11 +964,11 @@ public class NamePool implements Serializable {
      * This method outputs summary statistical information to System.err
      */
 
-    public synchronized void statistics() {
+    public void statistics() {
         int slots = 0;
         int entries = 0;
         for (int i = 0; i < 1024; i++) {
-            NameEntry entry = hashslots[i];
+            NameEntry entry = hashslots.get(i);
             if (entry != null) slots++;
             while (entry != null) {
                 entry = entry.nextEntry;
@@ -2,13 +2,16 @@ package net.sf.saxon.om;
 
 import net.sf.saxon.lib.NamespaceConstant;
 
+import java.io.Serializable;
+
 /**
  * Represents the binding of a prefix to a URI. Also, in some contexts, represents an unbinding, by
  * virtue of the URI being set to a zero length string.
  *
  * @since 9.4
  */
-public final class NamespaceBinding {
+public final class NamespaceBinding implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     private String prefix;
     private String uri;
@@ -1,9 +1,12 @@
 package net.sf.saxon.om;
 
+import java.io.Serializable;
+
 /**
  * An implementation of NodeName for the common case of a name in no namespace
  */
-public class NoNamespaceName implements NodeName {
+public class NoNamespaceName implements NodeName, NameCodeHolder, Serializable {
+    private static final long serialVersionUID = 1L;
 
     private String localName;
     private int nameCode = -1;
@@ -135,6 +138,15 @@ public class NoNamespaceName implements NodeName {
         }
     }
 
+    /**
+     * Replace the name code, if there is one, by the code of the same name in another NamePool
+     * @param map the mapping from codes in the NamePool used when this object was created to codes in
+     * the NamePool that is now to be used
+     */
+    public void remapNameCodes(NameCodeMap map) {
+        nameCode = map.mapNameCode(nameCode);
+    }
+
     /**
      * Returns a hash code value for the object.
      */
@@ -18,9 +18,12 @@ import java.util.HashMap;
  * should be preserved.
  */
 
-public class SelectedElementsSpaceStrippingRule implements SpaceStrippingRule {
+public class SelectedElementsSpaceStrippingRule implements SpaceStrippingRule, Serializable {
+    private static final long serialVersionUID = 1L;
 
     public static class StripRuleTarget implements RuleTarget, Serializable {
+        private static final long serialVersionUID = 1L;
+
         public void explain(ExpressionPresenter presenter) {
             // no-op
         }
@@ -97,7 +100,10 @@ public class SelectedElementsSpaceStrippingRule implements SpaceStrippingRule {
         } else if (test instanceof NameTest) {
             newRule.setAlwaysMatches(true);
             int fp = test.getFingerprint();
-            CodedName key = new CodedName(fp, ((NameTest) test).getNamePool());
+            NamePool pool = ((NameTest) test).getNamePool();
+            // the hash code of a FingerprintedQName does not depend on the NamePool, so the map
+            // remains valid when a saved stylesheet is loaded and the fingerprint is translated
+            FingerprintedQName key = new FingerprintedQName("", pool.getURI(fp), pool.getLocalName(fp), fp);
             Rule chain = namedElementRules.get(key);
             namedElementRules.put(key, addRuleToList(newRule, chain, true));
         } else {
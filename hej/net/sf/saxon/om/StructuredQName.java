@@ -6,6 +6,7 @@ import net.sf.saxon.tree.util.FastStringBuffer;
 import net.sf.saxon.value.Whitespace;
 
 import javax.xml.namespace.QName;
+import java.io.Serializable;
 
 /**
  * This class provides an economical representation of a QName triple (prefix, URI, and localname).
@@ -15,7 +16,8 @@ import javax.xml.namespace.QName;
  * <p><i>Instances of this class are immutable.</i></p>
  */
 
-public class StructuredQName {
+public class StructuredQName implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     private char[] content;
     private int localNameStart;
@@ -16,7 +16,7 @@ import net.sf.saxon.type.TypeHierarchy;
   * @author Michael H. Kay
   */
 
-public class NameTest extends NodeTest implements QNameTest {
+public class NameTest extends NodeTest implements QNameTest, NameCodeHolder {
 
 	private int nodeKind;
 	private int fingerprint;
@@ -258,6 +258,17 @@ public class NameTest extends NodeTest implements QNameTest {
         return pool.getDisplayName(fingerprint);
     }
 
+    /**
+     * Replace the fingerprint by the fingerprint of the same name in another NamePool
+     * @param map the mapping from codes in the NamePool used when this NameTest was created to codes in
+     * the NamePool that is now to be used
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        fingerprint = map.mapFingerprint(fingerprint);
+        namePool = map.getTargetNamePool();
+    }
+
     /**
      * Returns a hash code value for the object.
      */
@@ -1,5 +1,7 @@
 package net.sf.saxon.pattern;
 
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.NodeName;
@@ -15,7 +17,7 @@ import net.sf.saxon.type.TypeHierarchy;
   * @author Michael H. Kay
   */
 
-public final class NamespaceTest extends NodeTest implements QNameTest {
+public final class NamespaceTest extends NodeTest implements QNameTest, NameCodeHolder {
 
 	private NamePool namePool;
 	private int nodeKind;
@@ -146,6 +148,17 @@ public final class NamespaceTest extends NodeTest implements QNameTest {
         return '{' + uri + "}:*";
     }
 
+    /**
+     * Replace the URI code by the code of the same URI in another NamePool
+     * @param map the mapping from codes in the NamePool used when this NamespaceTest was created to codes in
+     * the NamePool that is now to be used
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        uriCode = map.mapURICode(uriCode);
+        namePool = map.getTargetNamePool();
+    }
+
     /**
      * Returns a hash code value for the object.
      */
@@ -9,6 +9,7 @@ import net.sf.saxon.lib.Validation;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.ValueRepresentation;
+import net.sf.saxon.trace.SamplingProfiler;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.DateTimeValue;
 
@@ -33,6 +34,7 @@ public class DynamicQueryContext {
     private URIResolver uriResolver;
     private ErrorListener errorListener;
     /*@Nullable*/ private TraceListener traceListener;
+    /*@Nullable*/ private SamplingProfiler samplingProfiler;
     private DateTimeValue currentDateTime;
     private PrintStream traceFunctionDestination;
     private int validationMode = Validation.DEFAULT;
@@ -328,6 +330,27 @@ public class DynamicQueryContext {
         return traceListener;
     }
 
+    /**
+     * Set a sampling profiler to be notified of entry to and exit from functions and global variables
+     * during execution of the query. The profiler must be started and stopped by the caller.
+     * @param profiler the sampling profiler, or null if none is to be used
+     * @since 9.4
+     */
+
+    public void setSamplingProfiler(/*@Nullable*/ SamplingProfiler profiler) {
+        samplingProfiler = profiler;
+    }
+
+    /**
+     * Get the sampling profiler.
+     * @return the sampling profiler in use, or null if none is in use
+     * @since 9.4
+     */
+
+    /*@Nullable*/ public SamplingProfiler getSamplingProfiler() {
+        return samplingProfiler;
+    }
+
     /**
      * Set the destination for output from the fn:trace() function.
      * By default, the destination is System.err. If a TraceListener is in use,
@@ -406,6 +429,7 @@ public class DynamicQueryContext {
         controller.setURIResolver(getURIResolver());
         controller.setErrorListener(getErrorListener());
         controller.addTraceListener(getTraceListener());
+        controller.setSamplingProfiler(getSamplingProfiler());
         controller.setTraceFunctionDestination(getTraceFunctionDestination());
         controller.setSchemaValidationMode(getSchemaValidationMode());
         DateTimeValue currentDateTime = getCurrentDateTime();
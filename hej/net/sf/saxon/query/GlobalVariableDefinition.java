@@ -18,6 +18,7 @@ import net.sf.saxon.type.TypeHierarchy;
 import net.sf.saxon.value.SequenceType;
 import net.sf.saxon.value.Value;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -28,7 +29,8 @@ import java.util.List;
  * whether in XSLT or XQuery.
  */
 
-public class GlobalVariableDefinition implements VariableDeclaration, Declaration {
+public class GlobalVariableDefinition implements VariableDeclaration, Declaration, Serializable {
+    private static final long serialVersionUID = 1L;
 
     protected List references = new ArrayList(10);
                                     // Note that variableReferences on this list might be dormant;
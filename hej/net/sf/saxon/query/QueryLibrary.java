@@ -11,6 +11,7 @@ import net.sf.saxon.trans.XPathException;
  *  <p>This is an abstract class; the concrete implementation is in Saxon-EE.</p>
  */
 public abstract class QueryLibrary extends QueryModule {
+    private static final long serialVersionUID = 1L;
 
     public QueryLibrary(StaticQueryContext sqc) throws XPathException {
         super(sqc);
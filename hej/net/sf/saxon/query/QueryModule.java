@@ -22,6 +22,7 @@ import net.sf.saxon.value.SequenceType;
 
 import javax.xml.transform.SourceLocator;
 import javax.xml.transform.TransformerException;
+import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
@@ -32,7 +33,9 @@ import java.util.*;
  * StaticQueryContext object, and those settings are copied to each QueryModule when the query module is compiled.
  */
 
-public class QueryModule implements StaticContext {
+public class QueryModule implements StaticContext, Serializable {
+    private static final long serialVersionUID = 1L;
+
     private boolean isMainModule;
     private Configuration config;
     /*@Nullable*/ private StaticQueryContext userQueryContext;
@@ -23,6 +23,7 @@ import javax.xml.transform.Source;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.Serializable;
 import java.util.*;
 
 /**
@@ -52,7 +53,8 @@ import java.util.*;
  * @since 8.4
  */
 
-public class StaticQueryContext {
+public class StaticQueryContext implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     private Configuration config;
     private NamePool namePool;
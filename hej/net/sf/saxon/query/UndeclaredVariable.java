@@ -16,6 +16,7 @@ import java.util.Iterator;
  */
 
 public class UndeclaredVariable extends GlobalVariableDefinition {
+    private static final long serialVersionUID = 1L;
 
     public UndeclaredVariable(){}
 
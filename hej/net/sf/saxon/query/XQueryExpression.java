@@ -88,8 +88,7 @@ public class XQueryExpression implements Container {
             throw err;
         }
         ExpressionTool.allocateSlots(exp, 0, stackFrameMap);
-        if ((Boolean)config.getConfigurationProperty(FeatureKeys.GENERATE_BYTE_CODE)
-                && config.isLicensedFeature(Configuration.LicenseFeature.ENTERPRISE_XQUERY)) {
+        if (config.isGenerateByteCode(Configuration.XQUERY)) {
             if (config.isTiming()) {
                 config.getStandardErrorOutput().println("Generating byte code...");
             }
@@ -265,8 +265,9 @@ public class DocumentBuilder {
      * <p>The query should be written to use the projected document as its initial context item.
      * For example, if the query is <code>//ITEM[COLOR='blue')</code>, then only <code>ITEM</code>
      * elements and their <code>COLOR</code> children will be retained in the projected document.</p>
-     * <p>This facility is only available in Saxon-EE; if the facility is not available,
-     * calling this method has no effect.</p>
+     * <p>If the query uses the context document in a way that cannot be analyzed statically (for
+     * example, by passing nodes to a function whose navigation is unknown, or by returning the document
+     * node itself), no projection takes place and the whole document is built.</p>
      * @param query the compiled query used to control document projection
      * @since 9.3
      */
@@ -352,16 +353,17 @@ public class DocumentBuilder {
         if (projectionQuery != null) {
             XQueryExpression exp = projectionQuery.getUnderlyingCompiledQuery();
             PathMap map = exp.getPathMap();
-                PathMap.PathMapRoot contextRoot = map.getContextDocumentRoot();
-                if (contextRoot != null) {
-                    if (contextRoot.hasUnknownDependencies()) {
-                        // No action (no document projection takes place)
-                    } else {
-                        options.addFilter(config.makeDocumentProjector(contextRoot));
-                    }
-                } else {
-                    // No action, query does not access the context item
-                }
+            PathMap.PathMapRoot contextRoot;
+            try {
+                contextRoot = map.getContextDocumentRoot();
+            } catch (IllegalStateException e) {
+                contextRoot = null;
+            }
+            if (contextRoot != null && !contextRoot.isReturnable() && !contextRoot.hasUnknownDependencies()) {
+                options.addFilter(config.makeDocumentProjector(contextRoot));
+            }
+            // Otherwise no action: either the query does not access the context item, or it uses it in a way
+            // that defies analysis, so no document projection takes place
         }
         try {
             NodeInfo doc = config.buildDocument(source, options);
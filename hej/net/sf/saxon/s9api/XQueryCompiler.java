@@ -1,11 +1,13 @@
 package net.sf.saxon.s9api;
 
+import net.sf.saxon.expr.instruct.ExecutableStore;
 import net.sf.saxon.expr.sort.RuleBasedSubstringMatcher;
 import net.sf.saxon.expr.sort.SimpleCollation;
 import net.sf.saxon.lib.ModuleURIResolver;
 import net.sf.saxon.lib.NamespaceConstant;
 import net.sf.saxon.lib.StringCollator;
 import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.ValidationException;
 import net.sf.saxon.value.DecimalValue;
@@ -523,6 +525,30 @@ public class XQueryCompiler {
         }
     }
 
+    /**
+     * Load a compiled query that was previously saved using {@link XQueryExecutable#export(java.io.OutputStream)}.
+     * <p>The query must have been saved by the same edition and version of Saxon. Names used in the
+     * query are allocated in the NamePool of this processor's Configuration, which need not be the one
+     * used to compile it; several saved stylesheets and queries can be loaded into the same Processor.</p>
+     * <p>Loading compiled code can create objects of any Saxon class, so the input must come from a
+     * trusted source.</p>
+     * <p>The static context options set on this XQueryCompiler have no effect on the loaded query.</p>
+     * @param input the input stream containing the saved query. The stream is not closed.
+     * @return an XQueryExecutable representing the compiled query
+     * @throws SaxonApiException if the saved query cannot be loaded
+     * @since 9.4
+     */
+
+    public XQueryExecutable importExecutable(InputStream input) throws SaxonApiException {
+        try {
+            XQueryExpression exp = (XQueryExpression)ExecutableStore.load(
+                    processor.getUnderlyingConfiguration(), ExecutableStore.QUERY, input);
+            return new XQueryExecutable(processor, exp);
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
     /**
      * Get the underlying {@link net.sf.saxon.query.StaticQueryContext} object that maintains the static context
      * information on behalf of this XQueryCompiler. This method provides an escape hatch to internal Saxon
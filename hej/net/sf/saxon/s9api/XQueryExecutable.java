@@ -1,6 +1,10 @@
 package net.sf.saxon.s9api;
 
+import net.sf.saxon.expr.instruct.ExecutableStore;
 import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.OutputStream;
 
 /**
  * An XQueryExecutable represents the compiled form of a query.
@@ -35,6 +39,27 @@ public class XQueryExecutable {
         return new XQueryEvaluator(processor, exp);
     }
 
+    /**
+     * Save the compiled query in binary form, so that it can later be reloaded without
+     * recompiling it, using {@link XQueryCompiler#importExecutable(java.io.InputStream)}.
+     * <p>The saved form can only be reloaded by the same edition and version of Saxon. It does not
+     * include any objects supplied by the application that are not serializable, such as an
+     * ErrorListener or ModuleURIResolver held by the compiled query: if such objects are present,
+     * the method fails.</p>
+     * @param destination the output stream to which the compiled query is written. The stream
+     * is flushed, but not closed.
+     * @throws SaxonApiException if the query cannot be saved, or if an I/O error occurs
+     * @since 9.4
+     */
+
+    public void export(OutputStream destination) throws SaxonApiException {
+        try {
+            ExecutableStore.save(exp, ExecutableStore.QUERY, processor.getUnderlyingConfiguration(), destination);
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
     /**
      * Get the ItemType of the items in the result of the query, as determined by static analysis. This
      * is the most precise ItemType that the processor is able to determine from static examination of the
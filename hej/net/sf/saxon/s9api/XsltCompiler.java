@@ -2,8 +2,10 @@ package net.sf.saxon.s9api;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.expr.instruct.ExecutableStore;
 import net.sf.saxon.trace.XSLTTraceCodeInjector;
 import net.sf.saxon.trans.CompilerInfo;
+import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.ValidationException;
 import net.sf.saxon.value.DecimalValue;
 
@@ -11,6 +13,7 @@ import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.URIResolver;
+import java.io.InputStream;
 
 /**
  *  An XsltCompiler object allows XSLT 2.0 stylesheets to be compiled. The compiler holds information that
@@ -253,6 +256,29 @@ public class XsltCompiler {
         }
     }
 
+    /**
+     * Load a compiled stylesheet that was previously saved using {@link XsltExecutable#export(java.io.OutputStream)}.
+     * <p>The stylesheet must have been saved by the same edition and version of Saxon. Names used in the
+     * stylesheet are allocated in the NamePool of this processor's Configuration, which need not be the one
+     * used to compile it; several saved stylesheets and queries can be loaded into the same Processor.</p>
+     * <p>Loading compiled code can create objects of any Saxon class, so the input must come from a
+     * trusted source.</p>
+     * <p>The compilation options set on this XsltCompiler have no effect on the loaded stylesheet.</p>
+     * @param input the input stream containing the saved stylesheet. The stream is not closed.
+     * @return an XsltExecutable, which represents the compiled stylesheet.
+     * @throws SaxonApiException if the saved stylesheet cannot be loaded
+     * @since 9.4
+     */
+
+    public XsltExecutable importExecutable(InputStream input) throws SaxonApiException {
+        try {
+            PreparedStylesheet pss = (PreparedStylesheet)ExecutableStore.load(config, ExecutableStore.STYLESHEET, input);
+            return new XsltExecutable(processor, pss);
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
     /**
      * Get the underlying CompilerInfo object, which provides more detailed (but less stable) control
      * over some compilation options
@@ -3,12 +3,15 @@ package net.sf.saxon.s9api;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.Controller;
 import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.expr.instruct.ExecutableStore;
 import net.sf.saxon.expr.instruct.GlobalParam;
 import net.sf.saxon.expr.instruct.GlobalVariable;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.SequenceType;
 
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -56,6 +59,27 @@ public class XsltExecutable {
         pss.explain(new ExpressionPresenter(config, destination.getReceiver(config)));
     }
 
+    /**
+     * Save the compiled stylesheet in binary form, so that it can later be reloaded without
+     * recompiling it, using {@link XsltCompiler#importExecutable(java.io.InputStream)}.
+     * <p>The saved form can only be reloaded by the same edition and version of Saxon. It does not
+     * include any objects supplied by the application that are not serializable, such as an
+     * ErrorListener or URIResolver held by the compiled stylesheet: if such objects are present,
+     * the method fails.</p>
+     * @param destination the output stream to which the compiled stylesheet is written. The stream
+     * is flushed, but not closed.
+     * @throws SaxonApiException if the stylesheet cannot be saved, or if an I/O error occurs
+     * @since 9.4
+     */
+
+    public void export(OutputStream destination) throws SaxonApiException {
+        try {
+            ExecutableStore.save(pss, ExecutableStore.STYLESHEET, pss.getConfiguration(), destination);
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
     /**
      * Get the whitespace stripping policy defined by this stylesheet, that is, the policy
      * defined by the xsl:strip-space and xsl:preserve-space elements in the stylesheet
@@ -25,9 +25,8 @@ import java.util.Stack;
 
 public class XMLEmitter extends Emitter {
 
-    // NOTE: we experimented with XMLUTF8Emitter which combines XML escaping and UTF8 encoding
-    // into a single loop. Scrapped it because we couldn't measure any benefits - but there
-    // ought to be, in theory. Perhaps we weren't buffering the writes carefully enough.
+    // NOTE: the subclass XMLUTF8Emitter combines XML escaping and UTF-8 encoding into a single loop
+    // writing to a byte buffer. It is used only if selected in the Configuration.
     
     protected boolean started = false;
     protected boolean startedElement = false;
@@ -341,8 +340,7 @@ public class XMLEmitter extends Emitter {
             if (openStartTag) {
                 closeStartTag();
             }
-            writer.write('<');
-            writer.write(displayName);
+            writeStartTagName(elemName, displayName);
             openStartTag = true;
             indentForNextAttribute = -1;
 
@@ -351,6 +349,20 @@ public class XMLEmitter extends Emitter {
         }
     }
 
+    /**
+     * Write the "&lt;" that starts a start tag, followed by the element name.
+     * This is overridden in a subclass that writes the name in pre-encoded form.
+     * @param elemName the element name
+     * @param displayName the lexical QName of the element, which has already been checked to
+     * ensure it can be written in this encoding
+     * @throws java.io.IOException if an error occurs writing to the output
+     */
+
+    protected void writeStartTagName(NodeName elemName, String displayName) throws java.io.IOException {
+        writer.write('<');
+        writer.write(displayName);
+    }
+
     public void namespace(NamespaceBinding namespaceBinding, int properties) throws XPathException {
         try {
             String nsprefix = namespaceBinding.getPrefix();
@@ -0,0 +1,561 @@
+package net.sf.saxon.serialize;
+
+import net.sf.saxon.event.ReceiverOptions;
+import net.sf.saxon.expr.sort.IntHashMap;
+import net.sf.saxon.om.NodeName;
+import net.sf.saxon.serialize.charcode.ASCIICharacterSet;
+import net.sf.saxon.serialize.charcode.UTF16CharacterSet;
+import net.sf.saxon.serialize.charcode.UTF8CharacterSet;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.SimpleType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Properties;
+
+/**
+ * XMLUTF8Emitter is an XML Emitter that combines XML escaping and character encoding into a single pass,
+ * writing bytes directly to a buffer rather than writing characters to a {@link Writer}. It is used only
+ * when the output is written to an OutputStream (or file) and the encoding is UTF-8 or US-ASCII; if the
+ * output is written to a Writer supplied by the application, or if any other encoding is requested, it
+ * behaves exactly like its superclass.
+ *
+ * <p>The output is byte-for-byte the same as the output of the {@link XMLEmitter}: with UTF-8, as
+ * produced by the {@link UTF8Writer}; with US-ASCII, as produced by the Java encoder, which writes
+ * "?" for any character that cannot be encoded and that is not escaped as a character reference.</p>
+ *
+ * <p>Element and attribute names are encoded once, and the encoded form is cached against the name code.</p>
+ *
+ * <p>Constructs that are written infrequently (the XML declaration, the DOCTYPE declaration, comments,
+ * processing instructions, namespace declarations, and character references) are written using the
+ * methods of the superclass, which write to a Writer that encodes into the same byte buffer.</p>
+ */
+
+public class XMLUTF8Emitter extends XMLEmitter {
+
+    private static final int BUFFER_SIZE = 16384;
+
+    // Longest byte sequence written without first checking for space in the buffer
+    private static final int MARGIN = 16;
+
+    private static final byte[] ESCAPE_LT = {'&', 'l', 't', ';'};
+    private static final byte[] ESCAPE_GT = {'&', 'g', 't', ';'};
+    private static final byte[] ESCAPE_AMP = {'&', 'a', 'm', 'p', ';'};
+    private static final byte[] ESCAPE_QUOT = {'&', '#', '3', '4', ';'};
+    private static final byte[] ESCAPE_N = {'&', '#', 'x', 'A', ';'};
+    private static final byte[] ESCAPE_R = {'&', '#', 'x', 'D', ';'};
+    private static final byte[] ESCAPE_T = {'&', '#', 'x', '9', ';'};
+
+    private boolean direct = false;
+    private boolean ascii = false;
+    private byte[] buffer;
+    private int pos;
+    private int limit;
+    private int pendingSurrogate = 0;
+
+    private IntHashMap<byte[]> encodedNames = new IntHashMap<byte[]>(64);
+    private byte[][] tagStack = new byte[32][];
+    private int depth = 0;
+
+    /**
+     * Set the output destination as a byte stream. If the encoding is UTF-8 or US-ASCII, output
+     * is written directly to the stream; otherwise a Writer is created in the usual way.
+     * @param stream the OutputStream being used as an output destination
+     * @throws XPathException if an error occurs
+     */
+
+    public void setOutputStream(OutputStream stream) throws XPathException {
+        if (outputProperties == null) {
+            outputProperties = new Properties();
+        }
+        if (characterSet == null) {
+            characterSet = getConfiguration().getCharacterSetFactory().getCharacterSet(outputProperties);
+        }
+        if (characterSet instanceof UTF8CharacterSet || characterSet instanceof ASCIICharacterSet) {
+            outputStream = stream;
+            ascii = characterSet instanceof ASCIICharacterSet;
+            if (!ascii) {
+                allCharactersEncodable = true;
+            }
+            buffer = new byte[BUFFER_SIZE];
+            limit = BUFFER_SIZE - MARGIN;
+            pos = 0;
+            writer = new ByteWriter();
+            direct = true;
+        } else {
+            direct = false;
+            super.setOutputStream(stream);
+        }
+    }
+
+    /**
+     * Set the output destination as a character stream. The output is then written using the
+     * methods of the superclass.
+     * @param writer the Writer to use as an output destination
+     * @throws XPathException if an error occurs
+     */
+
+    public void setWriter(Writer writer) throws XPathException {
+        direct = false;
+        super.setWriter(writer);
+    }
+
+    protected void writeStartTagName(NodeName elemName, String displayName) throws IOException {
+        if (!direct) {
+            super.writeStartTagName(elemName, displayName);
+            return;
+        }
+        int nameCode = elemName.getNameCode();
+        byte[] name = (nameCode == -1 ? null : encodedNames.get(nameCode));
+        if (name == null) {
+            name = encode(displayName);
+            if (nameCode != -1) {
+                encodedNames.put(nameCode, name);
+            }
+        }
+        if (depth == tagStack.length) {
+            byte[][] s2 = new byte[depth * 2][];
+            System.arraycopy(tagStack, 0, s2, 0, depth);
+            tagStack = s2;
+        }
+        tagStack[depth++] = name;
+        putByte('<');
+        putBytes(name);
+    }
+
+    public void attribute(NodeName nameCode, SimpleType typeCode, CharSequence value, int locationId, int properties)
+            throws XPathException {
+        if (!direct) {
+            super.attribute(nameCode, typeCode, value, locationId, properties);
+            return;
+        }
+        int code = nameCode.getNameCode();
+        byte[] name = (code == -1 ? null : encodedNames.get(code));
+        if (name == null) {
+            String displayName = nameCode.getDisplayName();
+            if (!allCharactersEncodable) {
+                int badchar = testCharacters(displayName);
+                if (badchar!=0) {
+                    XPathException err = new XPathException("Attribute name contains a character (decimal + " +
+                            badchar + ") not available in the selected encoding");
+                    err.setErrorCode("SERE0008");
+                    throw err;
+                }
+            }
+            name = encode(displayName);
+            if (code != -1) {
+                encodedNames.put(code, name);
+            }
+        }
+        try {
+            if (indentForNextAttribute < 0) {
+                putByte(' ');
+            } else {
+                putChars(getAttributeIndentString());
+            }
+            putBytes(name);
+            if ((properties & ReceiverOptions.NO_SPECIAL_CHARS) != 0) {
+                putByte('=');
+                putByte('"');
+                putChars(value);
+                putByte('"');
+            } else if ((properties & ReceiverOptions.USE_NULL_MARKERS) != 0) {
+                // null (0) characters will be used before and after any section of
+                // the value generated from a character map
+                String val = value.toString();
+                char delimiter = (val.indexOf('"') >= 0 && val.indexOf('\'') < 0 ? '\'' : '"');
+                putByte('=');
+                putByte(delimiter);
+                writeEscape(value, true);
+                putByte(delimiter);
+            } else {
+                putByte('=');
+                putByte('"');
+                writeEscape(value, true);
+                putByte('"');
+            }
+        } catch (IOException err) {
+            throw new XPathException("Failure writing to " + getSystemId(), err);
+        }
+    }
+
+    public void closeStartTag() throws XPathException {
+        if (!direct) {
+            super.closeStartTag();
+            return;
+        }
+        if (openStartTag) {
+            try {
+                putByte('>');
+            } catch (IOException err) {
+                throw new XPathException("Failure writing to " + getSystemId(), err);
+            }
+            openStartTag = false;
+        }
+    }
+
+    public void endElement() throws XPathException {
+        if (!direct) {
+            super.endElement();
+            return;
+        }
+        String displayName = elementStack.pop();
+        byte[] name = tagStack[--depth];
+        tagStack[depth] = null;
+        try {
+            if (openStartTag) {
+                putChars(emptyElementTagCloser(displayName, elementCode));
+                openStartTag = false;
+            } else {
+                putByte('<');
+                putByte('/');
+                putBytes(name);
+                putByte('>');
+            }
+        } catch (IOException err) {
+            throw new XPathException("Failure writing to " + getSystemId(), err);
+        }
+    }
+
+    public void writeCharSequence(CharSequence s) throws IOException {
+        if (direct) {
+            putChars(s);
+        } else {
+            super.writeCharSequence(s);
+        }
+    }
+
+    /**
+     * Write contents of array to current writer, after escaping special characters.
+     * This method converts the XML special characters (such as < and &) into their
+     * predefined entities, and encodes the result into the output buffer.
+     * @param chars The character sequence containing the string
+     * @param inAttribute  Set to true if the text is in an attribute value
+     */
+
+    protected void writeEscape(final CharSequence chars, final boolean inAttribute)
+            throws IOException, XPathException {
+        if (!direct) {
+            super.writeEscape(chars, inAttribute);
+            return;
+        }
+        final boolean[] specialChars = (inAttribute ? specialInAtt : specialInText);
+        final int clength = chars.length();
+        boolean disabled = false;
+        int i = 0;
+        if (pendingSurrogate != 0 && clength > 0) {
+            // only possible after writing an unpaired high surrogate with escaping disabled
+            if (ascii) {
+                pendingSurrogate = 0;
+                putByte('?');
+            } else {
+                putChar(chars.charAt(i++));
+            }
+        }
+        byte[] buf = buffer;
+        int p = pos;
+        for (; i < clength; i++) {
+            if (p >= limit) {
+                pos = p;
+                flushBuffer();
+                p = 0;
+            }
+            final char c = chars.charAt(i);
+            if (c < 127) {
+                if (!specialChars[c]) {
+                    buf[p++] = (byte)c;
+                    continue;
+                }
+                if (c == 0) {
+                    // used to switch escaping on and off
+                    disabled = !disabled;
+                    continue;
+                }
+                if (disabled) {
+                    buf[p++] = (byte)c;
+                    continue;
+                }
+                byte[] e;
+                switch (c) {
+                    case '<':
+                        e = ESCAPE_LT;
+                        break;
+                    case '>':
+                        e = ESCAPE_GT;
+                        break;
+                    case '&':
+                        e = ESCAPE_AMP;
+                        break;
+                    case '\"':
+                        e = ESCAPE_QUOT;
+                        break;
+                    case '\n':
+                        e = ESCAPE_N;
+                        break;
+                    case '\r':
+                        e = ESCAPE_R;
+                        break;
+                    case '\t':
+                        e = ESCAPE_T;
+                        break;
+                    default:
+                        // C0 control characters
+                        pos = p;
+                        characterReferenceGenerator.outputCharacterReference(c, writer);
+                        p = pos;
+                        continue;
+                }
+                for (byte b : e) {
+                    buf[p++] = b;
+                }
+            } else if (c < 160 || c == 0x2028) {
+                pos = p;
+                if (disabled) {
+                    if (c > 127 && !characterSet.inCharset(c)) {
+                        throw notEncodable(c);
+                    }
+                    putChar(c);
+                } else {
+                    // XML 1.1 requires these characters to be written as character references
+                    characterReferenceGenerator.outputCharacterReference(c, writer);
+                }
+                p = pos;
+            } else if (UTF16CharacterSet.isHighSurrogate(c)) {
+                char d = chars.charAt(++i);
+                int charval = UTF16CharacterSet.combinePair(c, d);
+                pos = p;
+                if (allCharactersEncodable || characterSet.inCharset(charval)) {
+                    putChar(c);
+                    putChar(d);
+                } else if (disabled) {
+                    throw notEncodable(charval);
+                } else {
+                    characterReferenceGenerator.outputCharacterReference(charval, writer);
+                }
+                p = pos;
+            } else if (allCharactersEncodable || characterSet.inCharset(c)) {
+                if (c < 0x800) {
+                    buf[p++] = (byte)(0xc0 | (c >> 6));
+                    buf[p++] = (byte)(0x80 | (c & 0x3f));
+                } else if (!UTF16CharacterSet.isLowSurrogate(c)) {
+                    buf[p++] = (byte)(0xe0 | (c >> 12));
+                    buf[p++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    buf[p++] = (byte)(0x80 | (c & 0x3f));
+                } else {
+                    // unpaired low surrogate
+                    pos = p;
+                    putChar(c);
+                    p = pos;
+                }
+            } else {
+                // process characters not available in the current encoding
+                pos = p;
+                if (disabled) {
+                    throw notEncodable(c);
+                }
+                characterReferenceGenerator.outputCharacterReference(c, writer);
+                p = pos;
+            }
+        }
+        pos = p;
+    }
+
+    private static XPathException notEncodable(int c) {
+        XPathException de = new XPathException(c > 65535 ?
+                "Character x" + Integer.toHexString(c) + " is not available in the chosen encoding" :
+                "Character " + (char)c + " (x" + Integer.toHexString(c) + ") is not available in the chosen encoding");
+        de.setErrorCode("SERE0008");
+        return de;
+    }
+
+    /**
+     * Encode a name in UTF-8 (names never contain unpaired surrogates)
+     * @param name the name to be encoded
+     * @return the encoded name
+     */
+
+    private static byte[] encode(String name) {
+        final int len = name.length();
+        byte[] b = new byte[len * 3];
+        int p = 0;
+        for (int i=0; i<len; i++) {
+            int c = name.charAt(i);
+            if (c < 0x80) {
+                b[p++] = (byte)c;
+            } else if (c < 0x800) {
+                b[p++] = (byte)(0xc0 | (c >> 6));
+                b[p++] = (byte)(0x80 | (c & 0x3f));
+            } else if (UTF16CharacterSet.isHighSurrogate(c)) {
+                c = UTF16CharacterSet.combinePair((char)c, name.charAt(++i));
+                b[p++] = (byte)(0xf0 | (c >> 18));
+                b[p++] = (byte)(0x80 | ((c >> 12) & 0x3f));
+                b[p++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte)(0x80 | (c & 0x3f));
+            } else {
+                b[p++] = (byte)(0xe0 | (c >> 12));
+                b[p++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        byte[] result = new byte[p];
+        System.arraycopy(b, 0, result, 0, p);
+        return result;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            outputStream.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private void putByte(int b) throws IOException {
+        if (pos >= limit) {
+            flushBuffer();
+        }
+        buffer[pos++] = (byte)b;
+    }
+
+    private void putBytes(byte[] b) throws IOException {
+        if (pos + b.length > limit) {
+            flushBuffer();
+            if (b.length > limit) {
+                outputStream.write(b);
+                return;
+            }
+        }
+        System.arraycopy(b, 0, buffer, pos, b.length);
+        pos += b.length;
+    }
+
+    /**
+     * Encode characters into the buffer without escaping
+     * @param s the characters to be written
+     * @throws IOException if an error occurs writing to the output stream
+     */
+
+    private void putChars(CharSequence s) throws IOException {
+        putChars(s, 0, s.length());
+    }
+
+    private void putChars(CharSequence s, int start, int end) throws IOException {
+        byte[] buf = buffer;
+        int p = pos;
+        for (int i=start; i<end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80 && pendingSurrogate == 0) {
+                if (p >= limit) {
+                    pos = p;
+                    flushBuffer();
+                    p = 0;
+                }
+                buf[p++] = (byte)c;
+            } else {
+                pos = p;
+                putChar(c);
+                p = pos;
+            }
+        }
+        pos = p;
+    }
+
+    /**
+     * Encode a single character into the buffer without escaping. A surrogate pair may be written
+     * in two calls. With UTF-8, an unpaired surrogate is an error (as with the {@link UTF8Writer});
+     * with US-ASCII, any character outside the ASCII range, or surrogate pair, is written as "?".
+     * @param c the character to be written
+     * @throws IOException if the character cannot be encoded, or if an error occurs writing to the output stream
+     */
+
+    private void putChar(int c) throws IOException {
+        if (pos >= limit) {
+            flushBuffer();
+        }
+        if (pendingSurrogate != 0) {
+            int high = pendingSurrogate;
+            pendingSurrogate = 0;
+            if (UTF16CharacterSet.isLowSurrogate(c)) {
+                if (ascii) {
+                    buffer[pos++] = '?';
+                } else {
+                    c = UTF16CharacterSet.combinePair((char)high, (char)c);
+                    buffer[pos++] = (byte)(0xf0 | (c >> 18));
+                    buffer[pos++] = (byte)(0x80 | ((c >> 12) & 0x3f));
+                    buffer[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    buffer[pos++] = (byte)(0x80 | (c & 0x3f));
+                }
+                return;
+            } else if (ascii) {
+                buffer[pos++] = '?';
+            } else {
+                throw new IOException("Broken surrogate pair: first char 0x" + Integer.toHexString(high) +
+                        ", second 0x" + Integer.toHexString(c));
+            }
+        }
+        if (c < 0x80) {
+            buffer[pos++] = (byte)c;
+        } else if (UTF16CharacterSet.isHighSurrogate(c)) {
+            pendingSurrogate = c;
+        } else if (ascii) {
+            buffer[pos++] = '?';
+        } else if (c < 0x800) {
+            buffer[pos++] = (byte)(0xc0 | (c >> 6));
+            buffer[pos++] = (byte)(0x80 | (c & 0x3f));
+        } else if (UTF16CharacterSet.isLowSurrogate(c)) {
+            throw new IOException("Unmatched second part of surrogate pair (0x" + Integer.toHexString(c) + ')');
+        } else {
+            buffer[pos++] = (byte)(0xe0 | (c >> 12));
+            buffer[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+            buffer[pos++] = (byte)(0x80 | (c & 0x3f));
+        }
+    }
+
+    /**
+     * Writer used by the methods of the superclass, encoding characters into the same byte buffer
+     */
+
+    private class ByteWriter extends Writer {
+
+        public void write(int c) throws IOException {
+            putChar(c);
+        }
+
+        public void write(/*@NotNull*/ char[] cbuf, int off, int len) throws IOException {
+            for (int i=off; i<off+len; i++) {
+                putChar(cbuf[i]);
+            }
+        }
+
+        public void write(/*@NotNull*/ String str, int off, int len) throws IOException {
+            putChars(str, off, off+len);
+        }
+
+        public void flush() throws IOException {
+            flushBuffer();
+            outputStream.flush();
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -85,15 +85,15 @@ public class XSLForEach extends StyleElement {
 			String f = atts.getQName(a);
 			if (f.equals(StandardNames.SELECT)) {
         		selectAtt = atts.getValue(a);
-            } else if (f.equals("threads") && atts.getURI(a).equals(NamespaceConstant.SAXON)) {
+            } else if (atts.getLocalName(a).equals("threads") && atts.getURI(a).equals(NamespaceConstant.SAXON)) {
                 String threadsAtt = Whitespace.trim(atts.getValue(a));
                 threads = makeAttributeValueTemplate(threadsAtt);
                 if (getPreparedStylesheet().isCompileWithTracing()) {
                     compileWarning("saxon:threads - no multithreading takes place when compiling with trace enabled",
                             SaxonErrorCode.SXWN9012);
                     threads = new StringLiteral("0");
-                } else if (!"EE".equals(getConfiguration().getEditionCode())) {
-                    compileWarning("saxon:threads - ignored when not running Saxon-EE",
+                } else if (!getConfiguration().isMultiThreading()) {
+                    compileWarning("saxon:threads - ignored because multi-threading is disabled in the configuration",
                             SaxonErrorCode.SXWN9013);
                     threads = new StringLiteral("0");
                 }
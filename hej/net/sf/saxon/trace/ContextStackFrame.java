@@ -1,6 +1,7 @@
 package net.sf.saxon.trace;
 
 import net.sf.saxon.expr.Container;
+import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.expr.instruct.*;
 import net.sf.saxon.lib.NamespaceConstant;
 import net.sf.saxon.om.Item;
@@ -21,6 +22,7 @@ public abstract class ContextStackFrame {
     private int lineNumber;
     private Container container;
     private Item contextItem;
+    private XPathContext context;
 
     /**
      * Set the system ID representing the location of the instruction that caused this new context
@@ -100,6 +102,26 @@ public abstract class ContextStackFrame {
         return contextItem;
     }
 
+    /**
+     * Set the dynamic context object from which this stack frame was derived
+     * @param context the major context object at this level of the context stack
+     */
+
+    public void setContext(XPathContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Get the dynamic context object from which this stack frame was derived. This allows
+     * information to be obtained that is not otherwise held in the stack frame, for example
+     * the template rule that was selected by an xsl:apply-templates instruction.
+     * @return the major context object at this level of the context stack, or null if not known
+     */
+
+    public XPathContext getContext() {
+        return context;
+    }
+
     /**
      * Display a representation of the stack frame on the specified output stream
      * @param out the output stream
@@ -58,6 +58,14 @@ public class ContextStackIterator implements Iterator<ContextStackFrame> {
         if (context == null) {
             return null;
         }
+        ContextStackFrame frame = nextFrame(context);
+        if (frame != null && frame.getContext() == null) {
+            frame.setContext(context);
+        }
+        return frame;
+    }
+
+    /*@Nullable*/ private ContextStackFrame nextFrame(XPathContextMajor context) {
         int construct = context.getOriginatingConstructType();
         Object origin = context.getOrigin();
 
@@ -0,0 +1,500 @@
+package net.sf.saxon.trace;
+
+import net.sf.saxon.expr.UserFunctionCall;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.XPathContextMajor;
+import net.sf.saxon.expr.instruct.CallTemplate;
+import net.sf.saxon.expr.instruct.TailCall;
+import net.sf.saxon.expr.instruct.Template;
+import net.sf.saxon.expr.instruct.UserFunction;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.trans.Rule;
+import net.sf.saxon.tree.util.FastStringBuffer;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A profiler that periodically samples the context stack of a running transformation or query from a
+ * separate thread, and attributes the elapsed time to the templates, functions and global variables
+ * that were active when each sample was taken.
+ *
+ * <p>Unlike the {@link TimingTraceListener}, the sampling profiler requires no trace code to be injected
+ * into the compiled stylesheet or query, and it does not call the system clock on entry to and exit from
+ * each instruction; the only run-time cost is that templates, functions and global variables publish their
+ * dynamic context to the profiler on entry and exit. This means that the timings are not distorted by
+ * the act of measurement, and the profiler can be used on production-sized inputs. The price is that
+ * the figures are statistical estimates, which become more accurate as the number of samples increases.</p>
+ *
+ * <p>To use the profiler, register it with the {@link net.sf.saxon.Controller} using
+ * {@link net.sf.saxon.Controller#setSamplingProfiler}, call {@link #start()} before running the transformation
+ * or query, and {@link #stop()} afterwards. The same profiler may be started and stopped repeatedly, for
+ * example to accumulate figures over several runs. The results can then be written as folded stacks,
+ * using {@link #writeFoldedStacks}, for input to flame graph tools, or as a summary report using
+ * {@link #writeReport}.</p>
+ *
+ * <p>The profiler keeps track of the current context separately for each thread, so it can be shared by
+ * several Controllers running concurrently, and it observes the worker threads used by multi-threaded
+ * instructions such as <code>xsl:for-each</code> with <code>saxon:threads</code>. At each sampling
+ * interval the stack of every thread that is executing a template, function or global variable is recorded
+ * as a separate sample, so when several threads are active, the total of the time figures in the report
+ * exceeds the elapsed time.</p>
+ *
+ * <p>Running under the profiler does not change how expressions are evaluated. Where the result of a function
+ * or global variable is evaluated lazily, the time spent computing it is attributed to the caller that
+ * eventually reads the value, rather than to the function or variable itself.</p>
+ *
+ * @since 9.4
+ */
+
+public class SamplingProfiler {
+
+    private static final String TOP_LEVEL = "(top level)";
+
+    // The current context of each thread that is executing a template, function or global variable
+    /*@NotNull*/ private ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+    /*@NotNull*/ private ConcurrentHashMap<Thread, ThreadState> activeThreads =
+            new ConcurrentHashMap<Thread, ThreadState>();
+    private int interval = 1;
+    /*@Nullable*/ private Thread sampler;
+    private volatile boolean running = false;
+    private long startTime;
+    private long elapsed;
+    private int ticks;
+    private int samples;
+    /*@NotNull*/ private HashMap<String, int[]> stacks = new HashMap<String, int[]>();
+    /*@NotNull*/ private HashMap<String, int[]> frames = new HashMap<String, int[]>();
+    /*@NotNull*/ private HashMap<String, int[]> callSites = new HashMap<String, int[]>();
+
+    /**
+     * Set the interval between samples
+     * @param millisecs the interval between samples, in milliseconds. The default is one millisecond.
+     */
+
+    public void setSamplingInterval(int millisecs) {
+        if (millisecs < 1) {
+            throw new IllegalArgumentException("Sampling interval must be at least one millisecond");
+        }
+        interval = millisecs;
+    }
+
+    /**
+     * Get the interval between samples
+     * @return the interval between samples, in milliseconds
+     */
+
+    public int getSamplingInterval() {
+        return interval;
+    }
+
+    /**
+     * Notify the profiler that a template, function, or global variable is being entered. This method is
+     * called by the run-time code; it is not intended for use by applications.
+     * @param context the new dynamic context, which becomes the top of the stack until the corresponding call
+     * on {@link #leave}
+     * @return the previously active context, which must be supplied to the corresponding call on {@link #leave}
+     */
+
+    public XPathContext enter(XPathContext context) {
+        ThreadState state = threadState.get();
+        XPathContext previous = state.current;
+        state.current = context;
+        if (previous == null) {
+            activeThreads.put(Thread.currentThread(), state);
+        }
+        return previous;
+    }
+
+    /**
+     * Notify the profiler that a template, function, or global variable has been exited. This method is
+     * called by the run-time code; it is not intended for use by applications.
+     * @param previous the value returned by the corresponding call on {@link #enter}
+     */
+
+    public void leave(XPathContext previous) {
+        ThreadState state = threadState.get();
+        state.current = previous;
+        if (previous == null) {
+            activeThreads.remove(Thread.currentThread());
+        }
+    }
+
+    /**
+     * Arrange for a tail call returned by a template to be attributed to that template. A tail call is
+     * executed by the caller after the template has exited, so without this its time would be attributed
+     * to the caller. This method is called by the run-time code; it is not intended for use by applications.
+     * @param tailCall the tail call returned by the template, or null
+     * @param context the dynamic context of the template
+     * @return a tail call that executes the supplied tail call with the template's context active in the
+     * profiler, or null if the supplied tail call is null
+     */
+
+    /*@Nullable*/ public TailCall profileTailCall(/*@Nullable*/ TailCall tailCall, XPathContext context) {
+        if (tailCall == null || tailCall instanceof ProfiledTailCall) {
+            return tailCall;
+        }
+        return new ProfiledTailCall(tailCall, context);
+    }
+
+    /**
+     * Start sampling. Samples are taken on a daemon thread until {@link #stop()} is called. If the profiler
+     * is already running, this method has no effect.
+     */
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        startTime = System.nanoTime();
+        sampler = new Thread(new Runnable() {
+            public void run() {
+                runSampler();
+            }
+        }, "Saxon sampling profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Stop sampling. The samples taken so far are retained, and sampling can be resumed by calling
+     * {@link #start()} again.
+     */
+
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            elapsed += System.nanoTime() - startTime;
+            t = sampler;
+            sampler = null;
+        }
+        t.interrupt();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Discard all samples taken so far
+     */
+
+    public synchronized void reset() {
+        ticks = 0;
+        samples = 0;
+        elapsed = 0;
+        if (running) {
+            startTime = System.nanoTime();
+        }
+        stacks.clear();
+        frames.clear();
+        callSites.clear();
+    }
+
+    /**
+     * Get the number of samples taken so far. One sample is taken at each sampling interval for each
+     * thread that is executing a template, function, or global variable (or a single sample if there is
+     * no such thread)
+     * @return the number of samples
+     */
+
+    public synchronized int getNumberOfSamples() {
+        return samples;
+    }
+
+    private void runSampler() {
+        while (running) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                if (running) {
+                    ticks++;
+                    boolean sampled = false;
+                    for (ThreadState state : activeThreads.values()) {
+                        XPathContext context = state.current;
+                        if (context != null) {
+                            takeSample(context);
+                            sampled = true;
+                        }
+                    }
+                    if (!sampled) {
+                        takeSample(null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a sample of the context stack
+     * @param context the context that was active when the sample was taken, or null if no template,
+     * function or variable was active
+     */
+
+    private void takeSample(/*@Nullable*/ XPathContext context) {
+        samples++;
+        List<String> labels = new ArrayList<String>();
+        List<String> sites = new ArrayList<String>();
+        if (context != null) {
+            try {
+                ContextStackIterator iter = new ContextStackIterator(context);
+                while (iter.hasNext()) {
+                    ContextStackFrame frame = iter.next();
+                    String label = getFrameLabel(frame);
+                    if (label != null) {
+                        labels.add(label);
+                        String site = getLocation(frame.getSystemId(), frame.getLineNumber());
+                        if (site != null) {
+                            sites.add(site);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                // The stack was changing while it was being examined; make do with what we have
+            }
+        }
+        if (labels.isEmpty()) {
+            labels.add(TOP_LEVEL);
+        }
+        Collections.reverse(labels);
+
+        FastStringBuffer fsb = new FastStringBuffer(labels.size() * 40);
+        for (String label : labels) {
+            if (fsb.length() != 0) {
+                fsb.append(';');
+            }
+            fsb.append(label);
+        }
+        increment(stacks, fsb.toString(), 0);
+
+        // A frame that occurs more than once on the stack (recursion) is counted only once
+
+        increment(frames, labels.get(labels.size() - 1), 0);
+        for (String label : new HashSet<String>(labels)) {
+            increment(frames, label, 1);
+        }
+        for (String site : new HashSet<String>(sites)) {
+            increment(callSites, site, 0);
+        }
+    }
+
+    private static void increment(HashMap<String, int[]> map, String key, int index) {
+        int[] counts = map.get(key);
+        if (counts == null) {
+            counts = new int[2];
+            map.put(key, counts);
+        }
+        counts[index]++;
+    }
+
+    /**
+     * Get the label used to identify a stack frame in the profile
+     * @param frame the stack frame
+     * @return the label, or null if the frame is to be omitted from the profile
+     */
+
+    /*@Nullable*/ private static String getFrameLabel(ContextStackFrame frame) {
+        XPathContext context = frame.getContext();
+        Object origin = (context instanceof XPathContextMajor ? ((XPathContextMajor)context).getOrigin() : null);
+        String label;
+        if (frame instanceof ContextStackFrame.FunctionCall) {
+            StructuredQName name = ((ContextStackFrame.FunctionCall)frame).getFunctionName();
+            label = "function " + (name == null ? "(anonymous)" : name.getDisplayName());
+            if (origin instanceof UserFunctionCall) {
+                UserFunction fn = ((UserFunctionCall)origin).getFunction();
+                label += "#" + ((UserFunctionCall)origin).getNumberOfArguments();
+                if (fn != null) {
+                    label = withLocation(label, fn.getSystemId(), fn.getLineNumber());
+                }
+            }
+        } else if (frame instanceof ContextStackFrame.ApplyTemplates) {
+            Rule rule = (context == null ? null : context.getCurrentTemplateRule());
+            if (rule != null && rule.getAction() instanceof Template) {
+                Template template = (Template)rule.getAction();
+                label = "template match=\"" + rule.getPattern() + "\"";
+                label = withLocation(label, template.getSystemId(), template.getLineNumber());
+            } else {
+                label = "template rule";
+            }
+        } else if (frame instanceof ContextStackFrame.CallTemplate) {
+            StructuredQName name = ((ContextStackFrame.CallTemplate)frame).getTemplateName();
+            label = "template name=\"" + (name == null ? "" : name.getDisplayName()) + "\"";
+            if (origin instanceof CallTemplate) {
+                Template template = ((CallTemplate)origin).getTargetTemplate();
+                if (template != null) {
+                    label = withLocation(label, template.getSystemId(), template.getLineNumber());
+                }
+            }
+        } else if (frame instanceof ContextStackFrame.VariableEvaluation) {
+            StructuredQName name = ((ContextStackFrame.VariableEvaluation)frame).getVariableName();
+            label = "variable $" + (name == null ? "" : name.getDisplayName());
+        } else if (frame instanceof ContextStackFrame.BuiltInTemplateRule) {
+            label = "built-in template rule";
+        } else {
+            return null;
+        }
+        // Semicolons and newlines are structural in the folded stack format
+        return label.replace(';', ',').replace('\n', ' ');
+    }
+
+    private static String withLocation(String label, String systemId, int lineNumber) {
+        String loc = getLocation(systemId, lineNumber);
+        return (loc == null ? label : label + " (" + loc + ")");
+    }
+
+    /*@Nullable*/ private static String getLocation(/*@Nullable*/ String systemId, int lineNumber) {
+        if (systemId == null) {
+            return null;
+        }
+        String file = systemId.substring(systemId.lastIndexOf('/') + 1);
+        if (lineNumber == -1 || lineNumber == 0xfffff) {
+            return file;
+        }
+        return file + ":" + lineNumber;
+    }
+
+    /**
+     * Write the samples as folded stacks. Each line of output represents one distinct stack, with
+     * the frames listed from the outermost to the innermost, separated by semicolons, followed by a space
+     * and the number of samples taken with that stack. This is the input format expected by
+     * flame graph tools such as Brendan Gregg's <code>flamegraph.pl</code>.
+     * @param out the destination for the output
+     */
+
+    public synchronized void writeFoldedStacks(PrintStream out) {
+        List<String> keys = new ArrayList<String>(stacks.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            out.println(key + " " + stacks.get(key)[0]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Write a summary report of the samples. The report lists the templates, functions and global variables
+     * in descending order of the time spent in their own code ("self"), together with the time spent in them
+     * including the code they call ("total"); followed by the source locations of the instructions that invoked
+     * them, in descending order of the time spent in the calls made from that location.
+     * @param out the destination for the output
+     */
+
+    public synchronized void writeReport(PrintStream out) {
+        long elapsedNanos = elapsed + (running ? System.nanoTime() - startTime : 0);
+        double elapsedMillis = elapsedNanos / 1000000.0;
+        out.println("Sampling profile: " + samples + " samples at " + interval + "ms intervals over " +
+                Math.round(elapsedMillis) + "ms");
+        if (samples > ticks) {
+            out.println("(samples were taken from more than one thread, so the times add up to more than the elapsed time)");
+        }
+        if (samples == 0) {
+            out.flush();
+            return;
+        }
+        out.println();
+        out.println("   self ms  self %  total ms total %  template, function or variable");
+        for (Map.Entry<String, int[]> entry : sortedEntries(frames, 0, 1)) {
+            int[] counts = entry.getValue();
+            out.println(format(counts[0], elapsedMillis) + format(counts[1], elapsedMillis) + "  " + entry.getKey());
+        }
+        if (!callSites.isEmpty()) {
+            out.println();
+            out.println("  total ms total %  calling instruction");
+            for (Map.Entry<String, int[]> entry : sortedEntries(callSites, 0, 0)) {
+                out.println(format(entry.getValue()[0], elapsedMillis) + "  " + entry.getKey());
+            }
+        }
+        out.flush();
+    }
+
+    private String format(int count, double elapsedMillis) {
+        // each sample represents the time between two ticks of one thread
+        double millis = (ticks == 0 ? 0 : (double)count * elapsedMillis / ticks);
+        double fraction = (double)count / samples;
+        return String.format(Locale.ENGLISH, "%10.1f%7.1f%%", millis, fraction * 100);
+    }
+
+    private static List<Map.Entry<String, int[]>> sortedEntries(HashMap<String, int[]> map, final int key1, final int key2) {
+        List<Map.Entry<String, int[]>> entries = new ArrayList<Map.Entry<String, int[]>>(map.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, int[]>>() {
+            public int compare(Map.Entry<String, int[]> a, Map.Entry<String, int[]> b) {
+                int[] ca = a.getValue();
+                int[] cb = b.getValue();
+                if (ca[key1] != cb[key1]) {
+                    return cb[key1] - ca[key1];
+                } else if (ca[key2] != cb[key2]) {
+                    return cb[key2] - ca[key2];
+                } else {
+                    return a.getKey().compareTo(b.getKey());
+                }
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * The profiling state of one thread
+     */
+
+    private static class ThreadState {
+        /*@Nullable*/ volatile XPathContext current;
+    }
+
+    /**
+     * A tail call that is executed with the context of the template that returned it active in the profiler.
+     * Any further tail call that it returns is wrapped in the same way, unless the template that produced it
+     * has already done so; this keeps the tail-call loop iterative.
+     */
+
+    private class ProfiledTailCall implements TailCall {
+
+        private TailCall tailCall;
+        private XPathContext context;
+
+        public ProfiledTailCall(TailCall tailCall, XPathContext context) {
+            this.tailCall = tailCall;
+            this.context = context;
+        }
+
+        public TailCall processLeavingTail() throws XPathException {
+            XPathContext saved = enter(context);
+            TailCall next;
+            try {
+                next = tailCall.processLeavingTail();
+            } finally {
+                leave(saved);
+            }
+            return profileTailCall(next, context);
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -303,6 +303,12 @@ public class CommandLineOptions {
                     "on".equals(value));
         }
 
+        value = getOptionValue("generateByteCode");
+        if (value != null) {
+            config.setConfigurationProperty(FeatureKeys.GENERATE_BYTE_CODE,
+                    "on".equals(value));
+        }
+
         value = getOptionValue("l");
         if (value != null) {
             config.setConfigurationProperty(FeatureKeys.LINE_NUMBERING,
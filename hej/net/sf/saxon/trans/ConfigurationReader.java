@@ -219,6 +219,7 @@ public class ConfigurationReader implements ContentHandler, NamespaceResolver {
         applyProperty(props, "allowMultiThreading", FeatureKeys.ALLOW_MULTITHREADING);
         applyProperty(props, "allowOldJavaUriFormat", FeatureKeys.ALLOW_OLD_JAVA_URI_FORMAT);
         applyProperty(props, "collationUriResolver", FeatureKeys.COLLATION_URI_RESOLVER_CLASS);
+        applyProperty(props, "collectionThreads", FeatureKeys.COLLECTION_THREADS);
         applyProperty(props, "collectionUriResolver", FeatureKeys.COLLECTION_URI_RESOLVER_CLASS);
         applyProperty(props, "compileWithTracing", FeatureKeys.COMPILE_WITH_TRACING);
         applyProperty(props, "debugByteCode", FeatureKeys.DEBUG_BYTE_CODE);
@@ -231,6 +232,7 @@ public class ConfigurationReader implements ContentHandler, NamespaceResolver {
         applyProperty(props, "errorListener", FeatureKeys.ERROR_LISTENER_CLASS);
         applyProperty(props, "expandAttributeDefaults", FeatureKeys.EXPAND_ATTRIBUTE_DEFAULTS);
         applyProperty(props, "generateByteCode", FeatureKeys.GENERATE_BYTE_CODE);
+        applyProperty(props, "inlineFunctions", FeatureKeys.INLINE_FUNCTIONS);
         applyProperty(props, "lazyConstructionMode", FeatureKeys.LAZY_CONSTRUCTION_MODE);
         applyProperty(props, "lineNumbering", FeatureKeys.LINE_NUMBERING);
         applyProperty(props, "optimizationLevel", FeatureKeys.OPTIMIZATION_LEVEL);
@@ -238,6 +240,8 @@ public class ConfigurationReader implements ContentHandler, NamespaceResolver {
         applyProperty(props, "preEvaluateDoc", FeatureKeys.PRE_EVALUATE_DOC_FUNCTION);
         applyProperty(props, "preferJaxpParser", FeatureKeys.PREFER_JAXP_PARSER);
         applyProperty(props, "recognizeUriQueryParameters", FeatureKeys.RECOGNIZE_URI_QUERY_PARAMETERS);
+        applyProperty(props, "regexCacheSize", FeatureKeys.REGEX_CACHE_SIZE);
+        applyProperty(props, "retainKeyIndexes", FeatureKeys.RETAIN_KEY_INDEXES);
         applyProperty(props, "schemaValidation", FeatureKeys.SCHEMA_VALIDATION_MODE);
         applyProperty(props, "serializerFactory", FeatureKeys.SERIALIZER_FACTORY_CLASS);
         applyProperty(props, "sourceResolver", FeatureKeys.SOURCE_RESOLVER_CLASS);
@@ -246,11 +250,13 @@ public class ConfigurationReader implements ContentHandler, NamespaceResolver {
         applyProperty(props, "styleParser", FeatureKeys.STYLE_PARSER_CLASS);
         applyProperty(props, "suppressEvaluationExpiryWarning", FeatureKeys.SUPPRESS_EVALUATION_EXPIRY_WARNING);
         applyProperty(props, "timing", FeatureKeys.TIMING);
+        applyProperty(props, "tinyTreeNameSummary", FeatureKeys.TINY_TREE_NAME_SUMMARY);
         applyProperty(props, "traceExternalFunctions", FeatureKeys.TRACE_EXTERNAL_FUNCTIONS);
         applyProperty(props, "traceListener", FeatureKeys.TRACE_LISTENER_CLASS);
         applyProperty(props, "traceOptimizerDecisions", FeatureKeys.TRACE_OPTIMIZER_DECISIONS);
         applyProperty(props, "treeModel", FeatureKeys.TREE_MODEL_NAME);
         applyProperty(props, "uriResolver", FeatureKeys.URI_RESOLVER_CLASS);
+        applyProperty(props, "useByteSerializer", FeatureKeys.USE_BYTE_SERIALIZER);
         applyProperty(props, "usePiDisableOutputEscaping", FeatureKeys.USE_PI_DISABLE_OUTPUT_ESCAPING);
         applyProperty(props, "useTypedValueCache", FeatureKeys.USE_TYPED_VALUE_CACHE);
         applyProperty(props, "validationComments", FeatureKeys.VALIDATION_COMMENTS);
@@ -4,11 +4,13 @@ import net.sf.saxon.Configuration;
 import net.sf.saxon.Controller;
 import net.sf.saxon.expr.*;
 import net.sf.saxon.expr.instruct.SlotManager;
+import net.sf.saxon.expr.parser.ExpressionTool;
 import net.sf.saxon.expr.sort.LocalOrderComparer;
 import net.sf.saxon.functions.StringFn;
 import net.sf.saxon.functions.SystemFunction;
 import net.sf.saxon.functions.Tokenize;
 import net.sf.saxon.lib.ConversionRules;
+import net.sf.saxon.lib.NamespaceConstant;
 import net.sf.saxon.lib.StringCollator;
 import net.sf.saxon.om.*;
 import net.sf.saxon.pattern.IdrefTest;
@@ -25,6 +27,8 @@ import net.sf.saxon.value.UntypedAtomicValue;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 /**
   * KeyManager manages the set of key definitions in a stylesheet, and the indexes
@@ -38,7 +42,19 @@ import java.util.*;
   * owns the KeyManager) holds a weak reference to the index. The index, of course, holds strong
   * references to the nodes in the document. The Controller holds a strong reference to the
   * list of indexes used for each document, so that indexes remain in memory for the duration
-  * of a transformation even if the documents themselves are garbage collected.</p>
+  * of a transformation even if the documents themselves are garbage collected. If the configuration
+  * option {@link net.sf.saxon.lib.FeatureKeys#RETAIN_KEY_INDEXES} is set, the list of indexes is instead
+  * held by the document itself, so that indexes are reused by later transformations for as long as the
+  * document remains in memory.</p>
+  *
+  * <p>Indexes are built on demand, and several threads (for example several concurrent transformations
+  * sharing the same compiled stylesheet, or threads within one multi-threaded transformation) may
+  * need the same index at the same time. The first thread to request a particular index (identified by
+  * the document, the key name, and the primitive type of the values being indexed) builds it; any other
+  * thread requesting the same index waits for it to be completed, but threads requesting different indexes
+  * proceed independently. A request for an index that is being built by the current thread, or by a thread
+  * that is itself (directly or indirectly) waiting for the current thread, indicates a circular key definition,
+  * which is reported as error XTDE0640.</p>
   *
   * <p>Potentially there is a need for more than one index for a given key name, depending
   * on the primitive type of the value provided to the key() function. An index is built
@@ -78,12 +94,17 @@ public class KeyManager implements Serializable {
     private HashMap<StructuredQName, KeyDefinitionSet> keyMap;
                                      // one entry for each named key; the entry contains
                                      // a KeyDefinitionSet holding the key definitions with that name
-    private transient WeakHashMap<DocumentInfo, WeakReference<HashMap<Long, Object>>> docIndexes;
+    private transient WeakHashMap<DocumentInfo, WeakReference<ConcurrentHashMap<Long, IndexFuture>>> docIndexes;
                                      // one entry for each document that is in memory;
-                                     // the entry contains a HashMap mapping the fingerprint of
-                                     // the key name plus the primitive item type
-                                     // to the HashMap that is the actual index
-                                     // of key/value pairs.
+                                     // the entry contains a map from the number of the key
+                                     // definition set plus the primitive item type
+                                     // to an IndexFuture that delivers the HashMap that is the
+                                     // actual index of key/value pairs. Access is synchronized on
+                                     // the KeyManager, but only for long enough to find the map.
+    private transient ConcurrentHashMap<Thread, IndexFuture> waitingThreads;
+                                     // for each thread that is waiting for an index being built by
+                                     // another thread, the index it is waiting for: used to detect
+                                     // circularities that span threads
 
     /**
      * Create a KeyManager and initialise variables
@@ -92,7 +113,8 @@ public class KeyManager implements Serializable {
 
     public KeyManager(Configuration config) {
         keyMap = new HashMap<StructuredQName, KeyDefinitionSet>(10);
-        docIndexes = new WeakHashMap<DocumentInfo, WeakReference<HashMap<Long, Object>>>(10);
+        docIndexes = new WeakHashMap<DocumentInfo, WeakReference<ConcurrentHashMap<Long, IndexFuture>>>(10);
+        waitingThreads = new ConcurrentHashMap<Thread, IndexFuture>();
         // Create a key definition for the idref() function
         registerIdrefKey(config);
     }
@@ -169,6 +191,40 @@ public class KeyManager implements Serializable {
 
     }
 
+    /**
+     * Obtain an implicit key definition. Implicit keys are not declared in the stylesheet: they are created
+     * by the optimizer to support path expressions such as <code>//customer[@ref = $x]</code>, which
+     * are rewritten as calls on the key() function. If an implicit key with the same match pattern and
+     * use expression has already been created, it is reused, so that only one index is built for each
+     * document however many such path expressions there are.
+     * @param match the match pattern, selecting the nodes to be indexed
+     * @param use the use expression, which must return a sequence of xs:string values
+     * @param config the Saxon configuration
+     * @return the set of key definitions (always a single KeyDefinition) representing the implicit key
+     * @throws XPathException if the key definition cannot be registered
+     */
+
+    public synchronized KeyDefinitionSet obtainImplicitKeyDefinitionSet(
+            PatternFinder match, Expression use, Configuration config) throws XPathException {
+        for (KeyDefinitionSet keySet : keyMap.values()) {
+            StructuredQName name = keySet.getKeyName();
+            if (name.getURI().equals(NamespaceConstant.SAXON) && name.getLocalPart().startsWith("implicit-key-")) {
+                KeyDefinition kd = keySet.getKeyDefinitions().get(0);
+                if (kd.getMatch().equals(match) && kd.getUse().equals(use)) {
+                    return keySet;
+                }
+            }
+        }
+        StructuredQName keyName = new StructuredQName("saxon", NamespaceConstant.SAXON, "implicit-key-" + keyMap.size());
+        KeyDefinition keydef = new KeyDefinition(match, use, null, null);
+        keydef.setIndexedItemType(BuiltInAtomicType.STRING);
+        SlotManager map = config.makeSlotManager();
+        ExpressionTool.allocateSlots(use, 0, map);
+        keydef.setStackFrameMap(map);
+        addKeyDefinition(keyName, keydef, config);
+        return keyMap.get(keyName);
+    }
+
     /**
     * Get all the key definitions that match a particular name
     * @param qName The name of the required key
@@ -190,7 +246,7 @@ public class KeyManager implements Serializable {
      * @return the index in question, as a HashMap mapping a key value onto a ArrayList of nodes
     */
 
-    private synchronized HashMap buildIndex(KeyDefinitionSet keySet,
+    private HashMap buildIndex(KeyDefinitionSet keySet,
                                             BuiltInAtomicType itemType,
                                             Set<BuiltInAtomicType> foundItemTypes,
                                             DocumentInfo doc,
@@ -487,42 +543,8 @@ public class KeyManager implements Serializable {
 
         int keySetNumber = keySet.getKeySetNumber();
         BuiltInAtomicType itemType = value.getPrimitiveType();
-        HashMap index;
-        synchronized (doc) {
-            // Need to synchronize to prevent two threads that use the same stylesheet indexing the same source
-            // document simultaneously. We could synchronize on either the key definition or the document
-            // (ideally we would use the combination of the two), but the document is less likely to cause
-            // unnecessary contention: it's more likely that an index definition applies to large numbers of
-            // documents than that a document has large numbers of indexes.
-            Object indexObject = getIndex(doc, keySetNumber, itemType);
-            if (indexObject instanceof String) {
-                // index is under construction
-                XPathException de = new XPathException("Key definition is circular");
-                de.setXPathContext(context);
-                de.setErrorCode("XTDE0640");
-                throw de;
-            }
-            index = (HashMap)indexObject;
-
-            // If the index does not yet exist, then create it.
-            if (index==null) {
-                // Mark the index as being under construction, in case the definition is circular
-                putIndex(doc, keySetNumber, itemType, "Under Construction", context);
-                index = buildIndex(keySet, itemType, foundItemTypes, doc, context);
-                putIndex(doc, keySetNumber, itemType, index, context);
-                if (foundItemTypes != null) {
-                    // build indexes for each item type actually found
-                    for (Iterator<BuiltInAtomicType> f = foundItemTypes.iterator(); f.hasNext();) {
-                        BuiltInAtomicType t = f.next();
-                        if (!t.equals(BuiltInAtomicType.STRING)) {
-                            putIndex(doc, keySetNumber, t, "Under Construction", context);
-                            index = buildIndex(keySet, t, null, doc, context);
-                            putIndex(doc, keySetNumber, t, index, context);
-                        }
-                    }
-                }
-            }
-        }
+        ConcurrentHashMap<Long, IndexFuture> indexList = obtainIndexList(doc, context);
+        HashMap index = obtainIndex(indexList, keySet, itemType, foundItemTypes, doc, context);
 
         if (foundItemTypes == null) {
             ArrayList nodes = (ArrayList)index.get(getCollationKey(value, itemType, collation, context));
@@ -534,38 +556,23 @@ public class KeyManager implements Serializable {
         } else {
             // we need to search the indexes for all possible types, and combine the results.
             SequenceIterator result = null;
-            WeakReference<HashMap<Long, Object>> ref = docIndexes.get(doc);
-            if (ref != null) {
-                HashMap<Long, Object> indexList = ref.get();
-                if (indexList != null) {
-                    for (Iterator<Long> i=indexList.keySet().iterator(); i.hasNext();) {
-                        long key = (i.next()).longValue();
-                        if (((key >> 32)) == keySetNumber) {
-                            int typefp = (int)key;
-
-                            BuiltInAtomicType type = (BuiltInAtomicType)BuiltInType.getSchemaType(typefp);
-
-                            Object indexObject2 = getIndex(doc, keySetNumber, type);
-                            if (indexObject2 instanceof String) {
-                                // index is under construction
-                                XPathException de = new XPathException("Key definition is circular");
-                                de.setXPathContext(context);
-                                de.setErrorCode("XTDE0640");
-                                throw de;
-                            }
-                            HashMap index2 = (HashMap)indexObject2;
-                            // NOTE: we've been known to encounter a null index2 here, but it doesn't seem possible
-                            if (!index2.isEmpty()) {
-                                final ConversionRules rules = context.getConfiguration().getConversionRules();
-                                value = Converter.convert(soughtValue, type, rules).asAtomic();
-                                ArrayList nodes = (ArrayList)index2.get(getCollationKey(value, type, collation, context));
-                                if (nodes != null) {
-                                    if (result == null) {
-                                        result = new ListIterator(nodes);
-                                    } else {
-                                        result = new UnionEnumeration(result, new ListIterator(nodes), LocalOrderComparer.getInstance());
-                                    }
-                                }
+            for (Map.Entry<Long, IndexFuture> entry : indexList.entrySet()) {
+                long key = entry.getKey().longValue();
+                if (((key >> 32)) == keySetNumber) {
+                    int typefp = (int)key;
+
+                    BuiltInAtomicType type = (BuiltInAtomicType)BuiltInType.getSchemaType(typefp);
+
+                    HashMap index2 = awaitIndex(entry.getValue(), context);
+                    if (!index2.isEmpty()) {
+                        final ConversionRules rules = context.getConfiguration().getConversionRules();
+                        value = Converter.convert(soughtValue, type, rules).asAtomic();
+                        ArrayList nodes = (ArrayList)index2.get(getCollationKey(value, type, collation, context));
+                        if (nodes != null) {
+                            if (result == null) {
+                                result = new ListIterator(nodes);
+                            } else {
+                                result = new UnionEnumeration(result, new ListIterator(nodes), LocalOrderComparer.getInstance());
                             }
                         }
                     }
@@ -597,67 +604,146 @@ public class KeyManager implements Serializable {
     }
 
     /**
-    * Save the index associated with a particular key, a particular item type,
-    * and a particular document. This
-    * needs to be done in such a way that the index is discarded by the garbage collector
-    * if the document is discarded. We therefore use a WeakHashMap indexed on the DocumentInfo,
-    * which returns HashMap giving the index for each key fingerprint. This index is itself another
-    * HashMap.
-    * The methods need to be synchronized because several concurrent transformations (which share
-    * the same KeyManager) may be creating indexes for the same or different documents at the same
-    * time.
+     * Get the index associated with a particular key, a particular source document,
+     * and a particular primitive item type, building it if it does not already exist.
+     * If the index is being built by another thread, wait until it is available.
+     * @param indexList the list of indexes for the document
+     * @param keySet the set of key definitions with this name
+     * @param itemType the primitive item type of the values being indexed
+     * @param foundItemTypes Optional (may be null). If supplied, a set that is to be populated with
+     * the set of primitive types actually found among the "use" values; an index is then also built
+     * for each of these types.
+     * @param doc the document whose index is required
+     * @param context the dynamic evaluation context
+     * @return the index in question, as a HashMap mapping a key value onto a ArrayList of nodes
+     * @throws XPathException if the index cannot be built, or if the key definition is circular
+     */
+
+    private HashMap obtainIndex(ConcurrentHashMap<Long, IndexFuture> indexList,
+                                KeyDefinitionSet keySet,
+                                BuiltInAtomicType itemType,
+                                Set<BuiltInAtomicType> foundItemTypes,
+                                DocumentInfo doc,
+                                XPathContext context) throws XPathException {
+        Long key = Long.valueOf(((long)keySet.getKeySetNumber())<<32 | itemType.getFingerprint());
+        IndexFuture future = indexList.get(key);
+        if (future == null) {
+            IndexFuture newFuture = new IndexFuture();
+            future = indexList.putIfAbsent(key, newFuture);
+            if (future == null) {
+                // This thread is responsible for building the index
+                try {
+                    HashMap index = buildIndex(keySet, itemType, foundItemTypes, doc, context);
+                    if (foundItemTypes != null) {
+                        // build indexes for each item type actually found. This is done before
+                        // the index for strings is made available, so that any thread that finds
+                        // the string index also finds the indexes for the other types
+                        for (BuiltInAtomicType t : foundItemTypes) {
+                            if (!t.equals(BuiltInAtomicType.STRING)) {
+                                obtainIndex(indexList, keySet, t, null, doc, context);
+                            }
+                        }
+                    }
+                    newFuture.setIndex(index);
+                    return index;
+                } catch (XPathException err) {
+                    indexList.remove(key, newFuture);
+                    newFuture.setFailure(err);
+                    throw err;
+                } catch (RuntimeException err) {
+                    indexList.remove(key, newFuture);
+                    newFuture.setFailure(new XPathException(err));
+                    throw err;
+                }
+            }
+        }
+        return awaitIndex(future, context);
+    }
+
+    /**
+     * Wait for an index to become available
+     * @param future the index, which may be complete or under construction
+     * @param context the dynamic evaluation context
+     * @return the completed index
+     * @throws XPathException if building the index failed, or if waiting for the index would
+     * cause a deadlock because the key definition is circular
+     */
+
+    private HashMap awaitIndex(IndexFuture future, XPathContext context) throws XPathException {
+        if (future.isDone()) {
+            return future.getIndex();
+        }
+        Thread current = Thread.currentThread();
+        ConcurrentHashMap<Thread, IndexFuture> waiting = getWaitingThreads();
+        waiting.put(current, future);
+        try {
+            // Follow the chain of threads waiting for each other: if it leads back to this thread,
+            // the index can never be completed
+            IndexFuture f = future;
+            for (int i = 0; f != null && i <= waiting.size(); i++) {
+                if (f.builder == current) {
+                    XPathException de = new XPathException("Key definition is circular");
+                    de.setXPathContext(context);
+                    de.setErrorCode("XTDE0640");
+                    throw de;
+                }
+                f = waiting.get(f.builder);
+            }
+            return future.getIndex();
+        } finally {
+            waiting.remove(current);
+        }
+    }
+
+    /**
+     * Get the list of indexes associated with a particular document, creating it if necessary.
+     * This needs to be done in such a way that the index is discarded by the garbage collector
+     * if the document is discarded. We therefore use a WeakHashMap indexed on the DocumentInfo,
+     * which returns a map giving the index for each key definition set and item type.
+     * The method needs to be synchronized because several concurrent transformations (which share
+     * the same KeyManager) may be creating indexes for the same or different documents at the same
+     * time; but the lock is held only while the list is located, not while indexes are built.
      * @param doc the document being indexed
-     * @param keyFingerprint represents the name of the key definition
-     * @param itemType the primitive type of the values being indexed
-     * @param index the index being saved
      * @param context the dynamic evaluation context
-    */
+     * @return the list of indexes for the document
+     */
 
-    private synchronized void putIndex(DocumentInfo doc, int keyFingerprint,
-                                       AtomicType itemType, Object index, XPathContext context) {
+    private synchronized ConcurrentHashMap<Long, IndexFuture> obtainIndexList(DocumentInfo doc, XPathContext context) {
         if (docIndexes==null) {
             // it's transient, so it will be null when reloading a compiled stylesheet
-            docIndexes = new WeakHashMap<DocumentInfo, WeakReference<HashMap<Long, Object>>>(10);
+            docIndexes = new WeakHashMap<DocumentInfo, WeakReference<ConcurrentHashMap<Long, IndexFuture>>>(10);
         }
-        WeakReference<HashMap<Long, Object>> indexRef = docIndexes.get(doc);
-        HashMap<Long, Object> indexList;
-        if (indexRef==null || indexRef.get()==null) {
-            indexList = new HashMap<Long, Object>(10);
+        WeakReference<ConcurrentHashMap<Long, IndexFuture>> indexRef = docIndexes.get(doc);
+        ConcurrentHashMap<Long, IndexFuture> indexList = (indexRef == null ? null : indexRef.get());
+        if (indexList == null) {
+            indexList = new ConcurrentHashMap<Long, IndexFuture>(10);
             // Ensure there is a firm reference to the indexList for the duration of a transformation
             // But for keys associated with temporary trees, or documents that have been discarded from
-            // the document pool, keep the reference within the document node itself.
+            // the document pool, or if indexes are to be retained across transformations, keep the
+            // reference within the document node itself.
             Controller controller = context.getController();
-            if (controller.getDocumentPool().contains(doc)) {
-                context.getController().setUserData(doc, "saxon:key-index-list", indexList);
+            if (controller.getDocumentPool().contains(doc) &&
+                    !controller.getConfiguration().isRetainKeyIndexes()) {
+                controller.setUserData(doc, "saxon:key-index-list", indexList);
             } else {
                 doc.setUserData("saxon:key-index-list", indexList);
             }
-            docIndexes.put(doc, new WeakReference<HashMap<Long, Object>>(indexList));
-        } else {
-            indexList = indexRef.get();
+            docIndexes.put(doc, new WeakReference<ConcurrentHashMap<Long, IndexFuture>>(indexList));
         }
-        indexList.put(Long.valueOf(((long)keyFingerprint)<<32 | itemType.getFingerprint()), index);
+        return indexList;
     }
 
     /**
-     * Get the index associated with a particular key, a particular source document,
-     * and a particular primitive item type
-     * @param doc the document whose index is required
-     * @param keyFingerprint the name of the key definition
-     * @param itemType the primitive item type of the values being indexed
-     * @return either an index (as a HashMap), or the String "under construction", or null
-    */
+     * Get the table of threads waiting for indexes being built by other threads
+     * @return the table of waiting threads
+     */
 
-    private synchronized Object getIndex(DocumentInfo doc, int keyFingerprint, AtomicType itemType) {
-        if (docIndexes==null) {
+    private synchronized ConcurrentHashMap<Thread, IndexFuture> getWaitingThreads() {
+        if (waitingThreads == null) {
             // it's transient, so it will be null when reloading a compiled stylesheet
-            docIndexes = new WeakHashMap<DocumentInfo, WeakReference<HashMap<Long, Object>>>(10);
+            waitingThreads = new ConcurrentHashMap<Thread, IndexFuture>();
         }
-        WeakReference<HashMap<Long, Object>> ref = docIndexes.get(doc);
-        if (ref==null) return null;
-        HashMap<Long, Object> indexList = ref.get();
-        if (indexList==null) return null;
-        return indexList.get(Long.valueOf(((long)keyFingerprint)<<32 | itemType.getFingerprint()));
+        return waitingThreads;
     }
 
     /**
@@ -667,7 +753,9 @@ public class KeyManager implements Serializable {
      */
 
     public synchronized void clearDocumentIndexes(DocumentInfo doc) {
-        docIndexes.remove(doc);
+        if (docIndexes != null) {
+            docIndexes.remove(doc);
+        }
     }
 
     /**
@@ -705,6 +793,67 @@ public class KeyManager implements Serializable {
         }
         out.endElement();
     }
+
+    /**
+     * An index that is either complete or under construction. The thread that creates the IndexFuture
+     * is responsible for building the index; other threads needing the same index wait for it.
+     */
+
+    private static class IndexFuture {
+
+        final Thread builder = Thread.currentThread();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private HashMap index;
+        private XPathException failure;
+
+        /**
+         * Ask whether the index has been built (or has failed)
+         * @return true if the index is available, or if building it failed
+         */
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Supply the completed index, releasing any threads that are waiting for it
+         * @param index the completed index
+         */
+
+        void setIndex(HashMap index) {
+            this.index = index;
+            done.countDown();
+        }
+
+        /**
+         * Record that the index could not be built, releasing any threads that are waiting for it
+         * @param failure the error that occurred while building the index
+         */
+
+        void setFailure(XPathException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        /**
+         * Get the index, waiting if necessary until it has been built
+         * @return the completed index
+         * @throws XPathException if building the index failed
+         */
+
+        HashMap getIndex() throws XPathException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XPathException("Interrupted while waiting for a key index to be built", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return index;
+        }
+    }
 }
 
 //
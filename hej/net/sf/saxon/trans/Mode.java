@@ -38,7 +38,7 @@ import java.util.ArrayList;
  * @author Michael H. Kay
  */
 
-public class Mode implements Serializable {
+public class Mode implements NameCodeHolder, Serializable {
 
     // TODO:PERF the data structure does not cater well for a stylesheet making heavy use of
     // match="schema-element(X)". We should probably expand the substitution group.
@@ -801,6 +801,18 @@ public class Mode implements Serializable {
         return Whitespace.collapseWhitespace(p.toString()).toString();
     }
 
+    /**
+     * Replace the fingerprints used to index the rules for named elements and attributes by the
+     * fingerprints of the same names in another NamePool. The patterns of the rules hold their own names.
+     * @param map the mapping from codes in the NamePool used when this Mode was created to codes in
+     * the NamePool that is now to be used
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        namedElementRuleChains = map.mapFingerprintKeys(namedElementRuleChains);
+        namedAttributeRuleChains = map.mapFingerprintKeys(namedAttributeRuleChains);
+    }
+
     /**
      * Walk over all the rules, applying a specified action to each one.
      * @param action an action that is to be applied to all the rules in this Mode
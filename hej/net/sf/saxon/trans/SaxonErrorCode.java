@@ -323,7 +323,7 @@ public class SaxonErrorCode {
     public static final String SXWN9012 = "SXWN9012";
 
     /**
-     * SXWN9013: saxon:threads ignored when not running under Saxon-EE
+     * SXWN9013: saxon:threads ignored when multi-threading is disabled in the configuration
      */
 
     /*@NotNull*/ public static final String SXWN9013 = "SXWN9013";
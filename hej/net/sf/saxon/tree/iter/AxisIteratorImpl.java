@@ -62,7 +62,7 @@ public abstract class AxisIteratorImpl implements AxisIterator {
 
     public AxisIterator iterateAxis(byte axis, NodeTest test) {
         //noinspection ConstantConditions
-        return current.iterateAxis(axis, test);
+        return current().iterateAxis(axis, test);
     }
 
     /**
@@ -74,7 +74,7 @@ public abstract class AxisIteratorImpl implements AxisIterator {
 
     public Value atomize() throws XPathException {
         //noinspection ConstantConditions
-        return current.atomize();
+        return current().atomize();
     }
 
     /**
@@ -86,7 +86,7 @@ public abstract class AxisIteratorImpl implements AxisIterator {
 
     public CharSequence getStringValue() {
         //noinspection ConstantConditions
-        return current.getStringValueCS();
+        return current().getStringValueCS();
     }
 
     /**
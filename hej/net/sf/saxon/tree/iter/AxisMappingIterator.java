@@ -0,0 +1,149 @@
+package net.sf.saxon.tree.iter;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Value;
+
+/**
+ * An AxisMappingIterator applies an axis step to each node returned by a base AxisIterator, and
+ * returns the concatenation of the results. It delivers the same sequence as a path expression
+ * <code>E/axis::test</code> evaluated without sorting into document order.
+ *
+ * <p>The iterator positions the base iterator using {@link AxisIterator#moveNext()} and navigates from
+ * its current node using {@link AxisIterator#iterateAxis}, so if the base iterator is able to navigate
+ * without instantiating its nodes (as the TinyTree iterators can) then no node objects are created for the
+ * intermediate steps of the path. Likewise {@link #moveNext()}, {@link #atomize()}, {@link #getStringValue()}
+ * and {@link #iterateAxis} are passed on to the iterator for the final step, so nodes in the result are
+ * only instantiated if {@link #next()} or {@link #current()} is called.</p>
+ */
+
+public class AxisMappingIterator implements AxisIterator {
+
+    private AxisIterator base;
+    private byte axis;
+    private NodeTest test;
+    /*@Nullable*/ private AxisIterator stepIterator = null;
+    private int position = 0;
+
+    /**
+     * Create an iterator that applies an axis step to each node selected by a base iterator
+     * @param base the iterator over the nodes from which the axis is to be navigated
+     * @param axis the axis to be navigated, using a constant such as {@link net.sf.saxon.om.Axis#CHILD}
+     * @param test the test to be satisfied by the selected nodes
+     */
+
+    public AxisMappingIterator(AxisIterator base, byte axis, NodeTest test) {
+        this.base = base;
+        this.axis = axis;
+        this.test = test;
+    }
+
+    public boolean moveNext() {
+        while (true) {
+            if (stepIterator != null) {
+                if (stepIterator.moveNext()) {
+                    position++;
+                    return true;
+                }
+                stepIterator = null;
+            }
+            if (base.moveNext()) {
+                stepIterator = base.iterateAxis(axis, test);
+            } else {
+                position = -1;
+                return false;
+            }
+        }
+    }
+
+    /*@Nullable*/ public NodeInfo next() {
+        if (moveNext()) {
+            return stepIterator.current();
+        } else {
+            return null;
+        }
+    }
+
+    /*@Nullable*/ public NodeInfo current() {
+        return (stepIterator == null ? null : stepIterator.current());
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public void close() {
+        base.close();
+    }
+
+    /*@NotNull*/ public AxisIterator getAnother() {
+        return new AxisMappingIterator(base.getAnother(), axis, test);
+    }
+
+    /**
+     * Return an iterator over an axis, starting at the current node.
+     * @param axis the axis to iterate over, using a constant such as
+     *             {@link net.sf.saxon.om.Axis#CHILD}
+     * @param test a predicate to apply to the nodes before returning them.
+     * @throws NullPointerException if there is no current node
+     */
+
+    public AxisIterator iterateAxis(byte axis, NodeTest test) {
+        //noinspection ConstantConditions
+        return stepIterator.iterateAxis(axis, test);
+    }
+
+    /**
+     * Return the atomized value of the current node.
+     * @return the atomized value.
+     * @throws NullPointerException if there is no current node
+     */
+
+    public Value atomize() throws XPathException {
+        //noinspection ConstantConditions
+        return stepIterator.atomize();
+    }
+
+    /**
+     * Return the string value of the current node.
+     * @return the string value, as an instance of CharSequence.
+     * @throws NullPointerException if there is no current node
+     */
+
+    public CharSequence getStringValue() {
+        //noinspection ConstantConditions
+        return stepIterator.getStringValue();
+    }
+
+    /**
+     * Get properties of this iterator, as a bit-significant integer.
+     *
+     * @return the properties of this iterator. This will be some combination of
+     *         properties such as {@link #GROUNDED}, {@link #LAST_POSITION_FINDER},
+     *         and {@link #LOOKAHEAD}. It is always
+     *         acceptable to return the value zero, indicating that there are no known special properties.
+     *         It is acceptable for the properties of the iterator to change depending on its state.
+     */
+
+    public int getProperties() {
+        return 0;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -5,22 +5,33 @@ import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.functions.UnparsedText;
 import net.sf.saxon.om.NameChecker;
 import net.sf.saxon.om.SequenceIterator;
-import net.sf.saxon.serialize.charcode.UTF16CharacterSet;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.util.FastStringBuffer;
 import net.sf.saxon.value.StringValue;
 
 import javax.xml.transform.SourceLocator;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.io.Reader;
 import java.net.URI;
 
 /**
-* Class UnparsedTextIterator, iterates over a file line by line
+* Class UnparsedTextIterator, iterates over a file line by line.
+*
+* <p>The file is read in fixed-size chunks, and lines are split out of each chunk directly, so the
+* memory used is independent of the size of the file. A line is terminated by a newline, a carriage
+* return, or a carriage return followed by a newline. Characters are checked for validity in bulk
+* as each line is split out.</p>
 */
 public class UnparsedTextIterator implements SequenceIterator<StringValue> {
 
-    LineNumberReader reader;
+    private static final int CHUNK_SIZE = 65536;
+
+    Reader reader;
+    private char[] buffer = new char[CHUNK_SIZE];
+    private int bufferPos = 0;
+    private int bufferEnd = 0;
+    private boolean eof = false;
+    private boolean skipNewline = false;
     NameChecker checker;
     URI absoluteURI;
     XPathContext context;
@@ -40,10 +51,7 @@ public class UnparsedTextIterator implements SequenceIterator<StringValue> {
 
     public UnparsedTextIterator(URI absoluteURI, /*@NotNull*/ XPathContext context, String encoding, SourceLocator location) throws XPathException {
     	Configuration config = context.getConfiguration();
-   	 	Reader reader = context.getController().getUnparsedTextURIResolver().resolve(absoluteURI, encoding, config);
-        // TODO: does LineNumberReader use the correct definition of line endings?
-        
-    	this.reader = new LineNumberReader(reader);
+   	 	this.reader = context.getController().getUnparsedTextURIResolver().resolve(absoluteURI, encoding, config);
         this.absoluteURI = absoluteURI;
         this.context = context;
         this.checker = context.getConfiguration().getNameChecker();
@@ -57,13 +65,13 @@ public class UnparsedTextIterator implements SequenceIterator<StringValue> {
             return null;
         }
         try {
-            String s = reader.readLine();
+            String s = readLine();
             if (s == null) {
                 current = null;
                 position = -1;
+                close();
                 return null;
             }
-            checkLine(checker, s);
             current = new StringValue(s);
             position++;
             return current;
@@ -108,20 +116,92 @@ public class UnparsedTextIterator implements SequenceIterator<StringValue> {
         return 0;
     }
 
-    private void checkLine(/*@NotNull*/ NameChecker checker, /*@NotNull*/ String buffer) throws XPathException {
-        for (int c=0; c<buffer.length();) {
-            int ch32 = buffer.charAt(c++);
-            if (UTF16CharacterSet.isHighSurrogate(ch32)) {
-                char low = buffer.charAt(c++);
-                ch32 = UTF16CharacterSet.combinePair((char)ch32, low);
+    /**
+     * Read the next line from the file
+     * @return the contents of the line, excluding the line terminator, or null if there are no more lines
+     * @throws IOException if a failure occurs reading the file
+     * @throws XPathException if the line contains a character that is not valid in XML
+     */
+
+    /*@Nullable*/ private String readLine() throws IOException, XPathException {
+        FastStringBuffer partial = null;
+        while (true) {
+            if (bufferPos >= bufferEnd && !fillBuffer()) {
+                if (partial == null) {
+                    return null;
+                }
+                checkLine(partial.getCharArray(), 0, partial.length());
+                return partial.toString();
             }
-            if (!checker.isValidChar(ch32)) {
-                XPathException err = new XPathException("The unparsed-text file contains a character that is illegal in XML (line=" +
-                        position + " column=" + (c+1) + " value=hex " + Integer.toHexString(ch32) + ')');
-                err.setErrorCode("XTDE1190");
-                err.setLocator(location);
-                throw err;
+            if (skipNewline) {
+                // a carriage return was followed by a newline, perhaps in the next chunk
+                skipNewline = false;
+                if (buffer[bufferPos] == '\n') {
+                    bufferPos++;
+                    continue;
+                }
             }
+            int start = bufferPos;
+            int end = bufferEnd;
+            char[] buf = buffer;
+            int i = start;
+            while (i < end) {
+                char c = buf[i];
+                if (c == '\n' || c == '\r') {
+                    break;
+                }
+                i++;
+            }
+            if (i < end) {
+                skipNewline = buf[i] == '\r';
+                bufferPos = i + 1;
+                if (partial == null) {
+                    checkLine(buf, start, i);
+                    return new String(buf, start, i - start);
+                }
+                partial.append(buf, start, i - start);
+                checkLine(partial.getCharArray(), 0, partial.length());
+                return partial.toString();
+            }
+            // the line continues into the next chunk
+            if (partial == null) {
+                partial = new FastStringBuffer(end - start + FastStringBuffer.SMALL);
+            }
+            partial.append(buf, start, end - start);
+            bufferPos = end;
+        }
+    }
+
+    /**
+     * Read the next chunk of the file into the buffer
+     * @return false if there is no more input
+     * @throws IOException if a failure occurs reading the file
+     */
+
+    private boolean fillBuffer() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int actual = reader.read(buffer, 0, buffer.length);
+        if (actual < 0) {
+            eof = true;
+            return false;
+        }
+        bufferPos = 0;
+        bufferEnd = actual;
+        return actual > 0 || fillBuffer();
+    }
+
+    private void checkLine(char[] chars, int start, int end) throws XPathException {
+        int bad = UnparsedText.findInvalidChar(checker, chars, start, end);
+        if (bad >= 0) {
+            int ch32 = UnparsedText.codepointAt(chars, bad, end);
+            int column = bad - start + (ch32 > 65535 ? 2 : 1) + 1;
+            XPathException err = new XPathException("The unparsed-text file contains a character that is illegal in XML (line=" +
+                    position + " column=" + column + " value=hex " + Integer.toHexString(ch32) + ')');
+            err.setErrorCode("XTDE1190");
+            err.setLocator(location);
+            throw err;
         }
     }
 }
@@ -1,9 +1,8 @@
 package net.sf.saxon.tree.tiny;
 
-import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.pattern.NodeTest;
 import net.sf.saxon.tree.iter.AxisIterator;
-import net.sf.saxon.tree.iter.AxisIteratorImpl;
+import net.sf.saxon.type.Type;
 
 /**
 * This class supports both the descendant:: and descendant-or-self:: axes, which are
@@ -12,14 +11,16 @@ import net.sf.saxon.tree.iter.AxisIteratorImpl;
 * The calling code must ensure that the start node is not an attribute or namespace node.
 */
 
-final class DescendantEnumeration extends AxisIteratorImpl {
+final class DescendantEnumeration extends NodeNumberEnumeration {
 
-    private TinyTree tree;
-    private TinyNodeImpl startNode;
+    /*@Nullable*/ private TinyNodeImpl startNode;
+    private int startNodeNr;
     private boolean includeSelf;
+    private boolean selfPending;
     private int nextNodeNr;
     private int startDepth;
     private NodeTest test;
+    private int summaryFingerprint;
 
     /**
      * Create an iterator over the descendant axis
@@ -30,29 +31,60 @@ final class DescendantEnumeration extends AxisIteratorImpl {
      */
 
     DescendantEnumeration(/*@NotNull*/ TinyTree doc, /*@NotNull*/ TinyNodeImpl node, NodeTest nodeTest, boolean includeSelf) {
-        tree = doc;
+        this(doc, node.nodeNr, nodeTest, includeSelf);
         startNode = node;
+    }
+
+    /**
+     * Create an iterator over the descendant axis, starting at a node identified by its node number
+     * @param doc the containing TinyTree
+     * @param nodeNr the node number of the node whose descendants are required
+     * @param nodeTest test to be satisfied by each returned node
+     * @param includeSelf true if the start node is to be included
+     */
+
+    DescendantEnumeration(/*@NotNull*/ TinyTree doc, int nodeNr, NodeTest nodeTest, boolean includeSelf) {
+        super(doc);
+        startNodeNr = nodeNr;
         this.includeSelf = includeSelf;
+        selfPending = includeSelf;
         test = nodeTest;
-        nextNodeNr = node.nodeNr;
-        startDepth = doc.depth[nextNodeNr];
+        nextNodeNr = nodeNr;
+        startDepth = doc.depth[nodeNr];
+        summaryFingerprint = doc.getNameSummaryFingerprint(nodeTest);
+        if (summaryFingerprint != -1 && !doc.mayHaveDescendantNamed(nodeNr, summaryFingerprint)) {
+            nextNodeNr = -1;
+        }
     }
 
-    /*@Nullable*/ public NodeInfo next() {
-        if (position==0 && includeSelf && test.matches(startNode)) {
-            current = startNode;
-            position++;
-            return current;
+    protected int advance() {
+        if (selfPending) {
+            selfPending = false;
+            if (test.matches(tree, startNodeNr)) {
+                return startNodeNr;
+            }
+        }
+        if (nextNodeNr < 0) {
+            return -1;
         }
 
         do {
-            nextNodeNr++;
+            if (summaryFingerprint != -1 && tree.nodeKind[nextNodeNr] == Type.ELEMENT &&
+                    tree.depth[nextNodeNr+1] > tree.depth[nextNodeNr] &&
+                    !tree.mayHaveDescendantNamed(nextNodeNr, summaryFingerprint)) {
+                // the name summary shows that no descendant of this element can match, so skip them all
+                nextNodeNr = tree.getNextSubtreeBoundary(nextNodeNr);
+                if (nextNodeNr == Integer.MAX_VALUE) {
+                    nextNodeNr = -1;
+                    return -1;
+                }
+            } else {
+                nextNodeNr++;
+            }
             try {
                 if (tree.depth[nextNodeNr] <= startDepth) {
                     nextNodeNr = -1;
-                    current = null;
-                    position = -1;
-                    return null;
+                    return -1;
                 }
             } catch (ArrayIndexOutOfBoundsException e) {
                 // this shouldn't happen. If it does happen, it means the tree wasn't properly closed
@@ -60,15 +92,18 @@ final class DescendantEnumeration extends AxisIteratorImpl {
                 // by returning end-of sequence
                 //System.err.println("********* no stopper node **********");
                 nextNodeNr = -1;
-                current = null;
-                position = -1;
-                return null;
+                return -1;
             }
         } while (!test.matches(tree, nextNodeNr));
 
-        position++;
-        current = tree.getNode(nextNodeNr);
-        return current;
+        return nextNodeNr;
+    }
+
+    /*@NotNull*/ protected TinyNodeImpl makeNode(int nodeNr) {
+        if (nodeNr == startNodeNr && startNode != null) {
+            return startNode;
+        }
+        return tree.getNode(nodeNr);
     }
 
     /**
@@ -76,7 +111,11 @@ final class DescendantEnumeration extends AxisIteratorImpl {
     */
 
     /*@NotNull*/ public AxisIterator getAnother() {
-        return new DescendantEnumeration(tree, startNode, test, includeSelf);
+        if (startNode == null) {
+            return new DescendantEnumeration(tree, startNodeNr, test, includeSelf);
+        } else {
+            return new DescendantEnumeration(tree, startNode, test, includeSelf);
+        }
     }
 }
 
@@ -0,0 +1,87 @@
+package net.sf.saxon.tree.tiny;
+
+import net.sf.saxon.expr.LastPositionFinder;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.iter.LookaheadIterator;
+
+/**
+ * This class enumerates a contiguous slice of an array of node numbers, all belonging to the same
+ * TinyTree. The node numbers must be in document order. The NodeInfo object for each node is
+ * created only when it is requested, so holding the array costs four bytes per node.
+ * It is used to deliver the results of the element-name index held by a {@link TinyDocumentImpl}.
+ */
+
+final class NodeArrayEnumeration extends NodeNumberEnumeration implements LookaheadIterator, LastPositionFinder {
+
+    private int[] nodes;
+    private int start;
+    private int end;
+    private int index;
+
+    /**
+     * Create an iterator over a slice of an array of node numbers
+     * @param tree the TinyTree containing the nodes
+     * @param nodes the array of node numbers, in document order
+     * @param start the position in the array of the first node to be returned
+     * @param end the position in the array after the last node to be returned
+     */
+
+    NodeArrayEnumeration(/*@NotNull*/ TinyTree tree, /*@NotNull*/ int[] nodes, int start, int end) {
+        super(tree);
+        this.nodes = nodes;
+        this.start = start;
+        this.end = end;
+        index = start;
+    }
+
+    protected int advance() {
+        return (index < end ? nodes[index++] : -1);
+    }
+
+    /**
+     * Test whether there are any more nodes to come
+     * @return true if there are more nodes
+     */
+
+    public boolean hasNext() {
+        return index < end;
+    }
+
+    /**
+     * Get the number of nodes in the sequence
+     * @return the number of nodes in the slice
+     */
+
+    public int getLength() {
+        return end - start;
+    }
+
+    /**
+    * Get another enumeration of the same nodes
+    */
+
+    /*@NotNull*/ public AxisIterator getAnother() {
+        return new NodeArrayEnumeration(tree, nodes, start, end);
+    }
+
+    public int getProperties() {
+        return LOOKAHEAD | LAST_POSITION_FINDER;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
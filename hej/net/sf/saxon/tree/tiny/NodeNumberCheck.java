@@ -0,0 +1,167 @@
+package net.sf.saxon.tree.tiny;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.Builder;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.query.DynamicQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.util.FastStringBuffer;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * A command-line driver that checks and measures navigation of a TinyTree by node number (see
+ * {@link NodeNumberEnumeration}). It is not used by Saxon itself; it is run as part of the regression
+ * tests, and can be run with a larger document to measure performance.
+ */
+
+public final class NodeNumberCheck {
+
+    private NodeNumberCheck() {}
+
+    /**
+     * Run the check. Each query is evaluated against the same document
+     * built both as a TinyTree and as a linked tree: the linked tree does not use node numbers, so its
+     * results act as the reference. The queries exercise the paths that navigate by node number: path
+     * expressions (SlashExpression), count(), exists(), empty(), constant positional filters
+     * (SubsequenceIterator), and atomization. For the TinyTree, the time and (where the JVM can report it)
+     * the memory allocated per evaluation are shown. The process exits with status 1 if any results differ.
+     * Usage: java net.sf.saxon.tree.tiny.NodeNumberCheck [numberOfElements [repeats]]
+     * @param args the number of <code>a</code> elements in the test document (each has five <code>b</code>
+     * children with one <code>c</code> child each), and the number of timed evaluations of each query
+     * @throws Exception if anything goes wrong
+     */
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+        int repeats = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+        String[] queries = {
+                "count(/root/a/b)",
+                "count(/root/a/b/c)",
+                "exists(/root/a/b/zz)",
+                "empty(/root/a/b/zz)",
+                "exists(/root/a/b/c)",
+                "count(data(/root/a/b/c))",
+                "sum(/root/a/b/c/string-length())",
+                "count(//c)",
+                "count(/root/a[10]/descendant::node())",
+                "string-join((/root/a/b)[7]/c/string(), ',')",
+                "string-join(/root/a[5]/b/c, '|')",
+                "for $a in /root/a[position() le 3] return $a/b[2]/c/@n/string()",
+                "(/root/a/b/c)[last()]/@n/string()"
+        };
+
+        FastStringBuffer sb = new FastStringBuffer(size * 100);
+        sb.append("<root>");
+        for (int i = 0; i < size; i++) {
+            sb.append("<a>");
+            for (int j = 0; j < 5; j++) {
+                sb.append("<b><c n='" + i + "." + j + "'>" + (i * 5 + j) + "</c></b>");
+            }
+            sb.append("</a>");
+        }
+        sb.append("</root>");
+        String xml = sb.toString();
+
+        Configuration tinyConfig = new Configuration();
+        DocumentInfo tinyDoc = tinyConfig.buildDocument(new StreamSource(new StringReader(xml)));
+        Configuration linkedConfig = new Configuration();
+        linkedConfig.setTreeModel(Builder.LINKED_TREE);
+        DocumentInfo linkedDoc = linkedConfig.buildDocument(new StreamSource(new StringReader(xml)));
+
+        // The allocation counter is not part of the standard ThreadMXBean interface
+        Object threadBean = ManagementFactory.getThreadMXBean();
+        Method allocated = null;
+        try {
+            allocated = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            // no action: allocation is not reported
+        }
+        long thread = Thread.currentThread().getId();
+
+        boolean ok = true;
+        for (String query : queries) {
+            String expected = evaluate(linkedConfig, linkedDoc, query);
+            XQueryExpression exp = tinyConfig.newStaticQueryContext().compileQuery(query);
+            DynamicQueryContext dqc = new DynamicQueryContext(tinyConfig);
+            dqc.setContextItem(tinyDoc);
+            String actual = show(exp.iterator(dqc));
+            for (int i = 0; i < repeats; i++) {
+                run(exp, dqc);      // warm-up
+            }
+            long a0 = (allocated == null ? 0 : (Long)allocated.invoke(threadBean, thread));
+            long t0 = System.nanoTime();
+            for (int i = 0; i < repeats; i++) {
+                run(exp, dqc);
+            }
+            long t1 = System.nanoTime();
+            long a1 = (allocated == null ? 0 : (Long)allocated.invoke(threadBean, thread));
+            boolean same = actual.equals(expected);
+            ok &= same;
+            System.err.println((same ? "OK   " : "FAIL ") + query +
+                    "  time: " + ((t1 - t0) / repeats / 1000) + "us" +
+                    (allocated == null ? "" : "  allocated: " + ((a1 - a0) / repeats / 1024) + "Kb"));
+            if (!same) {
+                System.err.println("  TinyTree:    " + actual);
+                System.err.println("  linked tree: " + expected);
+            }
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    private static String evaluate(Configuration config, DocumentInfo doc, String query) throws XPathException {
+        XQueryExpression exp = config.newStaticQueryContext().compileQuery(query);
+        DynamicQueryContext dqc = new DynamicQueryContext(config);
+        dqc.setContextItem(doc);
+        return show(exp.iterator(dqc));
+    }
+
+    private static void run(XQueryExpression exp, DynamicQueryContext dqc) throws XPathException {
+        SequenceIterator iter = exp.iterator(dqc);
+        while (iter.next() != null) {
+            // no action
+        }
+    }
+
+    private static String show(SequenceIterator iter) throws XPathException {
+        FastStringBuffer sb = new FastStringBuffer(256);
+        while (true) {
+            Item item = iter.next();
+            if (item == null) {
+                return sb.toString();
+            }
+            if (item instanceof NodeInfo) {
+                sb.append(((NodeInfo)item).getDisplayName());
+                sb.append('=');
+            }
+            sb.append(item.getStringValueCS());
+            sb.append(' ');
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
\ No newline at end of file
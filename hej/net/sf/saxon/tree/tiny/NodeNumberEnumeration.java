@@ -0,0 +1,152 @@
+package net.sf.saxon.tree.tiny;
+
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.iter.AxisIteratorImpl;
+import net.sf.saxon.value.Value;
+
+/**
+ * Abstract superclass for iterators over nodes in a TinyTree that advance by node number.
+ * A subclass supplies the next node number; this class maintains the position, and creates
+ * the NodeInfo object for a node only when the caller asks for it by calling {@link #next()} or
+ * {@link #current()}. A caller that uses {@link #moveNext()} together with {@link #atomize()},
+ * {@link #getStringValue()} or {@link #iterateAxis} can therefore process the nodes without
+ * instantiating them, which matters for operations such as count(), exists(), atomization,
+ * and intermediate steps in a path expression.
+ */
+
+abstract class NodeNumberEnumeration extends AxisIteratorImpl {
+
+    protected TinyTree tree;
+    protected int currentNodeNr = -1;
+
+    /**
+     * Create an iterator over nodes in a given tree
+     * @param tree the TinyTree containing the nodes
+     */
+
+    protected NodeNumberEnumeration(/*@NotNull*/ TinyTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Advance to the next node in the sequence, without instantiating it. This method may be called
+     * again after it has returned -1, and must then continue to return -1.
+     * @return the node number of the next node, or -1 if there are no more nodes
+     */
+
+    protected abstract int advance();
+
+    /**
+     * Instantiate a node. The default implementation gets the node from the tree; subclasses may
+     * override this, for example to reuse a node object that is already known.
+     * @param nodeNr the node number
+     * @return the node object for the node with this number
+     */
+
+    /*@NotNull*/ protected TinyNodeImpl makeNode(int nodeNr) {
+        return tree.getNode(nodeNr);
+    }
+
+    public final boolean moveNext() {
+        current = null;
+        int nr = advance();
+        if (nr < 0) {
+            currentNodeNr = -1;
+            position = -1;
+            return false;
+        }
+        currentNodeNr = nr;
+        position++;
+        return true;
+    }
+
+    /*@Nullable*/ public final NodeInfo next() {
+        if (moveNext()) {
+            return (current = makeNode(currentNodeNr));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get the current node in the sequence.
+     * @return the node returned by the most recent call on next(), or the one on which we have positioned
+     * using moveNext().
+     */
+
+    /*@Nullable*/ public final NodeInfo current() {
+        if (current == null && currentNodeNr >= 0) {
+            current = makeNode(currentNodeNr);
+        }
+        return current;
+    }
+
+    /**
+     * Return the atomized value of the current node. This is achieved in common cases without
+     * actually instantiating the NodeInfo object
+     * @return the atomized value.
+     * @throws NullPointerException if there is no current node
+     */
+
+    public Value atomize() throws XPathException {
+        if (currentNodeNr < 0) {
+            throw new NullPointerException();
+        }
+        return tree.atomizeNode(currentNodeNr);
+    }
+
+    /**
+     * Return the string value of the current node. This is achieved in common cases without
+     * actually instantiating the NodeInfo object
+     * @return the string value, as an instance of CharSequence.
+     * @throws NullPointerException if there is no current node
+     */
+
+    public CharSequence getStringValue() {
+        if (currentNodeNr < 0) {
+            throw new NullPointerException();
+        }
+        return tree.getStringValueOfNode(currentNodeNr);
+    }
+
+    /**
+     * Return an iterator over an axis, starting at the current node. For the common downward axes,
+     * this is achieved without instantiating the NodeInfo object for the current node.
+     * @param axis the axis to iterate over, using a constant such as
+     *             {@link net.sf.saxon.om.Axis#CHILD}
+     * @param test a predicate to apply to the nodes before returning them.
+     * @throws NullPointerException if there is no current node
+     */
+
+    public AxisIterator iterateAxis(byte axis, NodeTest test) {
+        if (currentNodeNr < 0) {
+            throw new NullPointerException();
+        }
+        AxisIterator iter = tree.iterateAxis(currentNodeNr, axis, test);
+        if (iter == null) {
+            //noinspection ConstantConditions
+            iter = current().iterateAxis(axis, test);
+        }
+        return iter;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
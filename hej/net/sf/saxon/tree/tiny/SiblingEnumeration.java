@@ -7,7 +7,6 @@ import net.sf.saxon.tree.iter.AxisIterator;
 import net.sf.saxon.tree.iter.AxisIteratorImpl;
 import net.sf.saxon.tree.iter.LookaheadIterator;
 import net.sf.saxon.type.Type;
-import net.sf.saxon.value.UntypedAtomicValue;
 import net.sf.saxon.value.Value;
 
 /**
@@ -27,8 +26,9 @@ final class SiblingEnumeration extends AxisIteratorImpl implements LookaheadIter
     private TinyTree tree;
     private int nextNodeNr;
     /*@Nullable*/ private NodeTest test;
-    private TinyNodeImpl startNode;
-    private TinyNodeImpl parentNode;
+    /*@Nullable*/ private TinyNodeImpl startNode;
+    private int startNodeNr;
+    /*@Nullable*/ private TinyNodeImpl parentNode;
     private boolean getChildren;
     private boolean needToAdvance = false;
 
@@ -47,12 +47,16 @@ final class SiblingEnumeration extends AxisIteratorImpl implements LookaheadIter
         this.tree = tree;
         test = nodeTest;
         startNode = node;
+        startNodeNr = node.nodeNr;
         this.getChildren = getChildren;
         if (getChildren) {          // child:: axis
             parentNode = node;
             // move to first child
             // ASSERT: we don't invoke this code unless the node has children
             nextNodeNr = node.nodeNr + 1;
+            if (!mayHaveChildren(tree, node.nodeNr, nodeTest)) {
+                nextNodeNr = -1;
+            }
 
         } else {                    // following-sibling:: axis
             parentNode = (TinyNodeImpl)node.getParent();
@@ -80,6 +84,42 @@ final class SiblingEnumeration extends AxisIteratorImpl implements LookaheadIter
         }
     }
 
+    /**
+     * Return an enumeration over the children of a node identified by its node number. This avoids
+     * instantiating the parent node; the nodes returned will locate their parent on demand.
+     * @param tree The TinyTree containing the parent node
+     * @param parentNr The node number of the parent node, which must have at least one child
+     * @param nodeTest Test that the selected nodes must satisfy, or null indicating
+     * that all nodes are selected
+     */
+
+    SiblingEnumeration(/*@NotNull*/ TinyTree tree, int parentNr, /*@Nullable*/ NodeTest nodeTest) {
+        this.tree = tree;
+        test = nodeTest;
+        startNodeNr = parentNr;
+        getChildren = true;
+        nextNodeNr = parentNr + 1;
+        if (!mayHaveChildren(tree, parentNr, nodeTest)) {
+            nextNodeNr = -1;
+        } else if (nodeTest != null && !nodeTest.matches(tree, nextNodeNr)) {
+            needToAdvance = true;
+        }
+    }
+
+    /**
+     * Use the name summary of the tree, if there is one, to decide whether a node can have any children
+     * that satisfy a node test
+     * @param tree the TinyTree containing the parent node
+     * @param parentNr the node number of the parent node
+     * @param nodeTest the node test, or null if all nodes are selected
+     * @return false if the name summary shows that no child of the node can satisfy the node test
+     */
+
+    private static boolean mayHaveChildren(TinyTree tree, int parentNr, /*@Nullable*/ NodeTest nodeTest) {
+        int fingerprint = tree.getNameSummaryFingerprint(nodeTest);
+        return fingerprint == -1 || tree.mayHaveDescendantNamed(parentNr, fingerprint);
+    }
+
     public boolean moveNext() {
          // if needToAdvance == false, nextNodeNr already identifies the correct node.
         current = null;
@@ -211,28 +251,10 @@ final class SiblingEnumeration extends AxisIteratorImpl implements LookaheadIter
      */
 
     public Value atomize() throws XPathException {
-        int kind;
-        try {
-            kind = tree.nodeKind[nextNodeNr];
-        } catch (ArrayIndexOutOfBoundsException err) {
+        if (nextNodeNr < 0) {
             throw new NullPointerException();
         }
-        switch (kind) {
-            case Type.TEXT: {
-                return new UntypedAtomicValue(TinyTextImpl.getStringValue(tree, nextNodeNr));
-            }
-            case Type.WHITESPACE_TEXT: {
-                return new UntypedAtomicValue(WhitespaceTextImpl.getStringValueCS(tree, nextNodeNr));
-            }
-            case Type.ELEMENT: {
-                return tree.getTypedValueOfElement(nextNodeNr);
-            }
-            case Type.COMMENT:
-            case Type.PROCESSING_INSTRUCTION:
-                return tree.getAtomizedValueOfUntypedNode(nextNodeNr);
-            default:
-                return current().atomize();
-        }
+        return tree.atomizeNode(nextNodeNr);
     }
 
     /**
@@ -243,25 +265,31 @@ final class SiblingEnumeration extends AxisIteratorImpl implements LookaheadIter
      */
 
     public CharSequence getStringValue() {
-        int kind;
-        try {
-            kind = tree.nodeKind[nextNodeNr];
-        } catch (ArrayIndexOutOfBoundsException err) {
+        if (nextNodeNr < 0) {
             throw new NullPointerException();
         }
-        switch (kind) {
-            case Type.TEXT: {
-                return TinyTextImpl.getStringValue(tree, nextNodeNr);
-            }
-            case Type.WHITESPACE_TEXT: {
-                return WhitespaceTextImpl.getStringValueCS(tree, nextNodeNr);
-            }
-            case Type.ELEMENT: {
-                return TinyParentNodeImpl.getStringValueCS(tree, nextNodeNr);
-            }
-            default:
-                return current().getStringValueCS();
+        return tree.getStringValueOfNode(nextNodeNr);
+    }
+
+    /**
+     * Return an iterator over an axis, starting at the current node. For the common downward axes,
+     * this is achieved without instantiating the NodeInfo object for the current node.
+     * @param axis the axis to iterate over, using a constant such as
+     *             {@link net.sf.saxon.om.Axis#CHILD}
+     * @param test a predicate to apply to the nodes before returning them.
+     * @throws NullPointerException if there is no current node
+     */
+
+    public AxisIterator iterateAxis(byte axis, NodeTest test) {
+        if (nextNodeNr < 0) {
+            throw new NullPointerException();
         }
+        AxisIterator iter = tree.iterateAxis(nextNodeNr, axis, test);
+        if (iter == null) {
+            //noinspection ConstantConditions
+            iter = current().iterateAxis(axis, test);
+        }
+        return iter;
     }
 
     /**
@@ -269,7 +297,11 @@ final class SiblingEnumeration extends AxisIteratorImpl implements LookaheadIter
     */
 
     /*@NotNull*/ public AxisIterator getAnother() {
-        return new SiblingEnumeration(tree, startNode, test, getChildren);
+        if (startNode == null) {
+            return new SiblingEnumeration(tree, startNodeNr, test);
+        } else {
+            return new SiblingEnumeration(tree, startNode, test, getChildren);
+        }
     }
 
     public int getProperties() {
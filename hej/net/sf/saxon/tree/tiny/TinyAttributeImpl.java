@@ -62,11 +62,12 @@ final class TinyAttributeImpl extends TinyNodeImpl {
     */
 
     protected long getSequenceNumber() {
-        //noinspection ConstantConditions
+        // the parent is always an element, whose sequence number is computed here without instantiating it
+        int parentNr = tree.attParent[nodeNr];
         return
-            ((TinyNodeImpl)getParent()).getSequenceNumber()
+            ((long)parentNr << 32)
             + 0x8000 +
-            (nodeNr - tree.alpha[tree.attParent[nodeNr]]);
+            (nodeNr - tree.alpha[parentNr]);
         // note the 0x8000 is to leave room for namespace nodes
     }
 
@@ -31,6 +31,7 @@ public class TinyBuilder extends Builder {
     private int nodeNr = 0;             // this is the local sequence within this document
     private boolean ended = false;
     /*@Nullable*/ private int[] sizeParams;       // estimate of number of nodes, attributes, namespaces, characters
+    /*@Nullable*/ private Boolean nameSummary = null;
 
     /**
      * Create a TinyTree builder
@@ -53,6 +54,18 @@ public class TinyBuilder extends Builder {
         sizeParams = params;
     }
 
+    /**
+     * Say whether the tree is to hold a summary of the names of the elements contained by each element,
+     * which is used to skip subtrees when searching the child and descendant axes for named elements.
+     * If this method is not called, the setting in the Configuration is used.
+     * @param summary true if the name summary is to be built when the tree is closed, false if it is
+     * not to be built even if the Configuration requests it
+     */
+
+    public void setNameSummary(boolean summary) {
+        nameSummary = summary;
+    }
+
     /**
      * Get the size parameters for the tree
      * @return an array of four integers giving the actual number of non-attribute nodes, the actual
@@ -200,6 +213,9 @@ public class TinyBuilder extends Builder {
         if (tt != null) {
             tt.addNode(Type.STOPPER, 0, 0, 0, -1);
             tt.condense();
+            if (nameSummary == null ? config.isTinyTreeNameSummary() : nameSummary) {
+                tt.buildNameSummary();
+            }
         }
         super.close();
     }
@@ -285,6 +301,58 @@ public class TinyBuilder extends Builder {
         }
     }
 
+    /**
+     * Copy an element subtree from another TinyTree into the tree being built, as the next child of the
+     * current element or document node. The subtree is copied as a block of array entries rather than
+     * as a sequence of events. This is possible only if the result is the same as if the events had been
+     * sent: the two trees must share a NamePool, the source tree must use no namespaces and carry
+     * no type annotations, and line numbers must not be required. The caller is responsible
+     * for ensuring that no namespace fixup is needed at the point where the subtree is added.
+     * @param source the tree containing the element to be copied
+     * @param root the node number of the element in the source tree
+     * @param locationId the location of the instruction performing the copy
+     * @return true if the subtree has been copied; false if the copy must be made by sending events
+     */
+
+    public boolean copySubtree(/*@NotNull*/ TinyTree source, int root, int locationId) {
+        TinyTree tt = tree;
+        if (tt == null || tt == source || currentDepth == 0 || lineNumbering ||
+                source.getNamePool() != namePool || source.usesNamespaces ||
+                source.typeCodeArray != null || source.attTypeCode != null) {
+            return false;
+        }
+
+        if (siblingsAtDepth[currentDepth] > PARENT_POINTER_INTERVAL) {
+            nodeNr = tt.addNode(Type.PARENT_POINTER, currentDepth, prevAtDepth[currentDepth-1], 0, 0);
+            int prev = prevAtDepth[currentDepth];
+            if (prev > 0) {
+                tt.next[prev] = nodeNr;
+            }
+            tt.next[nodeNr] = prevAtDepth[currentDepth-1];
+            prevAtDepth[currentDepth] = nodeNr;
+            siblingsAtDepth[currentDepth] = 0;
+        }
+
+        assert currentRoot != null;
+        nodeNr = tt.copySubtree(source, root, currentDepth, currentRoot);
+
+        int prev = prevAtDepth[currentDepth];
+        if (prev > 0) {
+            tt.next[prev] = nodeNr;
+        }
+        tt.next[nodeNr] = prevAtDepth[currentDepth - 1];   // *O* owner pointer in last sibling
+        prevAtDepth[currentDepth] = nodeNr;
+        siblingsAtDepth[currentDepth]++;
+
+        LocationProvider locator = pipe.getLocationProvider();
+        if (locator instanceof SourceLocationProvider) {
+            tt.setSystemId(nodeNr, locator.getSystemId(locationId));
+        } else if (currentDepth == 1) {
+            tt.setSystemId(nodeNr, systemId);
+        }
+        return true;
+    }
+
     public void namespace(NamespaceBinding namespaceBinding, int properties) throws XPathException {
         assert tree != null;
         tree.addNamespace(nodeNr, namespaceBinding);
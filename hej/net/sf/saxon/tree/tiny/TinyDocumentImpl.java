@@ -2,12 +2,12 @@ package net.sf.saxon.tree.tiny;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.event.Receiver;
-import net.sf.saxon.expr.sort.IntHashMap;
 import net.sf.saxon.om.*;
 import net.sf.saxon.pattern.NodeKindTest;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.expr.sort.IntArraySet;
 import net.sf.saxon.tree.iter.AxisIterator;
-import net.sf.saxon.tree.iter.AxisIteratorOverSequence;
+import net.sf.saxon.tree.iter.EmptyAxisIterator;
 import net.sf.saxon.tree.iter.SingletonIterator;
 import net.sf.saxon.tree.util.FastStringBuffer;
 import net.sf.saxon.type.AnyType;
@@ -19,6 +19,7 @@ import net.sf.saxon.value.UntypedAtomicValue;
 import net.sf.saxon.value.Value;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -30,7 +31,7 @@ public final class TinyDocumentImpl extends TinyParentNodeImpl
     implements DocumentInfo {
 
     private HashMap<String, NodeInfo> idTable;
-    private IntHashMap<List<TinyElementImpl>> elementList;
+    private final ConcurrentHashMap<Integer, int[]> elementList = new ConcurrentHashMap<Integer, int[]>(20);
     private HashMap<String, String[]> entityTable;
     private HashMap<String, Object> userData;
     private String baseURI;
@@ -207,25 +208,79 @@ public final class TinyDocumentImpl extends TinyParentNodeImpl
      */
 
     /*@NotNull*/ AxisIterator getAllElements(int fingerprint) {
-    	if (elementList==null) {
-    	    elementList = new IntHashMap<List<TinyElementImpl>>(20);
-    	}
-        List<TinyElementImpl> list = elementList.get(fingerprint);
-        if (list==null) {
-            list = getElementList(fingerprint);
-            elementList.put(fingerprint, list);
+        int[] nodes = getElementNumbers(fingerprint);
+        return new NodeArrayEnumeration(tree, nodes, 0, nodes.length);
+    }
+
+    /**
+     * Get all the elements with a given name that are descendants of a given node in this document.
+     * This uses the same memo as {@link #getAllElements}, locating the descendants by binary search.
+     * @param nodeNr the node number of an element or document node within this document
+     * @param fingerprint the fingerprint identifying the required element name
+     * @return an iterator over the descendant elements with this name, in document order
+     */
+
+    /*@NotNull*/ AxisIterator getDescendantElements(int nodeNr, int fingerprint) {
+        int[] nodes = getElementNumbers(fingerprint);
+        int from = Arrays.binarySearch(nodes, nodeNr + 1);
+        if (from < 0) {
+            from = -from - 1;
         }
-        return new AxisIteratorOverSequence<TinyElementImpl>(
-                new net.sf.saxon.tree.iter.ListIterator<TinyElementImpl>(list));
+        int boundary = tree.getNextSubtreeBoundary(nodeNr);
+        int to;
+        if (boundary == Integer.MAX_VALUE) {
+            to = nodes.length;
+        } else {
+            to = Arrays.binarySearch(nodes, from, nodes.length, boundary);
+            if (to < 0) {
+                to = -to - 1;
+            }
+        }
+        if (from >= to) {
+            return EmptyAxisIterator.emptyAxisIterator();
+        }
+        return new NodeArrayEnumeration(tree, nodes, from, to);
     }
 
     /**
-     * Get a list containing all the elements with a given element name
+     * Ask whether the index of elements with a given name has already been built. If it has,
+     * searching it is cheaper than scanning a subtree of any size.
+     * @param fingerprint the fingerprint identifying the required element name
+     * @return true if the index for this element name exists
+     */
+
+    boolean isElementListIndexed(int fingerprint) {
+        return elementList.containsKey(fingerprint);
+    }
+
+    /**
+     * Get the node numbers of all the elements with a given element name, in document order.
+     * The array is built the first time it is requested, and is then shared by all threads:
+     * it must not be modified by the caller.
+     * @param fingerprint the fingerprint of the element name
+     * @return the node numbers of the elements with this name
+     */
+
+    /*@NotNull*/ private int[] getElementNumbers(int fingerprint) {
+        int[] nodes = elementList.get(fingerprint);
+        if (nodes == null) {
+            // Two threads may build the same list concurrently; only one copy is retained
+            nodes = getElementList(fingerprint);
+            int[] existing = elementList.putIfAbsent(fingerprint, nodes);
+            if (existing != null) {
+                nodes = existing;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Get an array containing the node numbers of all the elements with a given element name
      * @param fingerprint the fingerprint of the element name
-     * @return list a List containing the TinyElementImpl objects
+     * @return the node numbers of the matching elements, in document order
      */
 
-    /*@NotNull*/ List<TinyElementImpl> getElementList(int fingerprint) {
+    /*@NotNull*/ int[] getElementList(int fingerprint) {
         int size = tree.getNumberOfNodes()/20;
         if (size > 100) {
             size = 100;
@@ -233,23 +288,28 @@ public final class TinyDocumentImpl extends TinyParentNodeImpl
         if (size < 20) {
             size = 20;
         }
-        ArrayList<TinyElementImpl> list = new ArrayList<TinyElementImpl>(size);
+        int[] list = new int[size];
+        int used = 0;
+        final byte[] kind = tree.nodeKind;
+        final short[] depth = tree.depth;
+        final int[] nameCode = tree.nameCode;
         int i = nodeNr+1;
         try {
-            while (tree.depth[i] != 0) {
-                if (tree.nodeKind[i]==Type.ELEMENT &&
-                        (tree.nameCode[i] & 0xfffff) == fingerprint) {
-                    list.add((TinyElementImpl)tree.getNode(i));
+            while (depth[i] != 0) {
+                if (kind[i]==Type.ELEMENT &&
+                        (nameCode[i] & 0xfffff) == fingerprint) {
+                    if (used == list.length) {
+                        list = Arrays.copyOf(list, used * 2);
+                    }
+                    list[used++] = i;
                 }
                 i++;
             }
         } catch (ArrayIndexOutOfBoundsException e) {
             // this shouldn't happen. If it does happen, it means the tree wasn't properly closed
             // during construction (there is no stopper node at the end). In this case, we'll recover
-            return list;
         }
-        list.trimToSize();
-        return list;
+        return (used == 0 ? IntArraySet.EMPTY_INT_ARRAY : Arrays.copyOf(list, used));
     }
 
     /**
@@ -272,6 +332,15 @@ public final class TinyDocumentImpl extends TinyParentNodeImpl
 
     }
 
+    /**
+     * Get the table of IDs registered for this document
+     * @return a map from ID values to elements, or null if no IDs have been registered
+     */
+
+    /*@Nullable*/ Map<String, NodeInfo> getIdTable() {
+        return idTable;
+    }
+
     /**
     * Get the element with a given ID.
     * @param id The unique ID of the required element, previously registered using registerID()
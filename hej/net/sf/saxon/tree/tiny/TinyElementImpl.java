@@ -1,6 +1,7 @@
 package net.sf.saxon.tree.tiny;
 
 import net.sf.saxon.Configuration;
+import net.sf.saxon.event.ComplexContentOutputter;
 import net.sf.saxon.event.CopyInformee;
 import net.sf.saxon.event.CopyNamespaceSensitiveException;
 import net.sf.saxon.event.Receiver;
@@ -244,6 +245,15 @@ public final class TinyElementImpl extends TinyParentNodeImpl {
         int next = nodeNr;
         CopyInformee informee = (CopyInformee)receiver.getPipelineConfiguration().getComponent(CopyInformee.class.getName());
 
+        // If the copy is being added to another TinyTree and needs no namespace fixup or type annotations,
+        // copy the arrays that represent the subtree rather than sending events
+        if (receiver instanceof ComplexContentOutputter && informee == null && !tree.usesNamespaces) {
+            Receiver target = ((ComplexContentOutputter)receiver).getReceiverForNoNamespaceSubtree();
+            if (target instanceof TinyBuilder && ((TinyBuilder)target).copySubtree(tree, nodeNr, locationId)) {
+                return;
+            }
+        }
+
 		// document.diagnosticDump();
 
         do {
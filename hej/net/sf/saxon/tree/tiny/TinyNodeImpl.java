@@ -369,6 +369,15 @@ public abstract class TinyNodeImpl implements NodeInfo, FingerprintedNode, Sourc
                         nodeTest instanceof NameTest &&
                         nodeTest.getPrimitiveType() == Type.ELEMENT) {
                     return ((TinyDocumentImpl)this).getAllElements(nodeTest.getFingerprint());
+                } else if (type == Type.ELEMENT &&
+                        nodeTest instanceof NameTest &&
+                        nodeTest.getPrimitiveType() == Type.ELEMENT &&
+                        hasChildNodes()) {
+                    TinyDocumentImpl doc = getIndexedDocument(tree, nodeNr, nodeTest.getFingerprint());
+                    if (doc != null) {
+                        return doc.getDescendantElements(nodeNr, nodeTest.getFingerprint());
+                    }
+                    return new DescendantEnumeration(tree, this, nodeTest, false);
                 } else  if (hasChildNodes()) {
                     return new DescendantEnumeration(tree, this, nodeTest, false);
                 } else {
@@ -443,6 +452,37 @@ public abstract class TinyNodeImpl implements NodeInfo, FingerprintedNode, Sourc
         }
     }
 
+    /**
+     * Decide whether the descendants of a node having a given element name should be found using
+     * the element-name index of the containing document rather than by scanning the subtree. The index
+     * is used if it already exists, or if the subtree is large enough (a quarter of the document or more)
+     * that building the index costs little more than the scan would.
+     * @param tree the tree containing the node
+     * @param nodeNr the node number of the node whose descendants are required
+     * @param fingerprint the fingerprint of the required element name
+     * @return the containing document node, if its index is to be used; otherwise null
+     */
+
+    /*@Nullable*/ static TinyDocumentImpl getIndexedDocument(/*@NotNull*/ TinyTree tree, int nodeNr, int fingerprint) {
+        int root = tree.getRootNode(nodeNr);
+        if (tree.nodeKind[root] != Type.DOCUMENT) {
+            return null;
+        }
+        TinyDocumentImpl doc = (TinyDocumentImpl)tree.getNode(root);
+        if (doc.isElementListIndexed(fingerprint)) {
+            return doc;
+        }
+        int boundary = tree.getNextSubtreeBoundary(nodeNr);
+        int docSize = tree.getNextSubtreeBoundary(root);
+        if (docSize == Integer.MAX_VALUE) {
+            docSize = tree.numberOfNodes;
+        }
+        if (boundary == Integer.MAX_VALUE) {
+            boundary = docSize;
+        }
+        return ((boundary - nodeNr) * 4 >= docSize - root ? doc : null);
+    }
+
     /**
      * Find the parent node of this node.
      *
@@ -0,0 +1,342 @@
+package net.sf.saxon.tree.tiny;
+
+import net.sf.saxon.expr.ItemMappingFunction;
+import net.sf.saxon.expr.ItemMappingIterator;
+import net.sf.saxon.expr.sort.RadixSorter;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.iter.AxisIteratorImpl;
+
+import java.util.List;
+
+/**
+ * A set of nodes belonging to a single TinyTree, held as a bit set over node numbers, together with a
+ * second bit set over attribute numbers if the set contains attributes. This allows the union, intersection
+ * and difference of large node-sets to be computed without comparing nodes one pair at a time, and the
+ * members of the set to be delivered in document order without sorting. Where the nodes are supplied
+ * by an iterator that navigates the tree by node number, they are added to the set without being instantiated.
+ *
+ * <p>The class also provides a method to sort a sequence of nodes from a single TinyTree into document
+ * order using a radix sort on the node sequence numbers.</p>
+ */
+
+public final class TinyNodeSet {
+
+    private TinyTree tree;
+    private long[] nodes;
+    /*@Nullable*/ private long[] attributes = null;
+
+    private TinyNodeSet(TinyTree tree) {
+        this.tree = tree;
+        nodes = new long[(tree.numberOfNodes + 63) >> 6];
+    }
+
+    /**
+     * Create an empty node-set to hold nodes in the same tree as a given node
+     * @param first a node that will be added to the set
+     * @return an empty node-set, or null if the node is not in a TinyTree
+     */
+
+    /*@Nullable*/ public static TinyNodeSet makeNodeSet(Item first) {
+        if (first instanceof TinyNodeImpl) {
+            return new TinyNodeSet(((TinyNodeImpl)first).tree);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Add a node to the set
+     * @param item the node to be added
+     * @return true if the node was added; false if the item is not a node in the same TinyTree as this node-set
+     */
+
+    private boolean add(Item item) {
+        if (!(item instanceof TinyNodeImpl)) {
+            return false;
+        }
+        TinyNodeImpl node = (TinyNodeImpl)item;
+        if (node.tree != tree) {
+            return false;
+        }
+        int nr = node.nodeNr;
+        if (node instanceof TinyAttributeImpl) {
+            if (attributes == null) {
+                attributes = new long[(tree.numberOfAttributes + 63) >> 6];
+            }
+            attributes[nr >> 6] |= (1L << nr);
+        } else {
+            nodes[nr >> 6] |= (1L << nr);
+        }
+        return true;
+    }
+
+    /**
+     * Add nodes to the set
+     * @param items the nodes to be added
+     * @return true if all the nodes were added; false if any item is not a node in the same TinyTree
+     * as this node-set, in which case the contents of the set are unpredictable
+     */
+
+    public boolean addAll(/*@NotNull*/ List<Item> items) {
+        for (int i=0; i<items.size(); i++) {
+            if (!add(items.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add all the remaining nodes delivered by an iterator to the set
+     * @param iter the iterator delivering the nodes to be added. This is consumed.
+     * @return true if all the nodes were added; false if any item is not a node in the same TinyTree
+     * as this node-set, in which case the contents of the set are unpredictable
+     * @throws XPathException if a dynamic error occurs evaluating the sequence
+     */
+
+    public boolean addAll(/*@NotNull*/ SequenceIterator iter) throws XPathException {
+        if (iter instanceof NodeNumberEnumeration && ((NodeNumberEnumeration)iter).tree == tree) {
+            NodeNumberEnumeration e = (NodeNumberEnumeration)iter;
+            long[] bits = nodes;
+            while (e.moveNext()) {
+                int nr = e.currentNodeNr;
+                bits[nr >> 6] |= (1L << nr);
+            }
+            return true;
+        }
+        while (true) {
+            Item item = iter.next();
+            if (item == null) {
+                return true;
+            }
+            if (!add(item)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Test whether a given item is a member of the set
+     * @param item the item to be tested
+     * @return true if the item is a node in this set
+     */
+
+    public boolean contains(Item item) {
+        if (!(item instanceof TinyNodeImpl)) {
+            return false;
+        }
+        TinyNodeImpl node = (TinyNodeImpl)item;
+        if (node.tree != tree) {
+            return false;
+        }
+        int nr = node.nodeNr;
+        if (node instanceof TinyAttributeImpl) {
+            return attributes != null && (attributes[nr >> 6] & (1L << nr)) != 0;
+        } else {
+            return (nodes[nr >> 6] & (1L << nr)) != 0;
+        }
+    }
+
+    /**
+     * Select the items in a sequence that are members of this set, or that are not members
+     * @param base the input sequence
+     * @param members true to select the items that are members of this set, false to select those that are not
+     * @return an iterator over the selected items, in their original order
+     */
+
+    /*@NotNull*/ public SequenceIterator select(SequenceIterator base, final boolean members) {
+        if (base instanceof NodeNumberEnumeration && ((NodeNumberEnumeration)base).tree == tree) {
+            return new SelectingEnumeration((NodeNumberEnumeration)base, members);
+        }
+        ItemMappingFunction<Item, Item> filter = new ItemMappingFunction<Item, Item>() {
+            /*@Nullable*/ public Item mapItem(Item item) {
+                return (contains(item) == members ? item : null);
+            }
+        };
+        return new ItemMappingIterator<Item, Item>(base, filter);
+    }
+
+    /**
+     * Iterate over the nodes in the set, in document order. The NodeInfo objects are created
+     * only as the nodes are requested.
+     * @return an iterator over the nodes in the set
+     */
+
+    /*@NotNull*/ public AxisIterator iterate() {
+        if (attributes == null) {
+            return new MemberEnumeration();
+        } else {
+            return new MemberAndAttributeIterator();
+        }
+    }
+
+    /**
+     * Get the lowest node number in the set that is greater than or equal to a given node number
+     * @param bits the bit set
+     * @param from the node number at which to start searching
+     * @return the node number of the next member, or -1 if there is none
+     */
+
+    private static int nextSetBit(long[] bits, int from) {
+        int w = from >> 6;
+        if (w >= bits.length) {
+            return -1;
+        }
+        long word = bits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w >= bits.length) {
+                return -1;
+            }
+            word = bits[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Sort a sequence of nodes into document order, if all the nodes belong to the same TinyTree.
+     * The nodes are sorted using a radix sort on their sequence numbers. Duplicates are not removed,
+     * but will be in adjacent positions on return.
+     * @param items an array holding the nodes to be sorted, which is modified in situ
+     * @param length the number of nodes to be sorted, starting at position zero in the array
+     * @return true if the nodes have been sorted; false if they are not all nodes in the same
+     * TinyTree, in which case the array is unchanged
+     */
+
+    public static boolean sortInDocumentOrder(/*@NotNull*/ Item[] items, int length) {
+        if (length < 2) {
+            return true;
+        }
+        if (!(items[0] instanceof TinyNodeImpl)) {
+            return false;
+        }
+        TinyTree tree = ((TinyNodeImpl)items[0]).tree;
+        long[] keys = new long[length];
+        int[] positions = new int[length];
+        for (int i=0; i<length; i++) {
+            Item item = items[i];
+            if (!(item instanceof TinyNodeImpl) || ((TinyNodeImpl)item).tree != tree) {
+                return false;
+            }
+            keys[i] = ((TinyNodeImpl)item).getSequenceNumber();
+            positions[i] = i;
+        }
+        RadixSorter.sort(keys, positions, length);
+        Item[] original = new Item[length];
+        System.arraycopy(items, 0, original, 0, length);
+        for (int i=0; i<length; i++) {
+            items[i] = original[positions[i]];
+        }
+        return true;
+    }
+
+    /**
+     * Iterator over the members of a set that contains no attributes, in document order
+     */
+
+    private class MemberEnumeration extends NodeNumberEnumeration {
+
+        private int next = 0;
+
+        public MemberEnumeration() {
+            super(TinyNodeSet.this.tree);
+        }
+
+        protected int advance() {
+            if (next < 0) {
+                return -1;
+            }
+            int nr = nextSetBit(nodes, next);
+            next = (nr < 0 ? -1 : nr + 1);
+            return nr;
+        }
+
+        /*@NotNull*/ public AxisIterator getAnother() {
+            return new MemberEnumeration();
+        }
+    }
+
+    /**
+     * Iterator over the members of a set that contains attributes, in document order. An attribute is
+     * delivered after its parent element and before the next node in the tree.
+     */
+
+    private class MemberAndAttributeIterator extends AxisIteratorImpl {
+
+        private int nextNode = nextSetBit(nodes, 0);
+        @SuppressWarnings({"ConstantConditions"})
+        private int nextAttribute = nextSetBit(attributes, 0);
+
+        /*@Nullable*/ public NodeInfo next() {
+            if (nextAttribute >= 0 && (nextNode < 0 || tree.attParent[nextAttribute] < nextNode)) {
+                current = tree.getAttributeNode(nextAttribute);
+                //noinspection ConstantConditions
+                nextAttribute = nextSetBit(attributes, nextAttribute + 1);
+            } else if (nextNode >= 0) {
+                current = tree.getNode(nextNode);
+                nextNode = nextSetBit(nodes, nextNode + 1);
+            } else {
+                current = null;
+                position = -1;
+                return null;
+            }
+            position++;
+            return current;
+        }
+
+        /*@NotNull*/ public AxisIterator getAnother() {
+            return new MemberAndAttributeIterator();
+        }
+    }
+
+    /**
+     * Iterator that selects the nodes delivered by a base iterator that are members of the set, or that
+     * are not members, testing each node by its node number without instantiating it
+     */
+
+    private class SelectingEnumeration extends NodeNumberEnumeration {
+
+        private NodeNumberEnumeration base;
+        private boolean members;
+
+        public SelectingEnumeration(NodeNumberEnumeration base, boolean members) {
+            super(base.tree);
+            this.base = base;
+            this.members = members;
+        }
+
+        protected int advance() {
+            while (true) {
+                int nr = base.advance();
+                if (nr < 0 || ((nodes[nr >> 6] & (1L << nr)) != 0) == members) {
+                    return nr;
+                }
+            }
+        }
+
+        /*@NotNull*/ public AxisIterator getAnother() {
+            // every subclass of NodeNumberEnumeration delivers another instance of itself
+            return new SelectingEnumeration((NodeNumberEnumeration)base.getAnother(), members);
+        }
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
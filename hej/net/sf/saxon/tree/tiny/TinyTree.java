@@ -4,8 +4,12 @@ import net.sf.saxon.Configuration;
 import net.sf.saxon.event.ReceiverOptions;
 import net.sf.saxon.expr.sort.IntArraySet;
 import net.sf.saxon.om.*;
+import net.sf.saxon.pattern.NameTest;
+import net.sf.saxon.pattern.NodeTest;
 import net.sf.saxon.trans.Err;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.iter.AxisIterator;
+import net.sf.saxon.tree.iter.EmptyAxisIterator;
 import net.sf.saxon.tree.linked.SystemIdMap;
 import net.sf.saxon.tree.util.FastStringBuffer;
 import net.sf.saxon.type.*;
@@ -144,6 +148,11 @@ public final class TinyTree {
     /*@Nullable*/
     private SystemIdMap systemIdMap = null;
 
+    // nameSummary holds, for each node, a 64-bit Bloom filter of the fingerprints of the element nodes
+    // that are its descendants; it is constructed when the tree is closed, and only if requested
+    /*@Nullable*/
+    private long[] nameSummary = null;
+
     // a boolean that is set to true if the document declares a namespace other than the XML namespace
     protected boolean usesNamespaces = false;
 
@@ -237,10 +246,10 @@ public final class TinyTree {
 		return config.getNamePool();
 	}
 
-    private void ensureNodeCapacity(short kind) {
-        if (nodeKind.length < numberOfNodes+1) {
+    private void ensureNodeCapacity(short kind, int needed) {
+        if (nodeKind.length < numberOfNodes+needed) {
             //System.err.println("Number of nodes = " + numberOfNodes);
-            int k = (kind == Type.STOPPER ? numberOfNodes+1 : numberOfNodes*2);
+            int k = (kind == Type.STOPPER ? numberOfNodes+1 : Math.max(numberOfNodes*2, numberOfNodes+needed));
 
             byte[] nodeKind2 = new byte[k];
             int[] next2 = new int[k];
@@ -288,9 +297,9 @@ public final class TinyTree {
         }
     }
 
-    private void ensureAttributeCapacity() {
-        if (attParent.length < numberOfAttributes+1) {
-            int k = numberOfAttributes*2;
+    private void ensureAttributeCapacity(int needed) {
+        if (attParent.length < numberOfAttributes+needed) {
+            int k = Math.max(numberOfAttributes*2, numberOfAttributes+needed);
             if (k==0) {
                 k = 10;
             }
@@ -364,7 +373,7 @@ public final class TinyTree {
      * @return the node number of the node that was added
      */
     int addNode(short kind, int depth, int alpha, int beta, int nameCode) {
-        ensureNodeCapacity(kind);
+        ensureNodeCapacity(kind, 1);
         nodeKind[numberOfNodes] = (byte)kind;
         this.depth[numberOfNodes] = (short)depth;
         this.alpha[numberOfNodes] = alpha;
@@ -416,6 +425,131 @@ public final class TinyTree {
         return addNode(Type.TEXT, depth, alpha[existingNodeNr], beta[existingNodeNr], -1);
     }
 
+    /**
+     * Append a copy of an element subtree from another TinyTree, by copying slices of the arrays that
+     * represent it and adjusting the node numbers, depths, and offsets into the attribute and character arrays.
+     * The caller must ensure that the copy is equivalent to one made by sending events for the subtree to a
+     * TinyBuilder: in particular, both trees must use the same NamePool, and the source tree must have no
+     * namespaces or type annotations. Namespace declarations for the XML namespace are not copied. The next
+     * pointer of the copied element is left for the caller to set.
+     * @param source the tree containing the element to be copied, which must not be this tree
+     * @param root the node number of the element in the source tree
+     * @param newDepth the depth of the copied element in this tree, which must be at least one
+     * @param rootNode the root node of this tree, used to register any xml:id attributes if it is a document node
+     * @return the node number of the copied element in this tree
+     */
+
+    int copySubtree(/*@NotNull*/ TinyTree source, int root, int newDepth, /*@NotNull*/ NodeInfo rootNode) {
+        int end = source.getNextSubtreeBoundary(root);
+        if (end == Integer.MAX_VALUE) {
+            end = root + 1;
+            while (end < source.numberOfNodes && source.depth[end] > source.depth[root]) {
+                end++;
+            }
+        }
+        int count = end - root;
+        int start = numberOfNodes;
+        ensureNodeCapacity(Type.ELEMENT, count);
+        System.arraycopy(source.nodeKind, root, nodeKind, start, count);
+        System.arraycopy(source.depth, root, depth, start, count);
+        System.arraycopy(source.next, root, next, start, count);
+        System.arraycopy(source.alpha, root, alpha, start, count);
+        System.arraycopy(source.beta, root, beta, start, count);
+        System.arraycopy(source.nameCode, root, nameCode, start, count);
+        if (typeCodeArray != null) {
+            Arrays.fill(typeCodeArray, start, start+count, StandardNames.XS_UNTYPED);
+        }
+        if (typedValueArray != null) {
+            Arrays.fill(typedValueArray, start, start+count, null);
+        }
+
+        int nodeOffset = start - root;
+        int depthOffset = newDepth - source.depth[root];
+        int firstAttribute = -1;
+        int attributeOffset = 0;
+        int runStart = 0;   // the text in the source character buffer that is still to be appended
+        int runEnd = 0;
+        for (int i=start; i<start+count; i++) {
+            depth[i] += depthOffset;
+            if (next[i] >= 0) {
+                next[i] += nodeOffset;
+            }
+            switch (nodeKind[i]) {
+                case Type.ELEMENT:
+                    if (alpha[i] >= 0) {
+                        if (firstAttribute < 0) {
+                            firstAttribute = alpha[i];
+                            attributeOffset = numberOfAttributes - firstAttribute;
+                        }
+                        alpha[i] += attributeOffset;
+                    }
+                    beta[i] = -1;
+                    break;
+                case Type.TEXT:
+                    // Text nodes in the source normally occupy a contiguous range of the character buffer,
+                    // which is then appended in a single operation
+                    if (alpha[i] != runEnd) {
+                        if (runEnd > runStart) {
+                            appendChars(source.charBuffer.subSequence(runStart, runEnd));
+                        }
+                        runStart = runEnd = alpha[i];
+                    }
+                    alpha[i] = charBuffer.length() + (runEnd - runStart);
+                    runEnd += beta[i];
+                    break;
+                case Type.COMMENT:
+                case Type.PROCESSING_INSTRUCTION:
+                    if (commentBuffer == null) {
+                        commentBuffer = new FastStringBuffer(FastStringBuffer.MEDIUM);
+                    }
+                    int s = alpha[i];
+                    alpha[i] = commentBuffer.length();
+                    //noinspection ConstantConditions
+                    commentBuffer.append(source.commentBuffer.subSequence(s, s + beta[i]));
+                    break;
+                case Type.PARENT_POINTER:
+                    alpha[i] += nodeOffset;
+                    break;
+            }
+        }
+        if (runEnd > runStart) {
+            appendChars(source.charBuffer.subSequence(runStart, runEnd));
+        }
+        numberOfNodes += count;
+
+        if (firstAttribute >= 0) {
+            int endAttribute = firstAttribute;
+            while (endAttribute < source.numberOfAttributes && source.attParent[endAttribute] < end) {
+                endAttribute++;
+            }
+            int attCount = endAttribute - firstAttribute;
+            int attStart = numberOfAttributes;
+            ensureAttributeCapacity(attCount);
+            System.arraycopy(source.attParent, firstAttribute, attParent, attStart, attCount);
+            System.arraycopy(source.attCode, firstAttribute, attCode, attStart, attCount);
+            System.arraycopy(source.attValue, firstAttribute, attValue, attStart, attCount);
+            if (attTypeCode != null) {
+                Arrays.fill(attTypeCode, attStart, attStart+attCount, StandardNames.XS_UNTYPED_ATOMIC);
+            }
+            if (attTypedValue != null) {
+                Arrays.fill(attTypedValue, attStart, attStart+attCount, null);
+            }
+            for (int a=attStart; a<attStart+attCount; a++) {
+                attParent[a] += nodeOffset;
+                if ((attCode[a] & NamePool.FP_MASK) == StandardNames.XML_ID && rootNode instanceof TinyDocumentImpl) {
+                    // register the ID as addAttribute() would
+                    String id = Whitespace.trim(attValue[a]);
+                    attValue[a] = id;
+                    if (config.getNameChecker().isValidNCName(id)) {
+                        ((TinyDocumentImpl)rootNode).registerID(getNode(attParent[a]), id);
+                    }
+                }
+            }
+            numberOfAttributes += attCount;
+        }
+        return start;
+    }
+
     /**
     * Condense the tree: release unused memory. This is done after the full tree has been built.
     * The method makes a pragmatic judgement as to whether it is worth reclaiming space; this is
@@ -775,7 +909,7 @@ public final class TinyTree {
 
 
     void addAttribute(/*@NotNull*/ NodeInfo root, int parent, int nameCode, int typeCode, CharSequence attValue, int properties) {
-        ensureAttributeCapacity();
+        ensureAttributeCapacity(1);
         attParent[numberOfAttributes] = parent;
         attCode[numberOfAttributes] = nameCode;
         this.attValue[numberOfAttributes] = attValue;
@@ -915,6 +1049,95 @@ public final class TinyTree {
         }
     }
 
+    /**
+     * Get the atomized value of a numbered node, without instantiating the NodeInfo object
+     * in common cases. This supports iterators that deliver node numbers rather than nodes.
+     * @param nodeNr the node whose atomized value is required
+     * @return the atomized value of the node
+     * @throws XPathException if the node cannot be atomized
+     */
+
+    Value atomizeNode(int nodeNr) throws XPathException {
+        switch (nodeKind[nodeNr]) {
+            case Type.TEXT:
+                return new UntypedAtomicValue(TinyTextImpl.getStringValue(this, nodeNr));
+            case Type.WHITESPACE_TEXT:
+                return new UntypedAtomicValue(WhitespaceTextImpl.getStringValueCS(this, nodeNr));
+            case Type.ELEMENT:
+                return getTypedValueOfElement(nodeNr);
+            case Type.COMMENT:
+            case Type.PROCESSING_INSTRUCTION:
+                return getAtomizedValueOfUntypedNode(nodeNr);
+            default:
+                return getNode(nodeNr).atomize();
+        }
+    }
+
+    /**
+     * Get the string value of a numbered node, without instantiating the NodeInfo object
+     * in common cases. This supports iterators that deliver node numbers rather than nodes.
+     * @param nodeNr the node whose string value is required
+     * @return the string value of the node
+     */
+
+    CharSequence getStringValueOfNode(int nodeNr) {
+        switch (nodeKind[nodeNr]) {
+            case Type.TEXT:
+                return TinyTextImpl.getStringValue(this, nodeNr);
+            case Type.WHITESPACE_TEXT:
+                return WhitespaceTextImpl.getStringValueCS(this, nodeNr);
+            case Type.ELEMENT:
+                return TinyParentNodeImpl.getStringValueCS(this, nodeNr);
+            default:
+                return getNode(nodeNr).getStringValueCS();
+        }
+    }
+
+    /**
+     * Get an iterator over an axis starting at a numbered node, without instantiating the NodeInfo
+     * object for the origin node. This is done only for the commonly-used downward axes starting at
+     * an element; in other cases the caller must instantiate the node and use its iterateAxis method.
+     * @param nodeNr the node number of the origin of the axis
+     * @param axis the axis to be navigated, for example {@link Axis#CHILD}
+     * @param test the test to be satisfied by the selected nodes
+     * @return an iterator over the selected nodes, or null if this method cannot handle the request
+     */
+
+    /*@Nullable*/ AxisIterator iterateAxis(int nodeNr, byte axis, /*@NotNull*/ NodeTest test) {
+        if (nodeKind[nodeNr] != Type.ELEMENT) {
+            return null;
+        }
+        boolean hasChildren = nodeNr+1 < numberOfNodes && depth[nodeNr+1] > depth[nodeNr];
+        switch (axis) {
+            case Axis.CHILD:
+                if (hasChildren) {
+                    return new SiblingEnumeration(this, nodeNr, test);
+                } else {
+                    return EmptyAxisIterator.emptyAxisIterator();
+                }
+            case Axis.DESCENDANT:
+                if (!hasChildren) {
+                    return EmptyAxisIterator.emptyAxisIterator();
+                }
+                if (test instanceof NameTest && test.getPrimitiveType() == Type.ELEMENT) {
+                    TinyDocumentImpl doc = TinyNodeImpl.getIndexedDocument(this, nodeNr, test.getFingerprint());
+                    if (doc != null) {
+                        return doc.getDescendantElements(nodeNr, test.getFingerprint());
+                    }
+                }
+                return new DescendantEnumeration(this, nodeNr, test, false);
+            case Axis.DESCENDANT_OR_SELF:
+                return new DescendantEnumeration(this, nodeNr, test, true);
+            case Axis.ATTRIBUTE:
+                if (alpha[nodeNr] < 0) {
+                    return EmptyAxisIterator.emptyAxisIterator();
+                }
+                return new AttributeEnumeration(this, nodeNr, test);
+            default:
+                return null;
+        }
+    }
+
     /**
      * Get the typed value of a node whose type is known to be untypedAtomic.
      * The node must be a document, element, text,
@@ -1156,6 +1379,107 @@ public final class TinyTree {
         return 0;
     }
 
+    /**
+     * Get the boundary of the subtree rooted at a given node: that is, the node number of the first node
+     * that follows the given node and is not one of its descendants. Every node whose number lies strictly
+     * between the given node and the boundary is a descendant of the given node (or a parent-pointer
+     * pseudo-node). The boundary is found by following next-sibling pointers, so the cost depends on the
+     * depth of the node rather than the size of the subtree.
+     * @param nodeNr the node number of the given node
+     * @return the node number of the boundary, or Integer.MAX_VALUE if the subtree extends to the end
+     * of the tree containing the given node
+     */
+
+    int getNextSubtreeBoundary(int nodeNr) {
+        int n = nodeNr;
+        while (depth[n] != 0) {
+            int nx = next[n];
+            if (nx > n) {
+                // a following sibling, or a parent-pointer pseudo-node positioned as one
+                return nx;
+            } else if (nx < 0) {
+                break;
+            }
+            // n is the last child of nx; the subtree of n ends where the subtree of nx ends
+            n = nx;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Build the name summary for the tree. For each node this records a 64-bit Bloom filter of the
+     * fingerprints of its descendant elements, so that a search for elements with a given name can
+     * skip any subtree whose summary shows that it contains no such element. The summaries are computed
+     * in a single pass through the nodes in reverse document order, which reaches all the descendants
+     * of a node before the node itself. The summary takes eight bytes per node.
+     */
+
+    void buildNameSummary() {
+        int n = numberOfNodes;
+        long[] summary = new long[n];
+        long[] pending = new long[32];
+            // pending[d] accumulates the summaries of the nodes at depth d whose parent has not yet been reached
+        for (int i=n-1; i>=0; i--) {
+            int kind = nodeKind[i];
+            if (kind == Type.ELEMENT || kind == Type.DOCUMENT) {
+                int d = depth[i];
+                if (d + 2 > pending.length) {
+                    pending = Arrays.copyOf(pending, Math.max(pending.length * 2, d + 2));
+                }
+                long s = pending[d+1];
+                pending[d+1] = 0;
+                summary[i] = s;
+                if (kind == Type.ELEMENT) {
+                    pending[d] |= s | nameSummaryBits(nameCode[i] & NamePool.FP_MASK);
+                }
+            }
+        }
+        nameSummary = summary;
+    }
+
+    /**
+     * Get the bits that represent a given element name in the name summary
+     * @param fingerprint the fingerprint of the element name
+     * @return a value with two bits set, chosen by hashing the fingerprint
+     */
+
+    private static long nameSummaryBits(int fingerprint) {
+        int h = fingerprint * 0x9E3779B9;
+        return (1L << (h >>> 26)) | (1L << ((h >>> 20) & 63));
+    }
+
+    /**
+     * Get the fingerprint to be used when consulting the name summary to evaluate a node test.
+     * @param test the node test
+     * @return the fingerprint of the required element name, or -1 if the node test does not select
+     * elements by name or if the tree has no name summary
+     */
+
+    int getNameSummaryFingerprint(/*@Nullable*/ NodeTest test) {
+        if (nameSummary != null && test instanceof NameTest && test.getPrimitiveType() == Type.ELEMENT) {
+            return test.getFingerprint();
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Ask whether a node might have a descendant element with a given name, as indicated by the name summary.
+     * @param nodeNr the node number of the node
+     * @param fingerprint the fingerprint of the element name
+     * @return false if the node is known to have no descendant element with this name; true if it might
+     * have one, or if the tree has no name summary covering the node
+     */
+
+    boolean mayHaveDescendantNamed(int nodeNr, int fingerprint) {
+        long[] summary = nameSummary;
+        if (summary == null || nodeNr >= summary.length) {
+            return true;
+        }
+        long bits = nameSummaryBits(fingerprint);
+        return (summary[nodeNr] & bits) == bits;
+    }
+
     /**
     * Set line numbering on
     */
@@ -1167,6 +1491,15 @@ public final class TinyTree {
         Arrays.fill(columnNumbers, -1);
     }
 
+    /**
+     * Ask whether line numbering is on for this tree
+     * @return true if line numbers are maintained for the nodes in this tree
+     */
+
+    boolean isLineNumbering() {
+        return lineNumbers != null;
+    }
+
     /**
      * Set the line number for a node. Ignored if line numbering is off.
      * @param sequence the node number
@@ -1295,7 +1628,8 @@ public final class TinyTree {
 
     public void showSize() {
         System.err.println("Tree size: " + numberOfNodes + " nodes, " + charBuffer.length() + " characters, " +
-                                numberOfAttributes + " attributes");
+                                numberOfAttributes + " attributes" +
+                                (nameSummary == null ? "" : ", name summary " + (nameSummary.length * 8) + " bytes"));
     }
 
     /**
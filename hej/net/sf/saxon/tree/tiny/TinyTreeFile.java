@@ -0,0 +1,609 @@
+package net.sf.saxon.tree.tiny;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Version;
+import net.sf.saxon.expr.sort.IntToIntHashMap;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NamespaceBinding;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.tree.util.FastStringBuffer;
+import net.sf.saxon.type.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class saves a document held as a {@link TinyTree} to a file in a compact binary format, and
+ * loads it again. Loading a saved tree avoids the cost of XML parsing and tree building, which makes
+ * it useful for large reference documents that are used repeatedly.
+ *
+ * <p>The file contains the arrays of the TinyTree more or less exactly as they are held in memory.
+ * When a file is loaded it is read into a heap buffer using {@link FileChannel#read}, and
+ * each array is copied out of the buffer in a single bulk operation. Names are held in the file as
+ * (prefix, URI, local name) triples, and are allocated in the NamePool of the target configuration on
+ * loading; the name codes in the tree are rewritten only if they differ from the codes in the saved
+ * file, which will not be the case when a file is reloaded into the configuration that saved it.</p>
+ *
+ * <p>Only a tree consisting of a single document node can be saved. Trees containing type annotations
+ * other than built-in types cannot be saved, because the schema is not saved with the tree. Typed
+ * values, and other indexes that are built lazily, are not saved. The file format is specific to a
+ * release of Saxon: the header records the Saxon version that wrote the file, and a file written by
+ * any other version is rejected. The file must not exceed 2Gb.</p>
+ */
+
+public final class TinyTreeFile {
+
+    private static final int MAGIC = 0x53585454;     // "SXTT"
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int HAS_TYPE_CODES = 1;
+    private static final int HAS_ATTRIBUTE_TYPE_CODES = 2;
+    private static final int HAS_LINE_NUMBERS = 4;
+    private static final int HAS_COMMENTS = 8;
+    private static final int USES_NAMESPACES = 16;
+
+    private TinyTreeFile() {}
+
+    /**
+     * Save a document to a file
+     * @param doc the document node. This must be the document node of a TinyTree
+     * @param file the file to which the document is to be written. Any existing file is overwritten.
+     * @throws XPathException if the document cannot be saved, or if an I/O error occurs
+     */
+
+    public static void save(NodeInfo doc, File file) throws XPathException {
+        if (!(doc instanceof TinyDocumentImpl)) {
+            throw new XPathException("Only a document held as a TinyTree can be saved");
+        }
+        TinyDocumentImpl tdoc = (TinyDocumentImpl)doc;
+        TinyTree tree = tdoc.getTree();
+        if (tree.rootIndexUsed != 1 || tdoc.nodeNr != 0) {
+            throw new XPathException("Cannot save a TinyTree containing more than one root node");
+        }
+        checkTypeCodes(tree.typeCodeArray, tree.numberOfNodes);
+        checkTypeCodes(tree.attTypeCode, tree.numberOfAttributes);
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            Output out = new Output(raf.getChannel());
+            write(tree, tdoc, out);
+            out.flush();
+        } catch (IOException e) {
+            throw new XPathException("Failed to save document to " + file + ": " + e.getMessage(), e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+    }
+
+    /**
+     * Load a document previously saved using {@link #save}
+     * @param config the Saxon configuration. The names used in the document are allocated in the
+     * NamePool of this configuration.
+     * @param file the file containing the saved document
+     * @return the document node of the loaded tree
+     * @throws XPathException if the file is not a saved document, if it was saved by a different
+     * version of Saxon, or if an I/O error occurs
+     */
+
+    public static TinyDocumentImpl load(Configuration config, File file) throws XPathException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new XPathException("Saved document " + file + " is too large to load");
+            }
+            ByteBuffer in = ByteBuffer.allocate((int)size);
+            while (in.hasRemaining()) {
+                if (channel.read(in) < 0) {
+                    throw new XPathException("Saved document " + file + " is truncated");
+                }
+            }
+            in.flip();
+            if (size < 8 || in.getInt() != MAGIC) {
+                throw new XPathException("File " + file + " does not contain a saved document");
+            }
+            int version = in.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new XPathException("Saved document " + file + " uses format version " + version +
+                        ", which is not supported by this release");
+            }
+            String saxonVersion = readString(in);
+            if (!Version.getProductVersion().equals(saxonVersion)) {
+                throw new XPathException("Saved document " + file + " was written by Saxon " + saxonVersion +
+                        ", and cannot be loaded by Saxon " + Version.getProductVersion());
+            }
+            return read(config, in);
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new XPathException("Saved document " + file + " is truncated");
+        } catch (IOException e) {
+            throw new XPathException("Failed to load document from " + file + ": " + e.getMessage(), e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that a tree contains no type annotations that depend on a schema
+     * @param typeCodes the array of type annotations, or null
+     * @param n the number of entries in use
+     * @throws XPathException if there is a user-defined type annotation
+     */
+
+    private static void checkTypeCodes(/*@Nullable*/ int[] typeCodes, int n) throws XPathException {
+        if (typeCodes != null) {
+            for (int i=0; i<n; i++) {
+                if ((typeCodes[i] & NamePool.FP_MASK & NamePool.USER_DEFINED_MASK) != 0) {
+                    throw new XPathException("Cannot save a document that contains user-defined type annotations");
+                }
+            }
+        }
+    }
+
+    private static void write(TinyTree tree, TinyDocumentImpl doc, Output out) throws IOException {
+        int nodes = tree.numberOfNodes;
+        int atts = tree.numberOfAttributes;
+        int namespaces = tree.numberOfNamespaces;
+        int[] lineNumbers = null;
+        int[] columnNumbers = null;
+        if (tree.isLineNumbering()) {
+            lineNumbers = new int[nodes];
+            columnNumbers = new int[nodes];
+            for (int i=0; i<nodes; i++) {
+                lineNumbers[i] = tree.getLineNumber(i);
+                columnNumbers[i] = tree.getColumnNumber(i);
+            }
+        }
+
+        int flags = 0;
+        if (tree.typeCodeArray != null) {
+            flags |= HAS_TYPE_CODES;
+        }
+        if (tree.attTypeCode != null) {
+            flags |= HAS_ATTRIBUTE_TYPE_CODES;
+        }
+        if (lineNumbers != null) {
+            flags |= HAS_LINE_NUMBERS;
+        }
+        if (tree.commentBuffer != null) {
+            flags |= HAS_COMMENTS;
+        }
+        if (tree.usesNamespaces) {
+            flags |= USES_NAMESPACES;
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeString(Version.getProductVersion());
+        out.writeInt(flags);
+        out.writeInt(nodes);
+        out.writeInt(atts);
+        out.writeInt(namespaces);
+
+        // nodes
+        out.writeBytes(tree.nodeKind, nodes);
+        out.writeShorts(tree.depth, nodes);
+        out.writeInts(tree.next, nodes);
+        out.writeInts(tree.alpha, nodes);
+        out.writeInts(tree.beta, nodes);
+        out.writeInts(tree.nameCode, nodes);
+        if (tree.typeCodeArray != null) {
+            out.writeInts(tree.typeCodeArray, nodes);
+        }
+        if (lineNumbers != null) {
+            out.writeInts(lineNumbers, nodes);
+            out.writeInts(columnNumbers, nodes);
+        }
+
+        // attributes
+        out.writeInts(tree.attParent, atts);
+        out.writeInts(tree.attCode, atts);
+        if (tree.attTypeCode != null) {
+            out.writeInts(tree.attTypeCode, atts);
+        }
+        int[] lengths = new int[atts];
+        FastStringBuffer values = new FastStringBuffer(atts * 8 + 16);
+        for (int i=0; i<atts; i++) {
+            CharSequence value = tree.attValue[i];
+            lengths[i] = value.length();
+            values.append(value);
+        }
+        out.writeInts(lengths, atts);
+        out.writeChars(values);
+
+        // namespaces
+        out.writeInts(tree.namespaceParent, namespaces);
+        for (int i=0; i<namespaces; i++) {
+            out.writeString(tree.namespaceBinding[i].getPrefix());
+            out.writeString(tree.namespaceBinding[i].getURI());
+        }
+
+        // character content
+        out.writeChars(tree.charBuffer);
+        if (tree.commentBuffer != null) {
+            out.writeChars(tree.commentBuffer);
+        }
+
+        // names
+        NamePool pool = tree.getNamePool();
+        IntToIntHashMap seen = new IntToIntHashMap(100);
+        List<Integer> codes = new ArrayList<Integer>(100);
+        addNameCodes(tree.nameCode, tree.nodeKind, nodes, seen, codes);
+        addNameCodes(tree.attCode, null, atts, seen, codes);
+        out.writeInt(codes.size());
+        for (int code : codes) {
+            out.writeInt(code);
+            out.writeString(pool.getPrefix(code));
+            out.writeString(pool.getURI(code));
+            out.writeString(pool.getLocalName(code));
+        }
+
+        // system identifiers, recorded only where they change
+        List<Integer> changes = new ArrayList<Integer>();
+        String previous = null;
+        for (int i=0; i<nodes; i++) {
+            String systemId = tree.getSystemId(i);
+            if (systemId != null && !systemId.equals(previous)) {
+                changes.add(i);
+                previous = systemId;
+            }
+        }
+        out.writeInt(changes.size());
+        for (int nr : changes) {
+            out.writeInt(nr);
+            out.writeString(tree.getSystemId(nr));
+        }
+
+        // properties of the document node
+        String baseURI = doc.getBaseURI();
+        out.writeString(baseURI == null || baseURI.equals(doc.getSystemId()) ? null : baseURI);
+        List<String> entityNames = new ArrayList<String>();
+        for (Iterator<String> iter = doc.getUnparsedEntityNames(); iter.hasNext();) {
+            entityNames.add(iter.next());
+        }
+        out.writeInt(entityNames.size());
+        for (String name : entityNames) {
+            String[] ids = doc.getUnparsedEntity(name);
+            out.writeString(name);
+            out.writeString(ids[0]);
+            out.writeString(ids[1]);
+        }
+        Map<String, NodeInfo> ids = doc.getIdTable();
+        out.writeInt(ids == null ? 0 : ids.size());
+        if (ids != null) {
+            for (Map.Entry<String, NodeInfo> entry : ids.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeInt(((TinyNodeImpl)entry.getValue()).nodeNr);
+            }
+        }
+    }
+
+    /**
+     * Ask whether the name code held for a node is the code of a name. This is the case for elements
+     * and processing instructions, and for attributes; for other kinds of node the name code is either
+     * -1, or is a dummy value.
+     * @param kinds the node kinds, or null if the node is an attribute
+     * @param i the node number
+     * @return true if the name code is allocated in the NamePool
+     */
+
+    private static boolean isNamed(/*@Nullable*/ byte[] kinds, int i) {
+        return kinds == null || kinds[i] == Type.ELEMENT || kinds[i] == Type.PROCESSING_INSTRUCTION;
+    }
+
+    private static void addNameCodes(int[] nameCodes, /*@Nullable*/ byte[] kinds, int n,
+                                     IntToIntHashMap seen, List<Integer> codes) {
+        for (int i=0; i<n; i++) {
+            int code = nameCodes[i];
+            if (isNamed(kinds, i) && !seen.find(code)) {
+                seen.put(code, code);
+                codes.add(code);
+            }
+        }
+    }
+
+    private static TinyDocumentImpl read(Configuration config, ByteBuffer in) throws XPathException {
+        int flags = in.getInt();
+        int nodes = in.getInt();
+        int atts = in.getInt();
+        int namespaces = in.getInt();
+
+        TinyTree tree = new TinyTree(config, 1, 1, 1, 1);
+        TinyDocumentImpl doc = new TinyDocumentImpl(tree);
+        tree.addDocumentNode(doc);
+
+        // nodes: the arrays are allocated with room for one extra node, as after TinyTree.condense()
+        tree.nodeKind = readBytes(in, nodes, nodes + 1);
+        tree.depth = readShorts(in, nodes, nodes + 1);
+        tree.next = readInts(in, nodes, nodes + 1);
+        tree.alpha = readInts(in, nodes, nodes + 1);
+        tree.beta = readInts(in, nodes, nodes + 1);
+        tree.nameCode = readInts(in, nodes, nodes + 1);
+        if ((flags & HAS_TYPE_CODES) != 0) {
+            tree.typeCodeArray = readInts(in, nodes, nodes + 1);
+        }
+        tree.numberOfNodes = nodes;
+        if ((flags & HAS_LINE_NUMBERS) != 0) {
+            int[] lineNumbers = readInts(in, nodes, nodes);
+            int[] columnNumbers = readInts(in, nodes, nodes);
+            tree.setLineNumbering();
+            for (int i=0; i<nodes; i++) {
+                tree.setLineNumber(i, lineNumbers[i], columnNumbers[i]);
+            }
+        }
+
+        // attributes
+        tree.attParent = readInts(in, atts, atts);
+        tree.attCode = readInts(in, atts, atts);
+        if ((flags & HAS_ATTRIBUTE_TYPE_CODES) != 0) {
+            tree.attTypeCode = readInts(in, atts, atts);
+        }
+        int[] lengths = readInts(in, atts, atts);
+        char[] values = readChars(in);
+        CharSequence[] attValue = new String[atts];
+        int offset = 0;
+        for (int i=0; i<atts; i++) {
+            attValue[i] = new String(values, offset, lengths[i]);
+            offset += lengths[i];
+        }
+        tree.attValue = attValue;
+        tree.numberOfAttributes = atts;
+
+        // namespaces
+        tree.namespaceParent = readInts(in, namespaces, namespaces);
+        NamespaceBinding[] bindings = new NamespaceBinding[namespaces];
+        for (int i=0; i<namespaces; i++) {
+            String prefix = readString(in);
+            String uri = readString(in);
+            bindings[i] = (i == 0 && prefix.equals("xml") ? NamespaceBinding.XML : new NamespaceBinding(prefix, uri));
+        }
+        tree.namespaceBinding = bindings;
+        tree.numberOfNamespaces = namespaces;
+        tree.usesNamespaces = (flags & USES_NAMESPACES) != 0;
+
+        // character content
+        int length = in.getInt();
+        if (length > 65000) {
+            LargeStringBuffer lsb = new LargeStringBuffer();
+            char[] chunk = new char[65536];
+            while (length > 0) {
+                int n = Math.min(length, chunk.length);
+                in.asCharBuffer().get(chunk, 0, n);
+                in.position(in.position() + 2*n);
+                lsb.append(new CharSlice(chunk, 0, n));
+                length -= n;
+            }
+            tree.charBuffer = lsb;
+        } else {
+            FastStringBuffer fsb = new FastStringBuffer(length);
+            fsb.append(readChars(in, length), 0, length);
+            tree.charBuffer = fsb;
+        }
+        if ((flags & HAS_COMMENTS) != 0) {
+            char[] comments = readChars(in);
+            FastStringBuffer fsb = new FastStringBuffer(comments.length);
+            fsb.append(comments);
+            tree.commentBuffer = fsb;
+        }
+
+        // names: allocate them in the target name pool, and renumber if necessary
+        NamePool pool = config.getNamePool();
+        int count = in.getInt();
+        IntToIntHashMap map = new IntToIntHashMap(count);
+        boolean renumber = false;
+        for (int i=0; i<count; i++) {
+            int code = in.getInt();
+            String prefix = readString(in);
+            String uri = readString(in);
+            String local = readString(in);
+            int newCode = pool.allocate(prefix, uri, local);
+            map.put(code, newCode);
+            renumber |= (newCode != code);
+        }
+        if (renumber) {
+            renumber(tree.nameCode, tree.nodeKind, nodes, map);
+            renumber(tree.attCode, null, atts, map);
+        }
+
+        // system identifiers
+        count = in.getInt();
+        for (int i=0; i<count; i++) {
+            int nr = in.getInt();
+            tree.setSystemId(nr, readString(in));
+        }
+
+        // properties of the document node
+        String baseURI = readString(in);
+        if (baseURI != null) {
+            doc.setBaseURI(baseURI);
+        }
+        count = in.getInt();
+        for (int i=0; i<count; i++) {
+            String name = readString(in);
+            String systemId = readString(in);
+            String publicId = readString(in);
+            doc.setUnparsedEntity(name, systemId, publicId);
+        }
+        count = in.getInt();
+        for (int i=0; i<count; i++) {
+            String id = readString(in);
+            int nr = in.getInt();
+            if (nr < 0 || nr >= nodes || tree.nodeKind[nr] != Type.ELEMENT) {
+                throw new XPathException("Saved document is corrupt: ID " + id + " does not identify an element");
+            }
+            doc.registerID(tree.getNode(nr), id);
+        }
+        return doc;
+    }
+
+    private static void renumber(int[] codes, /*@Nullable*/ byte[] kinds, int n, IntToIntHashMap map) {
+        for (int i=0; i<n; i++) {
+            if (isNamed(kinds, i)) {
+                codes[i] = map.get(codes[i]);
+            }
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in, int n, int size) {
+        byte[] a = new byte[size];
+        in.get(a, 0, n);
+        return a;
+    }
+
+    private static short[] readShorts(ByteBuffer in, int n, int size) {
+        short[] a = new short[size];
+        in.asShortBuffer().get(a, 0, n);
+        in.position(in.position() + 2*n);
+        return a;
+    }
+
+    private static int[] readInts(ByteBuffer in, int n, int size) {
+        int[] a = new int[size];
+        in.asIntBuffer().get(a, 0, n);
+        in.position(in.position() + 4*n);
+        return a;
+    }
+
+    private static char[] readChars(ByteBuffer in) {
+        return readChars(in, in.getInt());
+    }
+
+    private static char[] readChars(ByteBuffer in, int n) {
+        char[] a = new char[n];
+        in.asCharBuffer().get(a, 0, n);
+        in.position(in.position() + 2*n);
+        return a;
+    }
+
+    /*@Nullable*/ private static String readString(ByteBuffer in) {
+        int n = in.getInt();
+        return (n < 0 ? null : new String(readChars(in, n)));
+    }
+
+    /**
+     * Buffered output to a FileChannel
+     */
+
+    private static class Output {
+
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+
+        public Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        public void writeInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        public void writeBytes(byte[] a, int n) throws IOException {
+            for (int start=0; start<n;) {
+                ensure(1);
+                int len = Math.min(n - start, buffer.remaining());
+                buffer.put(a, start, len);
+                start += len;
+            }
+        }
+
+        public void writeShorts(short[] a, int n) throws IOException {
+            for (int start=0; start<n;) {
+                ensure(2);
+                int len = Math.min(n - start, buffer.remaining() / 2);
+                buffer.asShortBuffer().put(a, start, len);
+                buffer.position(buffer.position() + 2*len);
+                start += len;
+            }
+        }
+
+        public void writeInts(int[] a, int n) throws IOException {
+            for (int start=0; start<n;) {
+                ensure(4);
+                int len = Math.min(n - start, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(a, start, len);
+                buffer.position(buffer.position() + 4*len);
+                start += len;
+            }
+        }
+
+        public void writeChars(CharSequence s) throws IOException {
+            int n = s.length();
+            writeInt(n);
+            char[] chunk = new char[Math.min(n, 8192)];
+            for (int start=0; start<n;) {
+                ensure(2);
+                int len = Math.min(Math.min(n - start, buffer.remaining() / 2), chunk.length);
+                for (int i=0; i<len; i++) {
+                    chunk[i] = s.charAt(start + i);
+                }
+                buffer.asCharBuffer().put(chunk, 0, len);
+                buffer.position(buffer.position() + 2*len);
+                start += len;
+            }
+        }
+
+        public void writeString(/*@Nullable*/ String s) throws IOException {
+            if (s == null) {
+                writeInt(-1);
+            } else {
+                writeChars(s);
+            }
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -6,6 +6,7 @@ import net.sf.saxon.om.StandardNames;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.*;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 
 /**
@@ -23,7 +24,9 @@ import java.math.BigDecimal;
  * <p>Where the source type of the conversion is xs:string, the converter will always be a subclass of
  * {@link StringConverter}</p>
  */
-public abstract class Converter {
+public abstract class Converter implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /*@NotNull*/ public final static StringConverter.IdentityConverter
             IDENTITY_CONVERTER = new StringConverter.IdentityConverter();
     /*@NotNull*/ public final static ToUntypedAtomicConverter
@@ -543,6 +546,8 @@ public abstract class Converter {
      */
 
     public static class UpCastingConverter extends Converter {
+        private static final long serialVersionUID = 1L;
+
         private AtomicType newTypeAnnotation;
 
         public UpCastingConverter(AtomicType annotation) {
@@ -566,6 +571,8 @@ public abstract class Converter {
      */
 
     public static class DownCastingConverter extends Converter {
+        private static final long serialVersionUID = 1L;
+
         private AtomicType newType;
 
         public DownCastingConverter(AtomicType annotation, ConversionRules rules) {
@@ -599,6 +606,8 @@ public abstract class Converter {
      */
 
     public static class TwoPhaseConverter extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         private Converter phaseOne;
         private Converter phaseTwo;
 
@@ -643,6 +652,8 @@ public abstract class Converter {
      */
 
     public static class ToUntypedAtomicConverter extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new UntypedAtomicValue(input.getStringValueCS());
         }
@@ -657,6 +668,8 @@ public abstract class Converter {
      */
 
     public static class ToStringConverter extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new StringValue(input.getStringValueCS());
         }
@@ -671,6 +684,8 @@ public abstract class Converter {
      */
 
     public static class NumericToFloat extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new FloatValue(((NumericValue) input).getFloatValue());
         }
@@ -685,6 +700,8 @@ public abstract class Converter {
      */
 
     public static class BooleanToFloat extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new FloatValue(((BooleanValue) input).getBooleanValue() ? 1.0f : 0.0f);
         }
@@ -699,6 +716,8 @@ public abstract class Converter {
      */
 
     public static class NumericToDouble extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             if (input instanceof DoubleValue) {
                 return input;
@@ -717,6 +736,8 @@ public abstract class Converter {
      */
 
     public static class BooleanToDouble extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new DoubleValue(((BooleanValue) input).getBooleanValue() ? 1.0e0 : 0.0e0);
         }
@@ -731,6 +752,8 @@ public abstract class Converter {
      */
 
     public static class DoubleToDecimal extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             try {
                 return new DecimalValue(((DoubleValue) input).getDoubleValue());
@@ -745,6 +768,8 @@ public abstract class Converter {
      */
 
     public static class FloatToDecimal extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             try {
                 return new DecimalValue(((FloatValue) input).getFloatValue());
@@ -759,6 +784,8 @@ public abstract class Converter {
      */
 
     public static class IntegerToDecimal extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             if (input instanceof Int64Value) {
                 return new DecimalValue(((Int64Value) input).longValue());
@@ -777,6 +804,8 @@ public abstract class Converter {
      */
 
     public static class NumericToDecimal extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             try {
                 BigDecimal decimal = ((NumericValue) input).getDecimalValue();
@@ -792,6 +821,8 @@ public abstract class Converter {
      */
 
     public static class BooleanToDecimal extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return ((BooleanValue) input).getBooleanValue() ? DecimalValue.ONE : DecimalValue.ZERO;
@@ -808,6 +839,8 @@ public abstract class Converter {
      */
 
     public static class DoubleToInteger extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return IntegerValue.makeIntegerValue((DoubleValue) input);
@@ -819,6 +852,8 @@ public abstract class Converter {
      */
 
     public static class FloatToInteger extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return IntegerValue.makeIntegerValue(new DoubleValue(((FloatValue) input).getDoubleValue()));
@@ -831,6 +866,8 @@ public abstract class Converter {
      */
 
     public static class DecimalToInteger extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             if (input instanceof IntegerValue) {
@@ -849,6 +886,8 @@ public abstract class Converter {
      */
 
     public static class NumericToInteger extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             try {
@@ -873,6 +912,8 @@ public abstract class Converter {
 
 
     public static class BooleanToInteger extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return ((BooleanValue) input).getBooleanValue() ? Int64Value.PLUS_ONE : Int64Value.ZERO;
@@ -888,6 +929,8 @@ public abstract class Converter {
      */
 
     public static class DurationToDayTimeDuration extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DurationValue d = (DurationValue) input;
             return new DayTimeDurationValue(d.signum(), d.getDays(), d.getHours(), d.getMinutes(), d.getSeconds(), d.getMicroseconds());
@@ -899,6 +942,8 @@ public abstract class Converter {
      */
 
     public static class DurationToYearMonthDuration extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DurationValue d = (DurationValue) input;
@@ -911,6 +956,8 @@ public abstract class Converter {
      */
 
     public static class DateToDateTime extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return ((DateValue) input).toDateTime();
@@ -926,6 +973,8 @@ public abstract class Converter {
      */
 
     public static class DateTimeToDate extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DateTimeValue dt = (DateTimeValue) input;
             return new DateValue(dt.getYear(), dt.getMonth(), dt.getDay(), dt.getTimezoneInMinutes(), dt.isXsd10Rules());
@@ -941,6 +990,8 @@ public abstract class Converter {
      */
 
     public static class DateTimeToGMonth extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DateTimeValue dt = (DateTimeValue) input;
             return new GMonthValue(dt.getMonth(), dt.getTimezoneInMinutes());
@@ -956,6 +1007,8 @@ public abstract class Converter {
      */
 
     public static class DateTimeToGYearMonth extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DateTimeValue dt = (DateTimeValue) input;
             return new GYearMonthValue(dt.getYear(), dt.getMonth(), dt.getTimezoneInMinutes(), dt.isXsd10Rules());
@@ -971,6 +1024,8 @@ public abstract class Converter {
      */
 
     public static class DateTimeToGYear extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DateTimeValue dt = (DateTimeValue) input;
             return new GYearValue(dt.getYear(), dt.getTimezoneInMinutes(), dt.isXsd10Rules());
@@ -986,6 +1041,8 @@ public abstract class Converter {
      */
 
     public static class DateTimeToGMonthDay extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DateTimeValue dt = (DateTimeValue) input;
             return new GMonthDayValue(dt.getMonth(), dt.getDay(), dt.getTimezoneInMinutes());
@@ -1001,6 +1058,8 @@ public abstract class Converter {
      */
 
     public static class DateTimeToGDay extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DateTimeValue dt = (DateTimeValue) input;
             return new GDayValue(dt.getDay(), dt.getTimezoneInMinutes());
@@ -1016,6 +1075,8 @@ public abstract class Converter {
      */
 
     public static class DateTimeToTime extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             DateTimeValue dt = (DateTimeValue) input;
             return new TimeValue(dt.getHour(), dt.getMinute(), dt.getSecond(), dt.getMicrosecond(), dt.getTimezoneInMinutes());
@@ -1031,6 +1092,8 @@ public abstract class Converter {
      */
 
     public static class NumericToBoolean extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             try {
@@ -1050,6 +1113,8 @@ public abstract class Converter {
      */
 
     public static class Base64BinaryToHexBinary extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new HexBinaryValue(((Base64BinaryValue) input).getBinaryValue());
         }
@@ -1064,6 +1129,8 @@ public abstract class Converter {
      */
 
     public static class StringToBase64BinaryConverter extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return convertString(input.getStringValueCS());
         }
@@ -1082,6 +1149,8 @@ public abstract class Converter {
      */
 
     public static class HexBinaryToBase64Binary extends Converter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new Base64BinaryValue(((HexBinaryValue) input).getBinaryValue());
         }
@@ -1096,6 +1165,8 @@ public abstract class Converter {
      */
 
     public static class NotationToQName extends Converter {
+        private static final long serialVersionUID = 1L;
+
         @Override
         public boolean isXPath30Conversion() {
             return true;
@@ -1115,6 +1186,7 @@ public abstract class Converter {
      */
 
     public static class QNameToNotation extends Converter {
+        private static final long serialVersionUID = 1L;
 
         @Override
         public boolean isXPath30Conversion() {
@@ -1131,6 +1203,7 @@ public abstract class Converter {
      */
 
     public static class PromoterToDouble extends Converter {
+        private static final long serialVersionUID = 1L;
 
         /*@Nullable*/ private StringConverter stringToDouble = null;
 
@@ -1160,6 +1233,7 @@ public abstract class Converter {
      */
 
     public static class PromoterToFloat extends Converter {
+        private static final long serialVersionUID = 1L;
 
         /*@Nullable*/ private StringConverter stringToFloat = null;
 
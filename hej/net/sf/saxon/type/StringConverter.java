@@ -24,6 +24,7 @@ import java.util.regex.Pattern;
  * without actually performing the conversion.</p>
  */
 public abstract class StringConverter extends Converter {
+    private static final long serialVersionUID = 1L;
 
     // Constants are defined only for converters that are independent of the conversion rules
 
@@ -190,6 +191,8 @@ public abstract class StringConverter extends Converter {
       */
 
      public static class StringToNonStringDerivedType extends StringConverter {
+         private static final long serialVersionUID = 1L;
+
          private StringConverter phaseOne;
          private DownCastingConverter phaseTwo;
 
@@ -239,6 +242,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToString extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/@Override
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new StringValue(input.getStringValueCS());
@@ -259,6 +264,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToUntypedAtomic extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/@Override
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return new UntypedAtomicValue(input.getStringValueCS());
@@ -280,6 +287,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToNormalizedString extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             return new StringValue(Whitespace.normalizeWhitespace(input), BuiltInAtomicType.NORMALIZED_STRING);
         }
@@ -296,6 +305,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToToken extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             return new StringValue(Whitespace.collapseWhitespace(input), BuiltInAtomicType.TOKEN);
         }
@@ -312,6 +323,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToLanguage extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         private final static Pattern regex = Pattern.compile("[a-zA-Z]{1,8}(-[a-zA-Z0-9]{1,8})*");
                                                 // See erratum E2-25 to XML Schema Part 2.
 
@@ -336,6 +349,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToNCName extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         NameChecker checker;
         AtomicType targetType;
 
@@ -368,6 +383,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToNMTOKEN extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         NameChecker checker;
 
         public StringToNMTOKEN(/*@NotNull*/ ConversionRules rules) {
@@ -398,6 +415,7 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToName extends StringToNCName {
+        private static final long serialVersionUID = 1L;
 
         public StringToName(/*@NotNull*/ ConversionRules rules) {
             super(rules, BuiltInAtomicType.NAME);
@@ -440,6 +458,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToStringSubtype extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         AtomicType targetType;
         int whitespaceAction;
 
@@ -477,6 +497,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToDerivedStringSubtype extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         AtomicType targetType;
         StringConverter builtInValidator;
         int whitespaceAction;
@@ -516,6 +538,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToFloat extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         public StringToFloat(ConversionRules rules) {
             super(rules);
         }
@@ -537,6 +561,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToDouble extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         net.sf.saxon.type.StringToDouble worker;
         public StringToDouble(/*@NotNull*/ ConversionRules rules) {
             super(rules);
@@ -558,6 +584,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToDecimal extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             return DecimalValue.makeDecimalValue(input, true);
@@ -578,6 +606,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToInteger extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convert(/*@NotNull*/ AtomicValue input) {
             return IntegerValue.stringToInteger(input.getStringValueCS());
@@ -599,6 +629,7 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToIntegerSubtype extends StringConverter {
+        private static final long serialVersionUID = 1L;
 
         BuiltInAtomicType targetType;
 
@@ -636,6 +667,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToDuration extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
        /*@NotNull*/
        public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             return DurationValue.makeDuration(input);
@@ -648,6 +681,8 @@ public abstract class StringConverter extends Converter {
 
 
     public static class StringToDayTimeDuration extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             return DayTimeDurationValue.makeDayTimeDurationValue(input);
@@ -659,6 +694,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToYearMonthDuration extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             return YearMonthDurationValue.makeYearMonthDurationValue(input);
@@ -670,6 +707,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToDateTime extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         public StringToDateTime(ConversionRules rules) {
             super(rules);
         }
@@ -685,6 +724,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToDate extends StringConverter{
+        private static final long serialVersionUID = 1L;
+
         public StringToDate(ConversionRules rules) {
             super(rules);
         }
@@ -700,6 +741,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToGMonth extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         public StringToGMonth(ConversionRules rules) {
             super(rules);
         }
@@ -715,6 +758,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToGYearMonth extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         public StringToGYearMonth(ConversionRules rules) {
             super(rules);
         }
@@ -730,6 +775,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToGYear extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         public StringToGYear(ConversionRules rules) {
             super(rules);
         }
@@ -745,6 +792,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToGMonthDay extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         public StringToGMonthDay(ConversionRules rules) {
             super(rules);
         }
@@ -760,6 +809,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToGDayConverter extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         public StringToGDayConverter(ConversionRules rules) {
             super(rules);
         }
@@ -775,6 +826,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToTime extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             return TimeValue.makeTimeValue(input);
@@ -786,6 +839,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToBoolean extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/
         public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             return BooleanValue.fromString(input);
@@ -797,6 +852,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToHexBinary extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public ConversionResult convertString(/*@NotNull*/ CharSequence input) {
             try {
                 return new HexBinaryValue(input);
@@ -811,6 +868,7 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToQName extends StringConverter {
+        private static final long serialVersionUID = 1L;
 
         NamespaceResolver nsResolver;
 
@@ -864,6 +922,7 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToNotation extends StringConverter {
+        private static final long serialVersionUID = 1L;
 
         NamespaceResolver nsResolver;
 
@@ -911,6 +970,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToAnyURI extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         public StringToAnyURI(ConversionRules rules) {
             super(rules);
         }
@@ -938,6 +999,8 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class IdentityConverter extends StringConverter {
+        private static final long serialVersionUID = 1L;
+
         /*@NotNull*/ public static IdentityConverter THE_INSTANCE = new IdentityConverter();
 
         /*@NotNull*/
@@ -964,6 +1027,7 @@ public abstract class StringConverter extends Converter {
      */
 
     public static class StringToUnionConverter extends StringConverter {
+        private static final long serialVersionUID = 1L;
 
         SimpleType targetType;
         ConversionRules rules;
@@ -21,6 +21,7 @@ import java.nio.charset.Charset;
  */
 
 public final class AnyURIValue extends StringValue {
+    private static final long serialVersionUID = 1L;
 
     /*@NotNull*/ public static final AnyURIValue EMPTY_URI = new AnyURIValue("");
 
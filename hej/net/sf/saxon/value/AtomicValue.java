@@ -32,6 +32,7 @@ import net.sf.saxon.type.*;
 
 public abstract class AtomicValue extends Value<AtomicValue>
         implements Item<AtomicValue>, GroundedValue<AtomicValue>, ConversionResult {
+    private static final long serialVersionUID = 1L;
 
     protected AtomicType typeLabel;
 
@@ -15,6 +15,7 @@ import java.util.Arrays;
  */
 
 public class Base64BinaryValue extends AtomicValue {
+    private static final long serialVersionUID = 1L;
 
     private byte[] binaryValue;
 
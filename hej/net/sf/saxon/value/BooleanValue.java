@@ -14,6 +14,8 @@ import net.sf.saxon.type.ValidationFailure;
  */
 
 public final class BooleanValue extends AtomicValue implements Comparable {
+    private static final long serialVersionUID = 1L;
+
     private boolean value;
 
     /**
@@ -19,6 +19,7 @@ import java.util.GregorianCalendar;
 */
 
 public abstract class CalendarValue extends AtomicValue {
+    private static final long serialVersionUID = 1L;
 
     // This is a reimplementation that makes no use of the Java Calendar/Date types except for computations.
 
@@ -38,6 +38,7 @@ import net.sf.saxon.type.TypeHierarchy;
 */
 
 public class Closure<T extends Item> extends Value<T> {
+    private static final long serialVersionUID = 1L;
 
     protected Expression expression;
     /*@Nullable*/ protected XPathContextMajor savedXPathContext;
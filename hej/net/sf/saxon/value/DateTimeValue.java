@@ -24,6 +24,7 @@ import java.util.*;
  */
 
 public final class DateTimeValue extends CalendarValue implements Comparable {
+    private static final long serialVersionUID = 1L;
 
     private int year;       // the year as written, +1 for BC years
     private byte month;     // the month as written, range 1-12
@@ -17,6 +17,7 @@ import java.util.GregorianCalendar;
  */
 
 public class DateValue extends GDateValue implements Comparable {
+    private static final long serialVersionUID = 1L;
 
     /**
      * Private constructor of a skeletal DateValue
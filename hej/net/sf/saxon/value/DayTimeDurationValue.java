@@ -14,6 +14,7 @@ import java.math.BigInteger;
  */
 
 public final class DayTimeDurationValue extends DurationValue implements Comparable {
+    private static final long serialVersionUID = 1L;
 
     /**
      * Private constructor for internal use
@@ -14,6 +14,7 @@ import java.util.regex.Pattern;
 */
 
 public final class DecimalValue extends NumericValue {
+    private static final long serialVersionUID = 1L;
 
     public static final int DIVIDE_PRECISION = 18;
 
@@ -14,6 +14,7 @@ import java.math.BigInteger;
 */
 
 public final class DoubleValue extends NumericValue {
+    private static final long serialVersionUID = 1L;
 
     public static final DoubleValue ZERO = new DoubleValue(0.0);
     public static final DoubleValue NEGATIVE_ZERO = new DoubleValue(-0.0);
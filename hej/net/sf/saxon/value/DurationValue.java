@@ -19,6 +19,7 @@ import java.util.StringTokenizer;
  */
 
 public class DurationValue extends AtomicValue {
+    private static final long serialVersionUID = 1L;
 
     protected boolean negative = false;
     protected int months = 0;
@@ -15,6 +15,7 @@ import net.sf.saxon.type.TypeHierarchy;
 
 
 public final class EmptySequence<T extends Item> extends Value<T> implements GroundedValue<T> {
+    private static final long serialVersionUID = 1L;
 
     // This class has a single instance
     /*@NotNull*/ private static EmptySequence THE_INSTANCE = new EmptySequence();
@@ -14,6 +14,7 @@ import java.math.BigDecimal;
 */
 
 public final class FloatValue extends NumericValue {
+    private static final long serialVersionUID = 1L;
 
     public static final FloatValue ZERO = new FloatValue((float)0.0);
     public static final FloatValue NEGATIVE_ZERO = new FloatValue((float)-0.0);
@@ -18,6 +18,8 @@ import java.util.*;
  * xs:gYearMonth, xs:gMonth, xs:gMonthDay, xs:gDay
  */
 public abstract class GDateValue extends CalendarValue {
+    private static final long serialVersionUID = 1L;
+
     protected int year;         // unlike the lexical representation, includes a year zero
     protected byte month;
     protected byte day;
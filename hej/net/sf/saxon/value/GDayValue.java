@@ -16,6 +16,7 @@ import java.util.regex.Pattern;
  */
 
 public class GDayValue extends GDateValue {
+    private static final long serialVersionUID = 1L;
 
     private static Pattern regex =
             Pattern.compile("---([0-9][0-9])(Z|[+-][0-9][0-9]:[0-9][0-9])?");
@@ -14,6 +14,7 @@ import java.util.Arrays;
  */
 
 public class HexBinaryValue extends AtomicValue {
+    private static final long serialVersionUID = 1L;
 
     private byte[] binaryValue;
 
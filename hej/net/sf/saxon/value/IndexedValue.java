@@ -0,0 +1,186 @@
+package net.sf.saxon.value;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.expr.sort.EqualityIndex;
+import net.sf.saxon.om.GroundedValue;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.TypeHierarchy;
+
+import java.util.IdentityHashMap;
+
+/**
+ * A sequence value that supports indexed searching. The value itself is held as a grounded
+ * sequence; in addition, for each "use" expression that is applied to the value in a filter expression
+ * of the form <code>$value[use = x]</code>, an {@link EqualityIndex} is built the first time the
+ * filter is evaluated, and is reused on subsequent evaluations.
+ *
+ * <p>An IndexedValue is created when a variable is evaluated using the evaluation mode
+ * {@link net.sf.saxon.expr.parser.ExpressionTool#MAKE_INDEXED_VARIABLE}, or when an
+ * {@link net.sf.saxon.expr.IndexedFilterExpression} needs to index a value obtained in some other way.</p>
+ */
+
+public final class IndexedValue<T extends Item> extends Value<T> implements GroundedValue<T> {
+    private static final long serialVersionUID = 1L;
+
+    private GroundedValue<T> base;
+    private transient IdentityHashMap<Expression, EqualityIndex> indexes;
+
+    /**
+     * Create an indexed value
+     * @param base the underlying sequence
+     */
+
+    public IndexedValue(GroundedValue<T> base) {
+        this.base = base;
+    }
+
+    /**
+     * Create an indexed value from the items delivered by an iterator
+     * @param iter an iterator over the items in the sequence
+     * @return the indexed value
+     * @throws XPathException if evaluating the items fails
+     */
+
+    public static <T extends Item> IndexedValue<T> makeIndexedValue(SequenceIterator<T> iter) throws XPathException {
+        return new IndexedValue<T>(new SequenceExtent<T>(iter));
+    }
+
+    /**
+     * Get the underlying sequence
+     * @return the sequence on which this indexed value is based
+     */
+
+    public GroundedValue<T> getBaseValue() {
+        return base;
+    }
+
+    /**
+     * Get the index of this value for a given "use" expression, building it if necessary
+     * @param use the expression which, when evaluated with an item of this sequence as the context
+     * item, delivers the atomic values under which the item is to be indexed. The result is cached
+     * against this expression (compared by identity).
+     * @param context the dynamic evaluation context
+     * @return the index, mapping the values of the use expression onto positions within this sequence
+     * (zero-based)
+     * @throws XPathException if evaluating the use expression fails
+     */
+
+    public synchronized EqualityIndex getIndex(Expression use, XPathContext context) throws XPathException {
+        if (indexes == null) {
+            indexes = new IdentityHashMap<Expression, EqualityIndex>(4);
+        }
+        EqualityIndex index = indexes.get(use);
+        if (index == null) {
+            index = new EqualityIndex();
+            XPathContext c2 = context.newMinorContext();
+            SequenceIterator iter = Value.asIterator(base);
+            c2.setCurrentIterator(iter);
+            int position = 0;
+            while (iter.next() != null) {
+                SequenceIterator keys = use.iterate(c2);
+                while (true) {
+                    AtomicValue key = (AtomicValue)keys.next();
+                    if (key == null) {
+                        break;
+                    }
+                    index.add(key, position);
+                }
+                position++;
+            }
+            indexes.put(use, index);
+        }
+        return index;
+    }
+
+    /**
+     * Get the n'th item in the sequence (starting from 0)
+     * @param n the position of the required item
+     * @return the n'th item, or null if n is out of range
+     */
+
+    /*@Nullable*/ public T itemAt(int n) {
+        return base.itemAt(n);
+    }
+
+    /**
+     * Get a subsequence of the value
+     * @param start  the index of the first item to be included in the result, counting from zero.
+     * @param length the number of items to be included in the result.
+     * @return the required subsequence (which is not itself indexed)
+     */
+
+    public GroundedValue<T> subsequence(int start, int length) {
+        return base.subsequence(start, length);
+    }
+
+    /**
+     * Get the number of items in the sequence
+     * @return the number of items
+     */
+
+    public int getLength() {
+        return base.getLength();
+    }
+
+    /**
+     * Get an iterator over the items in the sequence
+     * @return an iterator over the items
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public SequenceIterator<T> iterate() throws XPathException {
+        return Value.asIterator(base);
+    }
+
+    /**
+     * Get the static item type
+     * @param th the type hierarchy cache
+     * @return the most precise item type that is known
+     */
+
+    /*@NotNull*/
+    public ItemType getItemType(/*@Nullable*/ TypeHierarchy th) {
+        return Value.asValue(base).getItemType(th);
+    }
+
+    /**
+     * Determine the cardinality
+     * @return the cardinality of the sequence
+     */
+
+    public int getCardinality() {
+        return Value.asValue(base).getCardinality();
+    }
+
+    /**
+     * Get the effective boolean value
+     * @return the effective boolean value of the underlying sequence
+     * @throws XPathException if the effective boolean value is not defined
+     */
+
+    public boolean effectiveBooleanValue() throws XPathException {
+        return Value.asValue(base).effectiveBooleanValue();
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Saxonica Limited.
+// Portions created by ___ are Copyright (C) ___. All rights reserved.
+//
+// Contributor(s):
+//
@@ -17,6 +17,7 @@ import java.math.BigInteger;
  */
 
 public final class Int64Value extends IntegerValue {
+    private static final long serialVersionUID = 1L;
 
     private long value;
 
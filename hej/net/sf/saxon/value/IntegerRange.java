@@ -15,6 +15,7 @@ import net.sf.saxon.type.TypeHierarchy;
  */
 
 public class IntegerRange extends Value<IntegerValue> implements GroundedValue<IntegerValue> {
+    private static final long serialVersionUID = 1L;
 
     public long start;
     public long end;
@@ -19,6 +19,7 @@ import java.math.BigInteger;
  */
 
 public abstract class IntegerValue extends NumericValue {
+    private static final long serialVersionUID = 1L;
 
     Integer x;
 
@@ -59,6 +59,7 @@ import java.util.List;
  */
 
 public class MemoClosure<T extends Item> extends Closure<T> {
+    private static final long serialVersionUID = 1L;
 
     /*@Nullable*/ private T[] reservoir = null;
     private int used;
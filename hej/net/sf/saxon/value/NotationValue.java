@@ -12,6 +12,7 @@ import net.sf.saxon.type.BuiltInAtomicType;
  */
 
 public final class NotationValue extends QualifiedNameValue {
+    private static final long serialVersionUID = 1L;
 
    /**
     * Constructor
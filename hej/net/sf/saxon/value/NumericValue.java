@@ -14,6 +14,7 @@ import java.math.BigDecimal;
  */
 
 public abstract class NumericValue extends AtomicValue implements Comparable {
+    private static final long serialVersionUID = 1L;
 
     /**
      * Get a numeric value by parsing a string; the type of numeric value depends
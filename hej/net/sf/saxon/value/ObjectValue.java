@@ -13,6 +13,7 @@ import net.sf.saxon.type.*;
 */
 
 public class ObjectValue extends AtomicValue {
+    private static final long serialVersionUID = 1L;
 
     private Object value;
     /*@NotNull*/ private final static ExternalObjectType objectType = new ExternalObjectType(Object.class);
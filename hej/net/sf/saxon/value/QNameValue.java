@@ -15,6 +15,7 @@ import net.sf.saxon.type.BuiltInAtomicType;
  */
 
 public class QNameValue extends QualifiedNameValue {
+    private static final long serialVersionUID = 1L;
 
 
     /**
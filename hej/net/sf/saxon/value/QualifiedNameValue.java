@@ -20,6 +20,7 @@ import javax.xml.namespace.QName;
  */
 
 public abstract class QualifiedNameValue extends AtomicValue {
+    private static final long serialVersionUID = 1L;
 
     /*@NotNull*/ protected StructuredQName qName;
 
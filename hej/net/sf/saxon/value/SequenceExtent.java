@@ -25,6 +25,8 @@ import java.util.List;
  */
 
 public final class SequenceExtent<T extends Item> extends Value<T> implements GroundedValue<T> {
+    private static final long serialVersionUID = 1L;
+
     private T[] value;
     private int start = 0;  // zero-based offset of the start
     private int end;        // the 0-based index of the first item that is NOT included
@@ -24,6 +24,8 @@ import java.util.List;
  */
 
 public final class ShareableSequence extends Value {
+    private static final long serialVersionUID = 1L;
+
     private List list;
     private int end;        // the 0-based index of the first item that is NOT included
     /*@Nullable*/ private ItemType itemType = null;   // memoized
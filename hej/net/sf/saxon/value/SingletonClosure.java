@@ -26,6 +26,7 @@ import net.sf.saxon.tree.iter.SingletonIterator;
  */
 
 public class SingletonClosure extends Closure {
+    private static final long serialVersionUID = 1L;
 
     private boolean built = false;
     /*@Nullable*/ private Item value = null;
@@ -16,6 +16,7 @@ import net.sf.saxon.type.*;
 */
 
 public class SingletonItem<T extends Item> extends Value<T> implements GroundedValue<T> {
+    private static final long serialVersionUID = 1L;
 
     /*@Nullable*/ protected T item = null;
 
@@ -8,6 +8,9 @@ import net.sf.saxon.tree.util.FastStringBuffer;
 import net.sf.saxon.type.AtomicType;
 import net.sf.saxon.type.BuiltInAtomicType;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
 
 /**
  * An atomic value of type xs:string. This class is also used for types derived from xs:string.
@@ -15,6 +18,7 @@ import net.sf.saxon.type.BuiltInAtomicType;
  */
 
 public class StringValue extends AtomicValue {
+    private static final long serialVersionUID = 1L;
 
     /*@NotNull*/ public static final StringValue EMPTY_STRING = new StringValue("");
     /*@NotNull*/ public static final StringValue SINGLE_SPACE = new StringValue(" ");
@@ -27,6 +31,15 @@ public class StringValue extends AtomicValue {
     protected CharSequence value;     // may be zero-length, will never be null
     protected boolean noSurrogates = false;
 
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        // the value may be held in a CharSequence implementation that is not serializable, so a String
+        // is written in its place; the object itself is not changed
+        ObjectOutputStream.PutField fields = oos.putFields();
+        fields.put("value", value.toString());
+        fields.put("noSurrogates", noSurrogates);
+        oos.writeFields();
+    }
+
     /**
      * Protected constructor for use by subtypes
      */
@@ -21,6 +21,7 @@ import java.util.*;
  */
 
 public final class TimeValue extends CalendarValue implements Comparable {
+    private static final long serialVersionUID = 1L;
 
     private byte hour;
     private byte minute;
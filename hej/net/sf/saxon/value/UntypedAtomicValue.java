@@ -12,6 +12,7 @@ import net.sf.saxon.type.*;
 */
 
 public class UntypedAtomicValue extends StringValue {
+    private static final long serialVersionUID = 1L;
 
     /*@NotNull*/ public static final UntypedAtomicValue ZERO_LENGTH_UNTYPED =
             new UntypedAtomicValue("");
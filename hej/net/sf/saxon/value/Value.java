@@ -16,13 +16,16 @@ import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.SchemaType;
 import net.sf.saxon.type.TypeHierarchy;
 
+import java.io.Serializable;
+
 /**
 * A value is the result of an expression but it is also an expression in its own right.
 * Note that every value can be regarded as a sequence - in many cases, a sequence of
 * length one.
 */
 
-public abstract class Value<T extends Item> implements ValueRepresentation<T> {
+public abstract class Value<T extends Item> implements ValueRepresentation<T>, Serializable {
+    private static final long serialVersionUID = 1L;
 
     /**
      * Static method to make a Value from a given Item (which may be either an AtomicValue
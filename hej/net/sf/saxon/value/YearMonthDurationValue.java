@@ -16,6 +16,7 @@ import java.math.BigDecimal;
  */
 
 public final class YearMonthDurationValue extends DurationValue implements Comparable {
+    private static final long serialVersionUID = 1L;
 
     /**
      * Private constructor for internal use